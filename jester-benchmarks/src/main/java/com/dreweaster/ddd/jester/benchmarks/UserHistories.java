@@ -0,0 +1,30 @@
+package com.dreweaster.ddd.jester.benchmarks;
+
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.PasswordChanged;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserEvent;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserRegistered;
+import io.vavr.collection.List;
+
+/**
+ * Builds example User histories of a given length for benchmarks to replay, deduplicate against and handle commands on.
+ */
+public final class UserHistories {
+
+    private UserHistories() {
+
+    }
+
+    /**
+     * @return a registration followed by password changes, which leave the user able to handle further commands
+     */
+    public static List<UserEvent> events(int historyLength) {
+        if (historyLength < 1) {
+            throw new IllegalArgumentException("historyLength must be at least 1");
+        }
+        List<UserEvent> passwordChanges = List.range(1, historyLength).map(i -> PasswordChanged.builder()
+                .password("password" + i)
+                .oldPassword("password" + (i - 1))
+                .create());
+        return passwordChanges.prepend(UserRegistered.builder().username("joebloggs").password("password0").create());
+    }
+}
@@ -0,0 +1,46 @@
+package com.dreweaster.ddd.jester.benchmarks.domain;
+
+import com.dreweaster.ddd.jester.benchmarks.UserHistories;
+import com.dreweaster.ddd.jester.domain.Behaviour;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.UserState;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.commands.UserCommand;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserEvent;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rehydrates a User by replaying its history through Behaviour.handleEvent, as the repository does before applying
+ * each command.
+ *
+ * Run with: java -jar jester-benchmarks/target/benchmarks.jar ReplayBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReplayBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int historyLength;
+
+    private List<UserEvent> events;
+
+    @Setup
+    public void setUp() {
+        events = UserHistories.events(historyLength);
+    }
+
+    @Benchmark
+    public UserState replay() {
+        Behaviour<UserCommand, UserEvent, UserState> behaviour = new User().initialBehaviour();
+        for (UserEvent event : events) {
+            behaviour = behaviour.handleEvent(event);
+        }
+        return behaviour.state();
+    }
+}
@@ -0,0 +1,110 @@
+package com.dreweaster.ddd.jester.benchmarks.eventstore.postgres;
+
+import com.dreweaster.ddd.jester.domain.DomainModel;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User;
+import com.dreweaster.ddd.jester.example.infrastructure.ExampleModule;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres.PayloadCompression;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres.Postgres95EventStore;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres.Postgres95EventStoreSettings;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.flywaydb.core.Flyway;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The local Postgres database the event store benchmarks run against, configured by the system properties
+ * jester.benchmarks.postgres.url, jester.benchmarks.postgres.username and jester.benchmarks.postgres.password, which
+ * default to the database ExampleModule uses.
+ *
+ * The benchmarks only touch their own schema, jester_benchmarks, which is cleaned and migrated with the jester-example
+ * migrations for each trial, so results don't depend on what earlier runs left behind.
+ */
+final class BenchmarkDatabase {
+
+    static final String URL_PROPERTY = "jester.benchmarks.postgres.url";
+
+    static final String USERNAME_PROPERTY = "jester.benchmarks.postgres.username";
+
+    static final String PASSWORD_PROPERTY = "jester.benchmarks.postgres.password";
+
+    private static final String SCHEMA = "jester_benchmarks";
+
+    // Enough connections and executor threads that the most concurrent benchmark never queues for either
+    static final int MAX_CONNECTIONS = 16;
+
+    private HikariDataSource dataSource;
+
+    private ExecutorService executorService;
+
+    private BenchmarkDatabase(HikariDataSource dataSource, ExecutorService executorService) {
+        this.dataSource = dataSource;
+        this.executorService = executorService;
+    }
+
+    /**
+     * @return the database with an empty, fully migrated jester_benchmarks schema
+     */
+    static BenchmarkDatabase migrated() {
+        String url = System.getProperty(URL_PROPERTY, "jdbc:postgresql://localhost/postgres");
+        String username = System.getProperty(USERNAME_PROPERTY, "postgres");
+        String password = System.getProperty(PASSWORD_PROPERTY, "password");
+
+        Flyway flyway = new Flyway();
+        flyway.setDataSource(url, username, password);
+        flyway.setSchemas(SCHEMA);
+        flyway.clean();
+        flyway.migrate();
+
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url + (url.contains("?") ? "&" : "?") + "currentSchema=" + SCHEMA);
+        config.setUsername(username);
+        config.setPassword(password);
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.setAutoCommit(false);
+        config.setMaximumPoolSize(MAX_CONNECTIONS);
+
+        return new BenchmarkDatabase(new HikariDataSource(config), Executors.newFixedThreadPool(MAX_CONNECTIONS));
+    }
+
+    /**
+     * @param variant default, singleStatementWrites, uniqueSequenceNumberCheck or lz4BinaryPayloads, so that write path
+     *                changes can be compared
+     */
+    Postgres95EventStore eventStore(String variant) {
+        return eventStore(settings(variant));
+    }
+
+    @SuppressWarnings("unchecked")
+    Postgres95EventStore eventStore(Postgres95EventStoreSettings settings) {
+        return new Postgres95EventStore(
+                dataSource,
+                executorService,
+                ExampleModule.createPayloadMapper(),
+                DomainModel.of(User.TYPE),
+                settings);
+    }
+
+    void close() {
+        executorService.shutdownNow();
+        dataSource.close();
+    }
+
+    private static Postgres95EventStoreSettings settings(String variant) {
+        switch (variant) {
+            case "default":
+                return Postgres95EventStoreSettings.defaults();
+            case "singleStatementWrites":
+                return Postgres95EventStoreSettings.defaults().withSingleStatementWrites();
+            case "uniqueSequenceNumberCheck":
+                return Postgres95EventStoreSettings.defaults().withUniqueSequenceNumberCheck();
+            case "lz4BinaryPayloads":
+                return Postgres95EventStoreSettings.defaults().withBinaryPayloads(PayloadCompression.lz4(256));
+            default:
+                throw new IllegalArgumentException("Unknown event store variant: " + variant);
+        }
+    }
+}
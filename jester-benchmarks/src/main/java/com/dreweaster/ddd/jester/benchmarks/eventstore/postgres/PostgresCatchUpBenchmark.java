@@ -0,0 +1,79 @@
+package com.dreweaster.ddd.jester.benchmarks.eventstore.postgres;
+
+import com.dreweaster.ddd.jester.application.eventstore.StreamEvent;
+import com.dreweaster.ddd.jester.benchmarks.UserHistories;
+import com.dreweaster.ddd.jester.domain.AggregateId;
+import com.dreweaster.ddd.jester.domain.CausationId;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserEvent;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres.Postgres95EventStore;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres.Postgres95EventStoreSettings;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the whole user-event tag stream from a Postgres95EventStore, as a read model catching up from the start would.
+ * Throughput is reported in events per second.
+ *
+ * pageEventStream reads it with successive loadEventStream calls of batchSize events, each a separate query;
+ * catchUpEventStream reads it through a single cursor, fetching batchSize rows at a time.
+ *
+ * Requires a local Postgres, see {@link BenchmarkDatabase}. Run with:
+ * java -cp jester-benchmarks/target/benchmarks.jar com.dreweaster.ddd.jester.benchmarks.eventstore.postgres.PostgresEventStoreBenchmarks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PostgresCatchUpBenchmark {
+
+    private static final int AGGREGATES = 100;
+
+    private static final int EVENTS_PER_AGGREGATE = 100;
+
+    private static final int EVENTS = AGGREGATES * EVENTS_PER_AGGREGATE;
+
+    @Param({"100", "1000"})
+    public int batchSize;
+
+    private BenchmarkDatabase database;
+
+    private Postgres95EventStore eventStore;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.migrated();
+        eventStore = database.eventStore(Postgres95EventStoreSettings.defaults().withCatchUpFetchSize(batchSize));
+        List<UserEvent> history = UserHistories.events(EVENTS_PER_AGGREGATE);
+        for (int i = 0; i < AGGREGATES; i++) {
+            eventStore.saveEvents(User.TYPE, AggregateId.of("aggregate-id-" + i), CausationId.of("causation-id-" + i), history, -1L).get();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public void pageEventStream(Blackhole blackhole) {
+        long offset = -1L;
+        List<StreamEvent> batch;
+        while (!(batch = eventStore.loadEventStream(UserEvent.TAG, offset, batchSize).get()).isEmpty()) {
+            batch.forEach(blackhole::consume);
+            offset = batch.last().offset();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public Long catchUpEventStream(Blackhole blackhole) {
+        return eventStore.catchUpEventStream(UserEvent.TAG, -1L, blackhole::consume).get();
+    }
+}
@@ -0,0 +1,53 @@
+package com.dreweaster.ddd.jester.benchmarks.eventstore.postgres;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the Postgres event store benchmarks and writes their results as JSON, to postgres-eventstore-[timestamp].json
+ * unless another file is given with -rff, so that runs before and after a schema or write path change can be compared.
+ *
+ * Takes the same arguments as the JMH runner, e.g. -p batchSize=10 to narrow a run. The jester.benchmarks.postgres
+ * system properties are passed on to the forked benchmark JVMs.
+ *
+ * Run with: java -cp jester-benchmarks/target/benchmarks.jar com.dreweaster.ddd.jester.benchmarks.eventstore.postgres.PostgresEventStoreBenchmarks
+ */
+public class PostgresEventStoreBenchmarks {
+
+    private static final String[] FORWARDED_PROPERTIES = {
+            BenchmarkDatabase.URL_PROPERTY,
+            BenchmarkDatabase.USERNAME_PROPERTY,
+            BenchmarkDatabase.PASSWORD_PROPERTY
+    };
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+
+        ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(commandLineOptions)
+                .include(PostgresEventStoreBenchmarks.class.getPackage().getName() + ".Postgres.*Benchmark")
+                .resultFormat(ResultFormatType.JSON);
+
+        if (!commandLineOptions.getResult().hasValue()) {
+            options.result("postgres-eventstore-" + LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")) + ".json");
+        }
+
+        List<String> forwardedProperties = new ArrayList<>();
+        for (String property : FORWARDED_PROPERTIES) {
+            if (System.getProperty(property) != null) {
+                forwardedProperties.add("-D" + property + "=" + System.getProperty(property));
+            }
+        }
+        options.jvmArgsAppend(forwardedProperties.toArray(new String[forwardedProperties.size()]));
+
+        new Runner(options.build()).run();
+    }
+}
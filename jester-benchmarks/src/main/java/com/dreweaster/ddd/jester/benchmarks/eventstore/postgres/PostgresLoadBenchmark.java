@@ -0,0 +1,71 @@
+package com.dreweaster.ddd.jester.benchmarks.eventstore.postgres;
+
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
+import com.dreweaster.ddd.jester.benchmarks.UserHistories;
+import com.dreweaster.ddd.jester.domain.AggregateId;
+import com.dreweaster.ddd.jester.domain.CausationId;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserEvent;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres.Postgres95EventStore;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the full history of an aggregate from a Postgres95EventStore, as the repository does before handling each
+ * command. Latencies are sampled, so the results include percentiles as well as the mean.
+ *
+ * Loads cycle through a number of aggregates so that consecutive loads don't read exactly the same rows.
+ *
+ * Requires a local Postgres, see {@link BenchmarkDatabase}. Run with:
+ * java -cp jester-benchmarks/target/benchmarks.jar com.dreweaster.ddd.jester.benchmarks.eventstore.postgres.PostgresEventStoreBenchmarks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PostgresLoadBenchmark {
+
+    private static final int AGGREGATES = 10;
+
+    @Param({"default", "lz4BinaryPayloads"})
+    public String variant;
+
+    @Param({"1", "10", "100", "1000"})
+    public int historyLength;
+
+    private BenchmarkDatabase database;
+
+    private Postgres95EventStore eventStore;
+
+    private AggregateId[] aggregateIds;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        database = BenchmarkDatabase.migrated();
+        eventStore = database.eventStore(variant);
+        List<UserEvent> history = UserHistories.events(historyLength);
+        aggregateIds = new AggregateId[AGGREGATES];
+        for (int i = 0; i < AGGREGATES; i++) {
+            aggregateIds[i] = AggregateId.of("aggregate-id-" + i);
+            eventStore.saveEvents(User.TYPE, aggregateIds[i], CausationId.of("causation-id-" + i), history, -1L).get();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.close();
+    }
+
+    @Benchmark
+    public List<PersistedEvent<User, UserEvent>> loadEvents() {
+        AggregateId aggregateId = aggregateIds[next];
+        next = (next + 1) % AGGREGATES;
+        return eventStore.loadEvents(User.TYPE, aggregateId).get();
+    }
+}
@@ -0,0 +1,112 @@
+package com.dreweaster.ddd.jester.benchmarks.eventstore.postgres;
+
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
+import com.dreweaster.ddd.jester.domain.AggregateId;
+import com.dreweaster.ddd.jester.domain.CausationId;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.PasswordChanged;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserEvent;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres.Postgres95EventStore;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves batches of events to a Postgres95EventStore, each thread appending to its own aggregate so that saves only
+ * contend for connections and the database, never on sequence numbers.
+ *
+ * Throughput is reported in saves per second; the events counter gives events per second. Compare batch sizes to see
+ * the per-save overhead, and the thread counts to see how far saves scale before the database becomes the limit.
+ *
+ * Requires a local Postgres, see {@link BenchmarkDatabase}. Run with:
+ * java -cp jester-benchmarks/target/benchmarks.jar com.dreweaster.ddd.jester.benchmarks.eventstore.postgres.PostgresEventStoreBenchmarks
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class PostgresSaveBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class EventStore {
+
+        @Param({"default", "singleStatementWrites", "uniqueSequenceNumberCheck", "lz4BinaryPayloads"})
+        public String variant;
+
+        @Param({"1", "10", "100"})
+        public int batchSize;
+
+        BenchmarkDatabase database;
+
+        Postgres95EventStore eventStore;
+
+        List<UserEvent> batch;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            database = BenchmarkDatabase.migrated();
+            eventStore = database.eventStore(variant);
+            batch = List.range(0, batchSize).map(i -> PasswordChanged.builder()
+                    .password("password" + (i + 1))
+                    .oldPassword("password" + i)
+                    .create());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            database.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Aggregate {
+
+        // Counted by JMH as a secondary result, in events per second
+        public long events;
+
+        AggregateId aggregateId = AggregateId.of(UUID.randomUUID().toString());
+
+        CausationId causationId = CausationId.of(UUID.randomUUID().toString());
+
+        long lastSequenceNumber = -1;
+
+        @Setup(Level.Iteration)
+        public void resetCounters() {
+            events = 0;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<PersistedEvent<User, UserEvent>> save(EventStore eventStore, Aggregate aggregate) {
+        return saveBatch(eventStore, aggregate);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<PersistedEvent<User, UserEvent>> saveWith4Threads(EventStore eventStore, Aggregate aggregate) {
+        return saveBatch(eventStore, aggregate);
+    }
+
+    @Benchmark
+    @Threads(BenchmarkDatabase.MAX_CONNECTIONS)
+    public List<PersistedEvent<User, UserEvent>> saveWith16Threads(EventStore eventStore, Aggregate aggregate) {
+        return saveBatch(eventStore, aggregate);
+    }
+
+    private List<PersistedEvent<User, UserEvent>> saveBatch(EventStore eventStore, Aggregate aggregate) {
+        List<PersistedEvent<User, UserEvent>> saved = eventStore.eventStore.saveEvents(
+                User.TYPE,
+                aggregate.aggregateId,
+                aggregate.causationId,
+                eventStore.batch,
+                aggregate.lastSequenceNumber).get();
+        aggregate.lastSequenceNumber += eventStore.batchSize;
+        aggregate.events += eventStore.batchSize;
+        return saved;
+    }
+}
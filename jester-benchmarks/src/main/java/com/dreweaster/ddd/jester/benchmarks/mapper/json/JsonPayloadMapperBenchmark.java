@@ -0,0 +1,198 @@
+package com.dreweaster.ddd.jester.benchmarks.mapper.json;
+
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.UserState;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.PasswordChanged;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserRegistered;
+import com.dreweaster.ddd.jester.example.infrastructure.serialisation.PasswordChangedEventMappingConfigurer;
+import com.dreweaster.ddd.jester.example.infrastructure.serialisation.UserRegisteredEventMappingConfigurer;
+import com.dreweaster.ddd.jester.example.infrastructure.serialisation.UserStateSerialiser;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfiguration;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfigurationFactory;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfigurer;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonPayloadMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures JsonPayloadMapper with the example module's configurers: serialising events and state, and deserialising
+ * events written at the current version and at versions 1, 5 and 20 migrations behind it.
+ *
+ * Migrated payloads are PasswordChanged events, mapped by a configurer with a chain of CHAIN_LENGTH migrations. One step
+ * in four is a migrateClassName and the rest are migrateFormat steps renaming the event's fields, ending at the
+ * example's current format.
+ *
+ * Run with: java -jar jester-benchmarks/target/benchmarks.jar JsonPayloadMapperBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonPayloadMapperBenchmark {
+
+    private static final int CHAIN_LENGTH = 20;
+
+    @State(Scope.Benchmark)
+    public static class Mapper {
+
+        ObjectMapper objectMapper;
+
+        MigratingPasswordChangedMappingConfigurer passwordChangedConfigurer;
+
+        PayloadMapper payloadMapper;
+
+        UserRegistered userRegistered;
+
+        PasswordChanged passwordChanged;
+
+        UserState userState;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            objectMapper = new ObjectMapper();
+            passwordChangedConfigurer = new MigratingPasswordChangedMappingConfigurer(CHAIN_LENGTH);
+            payloadMapper = new JsonPayloadMapper(
+                    objectMapper,
+                    List.of(new UserRegisteredEventMappingConfigurer(), passwordChangedConfigurer),
+                    List.of(new UserStateSerialiser()));
+            userRegistered = UserRegistered.builder().username("joebloggs").password("password").create();
+            passwordChanged = PasswordChanged.builder().password("new-password").oldPassword("password").create();
+            userState = UserState.builder().username("joebloggs").password("password").failedLoginAttempts(2).create();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class MigratedPayload extends Mapper {
+
+        @Param({"0", "1", "5", "20"})
+        public int migrations;
+
+        byte[] payload;
+
+        String className;
+
+        int version;
+
+        @Setup(Level.Trial)
+        public void setUpPayload() throws JsonProcessingException {
+            if (migrations < 0 || migrations > CHAIN_LENGTH) {
+                throw new IllegalArgumentException("migrations must be between 0 and " + CHAIN_LENGTH);
+            }
+            version = CHAIN_LENGTH + 1 - migrations;
+            className = passwordChangedConfigurer.className(version);
+            payload = objectMapper.writeValueAsBytes(passwordChangedConfigurer.payload(passwordChanged, version, objectMapper.createObjectNode()));
+        }
+    }
+
+    @Benchmark
+    public PayloadMapper.PayloadSerialisationResult serialiseEvent(Mapper mapper) {
+        return mapper.payloadMapper.serialiseEvent(mapper.passwordChanged);
+    }
+
+    @Benchmark
+    public PayloadMapper.PayloadSerialisationResult serialiseStreamingEvent(Mapper mapper) {
+        return mapper.payloadMapper.serialiseEvent(mapper.userRegistered);
+    }
+
+    @Benchmark
+    public PasswordChanged deserialiseEvent(MigratedPayload payload) {
+        return payload.payloadMapper.deserialiseEvent(payload.payload, payload.className, payload.version);
+    }
+
+    @Benchmark
+    public PayloadMapper.PayloadSerialisationResult serialiseState(Mapper mapper) {
+        return mapper.payloadMapper.serialiseState(mapper.userState);
+    }
+
+    /**
+     * Maps PasswordChanged with the example's mapping functions, as if its format and class name had been migrated
+     * over a chain of the given number of steps. Version 1 is the oldest and version steps + 1 is the current one.
+     */
+    public static class MigratingPasswordChangedMappingConfigurer implements JsonEventMappingConfigurer<PasswordChanged> {
+
+        private static final String LEGACY_CLASS_NAME = "com.dreweaster.ddd.jester.example.legacy.PasswordChanged";
+
+        private PasswordChangedEventMappingConfigurer currentConfigurer = new PasswordChangedEventMappingConfigurer();
+
+        private int steps;
+
+        private int currentGeneration;
+
+        MigratingPasswordChangedMappingConfigurer(int steps) {
+            this.steps = steps;
+            this.currentGeneration = formatGeneration(steps + 1);
+        }
+
+        @Override
+        public void configure(JsonEventMappingConfigurationFactory<PasswordChanged> configurationFactory) {
+            JsonEventMappingConfiguration<PasswordChanged> configuration = configurationFactory.create(className(1));
+            for (int version = 1; version <= steps; version++) {
+                if (isClassNameMigration(version)) {
+                    configuration = configuration.migrateClassName(className(version + 1));
+                } else {
+                    int generation = formatGeneration(version);
+                    String[] fromFieldNames = fieldNames(generation);
+                    String[] toFieldNames = fieldNames(generation + 1);
+                    configuration = configuration.migrateFormat(root -> renameFields(root, fromFieldNames, toFieldNames));
+                }
+            }
+            configuration.mappingFunctions(currentConfigurer::serialise, currentConfigurer::deserialise);
+        }
+
+        String className(int version) {
+            int classNameMigrations = 0;
+            int classNameMigrationsBefore = 0;
+            for (int step = 1; step <= steps; step++) {
+                if (isClassNameMigration(step)) {
+                    classNameMigrations++;
+                    if (step < version) {
+                        classNameMigrationsBefore++;
+                    }
+                }
+            }
+            return classNameMigrationsBefore == classNameMigrations
+                    ? PasswordChanged.class.getName()
+                    : LEGACY_CLASS_NAME + classNameMigrationsBefore;
+        }
+
+        JsonNode payload(PasswordChanged event, int version, ObjectNode root) {
+            return renameFields(currentConfigurer.serialise(event, root), fieldNames(currentGeneration), fieldNames(formatGeneration(version)));
+        }
+
+        private boolean isClassNameMigration(int step) {
+            // Not the last step, so that reading one migration behind the current version still migrates the format
+            return step % 4 == 2;
+        }
+
+        private int formatGeneration(int version) {
+            int generation = 0;
+            for (int step = 1; step < version; step++) {
+                if (!isClassNameMigration(step)) {
+                    generation++;
+                }
+            }
+            return generation;
+        }
+
+        private String[] fieldNames(int generation) {
+            return generation == currentGeneration
+                    ? new String[] {"old_password", "password"}
+                    : new String[] {"old_password_" + generation, "password_" + generation};
+        }
+
+        private JsonNode renameFields(JsonNode root, String[] fromFieldNames, String[] toFieldNames) {
+            ObjectNode migrated = ((ObjectNode) root).objectNode();
+            for (int i = 0; i < fromFieldNames.length; i++) {
+                migrated.set(toFieldNames[i], root.get(fromFieldNames[i]));
+            }
+            return migrated;
+        }
+    }
+}
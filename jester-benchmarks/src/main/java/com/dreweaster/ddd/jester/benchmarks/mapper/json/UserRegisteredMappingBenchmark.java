@@ -0,0 +1,91 @@
+package com.dreweaster.ddd.jester.benchmarks.mapper.json;
+
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserRegistered;
+import com.dreweaster.ddd.jester.example.infrastructure.serialisation.UserRegisteredEventMappingConfigurer;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfigurationFactory;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfigurer;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonPayloadMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the streaming mapping functions of the example UserRegistered mapping with the equivalent tree based ones.
+ *
+ * Run with: java -jar jester-benchmarks/target/benchmarks.jar UserRegisteredMappingBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UserRegisteredMappingBenchmark {
+
+    private PayloadMapper streamingMapper;
+
+    private PayloadMapper treeMapper;
+
+    private UserRegistered event;
+
+    private String payload;
+
+    @Setup
+    public void setUp() {
+        streamingMapper = new JsonPayloadMapper(new ObjectMapper(), List.of(new UserRegisteredEventMappingConfigurer()), List.empty());
+        treeMapper = new JsonPayloadMapper(new ObjectMapper(), List.of(new TreeUserRegisteredEventMappingConfigurer()), List.empty());
+        event = UserRegistered.builder().username("joebloggs").password("password").create();
+        payload = streamingMapper.serialiseEvent(event).payload();
+    }
+
+    @Benchmark
+    public PayloadMapper.PayloadSerialisationResult serialiseStreaming() {
+        return streamingMapper.serialiseEvent(event);
+    }
+
+    @Benchmark
+    public PayloadMapper.PayloadSerialisationResult serialiseTree() {
+        return treeMapper.serialiseEvent(event);
+    }
+
+    @Benchmark
+    public UserRegistered deserialiseStreaming() {
+        return streamingMapper.deserialiseEvent(payload, UserRegistered.class.getName(), 1);
+    }
+
+    @Benchmark
+    public UserRegistered deserialiseTree() {
+        return treeMapper.deserialiseEvent(payload, UserRegistered.class.getName(), 1);
+    }
+
+    /**
+     * The tree based mapping UserRegisteredEventMappingConfigurer used before it moved to streaming mapping functions.
+     */
+    public static class TreeUserRegisteredEventMappingConfigurer implements JsonEventMappingConfigurer<UserRegistered> {
+
+        @Override
+        public void configure(JsonEventMappingConfigurationFactory<UserRegistered> configurationFactory) {
+            configurationFactory
+                    .create(UserRegistered.class.getName())
+                    .mappingFunctions(this::serialise, this::deserialise);
+        }
+
+        private JsonNode serialise(UserRegistered event, ObjectNode root) {
+            root.put("username", event.username());
+            root.put("password", event.password());
+            return root;
+        }
+
+        private UserRegistered deserialise(JsonNode root) {
+            return UserRegistered.builder()
+                    .username(root.get("username").asText())
+                    .password(root.get("password").asText())
+                    .create();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.dreweaster.ddd.jester.benchmarks.repository;
+
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
+import com.dreweaster.ddd.jester.application.repository.CommandDeduplicationStrategy;
+import com.dreweaster.ddd.jester.application.repository.CommandDeduplicationStrategyBuilder;
+import com.dreweaster.ddd.jester.application.repository.CommandDeduplicationStrategyFactory;
+import com.dreweaster.ddd.jester.application.repository.TwentyFourHourWindowCommandDeduplicationStrategyFactory;
+import com.dreweaster.ddd.jester.benchmarks.UserHistories;
+import com.dreweaster.ddd.jester.domain.AggregateId;
+import com.dreweaster.ddd.jester.domain.CausationId;
+import com.dreweaster.ddd.jester.domain.CommandId;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserEvent;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.inmemory.InMemoryEventStore;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the default deduplication strategy from an aggregate's history, as the repository does before applying each
+ * command, and checks a new command id against it.
+ *
+ * Run with: java -jar jester-benchmarks/target/benchmarks.jar CommandDeduplicationBenchmark -prof gc
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDeduplicationBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    public int historyLength;
+
+    private CommandDeduplicationStrategyFactory strategyFactory;
+
+    private List<PersistedEvent<User, UserEvent>> persistedEvents;
+
+    private CommandId commandId;
+
+    @Setup
+    public void setUp() {
+        strategyFactory = new TwentyFourHourWindowCommandDeduplicationStrategyFactory();
+        persistedEvents = new InMemoryEventStore().saveEvents(
+                User.TYPE,
+                AggregateId.of("some-aggregate-id"),
+                CausationId.of("some-causation-id"),
+                UserHistories.events(historyLength),
+                -1L).get();
+        commandId = CommandId.of("some-other-command-id");
+    }
+
+    @Benchmark
+    public CommandDeduplicationStrategy build() {
+        CommandDeduplicationStrategyBuilder builder = strategyFactory.newBuilder();
+        for (PersistedEvent<User, UserEvent> event : persistedEvents) {
+            builder = builder.addEvent(event);
+        }
+        return builder.build();
+    }
+
+    @Benchmark
+    public boolean buildAndCheck() {
+        return build().isDuplicate(commandId);
+    }
+}
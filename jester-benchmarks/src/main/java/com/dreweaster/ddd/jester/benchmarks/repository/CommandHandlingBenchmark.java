@@ -0,0 +1,131 @@
+package com.dreweaster.ddd.jester.benchmarks.repository;
+
+import com.dreweaster.ddd.jester.application.repository.TwentyFourHourWindowCommandDeduplicationStrategyFactory;
+import com.dreweaster.ddd.jester.benchmarks.UserHistories;
+import com.dreweaster.ddd.jester.domain.AggregateId;
+import com.dreweaster.ddd.jester.domain.AggregateRepository.CommandEnvelope;
+import com.dreweaster.ddd.jester.domain.AggregateRepository.CommandHandlingResult;
+import com.dreweaster.ddd.jester.domain.CausationId;
+import com.dreweaster.ddd.jester.domain.CommandId;
+import com.dreweaster.ddd.jester.example.application.repository.CommandDeduplicatingEventsourcedUserRepository;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.commands.ChangePassword;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.commands.RegisterUser;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.commands.UserCommand;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserEvent;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.inmemory.InMemoryEventStore;
+import io.vavr.collection.List;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles commands through CommandDeduplicatingEventsourcedAggregateRepository against an InMemoryEventStore, so
+ * covers loading the history, building the deduplication strategy, replaying and, for accepted commands, persisting.
+ *
+ * Accepted commands grow the history, so each invocation of handleAccepted handles one command on each of a batch of
+ * aggregates and they are all reseeded before the next invocation. Reseeding isn't timed, but its allocations are
+ * counted by the GC profiler; the reseed benchmark measures them alone so they can be taken off.
+ *
+ * Run with: java -jar jester-benchmarks/target/benchmarks.jar CommandHandlingBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandHandlingBenchmark {
+
+    private static final int AGGREGATES = 100;
+
+    private static final CommandId SEEDED_COMMAND_ID = CommandId.of("seeded-command-id");
+
+    @State(Scope.Thread)
+    public static class Repository {
+
+        @Param({"1", "10", "100", "1000"})
+        public int historyLength;
+
+        InMemoryEventStore eventStore;
+
+        CommandDeduplicatingEventsourcedUserRepository repository;
+
+        List<UserEvent> history;
+
+        AggregateId[] aggregateIds;
+
+        CommandEnvelope<UserCommand>[] changePasswordCommands;
+
+        CommandEnvelope<UserCommand> registerUserCommand;
+
+        CommandEnvelope<UserCommand> duplicateCommand;
+
+        @Setup(Level.Trial)
+        @SuppressWarnings("unchecked")
+        public void setUp() {
+            eventStore = new InMemoryEventStore();
+            repository = new CommandDeduplicatingEventsourcedUserRepository(eventStore, new TwentyFourHourWindowCommandDeduplicationStrategyFactory());
+            history = UserHistories.events(historyLength);
+            aggregateIds = new AggregateId[AGGREGATES];
+            changePasswordCommands = new CommandEnvelope[AGGREGATES];
+            for (int i = 0; i < AGGREGATES; i++) {
+                aggregateIds[i] = AggregateId.of("aggregate-id-" + i);
+                changePasswordCommands[i] = CommandEnvelope.of(
+                        CommandId.of("command-id-" + i),
+                        ChangePassword.builder().password("new-password").create());
+            }
+            registerUserCommand = CommandEnvelope.of(
+                    CommandId.of("register-command-id"),
+                    RegisterUser.builder().username("joebloggs").password("password").create());
+            duplicateCommand = CommandEnvelope.of(
+                    SEEDED_COMMAND_ID,
+                    ChangePassword.builder().password("new-password").create());
+            seed();
+        }
+
+        void seed() {
+            eventStore.clear();
+            for (AggregateId aggregateId : aggregateIds) {
+                eventStore.saveEvents(User.TYPE, aggregateId, CausationId.of(SEEDED_COMMAND_ID.get()), history, -1L).get();
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ReseededRepository extends Repository {
+
+        @Setup(Level.Invocation)
+        public void reseed() {
+            seed();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(AGGREGATES)
+    public void handleAccepted(ReseededRepository state, Blackhole blackhole) {
+        for (int i = 0; i < AGGREGATES; i++) {
+            blackhole.consume(handle(state, state.aggregateIds[i], state.changePasswordCommands[i]));
+        }
+    }
+
+    @Benchmark
+    public CommandHandlingResult<UserCommand, UserEvent> handleRejected(Repository state) {
+        return handle(state, state.aggregateIds[0], state.registerUserCommand);
+    }
+
+    @Benchmark
+    public CommandHandlingResult<UserCommand, UserEvent> handleDuplicate(Repository state) {
+        return handle(state, state.aggregateIds[0], state.duplicateCommand);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(AGGREGATES)
+    public void reseed(Repository state) {
+        state.seed();
+    }
+
+    private CommandHandlingResult<UserCommand, UserEvent> handle(Repository state, AggregateId aggregateId, CommandEnvelope<UserCommand> command) {
+        return state.repository.aggregateRootOf(aggregateId).handle(command).get();
+    }
+}
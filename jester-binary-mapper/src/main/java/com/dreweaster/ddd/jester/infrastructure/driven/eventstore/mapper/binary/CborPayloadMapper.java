@@ -0,0 +1,45 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.binary;
+
+import com.dreweaster.ddd.jester.application.eventstore.SerialisationContentType;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfigurer;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonPayloadMapper;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.StatePayloadJsonDeserialiser;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.StatePayloadJsonSerialiser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.vavr.collection.List;
+
+/**
+ * Maps events to CBOR, using the same configurers (and so the same migrations) as JSON. Payloads written as JSON can
+ * still be read, so existing events don't need converting.
+ */
+public class CborPayloadMapper extends JsonPayloadMapper {
+
+    public CborPayloadMapper(
+            List<JsonEventMappingConfigurer<?>> eventMappers,
+            List<StatePayloadJsonSerialiser<?,?>> stateSerialisers) {
+        this(new ObjectMapper(new CBORFactory()), eventMappers, stateSerialisers);
+    }
+
+    /**
+     * @param objectMapper an ObjectMapper created with a CBORFactory
+     */
+    public CborPayloadMapper(
+            ObjectMapper objectMapper,
+            List<JsonEventMappingConfigurer<?>> eventMappers,
+            List<StatePayloadJsonSerialiser<?,?>> stateSerialisers) {
+        this(objectMapper, eventMappers, stateSerialisers, List.empty());
+    }
+
+    /**
+     * @param objectMapper an ObjectMapper created with a CBORFactory
+     * @param stateDeserialisers deserialisers for state that should be read back, e.g. for snapshots
+     */
+    public CborPayloadMapper(
+            ObjectMapper objectMapper,
+            List<JsonEventMappingConfigurer<?>> eventMappers,
+            List<StatePayloadJsonSerialiser<?,?>> stateSerialisers,
+            List<StatePayloadJsonDeserialiser<?,?>> stateDeserialisers) {
+        super(objectMapper, SerialisationContentType.CBOR, eventMappers, stateSerialisers, stateDeserialisers);
+    }
+}
@@ -0,0 +1,45 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.binary;
+
+import com.dreweaster.ddd.jester.application.eventstore.SerialisationContentType;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfigurer;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonPayloadMapper;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.StatePayloadJsonDeserialiser;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.StatePayloadJsonSerialiser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.vavr.collection.List;
+
+/**
+ * Maps events to Jackson's Smile format, using the same configurers (and so the same migrations) as JSON. Payloads
+ * written as JSON can still be read, so existing events don't need converting.
+ */
+public class SmilePayloadMapper extends JsonPayloadMapper {
+
+    public SmilePayloadMapper(
+            List<JsonEventMappingConfigurer<?>> eventMappers,
+            List<StatePayloadJsonSerialiser<?,?>> stateSerialisers) {
+        this(new ObjectMapper(new SmileFactory()), eventMappers, stateSerialisers);
+    }
+
+    /**
+     * @param objectMapper an ObjectMapper created with a SmileFactory
+     */
+    public SmilePayloadMapper(
+            ObjectMapper objectMapper,
+            List<JsonEventMappingConfigurer<?>> eventMappers,
+            List<StatePayloadJsonSerialiser<?,?>> stateSerialisers) {
+        this(objectMapper, eventMappers, stateSerialisers, List.empty());
+    }
+
+    /**
+     * @param objectMapper an ObjectMapper created with a SmileFactory
+     * @param stateDeserialisers deserialisers for state that should be read back, e.g. for snapshots
+     */
+    public SmilePayloadMapper(
+            ObjectMapper objectMapper,
+            List<JsonEventMappingConfigurer<?>> eventMappers,
+            List<StatePayloadJsonSerialiser<?,?>> stateSerialisers,
+            List<StatePayloadJsonDeserialiser<?,?>> stateDeserialisers) {
+        super(objectMapper, SerialisationContentType.SMILE, eventMappers, stateSerialisers, stateDeserialisers);
+    }
+}
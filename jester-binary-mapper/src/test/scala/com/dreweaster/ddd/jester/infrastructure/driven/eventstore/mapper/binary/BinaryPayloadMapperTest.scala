@@ -0,0 +1,107 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.binary
+
+import com.dreweaster.ddd.jester.application.eventstore.SerialisationContentType
+import com.dreweaster.ddd.jester.domain.{DomainEvent, DomainEventTag}
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.{JsonEventMappingConfigurationFactory, JsonEventMappingConfigurer, StatePayloadJsonSerialiser}
+import com.fasterxml.jackson.databind.node.ObjectNode
+import com.fasterxml.jackson.databind.{JsonNode, ObjectMapper}
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+class BinaryPayloadMapperTest extends FeatureSpec with GivenWhenThen with Matchers {
+
+  val objectMapper = new ObjectMapper()
+
+  val configurers: io.vavr.collection.List[JsonEventMappingConfigurer[_]] = io.vavr.collection.List.empty().append(
+    new PersonRenamedMappingConfigurer
+  )
+
+  val stateSerialisers: io.vavr.collection.List[StatePayloadJsonSerialiser[_,_]] = io.vavr.collection.List.empty()
+
+  val event = new PersonRenamed("joe", "bloggs")
+
+  feature("A SmilePayloadMapper maps events to Smile") {
+
+    val payloadMapper = new SmilePayloadMapper(configurers, stateSerialisers)
+
+    scenario("Serialise an event and read it back") {
+      When("serialising an event")
+      val result = payloadMapper.serialiseEvent(event)
+
+      Then("the payload should be Smile, and smaller than the equivalent JSON")
+      result.contentType() should be(SerialisationContentType.SMILE)
+      result.version().get() should be(2)
+      result.payloadBytes().length should be < objectMapper.writeValueAsBytes(objectMapper.createObjectNode().put("forename", "joe").put("surname", "bloggs")).length
+
+      And("the payload should deserialise back into the event")
+      val deserialised = payloadMapper.deserialiseEvent(result.payloadBytes(), SerialisationContentType.SMILE, classOf[PersonRenamed].getName, 2).asInstanceOf[PersonRenamed]
+      deserialised.forename should be("joe")
+      deserialised.surname should be("bloggs")
+    }
+
+    scenario("Read an old version of an event that was written as JSON") {
+      Given("a version 1 JSON payload")
+      val payload = objectMapper.createObjectNode().put("name", "joe bloggs").toString.getBytes("UTF-8")
+
+      When("deserialising the payload as JSON")
+      val deserialised = payloadMapper.deserialiseEvent(payload, SerialisationContentType.JSON, classOf[PersonRenamed].getName, 1).asInstanceOf[PersonRenamed]
+
+      Then("the event should be migrated to the latest version")
+      deserialised.forename should be("joe")
+      deserialised.surname should be("bloggs")
+    }
+  }
+
+  feature("A CborPayloadMapper maps events to CBOR") {
+
+    val payloadMapper = new CborPayloadMapper(configurers, stateSerialisers)
+
+    scenario("Serialise an event and read it back") {
+      When("serialising an event")
+      val result = payloadMapper.serialiseEvent(event)
+
+      Then("the payload should be CBOR")
+      result.contentType() should be(SerialisationContentType.CBOR)
+
+      And("the payload should deserialise back into the event")
+      val deserialised = payloadMapper.deserialiseEvent(result.payloadBytes(), SerialisationContentType.CBOR, classOf[PersonRenamed].getName, 2).asInstanceOf[PersonRenamed]
+      deserialised.forename should be("joe")
+      deserialised.surname should be("bloggs")
+    }
+  }
+}
+
+class PersonRenamed(val forename: String, val surname: String) extends DomainEvent {
+  override def tag(): DomainEventTag = DomainEventTag.of("person-event")
+}
+
+class PersonRenamedMappingConfigurer extends JsonEventMappingConfigurer[PersonRenamed] {
+
+  def configure(configurationFactory: JsonEventMappingConfigurationFactory[PersonRenamed]) {
+    configurationFactory.create(classOf[PersonRenamed].getName)
+      .migrateFormat(migrateVersion1ToVersion2)
+      .mappingFunctions(serialise, deserialise)
+  }
+
+  val serialise: io.vavr.Function2[PersonRenamed, ObjectNode, JsonNode] =
+    new io.vavr.Function2[PersonRenamed, ObjectNode, JsonNode] {
+      override def apply(event: PersonRenamed, root: ObjectNode): JsonNode = {
+        root
+          .put("forename", event.forename)
+          .put("surname", event.surname)
+      }
+    }
+
+  val deserialise: io.vavr.Function1[JsonNode, PersonRenamed] = new io.vavr.Function1[JsonNode, PersonRenamed] {
+    override def apply(root: JsonNode): PersonRenamed =
+      new PersonRenamed(root.get("forename").asText, root.get("surname").asText)
+  }
+
+  val migrateVersion1ToVersion2: io.vavr.Function1[JsonNode, JsonNode] = new io.vavr.Function1[JsonNode, JsonNode] {
+    override def apply(node: JsonNode): JsonNode = {
+      val names = node.get("name").asText().split(" ")
+      node.asInstanceOf[ObjectNode].removeAll()
+        .put("forename", names(0))
+        .put("surname", names(1))
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package com.dreweaster.ddd.jester.application.eventstore;
+
+import com.dreweaster.ddd.jester.domain.DomainEvent;
+import io.vavr.Tuple2;
+import io.vavr.control.Option;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Resolves the class of a stored event from its stored type name and version, for PersistedEvent.eventType(), without
+ * deserialising the event. The class is the one the PayloadMapper migrates the event to, so it is the same class
+ * rawEvent() returns, and is looked up once per stored type name and version.
+ */
+public class EventTypeResolver {
+
+    private PayloadMapper payloadMapper;
+
+    private ConcurrentHashMap<Tuple2<String, Integer>, Class<?>> eventTypes = new ConcurrentHashMap<>();
+
+    public EventTypeResolver(PayloadMapper payloadMapper) {
+        this.payloadMapper = payloadMapper;
+    }
+
+    /**
+     * @param rawEvent the deserialised event, only asked for if the PayloadMapper can't name a class that is loadable
+     */
+    @SuppressWarnings("unchecked")
+    public <E extends DomainEvent> Class<E> eventType(String serialisedEventType, Integer serialisedEventVersion, Supplier<E> rawEvent) {
+        Tuple2<String, Integer> key = new Tuple2<>(serialisedEventType, serialisedEventVersion);
+
+        Class<?> eventType = eventTypes.get(key);
+        if (eventType == null) {
+            eventType = resolve(serialisedEventType, serialisedEventVersion).getOrElse(() -> rawEvent.get().getClass());
+            eventTypes.putIfAbsent(key, eventType);
+        }
+        return (Class<E>) eventType;
+    }
+
+    private Option<Class<?>> resolve(String serialisedEventType, Integer serialisedEventVersion) {
+        return payloadMapper.currentEventType(serialisedEventType, serialisedEventVersion).flatMap(currentEventType -> {
+            try {
+                return Option.of(Class.forName(currentEventType._1));
+            } catch (ClassNotFoundException ex) {
+                return Option.none();
+            }
+        });
+    }
+}
@@ -2,8 +2,11 @@ package com.dreweaster.ddd.jester.application.eventstore;
 
 import com.dreweaster.ddd.jester.domain.Aggregate;
 import com.dreweaster.ddd.jester.domain.DomainEvent;
+import io.vavr.Tuple2;
 import io.vavr.control.Option;
 
+import java.nio.charset.StandardCharsets;
+
 public interface PayloadMapper {
 
     class PayloadSerialisationResult {
@@ -16,8 +19,21 @@ public interface PayloadMapper {
             return new PayloadSerialisationResult(payload, contentType, Option.none());
         }
 
+        /**
+         * @param payload the payload, UTF-8 encoded where the content type is textual
+         */
+        public static PayloadSerialisationResult of(byte[] payload, SerialisationContentType contentType, Integer version) {
+            return new PayloadSerialisationResult(payload, contentType, Option.of(version));
+        }
+
+        public static PayloadSerialisationResult of(byte[] payload, SerialisationContentType contentType) {
+            return new PayloadSerialisationResult(payload, contentType, Option.none());
+        }
+
         private String payload;
 
+        private byte[] payloadBytes;
+
         private Option<Integer> version;
 
         private SerialisationContentType contentType;
@@ -28,10 +44,35 @@ public interface PayloadMapper {
             this.contentType = contentType;
         }
 
+        private PayloadSerialisationResult(byte[] payloadBytes, SerialisationContentType contentType, Option<Integer> version) {
+            this.payloadBytes = payloadBytes;
+            this.version = version;
+            this.contentType = contentType;
+        }
+
+        /**
+         * Decodes the payload if it was produced as bytes. Prefer payloadBytes() when writing to a byte oriented store.
+         *
+         * @throws IllegalStateException if the content type is not textual, as binary payloads can't be held as a String
+         */
         public String payload() {
+            contentType.requireTextual();
+            if (payload == null) {
+                payload = new String(payloadBytes, StandardCharsets.UTF_8);
+            }
             return payload;
         }
 
+        /**
+         * Encodes the payload if it was produced as a String.
+         */
+        public byte[] payloadBytes() {
+            if (payloadBytes == null) {
+                payloadBytes = payload.getBytes(StandardCharsets.UTF_8);
+            }
+            return payloadBytes;
+        }
+
         public Option<Integer> version() {
             return version;
         }
@@ -57,7 +98,55 @@ public interface PayloadMapper {
             String serialisedEventType,
             Integer serialisedEventVersion);
 
+    /**
+     * Mappers that can read bytes directly should override this, which otherwise decodes the payload to a String.
+     *
+     * @param serialisedPayload the payload, UTF-8 encoded where the content type is textual
+     */
+    default <T extends DomainEvent> T deserialiseEvent(
+            byte[] serialisedPayload,
+            String serialisedEventType,
+            Integer serialisedEventVersion) {
+        return deserialiseEvent(new String(serialisedPayload, StandardCharsets.UTF_8), serialisedEventType, serialisedEventVersion);
+    }
+
+    /**
+     * Mappers that can read more than one content type should override this, which otherwise assumes the payload is
+     * of whichever content type the mapper produces.
+     */
+    default <T extends DomainEvent> T deserialiseEvent(
+            byte[] serialisedPayload,
+            SerialisationContentType contentType,
+            String serialisedEventType,
+            Integer serialisedEventVersion) {
+        return deserialiseEvent(serialisedPayload, serialisedEventType, serialisedEventVersion);
+    }
+
     <T extends DomainEvent> PayloadSerialisationResult serialiseEvent(T event);
 
+    /**
+     * Mappers that migrate events should override this, which otherwise assumes every event is read back as the type
+     * and version it was stored with.
+     *
+     * @return the class name and version of the event that deserialiseEvent would read back, without deserialising
+     *         it, or none if the mapper can't read events stored with that type and version
+     */
+    default Option<Tuple2<String, Integer>> currentEventType(String serialisedEventType, Integer serialisedEventVersion) {
+        return Option.of(new Tuple2<>(serialisedEventType, serialisedEventVersion));
+    }
+
     <A extends Aggregate<?, ?, State>, State> PayloadSerialisationResult serialiseState(State state);
+
+    /**
+     * Mappers that can read state back should override this, which otherwise fails with a MappingException.
+     *
+     * @param serialisedStateType the class name of the state when it was serialised
+     * @param serialisedStateVersion the version from the result of serialiseState
+     */
+    default <A extends Aggregate<?, ?, State>, State> State deserialiseState(
+            String serialisedState,
+            String serialisedStateType,
+            Integer serialisedStateVersion) {
+        throw new MappingException("State cannot be deserialised by " + getClass().getName());
+    }
 }
@@ -30,4 +30,11 @@ public interface PersistedEvent<A extends Aggregate<?, E, ?>, E extends DomainEv
     Instant timestamp();
 
     Long sequenceNumber();
+
+    /**
+     * @return the size in bytes of the event's serialised payload, if the event store serialises events and still has it
+     */
+    default Option<Integer> payloadSize() {
+        return Option.none();
+    }
 }
@@ -4,15 +4,61 @@ package com.dreweaster.ddd.jester.application.eventstore;
  */
 public enum SerialisationContentType {
 
-    JSON("application/json");
+    JSON("application/json", true),
+
+    SMILE("application/x-jackson-smile", false),
+
+    CBOR("application/cbor", false);
+
+    public static class UnknownContentTypeException extends RuntimeException {
+
+        public UnknownContentTypeException(String value) {
+            super("Unknown serialisation content type: " + value);
+        }
+    }
+
+    /**
+     * @param value a value previously returned by value(), or null for payloads stored before content types were
+     *              recorded, which are always JSON
+     */
+    public static SerialisationContentType fromValue(String value) {
+        if (value == null) {
+            return JSON;
+        }
+        for (SerialisationContentType contentType : values()) {
+            if (contentType.value.equals(value)) {
+                return contentType;
+            }
+        }
+        throw new UnknownContentTypeException(value);
+    }
 
     private String value;
 
-    SerialisationContentType(String value) {
+    private boolean textual;
+
+    SerialisationContentType(String value, boolean textual) {
         this.value = value;
+        this.textual = textual;
     }
 
-    String value() {
+    public String value() {
         return value;
     }
+
+    /**
+     * @return whether payloads of this type are UTF-8 text, and so can be held as a String
+     */
+    public boolean isTextual() {
+        return textual;
+    }
+
+    /**
+     * @throws IllegalStateException if payloads of this type are not textual, and so must be read as bytes
+     */
+    public void requireTextual() {
+        if (!textual) {
+            throw new IllegalStateException(value + " payloads are binary, so can only be read as bytes, e.g. with payloadBytes() or serialisedPayloadBuffer()");
+        }
+    }
 }
@@ -2,6 +2,8 @@ package com.dreweaster.ddd.jester.application.eventstore;
 
 import io.vavr.control.Option;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
@@ -28,7 +30,20 @@ public interface StreamEvent {
 
     Long sequenceNumber();
 
+    /**
+     * @throws IllegalStateException if the payload content type is not textual, in which case use serialisedPayloadBuffer()
+     */
     String serialisedPayload();
 
+    /**
+     * Stores that hold payloads as bytes should override this, which otherwise encodes serialisedPayload() and so
+     * only works for textual content types.
+     *
+     * @return the payload, UTF-8 encoded where the content type is textual
+     */
+    default ByteBuffer serialisedPayloadBuffer() {
+        return ByteBuffer.wrap(serialisedPayload().getBytes(StandardCharsets.UTF_8));
+    }
+
     SerialisationContentType payloadContentType();
 }
@@ -0,0 +1,12 @@
+package com.dreweaster.ddd.jester.application.eventstore.monitoring;
+
+public enum EventStoreOperation {
+
+    LOAD_EVENTS,
+
+    SAVE_EVENTS,
+
+    SAVE_EVENTS_AND_STATE,
+
+    LOAD_EVENT_STREAM
+}
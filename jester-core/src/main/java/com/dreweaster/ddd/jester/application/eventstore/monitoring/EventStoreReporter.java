@@ -0,0 +1,59 @@
+package com.dreweaster.ddd.jester.application.eventstore.monitoring;
+
+/**
+ * Receives measurements of event store operations. InstrumentedEventStore reports how each operation went as seen by
+ * its caller, and event stores that support reporters report what happened inside them, such as time spent queued on
+ * their executor or waiting for a connection. Reporters only need to override the measurements they're interested in.
+ *
+ * Measurements are reported on whichever thread made them, so implementations must be thread safe.
+ */
+public interface EventStoreReporter {
+
+    /**
+     * @param nanos the time from the operation being called to its future completing
+     */
+    default void operationCompleted(EventStoreOperation operation, long nanos, int events) {
+
+    }
+
+    default void operationFailed(EventStoreOperation operation, long nanos, Throwable failure) {
+
+    }
+
+    /**
+     * @param batchSize the number of events being saved, or the most events asked for from a stream
+     */
+    default void batchSize(EventStoreOperation operation, int batchSize) {
+
+    }
+
+    /**
+     * @param lagMillis how long ago the last event returned from a stream was written, or 0 if none were returned
+     */
+    default void streamLag(EventStoreOperation operation, long lagMillis) {
+
+    }
+
+    /**
+     * @param nanos the time between the operation being submitted to the event store's executor and starting to run
+     */
+    default void executorQueueTime(EventStoreOperation operation, long nanos) {
+
+    }
+
+    /**
+     * @param nanos the time spent waiting for a connection from the pool
+     */
+    default void connectionWaitTime(EventStoreOperation operation, long nanos) {
+
+    }
+
+    /**
+     * @param nanos the time taken to run a successful query and read or write its rows, including the commit
+     * @param rows the number of event rows read or written
+     * @param payloadBytes the size of the payloads of those rows
+     */
+    default void queryExecuted(EventStoreOperation operation, long nanos, int rows, long payloadBytes) {
+
+    }
+}
@@ -0,0 +1,157 @@
+package com.dreweaster.ddd.jester.application.eventstore.monitoring;
+
+import com.dreweaster.ddd.jester.application.eventstore.EventStore;
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
+import com.dreweaster.ddd.jester.application.eventstore.StreamEvent;
+import com.dreweaster.ddd.jester.domain.*;
+import io.vavr.collection.List;
+import io.vavr.concurrent.Future;
+
+import java.time.Instant;
+
+/**
+ * Reports the latency, outcome and batch size of each operation on the event store it wraps, and how far behind the
+ * head of the stream each batch of stream events is. Outcomes are reported before the returned future completes.
+ *
+ * These are measured from the caller's side, so they work with any event store. To see where within the event store
+ * the time went, also add the reporters to the event store itself if it supports them (e.g. Postgres95EventStore).
+ */
+public class InstrumentedEventStore implements EventStore {
+
+    private EventStore eventStore;
+
+    private volatile List<EventStoreReporter> reporters = List.empty();
+
+    public InstrumentedEventStore(EventStore eventStore) {
+        this.eventStore = eventStore;
+    }
+
+    public synchronized void addReporter(EventStoreReporter reporter) {
+        reporters = reporters.append(reporter);
+    }
+
+    public synchronized void removeReporter(EventStoreReporter reporter) {
+        reporters = reporters.remove(reporter);
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId) {
+        long startedAt = System.nanoTime();
+        return report(EventStoreOperation.LOAD_EVENTS, startedAt, eventStore.loadEvents(aggregateType, aggregateId));
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            Long afterSequenceNumber) {
+        long startedAt = System.nanoTime();
+        return report(EventStoreOperation.LOAD_EVENTS, startedAt, eventStore.loadEvents(aggregateType, aggregateId, afterSequenceNumber));
+    }
+
+    @Override
+    public <E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(
+            DomainEventTag tag,
+            Long afterOffset,
+            Integer batchSize) {
+        long startedAt = System.nanoTime();
+        reportBatchSize(EventStoreOperation.LOAD_EVENT_STREAM, batchSize);
+        return reportStream(startedAt, eventStore.loadEventStream(tag, afterOffset, batchSize));
+    }
+
+    @Override
+    public <E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(
+            DomainEventTag tag,
+            Instant afterInstant,
+            Integer batchSize) {
+        long startedAt = System.nanoTime();
+        reportBatchSize(EventStoreOperation.LOAD_EVENT_STREAM, batchSize);
+        return reportStream(startedAt, eventStore.loadEventStream(tag, afterInstant, batchSize));
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            List<E> rawEvents,
+            Long expectedSequenceNumber) {
+        long startedAt = System.nanoTime();
+        reportBatchSize(EventStoreOperation.SAVE_EVENTS, rawEvents.size());
+        return report(EventStoreOperation.SAVE_EVENTS, startedAt, eventStore.saveEvents(
+                aggregateType, aggregateId, causationId, rawEvents, expectedSequenceNumber));
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEventsAndState(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            List<E> rawEvents,
+            State state,
+            Long expectedSequenceNumber) {
+        long startedAt = System.nanoTime();
+        reportBatchSize(EventStoreOperation.SAVE_EVENTS_AND_STATE, rawEvents.size());
+        return report(EventStoreOperation.SAVE_EVENTS_AND_STATE, startedAt, eventStore.saveEventsAndState(
+                aggregateType, aggregateId, causationId, rawEvents, state, expectedSequenceNumber));
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            CorrelationId correlationId,
+            List<E> rawEvents,
+            Long expectedSequenceNumber) {
+        long startedAt = System.nanoTime();
+        reportBatchSize(EventStoreOperation.SAVE_EVENTS, rawEvents.size());
+        return report(EventStoreOperation.SAVE_EVENTS, startedAt, eventStore.saveEvents(
+                aggregateType, aggregateId, causationId, correlationId, rawEvents, expectedSequenceNumber));
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEventsAndState(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            CorrelationId correlationId,
+            List<E> rawEvents,
+            State state,
+            Long expectedSequenceNumber) {
+        long startedAt = System.nanoTime();
+        reportBatchSize(EventStoreOperation.SAVE_EVENTS_AND_STATE, rawEvents.size());
+        return report(EventStoreOperation.SAVE_EVENTS_AND_STATE, startedAt, eventStore.saveEventsAndState(
+                aggregateType, aggregateId, causationId, correlationId, rawEvents, state, expectedSequenceNumber));
+    }
+
+    private void reportBatchSize(EventStoreOperation operation, int batchSize) {
+        for (EventStoreReporter reporter : reporters) {
+            reporter.batchSize(operation, batchSize);
+        }
+    }
+
+    private <T extends List<?>> Future<T> report(EventStoreOperation operation, long startedAt, Future<T> result) {
+        return result.andThen(events -> {
+            long nanos = System.nanoTime() - startedAt;
+            for (EventStoreReporter reporter : reporters) {
+                if (events.isSuccess()) {
+                    reporter.operationCompleted(operation, nanos, events.get().size());
+                } else {
+                    reporter.operationFailed(operation, nanos, events.getCause());
+                }
+            }
+        });
+    }
+
+    private Future<List<StreamEvent>> reportStream(long startedAt, Future<List<StreamEvent>> result) {
+        return report(EventStoreOperation.LOAD_EVENT_STREAM, startedAt, result).andThen(events -> events.forEach(streamEvents -> {
+            long lagMillis = streamEvents.isEmpty() ? 0 : Math.max(0, System.currentTimeMillis() - streamEvents.last().timestamp().toEpochMilli());
+            for (EventStoreReporter reporter : reporters) {
+                reporter.streamLag(EventStoreOperation.LOAD_EVENT_STREAM, lagMillis);
+            }
+        }));
+    }
+}
@@ -7,7 +7,6 @@ import com.dreweaster.ddd.jester.application.repository.monitoring.CommandHandli
 import com.dreweaster.ddd.jester.domain.*;
 
 import io.vavr.Tuple2;
-import io.vavr.Tuple3;
 import io.vavr.collection.List;
 import io.vavr.concurrent.Future;
 import io.vavr.concurrent.Promise;
@@ -112,19 +111,20 @@ public abstract class CommandDeduplicatingEventsourcedAggregateRepository<A exte
                 .flatMap(previousEvents -> {
                     reportingContext.finishedLoadingEvents(previousEvents);
                     reportingContext.startedApplyingCommand();
-                    Tuple3<Long, List<E>, CommandDeduplicationStrategyBuilder> tuple = previousEvents.foldLeft(
-                            new Tuple3<Long, List<E>, CommandDeduplicationStrategyBuilder>(
-                                    -1L, List.empty(), commandDeduplicationStrategyFactory.newBuilder()), (acc, e) ->
-                                    new Tuple3<>(e.sequenceNumber(), acc._2.append(e.rawEvent()), acc._3.addEvent(e)));
+                    // Deduplication only needs event metadata, so raw events aren't asked for until the command is applied
+                    Tuple2<Long, CommandDeduplicationStrategyBuilder> tuple = previousEvents.foldLeft(
+                            new Tuple2<Long, CommandDeduplicationStrategyBuilder>(
+                                    -1L, commandDeduplicationStrategyFactory.newBuilder()), (acc, e) ->
+                                    new Tuple2<>(e.sequenceNumber(), acc._2.addEvent(e)));
 
-                    CommandDeduplicationStrategy deduplicationStrategy = tuple._3.build();
-
-                    AggregateRootRef<A, C, E, State> aggregateRootRef = new AggregateRootRef<>(
-                            aggregateType,
-                            wrapper.aggregateId(),
-                            tuple._2);
+                    CommandDeduplicationStrategy deduplicationStrategy = tuple._2.build();
 
                     if (!deduplicationStrategy.isDuplicate(wrapper.commandEnvelope.commandId())) {
+                        AggregateRootRef<A, C, E, State> aggregateRootRef = new AggregateRootRef<>(
+                                aggregateType,
+                                wrapper.aggregateId(),
+                                previousEvents.map(PersistedEvent::rawEvent));
+
                         Long expectedSequenceNumber = tuple._1;
 
                         return handleAndPersist(wrapper, aggregateRootRef, expectedSequenceNumber, reportingContext).map(maybePersistedEvents -> {
@@ -183,6 +183,9 @@ public abstract class CommandDeduplicatingEventsourcedAggregateRepository<A exte
                                     maybeGeneratedEventsAndState.get()._2,
                                     expectedSequenceNumber).recoverWith( e -> {
                                         reportingContext.finishedPersistingEvents(e);
+                                        if(e instanceof EventStore.OptimisticConcurrencyException) {
+                                            reportingContext.concurrentModificationDetected(generatedEventsAndState._1, expectedSequenceNumber);
+                                        }
                                         return Future.failed(e);
                                     });
                         }));
@@ -206,6 +209,9 @@ public abstract class CommandDeduplicatingEventsourcedAggregateRepository<A exte
                                     maybeGeneratedEventsAndState.get()._2,
                                     expectedSequenceNumber).recoverWith( e -> {
                                         reportingContext.finishedPersistingEvents(e);
+                                        if(e instanceof EventStore.OptimisticConcurrencyException) {
+                                            reportingContext.concurrentModificationDetected(generatedEventsAndState._1, expectedSequenceNumber);
+                                        }
                                         return Future.failed(e);
                                     });
                         }));
@@ -341,80 +347,121 @@ public abstract class CommandDeduplicatingEventsourcedAggregateRepository<A exte
 
     private class ReportingContext implements CommandHandlingProbe<A,C,E,State> {
 
-        private List<CommandHandlingProbe<A,C,E,State>> probes;
+        // An array rather than a List so that reporting to each probe doesn't allocate
+        private CommandHandlingProbe<A,C,E,State>[] probes;
 
+        @SuppressWarnings("unchecked")
         ReportingContext(AggregateId aggregateId, List<AggregateRepositoryReporter> reporters) {
-            probes = reporters.map(reporter -> reporter.createProbe(aggregateType, aggregateId));
+            probes = new CommandHandlingProbe[reporters.size()];
+            int index = 0;
+            for (AggregateRepositoryReporter reporter : reporters) {
+                probes[index++] = reporter.createProbe(aggregateType, aggregateId);
+            }
         }
 
         @Override
         public void startedHandling(CommandEnvelope<C> command) {
-            probes.forEach(probe -> probe.startedHandling(command));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.startedHandling(command);
+            }
         }
 
         @Override
         public void startedLoadingEvents() {
-            probes.forEach(CommandHandlingProbe::startedLoadingEvents);
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.startedLoadingEvents();
+            }
         }
 
         @Override
         public void finishedLoadingEvents(List<PersistedEvent<A,E>> events) {
-            probes.forEach(probe -> probe.finishedLoadingEvents(events));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.finishedLoadingEvents(events);
+            }
         }
 
         @Override
         public void finishedLoadingEvents(Throwable unexpectedException) {
-            probes.forEach(probe -> probe.finishedLoadingEvents(unexpectedException));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.finishedLoadingEvents(unexpectedException);
+            }
         }
 
         @Override
         public void startedApplyingCommand() {
-            probes.forEach(CommandHandlingProbe::startedApplyingCommand);
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.startedApplyingCommand();
+            }
         }
 
         @Override
         public void commandApplicationAccepted(List<? super E> events, boolean deduplicated) {
-            probes.forEach(probe -> probe.commandApplicationAccepted(events, deduplicated));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.commandApplicationAccepted(events, deduplicated);
+            }
         }
 
         @Override
         public void commandApplicationRejected(Throwable rejection, boolean deduplicated) {
-            probes.forEach(probe -> probe.commandApplicationRejected(rejection, deduplicated));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.commandApplicationRejected(rejection, deduplicated);
+            }
         }
 
         @Override
         public void commandApplicationFailed(Throwable unexpectedException) {
-            probes.forEach(probe -> probe.commandApplicationFailed(unexpectedException));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.commandApplicationFailed(unexpectedException);
+            }
         }
 
         @Override
         public void startedPersistingEvents(List<? super E> events, long expectedSequenceNumber) {
-            probes.forEach(probe -> probe.startedPersistingEvents(events, expectedSequenceNumber));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.startedPersistingEvents(events, expectedSequenceNumber);
+            }
         }
 
         @Override
         public void startedPersistingEvents(List<? super E> events, State state, long expectedSequenceNumber) {
-            probes.forEach(probe -> probe.startedPersistingEvents(events, state, expectedSequenceNumber));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.startedPersistingEvents(events, state, expectedSequenceNumber);
+            }
         }
 
         @Override
         public void finishedPersistingEvents(List<PersistedEvent<A, E>> persistedEvents) {
-            probes.forEach(probe -> probe.finishedPersistingEvents(persistedEvents));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.finishedPersistingEvents(persistedEvents);
+            }
         }
 
         @Override
         public void finishedPersistingEvents(Throwable unexpectedException) {
-            probes.forEach(probe -> probe.finishedPersistingEvents(unexpectedException));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.finishedPersistingEvents(unexpectedException);
+            }
+        }
+
+        @Override
+        public void concurrentModificationDetected(List<? super E> discardedEvents, long expectedSequenceNumber) {
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.concurrentModificationDetected(discardedEvents, expectedSequenceNumber);
+            }
         }
 
         @Override
         public void finishedHandling(CommandHandlingResult<C, E> result) {
-            probes.forEach(probe -> probe.finishedHandling(result));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.finishedHandling(result);
+            }
         }
 
         @Override
         public void finishedHandling(Throwable unexpectedException) {
-            probes.forEach(probe -> probe.finishedHandling(unexpectedException));
+            for (CommandHandlingProbe<A,C,E,State> probe : probes) {
+                probe.finishedHandling(unexpectedException);
+            }
         }
     }
 }
@@ -34,6 +34,20 @@ public interface CommandHandlingProbe<A extends Aggregate<C, E, State>, C extend
 
     void finishedPersistingEvents(Throwable unexpectedException);
 
+    /**
+     * Called after finishedPersistingEvents when the events couldn't be persisted because another command was persisted
+     * against the aggregate first, and before finishedHandling reports the ConcurrentModificationResult. Everything
+     * done to handle the command so far, including loading the previous events and generating these, was wasted.
+     *
+     * This has a default so that probes which aren't interested in contention needn't implement it.
+     *
+     * @param discardedEvents the events the command generated, which weren't persisted
+     * @param expectedSequenceNumber the sequence number the aggregate was expected to be at
+     */
+    default void concurrentModificationDetected(List<? super E> discardedEvents, long expectedSequenceNumber) {
+
+    }
+
     void finishedHandling(CommandHandlingResult<C,E> result);
 
     void finishedHandling(Throwable unexpectedException);
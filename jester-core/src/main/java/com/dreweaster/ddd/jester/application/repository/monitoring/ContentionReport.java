@@ -0,0 +1,181 @@
+package com.dreweaster.ddd.jester.application.repository.monitoring;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+
+import java.time.Duration;
+
+/**
+ * A point in time view of what a ContentionReporter has seen: for each aggregate type and command class, how often
+ * commands hit a concurrent modification, how much work each conflict wasted and how many retries it took commands to
+ * get through.
+ */
+public class ContentionReport {
+
+    private List<CommandContention> commandContention;
+
+    ContentionReport(List<CommandContention> commandContention) {
+        this.commandContention = commandContention;
+    }
+
+    /**
+     * @return the contention of every aggregate type and command class seen, most conflicts first
+     */
+    public List<CommandContention> commandContention() {
+        return commandContention;
+    }
+
+    /**
+     * @return the contention of each command class seen for the aggregate type, most conflicts first
+     */
+    public List<CommandContention> commandContention(String aggregateType) {
+        return commandContention.filter(contention -> contention.aggregateType().equals(aggregateType));
+    }
+
+    public Option<CommandContention> commandContention(String aggregateType, Class<?> commandType) {
+        return commandContention.find(contention ->
+                contention.aggregateType().equals(aggregateType) && contention.commandType().equals(commandType));
+    }
+
+    @Override
+    public String toString() {
+        return "ContentionReport{" +
+                "commandContention=" + commandContention +
+                '}';
+    }
+
+    public static class CommandContention {
+
+        private String aggregateType;
+
+        private Class<?> commandType;
+
+        private long commands;
+
+        private long conflicts;
+
+        private long wastedEventsLoaded;
+
+        private long wastedEventsGenerated;
+
+        private long wastedNanos;
+
+        private long maxWastedNanos;
+
+        private List<Long> retryChainHistogram;
+
+        CommandContention(
+                String aggregateType,
+                Class<?> commandType,
+                long commands,
+                long conflicts,
+                long wastedEventsLoaded,
+                long wastedEventsGenerated,
+                long wastedNanos,
+                long maxWastedNanos,
+                List<Long> retryChainHistogram) {
+            this.aggregateType = aggregateType;
+            this.commandType = commandType;
+            this.commands = commands;
+            this.conflicts = conflicts;
+            this.wastedEventsLoaded = wastedEventsLoaded;
+            this.wastedEventsGenerated = wastedEventsGenerated;
+            this.wastedNanos = wastedNanos;
+            this.maxWastedNanos = maxWastedNanos;
+            this.retryChainHistogram = retryChainHistogram;
+        }
+
+        public String aggregateType() {
+            return aggregateType;
+        }
+
+        public Class<?> commandType() {
+            return commandType;
+        }
+
+        /**
+         * @return the number of commands handled, counting each retry of a command separately
+         */
+        public long commands() {
+            return commands;
+        }
+
+        /**
+         * @return the number of commands that ended in a concurrent modification
+         */
+        public long conflicts() {
+            return conflicts;
+        }
+
+        public double conflictRate() {
+            return commands == 0 ? 0 : (double) conflicts / commands;
+        }
+
+        /**
+         * @return the total number of events loaded to handle commands that then conflicted
+         */
+        public long wastedEventsLoaded() {
+            return wastedEventsLoaded;
+        }
+
+        /**
+         * @return the total number of events generated by commands that then conflicted
+         */
+        public long wastedEventsGenerated() {
+            return wastedEventsGenerated;
+        }
+
+        public double meanWastedEventsLoaded() {
+            return conflicts == 0 ? 0 : (double) wastedEventsLoaded / conflicts;
+        }
+
+        /**
+         * @return the total time from starting to handle a command to finding it had conflicted
+         */
+        public Duration wastedTime() {
+            return Duration.ofNanos(wastedNanos);
+        }
+
+        public Duration maxWastedTime() {
+            return Duration.ofNanos(maxWastedNanos);
+        }
+
+        public Duration meanWastedTime() {
+            return conflicts == 0 ? Duration.ZERO : Duration.ofNanos(wastedNanos / conflicts);
+        }
+
+        /**
+         * Element n is the number of commands that got through after conflicting n times, the last element also counting
+         * any longer chains. A command's retries are recognised by their command id, so only commands that are retried
+         * with the same command id are counted as chains.
+         *
+         * @return the number of commands by the length of their retry chain, up to the longest chain seen
+         */
+        public List<Long> retryChainHistogram() {
+            return retryChainHistogram;
+        }
+
+        /**
+         * @return the number of commands that got through after conflicting at least once
+         */
+        public long retriedCommands() {
+            return retryChainHistogram.isEmpty() ? 0 : retryChainHistogram.tail().sum().longValue();
+        }
+
+        @Override
+        public String toString() {
+            return "CommandContention{" +
+                    "aggregateType='" + aggregateType + '\'' +
+                    ", commandType=" + commandType.getSimpleName() +
+                    ", commands=" + commands +
+                    ", conflicts=" + conflicts +
+                    ", conflictRate=" + conflictRate() +
+                    ", meanWastedEventsLoaded=" + meanWastedEventsLoaded() +
+                    ", wastedEventsGenerated=" + wastedEventsGenerated +
+                    ", meanWastedTime=" + meanWastedTime() +
+                    ", maxWastedTime=" + maxWastedTime() +
+                    ", retryChainHistogram=" + retryChainHistogram +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,238 @@
+package com.dreweaster.ddd.jester.application.repository.monitoring;
+
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
+import com.dreweaster.ddd.jester.application.repository.monitoring.ContentionReport.CommandContention;
+import com.dreweaster.ddd.jester.domain.*;
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds where commands contend for the same aggregates, to show whether single-writer routing or mailboxes would pay
+ * off. For each aggregate type and command class it records how often commands hit a concurrent modification, the work
+ * each conflict wasted (the events loaded and generated, and the time from starting to handle the command to finding
+ * it had conflicted) and how many times commands had to be retried before they got through.
+ *
+ * A retry is recognised by its command id, so the command ids of conflicted commands are remembered until they're
+ * handled again. Only the most recent of them are remembered, so memory use stays bounded if commands are abandoned.
+ */
+public class ContentionReporter implements AggregateRepositoryReporter {
+
+    private static final int RETRY_CHAIN_BUCKETS = 16;
+
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private ConcurrentHashMap<Tuple2<String, Class<?>>, ContentionRecorder> recorders = new ConcurrentHashMap<>();
+
+    private Map<CommandId, Integer> conflictsByCommandId;
+
+    /**
+     * @param maxConflictedCommands the most conflicted command ids to remember while waiting for them to be retried
+     */
+    public ContentionReporter(int maxConflictedCommands) {
+        if (maxConflictedCommands < 1) {
+            throw new IllegalArgumentException("maxConflictedCommands must be at least 1");
+        }
+        this.conflictsByCommandId = Collections.synchronizedMap(new LinkedHashMap<CommandId, Integer>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CommandId, Integer> eldest) {
+                return size() > maxConflictedCommands;
+            }
+        });
+    }
+
+    @Override
+    public <A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> CommandHandlingProbe<A, C, E, State> createProbe(
+            AggregateType<A, C, E, State> aggregateType, AggregateId aggregateId) {
+        return new ContentionCommandHandlingProbe<>(aggregateType.name());
+    }
+
+    public ContentionReport report() {
+        return new ContentionReport(List.ofAll(recorders.entrySet())
+                .map(entry -> entry.getValue().snapshot(entry.getKey()._1, entry.getKey()._2))
+                .sortBy(contention -> -contention.conflicts()));
+    }
+
+    private ContentionRecorder recorder(String aggregateTypeName, Class<?> commandClass) {
+        Tuple2<String, Class<?>> key = new Tuple2<>(aggregateTypeName, commandClass);
+        ContentionRecorder recorder = recorders.get(key);
+        if (recorder == null) {
+            recorder = recorders.computeIfAbsent(key, k -> new ContentionRecorder());
+        }
+        return recorder;
+    }
+
+    private static class ContentionRecorder {
+
+        private LongAdder commands = new LongAdder();
+
+        private LongAdder conflicts = new LongAdder();
+
+        private LongAdder wastedEventsLoaded = new LongAdder();
+
+        private LongAdder wastedEventsGenerated = new LongAdder();
+
+        private LongAdder wastedNanos = new LongAdder();
+
+        private LongAccumulator maxWastedNanos = new LongAccumulator(Long::max, 0);
+
+        private AtomicLongArray retryChainHistogram = new AtomicLongArray(RETRY_CHAIN_BUCKETS);
+
+        void commandHandled() {
+            commands.increment();
+        }
+
+        void conflict(int eventsLoaded, int eventsGenerated, long nanos) {
+            conflicts.increment();
+            wastedEventsLoaded.add(eventsLoaded);
+            wastedEventsGenerated.add(eventsGenerated);
+            wastedNanos.add(nanos);
+            maxWastedNanos.accumulate(nanos);
+        }
+
+        void retryChain(int conflicts) {
+            retryChainHistogram.incrementAndGet(Math.min(conflicts, RETRY_CHAIN_BUCKETS - 1));
+        }
+
+        CommandContention snapshot(String aggregateType, Class<?> commandType) {
+            List<Long> histogram = List.empty();
+            for (int bucket = retryChainHistogram.length() - 1; bucket >= 0; bucket--) {
+                long count = retryChainHistogram.get(bucket);
+                if (count != 0 || !histogram.isEmpty()) {
+                    histogram = histogram.prepend(count);
+                }
+            }
+            return new CommandContention(
+                    aggregateType,
+                    commandType,
+                    commands.sum(),
+                    conflicts.sum(),
+                    wastedEventsLoaded.sum(),
+                    wastedEventsGenerated.sum(),
+                    wastedNanos.sum(),
+                    maxWastedNanos.get(),
+                    histogram);
+        }
+    }
+
+    private class ContentionCommandHandlingProbe<A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> implements CommandHandlingProbe<A,C,E,State> {
+
+        private String aggregateTypeName;
+
+        private CommandId commandId;
+
+        private ContentionRecorder recorder;
+
+        private int loadedEvents;
+
+        private long commandHandlingStartedAt = NOT_STARTED;
+
+        ContentionCommandHandlingProbe(String aggregateTypeName) {
+            this.aggregateTypeName = aggregateTypeName;
+        }
+
+        @Override
+        public void startedHandling(AggregateRepository.CommandEnvelope<C> command) {
+            if(recorder == null) {
+                commandId = command.commandId();
+                recorder = recorder(aggregateTypeName, command.command().getClass());
+            }
+
+            if(commandHandlingStartedAt == NOT_STARTED) {
+                commandHandlingStartedAt = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void startedLoadingEvents() {
+
+        }
+
+        @Override
+        public void finishedLoadingEvents(List<PersistedEvent<A, E>> previousEvents) {
+            loadedEvents = previousEvents.size();
+        }
+
+        @Override
+        public void finishedLoadingEvents(Throwable unexpectedException) {
+
+        }
+
+        @Override
+        public void startedApplyingCommand() {
+
+        }
+
+        @Override
+        public void commandApplicationAccepted(List<? super E> events, boolean deduplicated) {
+
+        }
+
+        @Override
+        public void commandApplicationRejected(Throwable rejection, boolean deduplicated) {
+
+        }
+
+        @Override
+        public void commandApplicationFailed(Throwable unexpectedException) {
+
+        }
+
+        @Override
+        public void startedPersistingEvents(List<? super E> events, long expectedSequenceNumber) {
+
+        }
+
+        @Override
+        public void startedPersistingEvents(List<? super E> events, State state, long expectedSequenceNumber) {
+
+        }
+
+        @Override
+        public void finishedPersistingEvents(List<PersistedEvent<A, E>> persistedEvents) {
+
+        }
+
+        @Override
+        public void finishedPersistingEvents(Throwable unexpectedException) {
+
+        }
+
+        @Override
+        public void concurrentModificationDetected(List<? super E> discardedEvents, long expectedSequenceNumber) {
+            if(recorder != null && commandHandlingStartedAt != NOT_STARTED) {
+                recorder.conflict(loadedEvents, discardedEvents.size(), System.nanoTime() - commandHandlingStartedAt);
+                conflictsByCommandId.merge(commandId, 1, Integer::sum);
+            }
+        }
+
+        @Override
+        public void finishedHandling(AggregateRepository.CommandHandlingResult<C, E> result) {
+
+            if(recorder == null) {
+                return;
+            }
+
+            recorder.commandHandled();
+
+            if(!(result instanceof AggregateRepository.ConcurrentModificationResult)) {
+                Integer conflicts = conflictsByCommandId.remove(commandId);
+                recorder.retryChain(conflicts == null ? 0 : conflicts);
+            }
+        }
+
+        @Override
+        public void finishedHandling(Throwable unexpectedException) {
+            if(recorder != null) {
+                recorder.commandHandled();
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.dreweaster.ddd.jester.application.repository.monitoring;
+
+import com.dreweaster.ddd.jester.domain.AggregateId;
+import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
+
+import java.time.Duration;
+
+/**
+ * A point in time view of what a HotAggregateReporter has seen: how long replays are per aggregate type, and which
+ * aggregates have the most events written, the most events replayed and the most conflicts.
+ */
+public class HotAggregateReport {
+
+    private Map<String, ReplayStatistics> replayStatistics;
+
+    private List<HotAggregate> mostEvents;
+
+    private List<HotAggregate> mostReplayedEvents;
+
+    private List<HotAggregate> mostConflicts;
+
+    HotAggregateReport(
+            Map<String, ReplayStatistics> replayStatistics,
+            List<HotAggregate> mostEvents,
+            List<HotAggregate> mostReplayedEvents,
+            List<HotAggregate> mostConflicts) {
+        this.replayStatistics = replayStatistics;
+        this.mostEvents = mostEvents;
+        this.mostReplayedEvents = mostReplayedEvents;
+        this.mostConflicts = mostConflicts;
+    }
+
+    /**
+     * @return the replay statistics of each aggregate type, by aggregate type name
+     */
+    public Map<String, ReplayStatistics> replayStatistics() {
+        return replayStatistics;
+    }
+
+    public Option<ReplayStatistics> replayStatistics(String aggregateType) {
+        return replayStatistics.get(aggregateType);
+    }
+
+    /**
+     * @return the aggregates that have had the most events written, most first
+     */
+    public List<HotAggregate> mostEvents() {
+        return mostEvents;
+    }
+
+    /**
+     * @return the aggregates that have had the most events replayed in order to handle commands, most first
+     */
+    public List<HotAggregate> mostReplayedEvents() {
+        return mostReplayedEvents;
+    }
+
+    /**
+     * @return the aggregates that have had the most commands end in a concurrent modification, most first
+     */
+    public List<HotAggregate> mostConflicts() {
+        return mostConflicts;
+    }
+
+    @Override
+    public String toString() {
+        return "HotAggregateReport{" +
+                "replayStatistics=" + replayStatistics +
+                ", mostEvents=" + mostEvents +
+                ", mostReplayedEvents=" + mostReplayedEvents +
+                ", mostConflicts=" + mostConflicts +
+                '}';
+    }
+
+    /**
+     * Histograms are bucketed by powers of two. Bucket 0 counts values of 0 and bucket n counts values from 2^(n-1) up
+     * to bucketUpperBound(n), which is 2^n - 1.
+     */
+    public static class ReplayStatistics {
+
+        public static long bucketUpperBound(int bucket) {
+            return bucket >= 63 ? Long.MAX_VALUE : (1L << bucket) - 1;
+        }
+
+        private long replays;
+
+        private long totalEvents;
+
+        private long maxEvents;
+
+        private long totalNanos;
+
+        private long maxNanos;
+
+        private List<Long> eventsHistogram;
+
+        private List<Long> replayTimeHistogram;
+
+        ReplayStatistics(
+                long replays,
+                long totalEvents,
+                long maxEvents,
+                long totalNanos,
+                long maxNanos,
+                List<Long> eventsHistogram,
+                List<Long> replayTimeHistogram) {
+            this.replays = replays;
+            this.totalEvents = totalEvents;
+            this.maxEvents = maxEvents;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.eventsHistogram = eventsHistogram;
+            this.replayTimeHistogram = replayTimeHistogram;
+        }
+
+        public long replays() {
+            return replays;
+        }
+
+        public long totalEvents() {
+            return totalEvents;
+        }
+
+        public long maxEvents() {
+            return maxEvents;
+        }
+
+        public double meanEvents() {
+            return replays == 0 ? 0 : (double) totalEvents / replays;
+        }
+
+        public Duration totalTime() {
+            return Duration.ofNanos(totalNanos);
+        }
+
+        public Duration maxTime() {
+            return Duration.ofNanos(maxNanos);
+        }
+
+        public Duration meanTime() {
+            return replays == 0 ? Duration.ZERO : Duration.ofNanos(totalNanos / replays);
+        }
+
+        /**
+         * @return the number of replays in each bucket of replay length, up to the last non-empty bucket
+         */
+        public List<Long> eventsHistogram() {
+            return eventsHistogram;
+        }
+
+        /**
+         * @return the number of replays in each bucket of replay time in nanoseconds, up to the last non-empty bucket
+         */
+        public List<Long> replayTimeHistogram() {
+            return replayTimeHistogram;
+        }
+
+        @Override
+        public String toString() {
+            return "ReplayStatistics{" +
+                    "replays=" + replays +
+                    ", meanEvents=" + meanEvents() +
+                    ", maxEvents=" + maxEvents +
+                    ", meanTime=" + meanTime() +
+                    ", maxTime=" + maxTime() +
+                    ", eventsHistogram=" + eventsHistogram +
+                    ", replayTimeHistogram=" + replayTimeHistogram +
+                    '}';
+        }
+    }
+
+    public static class HotAggregate {
+
+        private String aggregateType;
+
+        private AggregateId aggregateId;
+
+        private long count;
+
+        private long error;
+
+        HotAggregate(String aggregateType, AggregateId aggregateId, long count, long error) {
+            this.aggregateType = aggregateType;
+            this.aggregateId = aggregateId;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String aggregateType() {
+            return aggregateType;
+        }
+
+        public AggregateId aggregateId() {
+            return aggregateId;
+        }
+
+        /**
+         * @return an upper bound on the aggregate's true count
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @return how much count() might overestimate the aggregate's true count by
+         */
+        public long error() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "HotAggregate{" +
+                    "aggregateType='" + aggregateType + '\'' +
+                    ", aggregateId=" + aggregateId.get() +
+                    ", count=" + count +
+                    ", error=" + error +
+                    '}';
+        }
+    }
+}
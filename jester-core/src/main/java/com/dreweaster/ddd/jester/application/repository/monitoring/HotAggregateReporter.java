@@ -0,0 +1,227 @@
+package com.dreweaster.ddd.jester.application.repository.monitoring;
+
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
+import com.dreweaster.ddd.jester.application.repository.monitoring.HotAggregateReport.HotAggregate;
+import com.dreweaster.ddd.jester.application.repository.monitoring.HotAggregateReport.ReplayStatistics;
+import com.dreweaster.ddd.jester.domain.*;
+import io.vavr.Tuple2;
+import io.vavr.collection.HashMap;
+import io.vavr.collection.List;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Finds the aggregates whose histories are costly to handle commands against, to show where snapshots and caching
+ * would pay off. For each aggregate type it records how many events were replayed to handle each command and how long
+ * applying the command took, which is dominated by the replay for long histories. Alongside that it keeps Space-Saving
+ * sketches of the aggregates with the most events written, the most events replayed and the most conflicts, so memory
+ * use stays bounded however many aggregates there are.
+ *
+ * Deduplicated commands aren't replayed, so aren't counted as replays.
+ */
+public class HotAggregateReporter implements AggregateRepositoryReporter {
+
+    private static final int HISTOGRAM_BUCKETS = 65;
+
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private ConcurrentHashMap<String, ReplayStatisticsRecorder> replayStatistics = new ConcurrentHashMap<>();
+
+    private SpaceSavingSketch<Tuple2<String, AggregateId>> mostEvents;
+
+    private SpaceSavingSketch<Tuple2<String, AggregateId>> mostReplayedEvents;
+
+    private SpaceSavingSketch<Tuple2<String, AggregateId>> mostConflicts;
+
+    /**
+     * @param capacity the number of aggregates each sketch tracks, which is the most that can be reported
+     */
+    public HotAggregateReporter(int capacity) {
+        this.mostEvents = new SpaceSavingSketch<>(capacity);
+        this.mostReplayedEvents = new SpaceSavingSketch<>(capacity);
+        this.mostConflicts = new SpaceSavingSketch<>(capacity);
+    }
+
+    @Override
+    public <A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> CommandHandlingProbe<A, C, E, State> createProbe(
+            AggregateType<A, C, E, State> aggregateType, AggregateId aggregateId) {
+
+        ReplayStatisticsRecorder recorder = replayStatistics.get(aggregateType.name());
+        if (recorder == null) {
+            recorder = replayStatistics.computeIfAbsent(aggregateType.name(), name -> new ReplayStatisticsRecorder());
+        }
+        return new HotAggregateCommandHandlingProbe<>(new Tuple2<>(aggregateType.name(), aggregateId), recorder);
+    }
+
+    /**
+     * @param top the most aggregates to include in each list of hot aggregates
+     */
+    public HotAggregateReport report(int top) {
+        return new HotAggregateReport(
+                HashMap.ofAll(replayStatistics).mapValues(ReplayStatisticsRecorder::snapshot),
+                hotAggregates(mostEvents, top),
+                hotAggregates(mostReplayedEvents, top),
+                hotAggregates(mostConflicts, top));
+    }
+
+    private List<HotAggregate> hotAggregates(SpaceSavingSketch<Tuple2<String, AggregateId>> sketch, int top) {
+        return sketch.top(top).map(entry -> new HotAggregate(entry.key()._1, entry.key()._2, entry.count(), entry.error()));
+    }
+
+    private static int bucketOf(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+
+    private static List<Long> histogram(AtomicLongArray buckets) {
+        List<Long> histogram = List.empty();
+        for (int bucket = buckets.length() - 1; bucket >= 0; bucket--) {
+            long count = buckets.get(bucket);
+            if (count != 0 || !histogram.isEmpty()) {
+                histogram = histogram.prepend(count);
+            }
+        }
+        return histogram;
+    }
+
+    private static class ReplayStatisticsRecorder {
+
+        private LongAdder replays = new LongAdder();
+
+        private LongAdder totalEvents = new LongAdder();
+
+        private LongAccumulator maxEvents = new LongAccumulator(Long::max, 0);
+
+        private LongAdder totalNanos = new LongAdder();
+
+        private LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        private AtomicLongArray eventsHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+        private AtomicLongArray replayTimeHistogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+
+        void record(int events, long nanos) {
+            replays.increment();
+            totalEvents.add(events);
+            maxEvents.accumulate(events);
+            eventsHistogram.incrementAndGet(bucketOf(events));
+            totalNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+            replayTimeHistogram.incrementAndGet(bucketOf(nanos));
+        }
+
+        ReplayStatistics snapshot() {
+            return new ReplayStatistics(
+                    replays.sum(),
+                    totalEvents.sum(),
+                    maxEvents.get(),
+                    totalNanos.sum(),
+                    maxNanos.get(),
+                    histogram(eventsHistogram),
+                    histogram(replayTimeHistogram));
+        }
+    }
+
+    private class HotAggregateCommandHandlingProbe<A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> implements CommandHandlingProbe<A,C,E,State> {
+
+        private Tuple2<String, AggregateId> aggregate;
+
+        private ReplayStatisticsRecorder recorder;
+
+        private int loadedEvents;
+
+        private long applyCommandStartedAt = NOT_STARTED;
+
+        HotAggregateCommandHandlingProbe(Tuple2<String, AggregateId> aggregate, ReplayStatisticsRecorder recorder) {
+            this.aggregate = aggregate;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public void startedHandling(AggregateRepository.CommandEnvelope<C> command) {
+
+        }
+
+        @Override
+        public void startedLoadingEvents() {
+
+        }
+
+        @Override
+        public void finishedLoadingEvents(List<PersistedEvent<A, E>> previousEvents) {
+            loadedEvents = previousEvents.size();
+        }
+
+        @Override
+        public void finishedLoadingEvents(Throwable unexpectedException) {
+
+        }
+
+        @Override
+        public void startedApplyingCommand() {
+            if(applyCommandStartedAt == NOT_STARTED) {
+                applyCommandStartedAt = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void commandApplicationAccepted(List<? super E> events, boolean deduplicated) {
+            if(!deduplicated) {
+                recordReplay();
+            }
+        }
+
+        @Override
+        public void commandApplicationRejected(Throwable rejection, boolean deduplicated) {
+            if(!deduplicated) {
+                recordReplay();
+            }
+        }
+
+        @Override
+        public void commandApplicationFailed(Throwable unexpectedException) {
+            recordReplay();
+        }
+
+        @Override
+        public void startedPersistingEvents(List<? super E> events, long expectedSequenceNumber) {
+
+        }
+
+        @Override
+        public void startedPersistingEvents(List<? super E> events, State state, long expectedSequenceNumber) {
+
+        }
+
+        @Override
+        public void finishedPersistingEvents(List<PersistedEvent<A, E>> persistedEvents) {
+            mostEvents.offer(aggregate, persistedEvents.size());
+        }
+
+        @Override
+        public void finishedPersistingEvents(Throwable unexpectedException) {
+
+        }
+
+        @Override
+        public void finishedHandling(AggregateRepository.CommandHandlingResult<C, E> result) {
+            if(result instanceof AggregateRepository.ConcurrentModificationResult) {
+                mostConflicts.offer(aggregate, 1);
+            }
+        }
+
+        @Override
+        public void finishedHandling(Throwable unexpectedException) {
+
+        }
+
+        private void recordReplay() {
+            if(applyCommandStartedAt != NOT_STARTED) {
+                recorder.record(loadedEvents, System.nanoTime() - applyCommandStartedAt);
+                mostReplayedEvents.offer(aggregate, loadedEvents);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.dreweaster.ddd.jester.application.repository.monitoring;
+
+import io.vavr.collection.List;
+
+import java.util.HashMap;
+import java.util.TreeSet;
+
+/**
+ * Tracks the keys with the largest total weight using the Space-Saving algorithm, in space bounded by its capacity
+ * however many keys are offered.
+ *
+ * Once the sketch is full, a new key takes over the counter of the key with the smallest count, inheriting that count
+ * as its error. A key's count therefore never underestimates its true total, and overestimates it by at most its
+ * error. Any key whose true total is more than 1/capacity of the total weight offered is guaranteed to be tracked.
+ */
+public class SpaceSavingSketch<K> {
+
+    private int capacity;
+
+    private long nextCounterId;
+
+    private HashMap<K, Counter<K>> counters = new HashMap<>();
+
+    private TreeSet<Counter<K>> countersByCount = new TreeSet<>((c1, c2) -> c1.count != c2.count
+            ? Long.compare(c1.count, c2.count)
+            : Long.compare(c1.id, c2.id));
+
+    public SpaceSavingSketch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        this.capacity = capacity;
+    }
+
+    public synchronized void offer(K key, long weight) {
+        if (weight < 1) {
+            return;
+        }
+
+        Counter<K> counter = counters.get(key);
+        if (counter != null) {
+            countersByCount.remove(counter);
+            counter.count += weight;
+            countersByCount.add(counter);
+        } else if (counters.size() < capacity) {
+            counter = new Counter<>(nextCounterId++, key, weight, 0);
+            counters.put(key, counter);
+            countersByCount.add(counter);
+        } else {
+            Counter<K> smallest = countersByCount.pollFirst();
+            counters.remove(smallest.key);
+            counter = new Counter<>(nextCounterId++, key, smallest.count + weight, smallest.count);
+            counters.put(key, counter);
+            countersByCount.add(counter);
+        }
+    }
+
+    /**
+     * @return up to n of the tracked keys, largest count first
+     */
+    public synchronized List<Entry<K>> top(int n) {
+        return List.ofAll(countersByCount.descendingSet())
+                .take(n)
+                .map(counter -> new Entry<>(counter.key, counter.count, counter.error));
+    }
+
+    public static class Entry<K> {
+
+        private K key;
+
+        private long count;
+
+        private long error;
+
+        private Entry(K key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public K key() {
+            return key;
+        }
+
+        /**
+         * @return an upper bound on the key's total weight
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @return how much count() might overestimate the key's total weight by
+         */
+        public long error() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "key=" + key +
+                    ", count=" + count +
+                    ", error=" + error +
+                    '}';
+        }
+    }
+
+    private static class Counter<K> {
+
+        private long id;
+
+        private K key;
+
+        private long count;
+
+        private long error;
+
+        private Counter(long id, K key, long count, long error) {
+            this.id = id;
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.dreweaster.ddd.jester.application.eventstore;
+
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper.PayloadSerialisationResult;
+import com.dreweaster.ddd.jester.domain.*;
+import io.vavr.Tuple2;
+import io.vavr.control.Option;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The aggregate the EventStoreBehaviours scenarios save events for. It has no behaviour, as only its events are used.
+ */
+public class Notebook extends Aggregate<DomainCommand, Notebook.NotebookEvent, Void> {
+
+    public static final AggregateType<Notebook, DomainCommand, NotebookEvent, Void> TYPE = AggregateType.of("notebook", Notebook.class);
+
+    public static final DomainEventTag TAG = DomainEventTag.of("notebook-event");
+
+    public static final DomainEventTag RENAMED_TAG = DomainEventTag.of("notebook-renamed-event");
+
+    @Override
+    public Behaviour<DomainCommand, NotebookEvent, Void> initialBehaviour() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static abstract class NotebookEvent implements DomainEvent {
+
+        private String text;
+
+        NotebookEvent(String text) {
+            this.text = text;
+        }
+
+        public String text() {
+            return text;
+        }
+    }
+
+    public static class NoteAdded extends NotebookEvent {
+
+        public NoteAdded(String text) {
+            super(text);
+        }
+
+        @Override
+        public DomainEventTag tag() {
+            return TAG;
+        }
+    }
+
+    /**
+     * Tagged differently to NoteAdded, so streams can be checked to only return their own tag.
+     */
+    public static class NotebookRenamed extends NotebookEvent {
+
+        public NotebookRenamed(String text) {
+            super(text);
+        }
+
+        @Override
+        public DomainEventTag tag() {
+            return RENAMED_TAG;
+        }
+    }
+
+    /**
+     * Uses the text of the event as the payload, labelled with the given content type. Binary payloads are prefixed
+     * with a byte that is never valid UTF-8, so they can't be read back as a String by mistake.
+     */
+    public static class NotePayloadMapper implements PayloadMapper {
+
+        public static final byte BINARY_MARKER = (byte) 0xFF;
+
+        public static byte[] payload(String text, SerialisationContentType contentType) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            if (contentType.isTextual()) {
+                return bytes;
+            }
+            byte[] marked = new byte[bytes.length + 1];
+            marked[0] = BINARY_MARKER;
+            System.arraycopy(bytes, 0, marked, 1, bytes.length);
+            return marked;
+        }
+
+        private SerialisationContentType contentType;
+
+        private AtomicInteger deserialisedEvents = new AtomicInteger();
+
+        public NotePayloadMapper() {
+            this(SerialisationContentType.JSON);
+        }
+
+        public NotePayloadMapper(SerialisationContentType contentType) {
+            this.contentType = contentType;
+        }
+
+        public int deserialisedEvents() {
+            return deserialisedEvents.get();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T extends DomainEvent> T deserialiseEvent(String serialisedPayload, String serialisedEventType, Integer serialisedEventVersion) {
+            deserialisedEvents.incrementAndGet();
+            if (serialisedEventType.equals(NotebookRenamed.class.getName())) {
+                return (T) new NotebookRenamed(serialisedPayload);
+            }
+            return (T) new NoteAdded(serialisedPayload);
+        }
+
+        @Override
+        public <T extends DomainEvent> T deserialiseEvent(
+                byte[] serialisedPayload,
+                SerialisationContentType contentType,
+                String serialisedEventType,
+                Integer serialisedEventVersion) {
+            int start = contentType.isTextual() ? 0 : 1;
+            String text = new String(serialisedPayload, start, serialisedPayload.length - start, StandardCharsets.UTF_8);
+            return deserialiseEvent(text, serialisedEventType, serialisedEventVersion);
+        }
+
+        @Override
+        public <T extends DomainEvent> PayloadSerialisationResult serialiseEvent(T event) {
+            return PayloadSerialisationResult.of(payload(((NotebookEvent) event).text(), contentType), contentType, 1);
+        }
+
+        @Override
+        public <A extends Aggregate<?, ?, State>, State> PayloadSerialisationResult serialiseState(State state) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Reads NoteAdded events back as NotebookRenamed events at version 2, as a mapper would after migrating the class
+     * name of NoteAdded, while NoteAdded itself still exists.
+     */
+    public static class RenamingNotePayloadMapper extends NotePayloadMapper {
+
+        @Override
+        public Option<Tuple2<String, Integer>> currentEventType(String serialisedEventType, Integer serialisedEventVersion) {
+            if (serialisedEventType.equals(NoteAdded.class.getName())) {
+                return Option.of(new Tuple2<>(NotebookRenamed.class.getName(), 2));
+            }
+            return super.currentEventType(serialisedEventType, serialisedEventVersion);
+        }
+
+        @Override
+        public <T extends DomainEvent> T deserialiseEvent(String serialisedPayload, String serialisedEventType, Integer serialisedEventVersion) {
+            String currentEventType = serialisedEventType.equals(NoteAdded.class.getName()) ? NotebookRenamed.class.getName() : serialisedEventType;
+            return super.deserialiseEvent(serialisedPayload, currentEventType, serialisedEventVersion);
+        }
+    }
+}
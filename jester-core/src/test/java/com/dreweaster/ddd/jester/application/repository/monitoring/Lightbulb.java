@@ -0,0 +1,37 @@
+package com.dreweaster.ddd.jester.application.repository.monitoring;
+
+import com.dreweaster.ddd.jester.domain.*;
+
+public class Lightbulb extends Aggregate<Lightbulb.LightbulbCommand, Lightbulb.LightbulbEvent, Void> {
+
+    public static final AggregateType<Lightbulb, LightbulbCommand, LightbulbEvent, Void> TYPE = AggregateType.of("lightbulb", Lightbulb.class);
+
+    @Override
+    public Behaviour<LightbulbCommand, LightbulbEvent, Void> initialBehaviour() {
+        throw new UnsupportedOperationException();
+    }
+
+    public interface LightbulbCommand extends DomainCommand {
+
+    }
+
+    public static class SwitchOn implements LightbulbCommand {
+
+    }
+
+    public static class SwitchOff implements LightbulbCommand {
+
+    }
+
+    public interface LightbulbEvent extends DomainEvent {
+
+    }
+
+    public static class SwitchedOn implements LightbulbEvent {
+
+        @Override
+        public DomainEventTag tag() {
+            return DomainEventTag.of("lightbulb-event");
+        }
+    }
+}
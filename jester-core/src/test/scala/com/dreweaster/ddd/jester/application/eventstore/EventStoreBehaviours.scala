@@ -0,0 +1,310 @@
+package com.dreweaster.ddd.jester.application.eventstore
+
+import java.util.concurrent.{ConcurrentLinkedQueue, CountDownLatch}
+
+import com.dreweaster.ddd.jester.application.eventstore.EventStore.OptimisticConcurrencyException
+import com.dreweaster.ddd.jester.application.eventstore.Notebook.{NoteAdded, NotePayloadMapper, NotebookEvent, NotebookRenamed, RenamingNotePayloadMapper}
+import com.dreweaster.ddd.jester.domain.{AggregateId, CausationId, DomainEventTag}
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import scala.collection.JavaConverters._
+
+/**
+ * Scenarios every EventStore should pass, registered by each store's own test. They are shared with the store modules
+ * through jester-core's test-jar.
+ */
+trait EventStoreBehaviours extends GivenWhenThen with Matchers { this: FeatureSpec =>
+
+  def events(texts: String*) = io.vavr.collection.List.of[NotebookEvent](texts.map(new NoteAdded(_)): _*)
+
+  def save(store: EventStore, aggregateId: String, expectedSequenceNumber: Long, events: io.vavr.collection.List[NotebookEvent]) =
+    store.saveEvents(Notebook.TYPE, AggregateId.of(aggregateId), CausationId.of("causation"), events, expectedSequenceNumber)
+
+  def load(store: EventStore, aggregateId: String) =
+    store.loadEvents(Notebook.TYPE, AggregateId.of(aggregateId)).get().toJavaList.asScala.toList
+
+  def stream(store: EventStore, tag: DomainEventTag, afterOffset: Long, batchSize: Int) =
+    store.loadEventStream(tag, afterOffset, batchSize).get().toJavaList.asScala.toList
+
+  /**
+   * Runs the task on the given number of threads at once, failing if any of them fails
+   */
+  def concurrently(threads: Int)(task: Int => Unit): Unit = {
+    val start = new CountDownLatch(1)
+    val failures = new ConcurrentLinkedQueue[Throwable]()
+    val running = (0 until threads).map(thread => new Thread(new Runnable {
+      override def run(): Unit = {
+        try {
+          start.await()
+          task(thread)
+        } catch {
+          case ex: Throwable => failures.add(ex)
+        }
+      }
+    }))
+    running.foreach(_.start())
+    start.countDown()
+    running.foreach(_.join())
+    failures.asScala.headOption.foreach(ex => throw ex)
+  }
+
+  def concurrentlyUsableEventStore(newStore: () => EventStore): Unit = {
+
+    scenario("Save concurrently to different aggregate instances") {
+      Given("an empty store")
+      val store = newStore()
+
+      When("8 threads each save 10 events, one at a time, to each of their own 25 aggregate instances")
+      concurrently(8) { thread =>
+        for (aggregate <- 0 until 25; event <- 0 until 10) {
+          save(store, s"$thread-$aggregate", event - 1, events(s"$thread-$aggregate-$event")).get()
+        }
+      }
+
+      Then("every aggregate instance should have its own events in order")
+      for (thread <- 0 until 8; aggregate <- 0 until 25) {
+        val loaded = load(store, s"$thread-$aggregate")
+        loaded.map(_.sequenceNumber().longValue()) should be(0L until 10L)
+        loaded.map(_.rawEvent().text()) should be((0 until 10).map(event => s"$thread-$aggregate-$event"))
+      }
+
+      And("every event should have been given its own offset")
+      stream(store, Notebook.TAG, -1L, 10000).map(_.offset().longValue()) should be(0L until 2000L)
+    }
+
+    scenario("Save concurrently to the same aggregate instance") {
+      Given("an empty store")
+      val store = newStore()
+
+      When("8 threads each save 50 events to the same aggregate instance, reloading it after a conflict")
+      concurrently(8) { thread =>
+        var saved = 0
+        while (saved < 50) {
+          val expectedSequenceNumber = load(store, "a").lastOption.map(_.sequenceNumber().longValue()).getOrElse(-1L)
+          val result = save(store, "a", expectedSequenceNumber, events(s"$thread-$saved")).await()
+          if (result.isSuccess) {
+            saved += 1
+          } else {
+            result.getCause.get() shouldBe an[OptimisticConcurrencyException]
+          }
+        }
+      }
+
+      Then("the aggregate instance should have every event, with contiguous sequence numbers")
+      val loaded = load(store, "a")
+      loaded.map(_.sequenceNumber().longValue()) should be(0L until 400L)
+      loaded.map(_.rawEvent().text()).toSet.size should be(400)
+
+      And("each thread's events should be in the order it saved them")
+      for (thread <- 0 until 8) {
+        loaded.map(_.rawEvent().text()).filter(_.startsWith(s"$thread-")) should be((0 until 50).map(saved => s"$thread-$saved"))
+      }
+    }
+
+    scenario("Reject all but one of several concurrent saves made against the same sequence number") {
+      Given("an aggregate instance with one event")
+      val store = newStore()
+      save(store, "a", -1, events("first")).get()
+
+      When("16 threads save an event at once, each expecting the first event to be the latest")
+      val results = new ConcurrentLinkedQueue[io.vavr.concurrent.Future[_]]()
+      concurrently(16) { thread =>
+        results.add(save(store, "a", 0, events(s"second from $thread")).await())
+      }
+
+      Then("exactly one save should succeed")
+      results.asScala.count(_.isSuccess) should be(1)
+
+      And("the others should fail with an OptimisticConcurrencyException and save nothing")
+      results.asScala.filter(_.isFailure).foreach(_.getCause.get() shouldBe an[OptimisticConcurrencyException])
+      load(store, "a").map(_.sequenceNumber().longValue()) should be(List(0L, 1L))
+      stream(store, Notebook.TAG, -1L, 100).size should be(2)
+    }
+
+    scenario("Keep each tag's offsets increasing while events are saved concurrently") {
+      Given("an empty store")
+      val store = newStore()
+
+      When("4 threads each save 500 events, alternating between two tags, while the first tag's stream is read")
+      val writersFinished = new CountDownLatch(4)
+      val read = new ConcurrentLinkedQueue[java.lang.Long]()
+      concurrently(5) {
+        case 4 =>
+          var lastOffset = -1L
+          var finished = false
+          while (!finished) {
+            finished = writersFinished.getCount == 0
+            val batch = stream(store, Notebook.TAG, lastOffset, 50)
+            batch.foreach(event => read.add(event.offset()))
+            batch.lastOption.foreach(event => lastOffset = event.offset())
+            // Read whatever is left once the writers have finished
+            finished = finished && batch.isEmpty
+          }
+        case thread =>
+          for (event <- 0 until 500) {
+            val rawEvent: NotebookEvent = if (event % 2 == 0) new NoteAdded(s"$thread-$event") else new NotebookRenamed(s"$thread-$event")
+            save(store, thread.toString, event - 1, io.vavr.collection.List.of[NotebookEvent](Seq(rawEvent): _*)).get()
+          }
+          writersFinished.countDown()
+      }
+
+      Then("the reader should have seen every event with the first tag once, in increasing offset order")
+      val readOffsets = read.asScala.map(_.longValue()).toList
+      readOffsets should be(readOffsets.sorted.distinct)
+      readOffsets.size should be(1000)
+
+      And("both tags' streams should be in increasing offset and timestamp order, and together cover every offset")
+      val added = stream(store, Notebook.TAG, -1L, 10000)
+      val renamed = stream(store, Notebook.RENAMED_TAG, -1L, 10000)
+      for (tagged <- List(added, renamed)) {
+        tagged.size should be(1000)
+        tagged.map(_.offset().longValue()) should be(tagged.map(_.offset().longValue()).sorted.distinct)
+        val timestamps = tagged.map(_.timestamp())
+        timestamps.zip(timestamps.tail).foreach { case (earlier, later) => later.isBefore(earlier) should be(false) }
+      }
+      (added ++ renamed).map(_.offset().longValue()).sorted should be(0L until 2000L)
+    }
+  }
+
+  def eventTypeResolvingEventStore(newStore: PayloadMapper => EventStore): Unit = {
+
+    scenario("Give the type a loaded event is read back as, without deserialising it") {
+      Given("a store whose PayloadMapper reads NoteAdded events back as NotebookRenamed events")
+      val mapper = new RenamingNotePayloadMapper
+      val store = newStore(mapper)
+      save(store, "a", -1, events("first", "second")).get()
+
+      When("loading the events and asking for their types")
+      val loaded = load(store, "a")
+
+      Then("they should be the type the events are read back as, not the type they were saved as")
+      loaded.map(_.eventType()) should be(List(classOf[NotebookRenamed], classOf[NotebookRenamed]))
+
+      And("neither event should have been deserialised")
+      mapper.deserialisedEvents() should be(0)
+      loaded.head.rawEvent().getClass should be(classOf[NotebookRenamed])
+    }
+  }
+
+  /**
+   * Saves events to two aggregate instances, alternating between the two tags, so offsets 0, 2, 4, 6 and 8 are
+   * NoteAdded events and 1, 3, 5, 7 and 9 NotebookRenamed events
+   */
+  def saveMixedTags(store: EventStore): Unit = {
+    for (i <- 0 until 10) {
+      val rawEvent: NotebookEvent = if (i % 2 == 0) new NoteAdded(s"added $i") else new NotebookRenamed(s"renamed $i")
+      save(store, if (i < 5) "a" else "b", (i % 5) - 1, io.vavr.collection.List.of[NotebookEvent](Seq(rawEvent): _*)).get()
+    }
+  }
+
+  def offsets(store: EventStore, tag: DomainEventTag, afterOffset: Long, batchSize: Int) =
+    stream(store, tag, afterOffset, batchSize).map(_.offset().longValue())
+
+  def streamableEventStore(newStore: PayloadMapper => EventStore): Unit = {
+
+    scenario("Stream only the events with the given tag") {
+      Given("a store with events of two tags, saved to two aggregate instances")
+      val store = newStore(new NotePayloadMapper)
+      saveMixedTags(store)
+
+      When("streaming each tag")
+      val added = stream(store, Notebook.TAG, -1L, 100)
+      val renamed = stream(store, Notebook.RENAMED_TAG, -1L, 100)
+
+      Then("each stream should only have the events with its tag, in offset order")
+      added.map(_.offset().longValue()) should be(List(0L, 2L, 4L, 6L, 8L))
+      added.map(_.eventTag()).toSet should be(Set(Notebook.TAG.tag()))
+      added.map(_.eventType()).toSet should be(Set(classOf[NoteAdded].getName))
+      renamed.map(_.offset().longValue()) should be(List(1L, 3L, 5L, 7L, 9L))
+      renamed.map(_.eventTag()).toSet should be(Set(Notebook.RENAMED_TAG.tag()))
+
+      And("each event should carry the details it was saved with")
+      added.map(_.aggregateId()) should be(List("a", "a", "a", "b", "b"))
+      added.map(_.sequenceNumber().longValue()) should be(List(0L, 2L, 4L, 1L, 3L))
+      added.map(_.aggregateType()).toSet should be(Set(Notebook.TYPE.name()))
+      added.map(_.serialisedPayload()) should be(List("added 0", "added 2", "added 4", "added 6", "added 8"))
+    }
+
+    scenario("Stream the events after a given offset") {
+      Given("a store with events of two tags")
+      val store = newStore(new NotePayloadMapper)
+      saveMixedTags(store)
+
+      Then("streaming after -1 should start from the first event with the tag")
+      offsets(store, Notebook.TAG, -1L, 100) should be(List(0L, 2L, 4L, 6L, 8L))
+
+      And("streaming after the offset of an event with the tag should start from the next one")
+      offsets(store, Notebook.TAG, 4L, 100) should be(List(6L, 8L))
+
+      And("streaming after the offset of an event with another tag should start from the next one with the tag")
+      offsets(store, Notebook.TAG, 5L, 100) should be(List(6L, 8L))
+
+      And("streaming after the last offset, or beyond it, should return nothing")
+      offsets(store, Notebook.TAG, 8L, 100) should be(Nil)
+      offsets(store, Notebook.TAG, 9L, 100) should be(Nil)
+      offsets(store, Notebook.TAG, 1000L, 100) should be(Nil)
+    }
+
+    scenario("Stream no more events than the batch size") {
+      Given("a store with five events of a tag")
+      val store = newStore(new NotePayloadMapper)
+      saveMixedTags(store)
+
+      Then("a stream should return at most the batch size, from the start of the remaining events")
+      offsets(store, Notebook.TAG, -1L, 3) should be(List(0L, 2L, 4L))
+      offsets(store, Notebook.TAG, 4L, 3) should be(List(6L, 8L))
+      offsets(store, Notebook.TAG, -1L, 1) should be(List(0L))
+      offsets(store, Notebook.TAG, -1L, 5) should be(List(0L, 2L, 4L, 6L, 8L))
+    }
+
+    scenario("Stream nothing for a tag that has no events") {
+      Given("an empty store")
+      val store = newStore(new NotePayloadMapper)
+
+      Then("streaming any tag should return nothing")
+      offsets(store, Notebook.TAG, -1L, 100) should be(Nil)
+
+      When("events of only one tag are saved")
+      save(store, "a", -1, events("first", "second")).get()
+
+      Then("streaming the other tag should still return nothing")
+      offsets(store, Notebook.RENAMED_TAG, -1L, 100) should be(Nil)
+      offsets(store, Notebook.TAG, -1L, 100) should be(List(0L, 1L))
+    }
+
+    scenario("Stream each payload with the content type it was serialised with") {
+      Given("a store whose payload mapper produces SMILE")
+      val store = newStore(new NotePayloadMapper(SerialisationContentType.SMILE))
+      save(store, "a", -1, events("first")).get()
+
+      When("streaming the event")
+      val event = stream(store, Notebook.TAG, -1L, 100).head
+
+      Then("it should have the SMILE content type and the payload bytes the mapper produced")
+      event.payloadContentType() should be(SerialisationContentType.SMILE)
+      val payload = event.serialisedPayloadBuffer()
+      val bytes = new Array[Byte](payload.remaining())
+      payload.get(bytes)
+      bytes should be(NotePayloadMapper.payload("first", SerialisationContentType.SMILE))
+    }
+
+    scenario("Only stream a binary payload as bytes") {
+      Given("a store holding a SMILE payload")
+      val store = newStore(new NotePayloadMapper(SerialisationContentType.SMILE))
+      save(store, "a", -1, events("first")).get()
+      val event = stream(store, Notebook.TAG, -1L, 100).head
+
+      When("asking for the payload as a String")
+      Then("it should be refused, rather than decoded as if it were UTF-8")
+      an[IllegalStateException] should be thrownBy event.serialisedPayload()
+
+      And("the payload bytes should still deserialise back to the original event")
+      val payload = event.serialisedPayloadBuffer()
+      val bytes = new Array[Byte](payload.remaining())
+      payload.get(bytes)
+      val note: NotebookEvent = new NotePayloadMapper(SerialisationContentType.SMILE)
+        .deserialiseEvent(bytes, event.payloadContentType(), event.eventType(), 1)
+      note.text() should be("first")
+    }
+  }
+}
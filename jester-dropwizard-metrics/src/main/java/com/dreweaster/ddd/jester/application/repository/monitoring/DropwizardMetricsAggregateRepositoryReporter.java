@@ -1,18 +1,29 @@
 package com.dreweaster.ddd.jester.application.repository.monitoring;
 
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
 import com.dreweaster.ddd.jester.domain.*;
 import io.vavr.collection.List;
-import io.vavr.control.Option;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metric handles are looked up once per aggregate type, command class and event class and then cached, so handling a
+ * command only costs a probe and the metric updates themselves.
+ */
 public class DropwizardMetricsAggregateRepositoryReporter implements AggregateRepositoryReporter {
 
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
     private MetricRegistry metricRegistry;
 
     private String metricNamePrefix;
 
+    private ConcurrentHashMap<String, AggregateTypeMetrics> aggregateTypeMetrics = new ConcurrentHashMap<>();
+
     public DropwizardMetricsAggregateRepositoryReporter(MetricRegistry metricRegistry, String metricNamePrefix) {
         this.metricRegistry = metricRegistry;
         this.metricNamePrefix = metricNamePrefix;
@@ -22,95 +33,200 @@ public class DropwizardMetricsAggregateRepositoryReporter implements AggregateRe
     public <A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> CommandHandlingProbe<A, C, E, State> createProbe(
             AggregateType<A, C, E, State> aggregateType, AggregateId aggregateId) {
 
-        return new DropwizardMetricsCommandHandlingProbe<>(aggregateType);
+        AggregateTypeMetrics metrics = aggregateTypeMetrics.get(aggregateType.name());
+        if (metrics == null) {
+            metrics = aggregateTypeMetrics.computeIfAbsent(aggregateType.name(), AggregateTypeMetrics::new);
+        }
+        return new DropwizardMetricsCommandHandlingProbe<>(metrics);
+    }
+
+    private class AggregateTypeMetrics {
+
+        private String aggregateTypeName;
+
+        private Timer loadEventsExecution;
+
+        private Counter loadEventsSuccess;
+
+        private Counter loadEventsFailure;
+
+        private Timer applyCommandExecution;
+
+        private Counter applyCommandSuccessDeduplicated;
+
+        private Counter applyCommandSuccessProcessed;
+
+        private Counter applyCommandRejectedDeduplicated;
+
+        private Counter applyCommandRejectedProcessed;
+
+        private Counter applyCommandFailed;
+
+        private Timer persistEventsExecution;
+
+        private Counter persistEventsSuccess;
+
+        private Counter persistEventsFailure;
+
+        private ConcurrentHashMap<Class<?>, CommandMetrics> commandMetrics = new ConcurrentHashMap<>();
+
+        private ConcurrentHashMap<Class<?>, Counter> eventCounters = new ConcurrentHashMap<>();
+
+        AggregateTypeMetrics(String aggregateTypeName) {
+            this.aggregateTypeName = aggregateTypeName;
+            loadEventsExecution = metricRegistry.timer(aggregateTypeSpecificMetricName("load-events", "execution"));
+            loadEventsSuccess = metricRegistry.counter(aggregateTypeSpecificMetricName("load-events", "success"));
+            loadEventsFailure = metricRegistry.counter(aggregateTypeSpecificMetricName("load-events", "failure"));
+            applyCommandExecution = metricRegistry.timer(aggregateTypeSpecificMetricName("apply-command", "execution"));
+            applyCommandSuccessDeduplicated = metricRegistry.counter(aggregateTypeSpecificMetricName("apply-command", "success", "deduplicated"));
+            applyCommandSuccessProcessed = metricRegistry.counter(aggregateTypeSpecificMetricName("apply-command", "success", "processed"));
+            applyCommandRejectedDeduplicated = metricRegistry.counter(aggregateTypeSpecificMetricName("apply-command", "rejected", "deduplicated"));
+            applyCommandRejectedProcessed = metricRegistry.counter(aggregateTypeSpecificMetricName("apply-command", "rejected", "processed"));
+            applyCommandFailed = metricRegistry.counter(aggregateTypeSpecificMetricName("apply-command", "failed"));
+            persistEventsExecution = metricRegistry.timer(aggregateTypeSpecificMetricName("persist-events", "execution"));
+            persistEventsSuccess = metricRegistry.counter(aggregateTypeSpecificMetricName("persist-events", "success"));
+            persistEventsFailure = metricRegistry.counter(aggregateTypeSpecificMetricName("persist-events", "failure"));
+        }
+
+        CommandMetrics commandMetrics(Class<?> commandClass) {
+            CommandMetrics metrics = commandMetrics.get(commandClass);
+            if (metrics == null) {
+                metrics = commandMetrics.computeIfAbsent(commandClass, CommandMetrics::new);
+            }
+            return metrics;
+        }
+
+        Counter eventCounter(Class<?> eventClass) {
+            Counter counter = eventCounters.get(eventClass);
+            if (counter == null) {
+                counter = eventCounters.computeIfAbsent(eventClass, clazz ->
+                        metricRegistry.counter(MetricRegistry.name(List.of(metricNamePrefix, aggregateTypeName, "events", clazz.getSimpleName()).mkString("."))));
+            }
+            return counter;
+        }
+
+        private String aggregateTypeSpecificMetricName(String...names) {
+            return MetricRegistry.name(List.of(metricNamePrefix, aggregateTypeName, "command-handling").mkString("."), names);
+        }
+
+        private class CommandMetrics {
+
+            private Timer execution;
+
+            private Counter successDeduplicated;
+
+            private Counter successProcessed;
+
+            private Counter rejectionDeduplicated;
+
+            private Counter rejectionProcessed;
+
+            private Counter concurrentModification;
+
+            private Counter failure;
+
+            CommandMetrics(Class<?> commandClass) {
+                execution = metricRegistry.timer(commandSpecificMetricName(commandClass, "execution"));
+                successDeduplicated = metricRegistry.counter(commandSpecificMetricName(commandClass, "result", "success", "deduplicated"));
+                successProcessed = metricRegistry.counter(commandSpecificMetricName(commandClass, "result", "success", "processed"));
+                rejectionDeduplicated = metricRegistry.counter(commandSpecificMetricName(commandClass, "result", "rejection", "deduplicated"));
+                rejectionProcessed = metricRegistry.counter(commandSpecificMetricName(commandClass, "result", "rejection", "processed"));
+                concurrentModification = metricRegistry.counter(commandSpecificMetricName(commandClass, "result", "concurrent-modification"));
+                failure = metricRegistry.counter(commandSpecificMetricName(commandClass, "result", "failure"));
+            }
+
+            private String commandSpecificMetricName(Class<?> commandClass, String...names) {
+                return MetricRegistry.name(List.of(metricNamePrefix, aggregateTypeName, "commands", commandClass.getSimpleName()).mkString("."), names);
+            }
+        }
     }
 
     private class DropwizardMetricsCommandHandlingProbe<A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> implements CommandHandlingProbe<A,C,E,State> {
 
-        private AggregateType<A,C,E,State> aggregateType;
+        private AggregateTypeMetrics metrics;
 
-        private Option<AggregateRepository.CommandEnvelope<C>> command = Option.none();
+        private AggregateTypeMetrics.CommandMetrics commandMetrics;
 
-        private Option<Timer.Context> commandHandlingTimerContext = Option.none();
+        private long commandHandlingStartedAt = NOT_STARTED;
 
-        private Option<Timer.Context> loadEventsTimerContext = Option.none();
+        private long loadEventsStartedAt = NOT_STARTED;
 
-        private Option<Timer.Context> applyCommandTimerContext = Option.none();
+        private long applyCommandStartedAt = NOT_STARTED;
 
-        private Option<Timer.Context> persistEventsTimerContext = Option.none();
+        private long persistEventsStartedAt = NOT_STARTED;
 
-        DropwizardMetricsCommandHandlingProbe(AggregateType<A, C, E, State> aggregateType) {
-            this.aggregateType = aggregateType;
+        DropwizardMetricsCommandHandlingProbe(AggregateTypeMetrics metrics) {
+            this.metrics = metrics;
         }
 
         @Override
         public void startedHandling(AggregateRepository.CommandEnvelope<C> command) {
 
-            if(this.command.isEmpty()) {
-                this.command = Option.of(command);
+            if(commandMetrics == null) {
+                commandMetrics = metrics.commandMetrics(command.command().getClass());
             }
 
-            if(commandHandlingTimerContext.isEmpty()) {
-                commandHandlingTimerContext = Option.of(metricRegistry.timer(commandSpecificMetricName(command, "execution")).time());
+            if(commandHandlingStartedAt == NOT_STARTED) {
+                commandHandlingStartedAt = System.nanoTime();
             }
         }
 
         @Override
         public void startedLoadingEvents() {
-            if(loadEventsTimerContext.isEmpty()) {
-                loadEventsTimerContext = Option.of(metricRegistry.timer(aggregateTypeSpecificMetricName("load-events", "execution")).time());
+            if(loadEventsStartedAt == NOT_STARTED) {
+                loadEventsStartedAt = System.nanoTime();
             }
         }
 
         @Override
         public void finishedLoadingEvents(List<PersistedEvent<A, E>> previousEvents) {
-            loadEventsTimerContext.forEach(Timer.Context::stop);
-            metricRegistry.counter(aggregateTypeSpecificMetricName("load-events", "success")).inc();
+            stop(metrics.loadEventsExecution, loadEventsStartedAt);
+            metrics.loadEventsSuccess.inc();
         }
 
         @Override
         public void finishedLoadingEvents(Throwable unexpectedException) {
-            loadEventsTimerContext.forEach(Timer.Context::stop);
-            metricRegistry.counter(aggregateTypeSpecificMetricName("load-events", "failure")).inc();
+            stop(metrics.loadEventsExecution, loadEventsStartedAt);
+            metrics.loadEventsFailure.inc();
         }
 
         @Override
         public void startedApplyingCommand() {
-            if(applyCommandTimerContext.isEmpty()) {
-                applyCommandTimerContext = Option.of(metricRegistry.timer(aggregateTypeSpecificMetricName("apply-command", "execution")).time());
+            if(applyCommandStartedAt == NOT_STARTED) {
+                applyCommandStartedAt = System.nanoTime();
             }
         }
 
         @Override
         public void commandApplicationAccepted(List<? super E> events, boolean deduplicated) {
-            applyCommandTimerContext.forEach(Timer.Context::stop);
+            stop(metrics.applyCommandExecution, applyCommandStartedAt);
             if(deduplicated) {
-                metricRegistry.counter(aggregateTypeSpecificMetricName("apply-command", "success", "deduplicated")).inc();
+                metrics.applyCommandSuccessDeduplicated.inc();
             } else {
-                metricRegistry.counter(aggregateTypeSpecificMetricName("apply-command", "success", "processed")).inc();
+                metrics.applyCommandSuccessProcessed.inc();
             }
         }
 
         @Override
         public void commandApplicationRejected(Throwable rejection, boolean deduplicated) {
-            applyCommandTimerContext.forEach(Timer.Context::stop);
+            stop(metrics.applyCommandExecution, applyCommandStartedAt);
             if(deduplicated) {
-                metricRegistry.counter(aggregateTypeSpecificMetricName("apply-command", "rejected", "deduplicated")).inc();
+                metrics.applyCommandRejectedDeduplicated.inc();
             } else {
-                metricRegistry.counter(aggregateTypeSpecificMetricName("apply-command", "rejected", "processed")).inc();
+                metrics.applyCommandRejectedProcessed.inc();
             }
         }
 
         @Override
         public void commandApplicationFailed(Throwable unexpectedException) {
-            applyCommandTimerContext.forEach(Timer.Context::stop);
-            metricRegistry.counter(aggregateTypeSpecificMetricName("apply-command", "failed")).inc();
+            stop(metrics.applyCommandExecution, applyCommandStartedAt);
+            metrics.applyCommandFailed.inc();
         }
 
         @Override
         public void startedPersistingEvents(List<? super E> events, long expectedSequenceNumber) {
-            if(persistEventsTimerContext.isEmpty()) {
-                persistEventsTimerContext = Option.of(metricRegistry.timer(aggregateTypeSpecificMetricName("persist-events", "execution")).time());
+            if(persistEventsStartedAt == NOT_STARTED) {
+                persistEventsStartedAt = System.nanoTime();
             }
         }
 
@@ -121,61 +237,57 @@ public class DropwizardMetricsAggregateRepositoryReporter implements AggregateRe
 
         @Override
         public void finishedPersistingEvents(List<PersistedEvent<A, E>> persistedEvents) {
-            persistEventsTimerContext.forEach(Timer.Context::stop);
-            metricRegistry.counter(aggregateTypeSpecificMetricName("persist-events", "success")).inc();
+            stop(metrics.persistEventsExecution, persistEventsStartedAt);
+            metrics.persistEventsSuccess.inc();
         }
 
         @Override
         public void finishedPersistingEvents(Throwable unexpectedException) {
-            persistEventsTimerContext.forEach(Timer.Context::stop);
-            metricRegistry.counter(aggregateTypeSpecificMetricName("persist-events", "failure")).inc();
+            stop(metrics.persistEventsExecution, persistEventsStartedAt);
+            metrics.persistEventsFailure.inc();
         }
 
         @Override
         public void finishedHandling(AggregateRepository.CommandHandlingResult<C, E> result) {
 
-            commandHandlingTimerContext.forEach(Timer.Context::stop);
+            if(commandMetrics == null) {
+                return;
+            }
 
-            command.forEach( command -> {
-                if(result instanceof AggregateRepository.SuccessResult) {
-                    if(((AggregateRepository.SuccessResult) result).wasDeduplicated()) {
-                        metricRegistry.counter(commandSpecificMetricName(command, "result", "success", "deduplicated")).inc();
-                    } else {
-                        metricRegistry.counter(commandSpecificMetricName(command, "result", "success", "processed")).inc();
+            stop(commandMetrics.execution, commandHandlingStartedAt);
 
-                        ((AggregateRepository.SuccessResult<C, E>) result).generatedEvents().forEach(event ->
-                            metricRegistry.counter(eventSpecificMetricName(event)).inc()
-                        );
-                    }
-                } else if(result instanceof AggregateRepository.RejectionResult) {
-                    if(((AggregateRepository.RejectionResult) result).wasDeduplicated()) {
-                        metricRegistry.counter(commandSpecificMetricName(command, "result", "rejection", "deduplicated")).inc();
-                    } else {
-                        metricRegistry.counter(commandSpecificMetricName(command, "result", "rejection", "processed")).inc();
+            if(result instanceof AggregateRepository.SuccessResult) {
+                if(((AggregateRepository.SuccessResult) result).wasDeduplicated()) {
+                    commandMetrics.successDeduplicated.inc();
+                } else {
+                    commandMetrics.successProcessed.inc();
+
+                    for (E event : ((AggregateRepository.SuccessResult<C, E>) result).generatedEvents()) {
+                        metrics.eventCounter(event.getClass()).inc();
                     }
-                } else if(result instanceof AggregateRepository.ConcurrentModificationResult) {
-                    metricRegistry.counter(commandSpecificMetricName(command, "result", "concurrent-modification")).inc();
                 }
-            });
+            } else if(result instanceof AggregateRepository.RejectionResult) {
+                if(((AggregateRepository.RejectionResult) result).wasDeduplicated()) {
+                    commandMetrics.rejectionDeduplicated.inc();
+                } else {
+                    commandMetrics.rejectionProcessed.inc();
+                }
+            } else if(result instanceof AggregateRepository.ConcurrentModificationResult) {
+                commandMetrics.concurrentModification.inc();
+            }
         }
 
         @Override
         public void finishedHandling(Throwable unexpectedException) {
-            command.forEach( command ->
-                metricRegistry.counter(commandSpecificMetricName(command, "result", "failure")).inc()
-            );
-        }
-
-        private String commandSpecificMetricName(AggregateRepository.CommandEnvelope<C> command, String...names) {
-            return MetricRegistry.name(List.of(metricNamePrefix, aggregateType.name(), "commands", command.command().getClass().getSimpleName()).mkString("."), names);
-        }
-
-        private String eventSpecificMetricName(E event, String...names) {
-            return MetricRegistry.name(List.of(metricNamePrefix, aggregateType.name(), "events", event.getClass().getSimpleName()).mkString("."), names);
+            if(commandMetrics != null) {
+                commandMetrics.failure.inc();
+            }
         }
 
-        private String aggregateTypeSpecificMetricName(String...names) {
-            return MetricRegistry.name(List.of(metricNamePrefix, aggregateType.name(), "command-handling").mkString("."), names);
+        private void stop(Timer timer, long startedAt) {
+            if(startedAt != NOT_STARTED) {
+                timer.update(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
         }
     }
 }
@@ -1,33 +1,45 @@
 package com.dreweaster.ddd.jester.example;
 
-import com.dreweaster.ddd.jester.domain.AggregateId;
-import com.dreweaster.ddd.jester.domain.CommandId;
-import com.dreweaster.ddd.jester.example.application.service.UserService;
-import com.dreweaster.ddd.jester.example.domain.aggregates.user.commands.RegisterUser;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.repository.UserRepository;
 import com.dreweaster.ddd.jester.example.infrastructure.ExampleModule;
-import com.google.common.util.concurrent.RateLimiter;
+import com.dreweaster.ddd.jester.example.load.CommandMix;
+import com.dreweaster.ddd.jester.example.load.KeyDistribution;
+import com.dreweaster.ddd.jester.example.load.LoadGenerator;
+import com.dreweaster.ddd.jester.example.load.LoadGeneratorSettings;
+import com.dreweaster.ddd.jester.example.load.LoadReport;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.inmemory.InMemoryEventStore;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import io.vavr.concurrent.Future;
-import io.vavr.control.Try;
 import org.flywaydb.core.Flyway;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
+import java.time.Duration;
 
+/**
+ * Runs a LoadGenerator against the local Postgres database or, given the argument in-memory, an InMemoryEventStore.
+ *
+ * The load is configured with system properties: load.rate (commands per second), load.warmup and load.duration (in
+ * seconds), load.users, load.zipfExponent (to send commands to hot users rather than uniformly) and load.mix (weights
+ * by command kind, e.g. CHANGE_PASSWORD=90,INCREMENT_FAILED_LOGIN_ATTEMPTS=5,REGISTER_USER=5).
+ */
 public class ExampleApplication {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ExampleApplication.class);
 
     public static void main(String[] args) throws Exception {
 
-        migrateDb();
+        Injector injector;
+        if (args.length > 0 && args[0].equals("in-memory")) {
+            injector = Guice.createInjector(new ExampleModule(new InMemoryEventStore(ExampleModule.createPayloadMapper())));
+        } else {
+            migrateDb();
+            injector = Guice.createInjector(new ExampleModule());
+        }
 
         ExampleApplication application = new ExampleApplication();
-        application.run(Guice.createInjector(new ExampleModule()));
+        application.run(injector, loadGeneratorSettings());
 
         // Shutdown the executor service used by default in Javaslang as part of handling Future callbacks
         Future.DEFAULT_EXECUTOR_SERVICE.shutdownNow();
@@ -39,84 +51,38 @@ public class ExampleApplication {
         flyway.migrate();
     }
 
-    public void run(Injector injector) throws Exception {
-
-        UserService userService = injector.getInstance(UserService.class);
+    public void run(Injector injector, LoadGeneratorSettings settings) throws Exception {
 
-        RateLimiter rateLimiter = RateLimiter.create(20000);
+        UserRepository userRepository = injector.getInstance(UserRepository.class);
 
-        ReportingResponseHandler responseHandler = new ReportingResponseHandler();
-
-        int count = 20000;
-        for (int i = 0; i < count; i++) {
-            rateLimiter.acquire();
-            // Register user for first time
-            userService.createUser(
-                    AggregateId.of("deterministic-aggregate-id-" + i),
-                    CommandId.of("deterministic-command-id-" + i),
-                    RegisterUser.builder()
-                            .username("user" + i)
-                            .password("password")
-                            .create()
-            ).onComplete(responseHandler);
-        }
+        LoadReport report = new LoadGenerator(userRepository, settings).run();
 
-        Thread.sleep(20000);
-
-        /*// Send same command with different command id
-        userService.createUser(AggregateRoutingCommandEnvelopeWrapper.of(
-                        AggregateId.of("deterministic-aggregate-id-1"),
-                        CommandId.of("deterministic-command-id-2"),
-                        RegisterUser.builder()
-                                .username("user2")
-                                .password("password2")
-                                .create())
-        ).onComplete(new ResponseHandler()).await();
-
-        // Send same command with duplicate command id
-        userService.createUser(AggregateRoutingCommandEnvelopeWrapper.of(
-                        AggregateId.of("deterministic-aggregate-id-1"),
-                        CommandId.of("deterministic-command-id-1"),
-                        RegisterUser.builder()
-                                .username("user1")
-                                .password("password1")
-                                .create())
-        ).onComplete(new ResponseHandler()).await();*/
+        LOGGER.info("Load run complete\n" + report);
     }
 
-    private class ReportingResponseHandler implements Consumer<Try<AggregateId>> {
-
-        private long startTime = System.currentTimeMillis();
-
-        private AtomicInteger count = new AtomicInteger();
-
-        public ReportingResponseHandler() {
-
-            ScheduledExecutorService executor = new ScheduledThreadPoolExecutor(1);
-
-            Runnable reporterTask = () -> {
-                long executionTimeInSeconds = (System.currentTimeMillis() - startTime) / 1000;
-                long tps = count.get() / executionTimeInSeconds;
-                LOGGER.info(tps + "tps");
-            };
-
-            executor.scheduleAtFixedRate(reporterTask, 1000, 1000, TimeUnit.MILLISECONDS);
+    private static LoadGeneratorSettings loadGeneratorSettings() {
+        LoadGeneratorSettings settings = LoadGeneratorSettings.defaults();
+
+        settings = settings.withCommandsPerSecond(Integer.getInteger("load.rate", settings.commandsPerSecond()));
+        settings = settings.withWarmup(Duration.ofSeconds(Long.getLong("load.warmup", settings.warmup().getSeconds())));
+        settings = settings.withDuration(Duration.ofSeconds(Long.getLong("load.duration", settings.duration().getSeconds())));
+
+        int users = Integer.getInteger("load.users", settings.keyDistribution().keys());
+        String zipfExponent = System.getProperty("load.zipfExponent");
+        settings = settings.withKeyDistribution(zipfExponent == null
+                ? KeyDistribution.uniform(users)
+                : KeyDistribution.zipfian(users, Double.parseDouble(zipfExponent)));
+
+        String mix = System.getProperty("load.mix");
+        if (mix != null) {
+            CommandMix commandMix = CommandMix.empty();
+            for (String weight : mix.split(",")) {
+                String[] kindAndWeight = weight.split("=");
+                commandMix = commandMix.with(CommandMix.CommandKind.valueOf(kindAndWeight[0].trim()), Integer.parseInt(kindAndWeight[1].trim()));
+            }
+            settings = settings.withCommandMix(commandMix);
         }
 
-        @Override
-        public void accept(Try<AggregateId> aggregateIds) {
-            aggregateIds
-                    .onSuccess(aggregateId -> LOGGER.info("count = " + count.incrementAndGet()))
-                    .onFailure(throwable -> LOGGER.error("ERROR!", throwable));
-        }
-    }
-
-    private class ResponseHandler implements Consumer<Try<AggregateId>> {
-        @Override
-        public void accept(Try<AggregateId> aggregateId) {
-            aggregateId
-                    .onSuccess(aggregateId1 -> LOGGER.info("Created new User with id: " + aggregateId.get()))
-                    .onFailure(throwable -> LOGGER.error("Error creating User!", throwable));
-        }
+        return settings;
     }
 }
@@ -25,9 +25,22 @@ import java.util.concurrent.Executors;
  */
 public class ExampleModule extends AbstractModule {
 
+    private EventStore eventStore;
+
+    /**
+     * Uses a Postgres95EventStore on the local database.
+     */
+    public ExampleModule() {
+
+    }
+
+    public ExampleModule(EventStore eventStore) {
+        this.eventStore = eventStore;
+    }
+
     @Override
     protected void configure() {
-        bind(EventStore.class).toInstance(createEventStore());
+        bind(EventStore.class).toInstance(eventStore != null ? eventStore : createEventStore());
         bind(CommandDeduplicationStrategyFactory.class).to(TwentyFourHourWindowCommandDeduplicationStrategyFactory.class);
         bind(UserRepository.class).to(CommandDeduplicatingEventsourcedUserRepository.class);
         bind(UserService.class).to(UserServiceImpl.class);
@@ -52,9 +65,17 @@ public class ExampleModule extends AbstractModule {
 
         HikariDataSource ds = new HikariDataSource(config);
 
+        // TODO: Number of threads config should drive connection pool size, not other way around
+        // TODO: ExecutorService needs to shutdown
+        ExecutorService executorService = Executors.newFixedThreadPool(config.getMaximumPoolSize());
+
+        return new Postgres95EventStore(ds, executorService, createPayloadMapper(), createDomainModel());
+    }
+
+    public static JsonPayloadMapper createPayloadMapper() {
         // This is so we don't rely on Jackson Object<=>JSON - we want to keep serialisation/deserialisation completely
         // outside of the domain layer (Hexagonal Architecture FTW).
-        JsonPayloadMapper payloadMapper = new JsonPayloadMapper(
+        return new JsonPayloadMapper(
                 new ObjectMapper(),
                 List.of(
                         new UserRegisteredEventMappingConfigurer(),
@@ -65,12 +86,9 @@ public class ExampleModule extends AbstractModule {
                 ),
                 List.of(
                         new UserStateSerialiser()
+                ),
+                List.of(
+                        new UserStateDeserialiser()
                 ));
-
-        // TODO: Number of threads config should drive connection pool size, not other way around
-        // TODO: ExecutorService needs to shutdown
-        ExecutorService executorService = Executors.newFixedThreadPool(config.getMaximumPoolSize());
-
-        return new Postgres95EventStore(ds, executorService, payloadMapper, createDomainModel());
     }
 }
@@ -1,30 +1,43 @@
 package com.dreweaster.ddd.jester.example.infrastructure.serialisation;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserRegistered;
 import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfigurer;
 import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfigurationFactory;
 
+import java.io.IOException;
+
 public class UserRegisteredEventMappingConfigurer implements JsonEventMappingConfigurer<UserRegistered> {
 
     @Override
     public void configure(JsonEventMappingConfigurationFactory<UserRegistered> configurationFactory) {
         configurationFactory
                 .create(UserRegistered.class.getName())
-                .mappingFunctions(this::serialise, this::deserialise);
+                .streamingMappingFunctions(this::serialise, this::deserialise);
     }
 
-    private JsonNode serialise(UserRegistered event, ObjectNode root) {
-        root.put("username", event.username());
-        root.put("password", event.password());
-        return root;
+    private void serialise(UserRegistered event, JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("username", event.username());
+        generator.writeStringField("password", event.password());
+        generator.writeEndObject();
     }
 
-    private UserRegistered deserialise(JsonNode root) {
-        return UserRegistered.builder()
-                .username(root.get("username").asText())
-                .password(root.get("password").asText())
-                .create();
+    private UserRegistered deserialise(JsonParser parser) throws IOException {
+        UserRegistered.Builder builder = UserRegistered.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("username".equals(field)) {
+                builder.username(parser.getText());
+            } else if ("password".equals(field)) {
+                builder.password(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return builder.create();
     }
 }
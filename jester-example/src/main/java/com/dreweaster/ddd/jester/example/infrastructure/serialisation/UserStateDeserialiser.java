@@ -0,0 +1,25 @@
+package com.dreweaster.ddd.jester.example.infrastructure.serialisation;
+
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.UserState;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.StatePayloadJsonDeserialiser;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ */
+public class UserStateDeserialiser extends StatePayloadJsonDeserialiser<User, UserState> {
+
+    @Override
+    public Class<UserState> stateClass() {
+        return UserState.class;
+    }
+
+    @Override
+    public UserState doDeserialise(JsonNode root) {
+        return UserState.builder()
+                .username(root.get("username").asText())
+                .password(root.get("password").asText())
+                .failedLoginAttempts(root.get("failed_login_attempts").asInt())
+                .create();
+    }
+}
@@ -17,7 +17,7 @@ public class UserStateSerialiser extends StatePayloadJsonSerialiser<User, UserSt
     @Override
     public void doSerialise(UserState userState, ObjectNode root) {
         root.put("username",userState.username());
-        root.put("password", userState.username());
+        root.put("password", userState.password());
         root.put("failed_login_attempts", userState.failedLoginAttempts());
     }
 }
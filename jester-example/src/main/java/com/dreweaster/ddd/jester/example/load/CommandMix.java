@@ -0,0 +1,108 @@
+package com.dreweaster.ddd.jester.example.load;
+
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.commands.*;
+import io.vavr.collection.LinkedHashMap;
+import io.vavr.collection.Map;
+
+import java.util.Random;
+
+/**
+ * The kinds of command a load run sends, each with a relative weight. Instances are immutable, with returns a copy.
+ */
+public class CommandMix {
+
+    public enum CommandKind {
+
+        REGISTER_USER {
+            @Override
+            UserCommand create(int key, long sequence) {
+                return RegisterUser.builder().username("user" + key).password("password").create();
+            }
+        },
+
+        CHANGE_PASSWORD {
+            @Override
+            UserCommand create(int key, long sequence) {
+                return ChangePassword.builder().password("password" + sequence).create();
+            }
+        },
+
+        INCREMENT_FAILED_LOGIN_ATTEMPTS {
+            @Override
+            UserCommand create(int key, long sequence) {
+                return IncrementFailedLoginAttempts.of();
+            }
+        };
+
+        /**
+         * @param key the key of the aggregate the command will be sent to
+         * @param sequence the position of the command in the load run
+         */
+        abstract UserCommand create(int key, long sequence);
+    }
+
+    /**
+     * Mostly changes to registered users. Incrementing failed login attempts locks a user on the fourth, after which
+     * password changes are rejected, so it is kept rare.
+     */
+    public static CommandMix defaults() {
+        return empty()
+                .with(CommandKind.CHANGE_PASSWORD, 95)
+                .with(CommandKind.INCREMENT_FAILED_LOGIN_ATTEMPTS, 5);
+    }
+
+    public static CommandMix empty() {
+        return new CommandMix(LinkedHashMap.empty());
+    }
+
+    private Map<CommandKind, Integer> weights;
+
+    private CommandKind[] kinds;
+
+    // cumulativeWeights[i] is the sum of the weights of kinds 0 to i
+    private int[] cumulativeWeights;
+
+    private CommandMix(Map<CommandKind, Integer> weights) {
+        this.weights = weights;
+        this.kinds = weights.keySet().toJavaArray(CommandKind.class);
+        this.cumulativeWeights = new int[kinds.length];
+        int total = 0;
+        for (int i = 0; i < kinds.length; i++) {
+            total += weights.get(kinds[i]).get();
+            cumulativeWeights[i] = total;
+        }
+    }
+
+    /**
+     * @param weight the weight of the kind of command relative to the others, or 0 to never send it
+     * @return a copy of this mix with the given weight for the kind of command
+     */
+    public CommandMix with(CommandKind kind, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight cannot be negative");
+        }
+        return new CommandMix(weight == 0 ? weights.remove(kind) : weights.put(kind, weight));
+    }
+
+    public Map<CommandKind, Integer> weights() {
+        return weights;
+    }
+
+    public boolean isEmpty() {
+        return weights.isEmpty();
+    }
+
+    CommandKind nextKind(Random random) {
+        int weight = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int i = 0;
+        while (cumulativeWeights[i] <= weight) {
+            i++;
+        }
+        return kinds[i];
+    }
+
+    @Override
+    public String toString() {
+        return weights.toString();
+    }
+}
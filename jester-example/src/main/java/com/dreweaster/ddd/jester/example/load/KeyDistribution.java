@@ -0,0 +1,94 @@
+package com.dreweaster.ddd.jester.example.load;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Chooses which of a fixed number of aggregates each command of a load run is sent to.
+ */
+public abstract class KeyDistribution {
+
+    /**
+     * Every aggregate is equally likely to be chosen.
+     */
+    public static KeyDistribution uniform(int keys) {
+        return new Uniform(keys);
+    }
+
+    /**
+     * The aggregate of rank k (counting from 1) is chosen with probability proportional to 1/k^exponent, so a few hot
+     * aggregates receive most of the commands. An exponent of around 1 is typical of real workloads, and 0 is uniform.
+     */
+    public static KeyDistribution zipfian(int keys, double exponent) {
+        return new Zipfian(keys, exponent);
+    }
+
+    private int keys;
+
+    private KeyDistribution(int keys) {
+        if (keys < 1) {
+            throw new IllegalArgumentException("keys must be at least 1");
+        }
+        this.keys = keys;
+    }
+
+    public int keys() {
+        return keys;
+    }
+
+    /**
+     * @return a key from 0 (the hottest, for a skewed distribution) to keys() - 1
+     */
+    public abstract int nextKey(Random random);
+
+    private static class Uniform extends KeyDistribution {
+
+        Uniform(int keys) {
+            super(keys);
+        }
+
+        @Override
+        public int nextKey(Random random) {
+            return random.nextInt(keys());
+        }
+
+        @Override
+        public String toString() {
+            return "uniform(" + keys() + ")";
+        }
+    }
+
+    private static class Zipfian extends KeyDistribution {
+
+        private double exponent;
+
+        // cumulativeWeights[k] is the sum of the weights of keys 0 to k, so a key is found by binary search
+        private double[] cumulativeWeights;
+
+        Zipfian(int keys, double exponent) {
+            super(keys);
+            if (exponent < 0) {
+                throw new IllegalArgumentException("exponent cannot be negative");
+            }
+            this.exponent = exponent;
+            this.cumulativeWeights = new double[keys];
+            double total = 0;
+            for (int key = 0; key < keys; key++) {
+                total += 1 / Math.pow(key + 1, exponent);
+                cumulativeWeights[key] = total;
+            }
+        }
+
+        @Override
+        public int nextKey(Random random) {
+            double weight = random.nextDouble() * cumulativeWeights[cumulativeWeights.length - 1];
+            int index = Arrays.binarySearch(cumulativeWeights, weight);
+            return Math.min(index >= 0 ? index : -index - 1, keys() - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "zipfian(" + keys() + ", " + exponent + ")";
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.dreweaster.ddd.jester.example.load;
+
+import com.dreweaster.ddd.jester.domain.AggregateId;
+import com.dreweaster.ddd.jester.domain.AggregateRepository.CommandEnvelope;
+import com.dreweaster.ddd.jester.domain.AggregateRepository.CommandHandlingResult;
+import com.dreweaster.ddd.jester.domain.AggregateRepository.ConcurrentModificationResult;
+import com.dreweaster.ddd.jester.domain.AggregateRepository.RejectionResult;
+import com.dreweaster.ddd.jester.domain.CommandId;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.commands.UserCommand;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserEvent;
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.repository.UserRepository;
+import com.dreweaster.ddd.jester.example.load.LoadReport.ResultType;
+import io.vavr.concurrent.Future;
+import io.vavr.control.Try;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends a mix of commands to users through a UserRepository at a fixed rate and records their latencies.
+ *
+ * The schedule is open loop: each command is sent at its scheduled time whether or not earlier ones have completed, as
+ * independent clients would send them. If sending falls behind, the backlog is sent as fast as possible, and each
+ * command's response time is still measured from when it was scheduled, so a stall is charged to every command it
+ * delayed rather than only to the one that hit it (the coordinated omission problem).
+ */
+public class LoadGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final int MAX_OUTSTANDING_REGISTRATIONS = 1000;
+
+    private UserRepository userRepository;
+
+    private LoadGeneratorSettings settings;
+
+    private Random random = new Random();
+
+    public LoadGenerator(UserRepository userRepository, LoadGeneratorSettings settings) {
+        this.userRepository = userRepository;
+        this.settings = settings;
+    }
+
+    /**
+     * Registers the users, if the settings say to, then runs the warmup and the measured run, waits for the commands
+     * still outstanding and reports on those sent after the warmup.
+     */
+    public LoadReport run() throws InterruptedException {
+        if (settings.registerUsers()) {
+            registerUsers();
+        }
+        return new Run().execute();
+    }
+
+    private void registerUsers() {
+        int users = settings.keyDistribution().keys();
+        LOGGER.info("Registering " + users + " users");
+        java.util.List<Future<CommandHandlingResult<UserCommand, UserEvent>>> registrations = new ArrayList<>();
+        for (int key = 0; key < users; key++) {
+            // Deterministic command ids, so a rerun against the same event store deduplicates instead of re-registering
+            registrations.add(userRepository.aggregateRootOf(aggregateId(key)).handle(CommandEnvelope.of(
+                    CommandId.of("register-user-" + key),
+                    CommandMix.CommandKind.REGISTER_USER.create(key, key))));
+            if (registrations.size() == MAX_OUTSTANDING_REGISTRATIONS) {
+                registrations.forEach(Future::await);
+                registrations.clear();
+            }
+        }
+        registrations.forEach(Future::await);
+    }
+
+    private static AggregateId aggregateId(int key) {
+        return AggregateId.of("load-test-user-" + key);
+    }
+
+    private static ResultType resultType(Try<CommandHandlingResult<UserCommand, UserEvent>> result) {
+        if (result.isFailure()) {
+            return ResultType.FAILURE;
+        } else if (result.get() instanceof RejectionResult) {
+            return ResultType.REJECTION;
+        } else if (result.get() instanceof ConcurrentModificationResult) {
+            return ResultType.CONCURRENT_MODIFICATION;
+        } else {
+            return ResultType.SUCCESS;
+        }
+    }
+
+    private class Run {
+
+        // Short enough that command ids (the run id and the command's sequence number) fit the 36 characters Postgres
+        // event stores allow for a causation id
+        private String runId = UUID.randomUUID().toString().substring(0, 8);
+
+        private EnumMap<ResultType, Histogram> responseTimes = new EnumMap<>(ResultType.class);
+
+        private EnumMap<ResultType, Histogram> serviceTimes = new EnumMap<>(ResultType.class);
+
+        private EnumMap<ResultType, Recorder> intervalResponseTimes = new EnumMap<>(ResultType.class);
+
+        private AtomicLong outstanding = new AtomicLong();
+
+        private LongAccumulator maxOutstanding = new LongAccumulator(Long::max, 0);
+
+        private ConcurrentHashMap<Class<?>, Boolean> loggedFailures = new ConcurrentHashMap<>();
+
+        private long startedAt;
+
+        Run() {
+            for (ResultType resultType : ResultType.values()) {
+                responseTimes.put(resultType, new ConcurrentHistogram(SIGNIFICANT_DIGITS));
+                serviceTimes.put(resultType, new ConcurrentHistogram(SIGNIFICANT_DIGITS));
+                intervalResponseTimes.put(resultType, new Recorder(SIGNIFICANT_DIGITS));
+            }
+        }
+
+        LoadReport execute() throws InterruptedException {
+            double nanosPerCommand = TimeUnit.SECONDS.toNanos(1) / (double) settings.commandsPerSecond();
+            long warmupCommands = (long) (settings.warmup().toNanos() / nanosPerCommand);
+            long commands = warmupCommands + (long) (settings.duration().toNanos() / nanosPerCommand);
+
+            LOGGER.info("Starting load run " + runId + ": " + settings);
+
+            ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor();
+            long reportIntervalNanos = settings.reportInterval().toNanos();
+            reporter.scheduleAtFixedRate(this::logInterval, reportIntervalNanos, reportIntervalNanos, TimeUnit.NANOSECONDS);
+
+            startedAt = System.nanoTime();
+            try {
+                for (long sequence = 0; sequence < commands; sequence++) {
+                    long scheduledAt = startedAt + (long) (sequence * nanosPerCommand);
+                    long delay;
+                    while ((delay = scheduledAt - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(delay);
+                    }
+                    send(sequence, scheduledAt, sequence >= warmupCommands);
+                }
+                long finishedSendingAt = System.nanoTime();
+
+                long drainDeadline = finishedSendingAt + settings.drainTimeout().toNanos();
+                while (outstanding.get() > 0 && System.nanoTime() < drainDeadline) {
+                    Thread.sleep(10);
+                }
+
+                long measuredFrom = startedAt + (long) (warmupCommands * nanosPerCommand);
+                return new LoadReport(
+                        responseTimes,
+                        serviceTimes,
+                        commands - warmupCommands,
+                        outstanding.get(),
+                        maxOutstanding.get(),
+                        Duration.ofNanos(Math.max(0, finishedSendingAt - measuredFrom)));
+            } finally {
+                reporter.shutdownNow();
+            }
+        }
+
+        private void send(long sequence, long scheduledAt, boolean measured) {
+            int key = settings.keyDistribution().nextKey(random);
+            CommandEnvelope<UserCommand> command = CommandEnvelope.of(
+                    CommandId.of(runId + "-" + sequence),
+                    settings.commandMix().nextKind(random).create(key, sequence));
+
+            maxOutstanding.accumulate(outstanding.incrementAndGet());
+            long sentAt = System.nanoTime();
+
+            Future<CommandHandlingResult<UserCommand, UserEvent>> result;
+            try {
+                result = userRepository.aggregateRootOf(aggregateId(key)).handle(command);
+            } catch (RuntimeException ex) {
+                result = Future.failed(ex);
+            }
+
+            result.onComplete(completed -> {
+                long completedAt = System.nanoTime();
+                ResultType resultType = resultType(completed);
+                if (completed.isFailure() && loggedFailures.putIfAbsent(completed.getCause().getClass(), true) == null) {
+                    LOGGER.warn("Command " + command.command() + " failed, further failures of this kind won't be logged", completed.getCause());
+                }
+                intervalResponseTimes.get(resultType).recordValue(completedAt - scheduledAt);
+                if (measured) {
+                    responseTimes.get(resultType).recordValue(completedAt - scheduledAt);
+                    serviceTimes.get(resultType).recordValue(completedAt - sentAt);
+                }
+                outstanding.decrementAndGet();
+            });
+        }
+
+        private void logInterval() {
+            StringBuilder line = new StringBuilder(String.format(
+                    "%.0fs, %d outstanding", (System.nanoTime() - startedAt) / 1e9, outstanding.get()));
+            for (ResultType resultType : ResultType.values()) {
+                Histogram interval = intervalResponseTimes.get(resultType).getIntervalHistogram();
+                if (interval.getTotalCount() > 0) {
+                    line.append(String.format("%n  %-23s %8d  response %s", resultType, interval.getTotalCount(), LoadReport.percentiles(interval)));
+                }
+            }
+            LOGGER.info(line.toString());
+        }
+    }
+}
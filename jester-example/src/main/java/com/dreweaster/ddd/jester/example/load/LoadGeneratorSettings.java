@@ -0,0 +1,186 @@
+package com.dreweaster.ddd.jester.example.load;
+
+import java.time.Duration;
+
+/**
+ * What a @see LoadGenerator sends and for how long. Instances are immutable, each with* method returns a copy.
+ */
+public class LoadGeneratorSettings {
+
+    public static LoadGeneratorSettings defaults() {
+        return new LoadGeneratorSettings();
+    }
+
+    private int commandsPerSecond = 1000;
+
+    private Duration warmup = Duration.ofSeconds(10);
+
+    private Duration duration = Duration.ofSeconds(60);
+
+    private Duration drainTimeout = Duration.ofSeconds(30);
+
+    private Duration reportInterval = Duration.ofSeconds(1);
+
+    private KeyDistribution keyDistribution = KeyDistribution.uniform(10000);
+
+    private CommandMix commandMix = CommandMix.defaults();
+
+    private boolean registerUsers = true;
+
+    private LoadGeneratorSettings() {
+
+    }
+
+    private LoadGeneratorSettings(LoadGeneratorSettings settings) {
+        this.commandsPerSecond = settings.commandsPerSecond;
+        this.warmup = settings.warmup;
+        this.duration = settings.duration;
+        this.drainTimeout = settings.drainTimeout;
+        this.reportInterval = settings.reportInterval;
+        this.keyDistribution = settings.keyDistribution;
+        this.commandMix = settings.commandMix;
+        this.registerUsers = settings.registerUsers;
+    }
+
+    /**
+     * @param commandsPerSecond the rate commands are scheduled at, whether or not earlier commands have completed
+     * @return a copy of these settings with the given rate
+     */
+    public LoadGeneratorSettings withCommandsPerSecond(int commandsPerSecond) {
+        if (commandsPerSecond < 1) {
+            throw new IllegalArgumentException("commandsPerSecond must be at least 1");
+        }
+        LoadGeneratorSettings settings = new LoadGeneratorSettings(this);
+        settings.commandsPerSecond = commandsPerSecond;
+        return settings;
+    }
+
+    /**
+     * @param warmup how long to send commands for before recording their latencies
+     * @return a copy of these settings with the given warmup
+     */
+    public LoadGeneratorSettings withWarmup(Duration warmup) {
+        if (warmup.isNegative()) {
+            throw new IllegalArgumentException("warmup cannot be negative");
+        }
+        LoadGeneratorSettings settings = new LoadGeneratorSettings(this);
+        settings.warmup = warmup;
+        return settings;
+    }
+
+    /**
+     * @param duration how long to send commands for after the warmup
+     * @return a copy of these settings with the given duration
+     */
+    public LoadGeneratorSettings withDuration(Duration duration) {
+        if (duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException("duration must be positive");
+        }
+        LoadGeneratorSettings settings = new LoadGeneratorSettings(this);
+        settings.duration = duration;
+        return settings;
+    }
+
+    /**
+     * @param drainTimeout how long to wait for outstanding commands to complete once all have been sent
+     * @return a copy of these settings with the given drain timeout
+     */
+    public LoadGeneratorSettings withDrainTimeout(Duration drainTimeout) {
+        if (drainTimeout.isNegative()) {
+            throw new IllegalArgumentException("drainTimeout cannot be negative");
+        }
+        LoadGeneratorSettings settings = new LoadGeneratorSettings(this);
+        settings.drainTimeout = drainTimeout;
+        return settings;
+    }
+
+    /**
+     * @param reportInterval how often to log the latencies of the commands completed since the last log
+     * @return a copy of these settings with the given report interval
+     */
+    public LoadGeneratorSettings withReportInterval(Duration reportInterval) {
+        if (reportInterval.isNegative() || reportInterval.isZero()) {
+            throw new IllegalArgumentException("reportInterval must be positive");
+        }
+        LoadGeneratorSettings settings = new LoadGeneratorSettings(this);
+        settings.reportInterval = reportInterval;
+        return settings;
+    }
+
+    /**
+     * @return a copy of these settings sending commands to aggregates chosen by the given distribution
+     */
+    public LoadGeneratorSettings withKeyDistribution(KeyDistribution keyDistribution) {
+        LoadGeneratorSettings settings = new LoadGeneratorSettings(this);
+        settings.keyDistribution = keyDistribution;
+        return settings;
+    }
+
+    /**
+     * @return a copy of these settings sending the given mix of commands
+     */
+    public LoadGeneratorSettings withCommandMix(CommandMix commandMix) {
+        if (commandMix.isEmpty()) {
+            throw new IllegalArgumentException("commandMix must include at least one kind of command");
+        }
+        LoadGeneratorSettings settings = new LoadGeneratorSettings(this);
+        settings.commandMix = commandMix;
+        return settings;
+    }
+
+    /**
+     * Don't register every user before the run. Unless the users are already registered, e.g. by an earlier run against
+     * the same event store, most commands other than RegisterUser will then be rejected.
+     *
+     * @return a copy of these settings without registering users first
+     */
+    public LoadGeneratorSettings withoutRegisteringUsers() {
+        LoadGeneratorSettings settings = new LoadGeneratorSettings(this);
+        settings.registerUsers = false;
+        return settings;
+    }
+
+    public int commandsPerSecond() {
+        return commandsPerSecond;
+    }
+
+    public Duration warmup() {
+        return warmup;
+    }
+
+    public Duration duration() {
+        return duration;
+    }
+
+    public Duration drainTimeout() {
+        return drainTimeout;
+    }
+
+    public Duration reportInterval() {
+        return reportInterval;
+    }
+
+    public KeyDistribution keyDistribution() {
+        return keyDistribution;
+    }
+
+    public CommandMix commandMix() {
+        return commandMix;
+    }
+
+    public boolean registerUsers() {
+        return registerUsers;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadGeneratorSettings{" +
+                "commandsPerSecond=" + commandsPerSecond +
+                ", warmup=" + warmup +
+                ", duration=" + duration +
+                ", keyDistribution=" + keyDistribution +
+                ", commandMix=" + commandMix +
+                ", registerUsers=" + registerUsers +
+                '}';
+    }
+}
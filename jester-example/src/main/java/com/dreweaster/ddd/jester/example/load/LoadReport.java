@@ -0,0 +1,135 @@
+package com.dreweaster.ddd.jester.example.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The outcome of a load run, excluding its warmup. Latencies are held in nanoseconds, by the result of each command.
+ *
+ * Response time is measured from when a command was scheduled to be sent, so a command delayed by a backlog is charged
+ * with the delay, as a client sending at that rate would see it. Service time is measured from when it was actually
+ * sent. Capacity should be planned from response times; the gap between the two shows how far the run fell behind.
+ */
+public class LoadReport {
+
+    public enum ResultType {
+        SUCCESS,
+        REJECTION,
+        CONCURRENT_MODIFICATION,
+        FAILURE
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private EnumMap<ResultType, Histogram> responseTimes;
+
+    private EnumMap<ResultType, Histogram> serviceTimes;
+
+    private long sent;
+
+    private long unfinished;
+
+    private long maxOutstanding;
+
+    private Duration duration;
+
+    LoadReport(
+            EnumMap<ResultType, Histogram> responseTimes,
+            EnumMap<ResultType, Histogram> serviceTimes,
+            long sent,
+            long unfinished,
+            long maxOutstanding,
+            Duration duration) {
+        this.responseTimes = responseTimes;
+        this.serviceTimes = serviceTimes;
+        this.sent = sent;
+        this.unfinished = unfinished;
+        this.maxOutstanding = maxOutstanding;
+        this.duration = duration;
+    }
+
+    public Histogram responseTimes(ResultType resultType) {
+        return responseTimes.get(resultType);
+    }
+
+    public Histogram serviceTimes(ResultType resultType) {
+        return serviceTimes.get(resultType);
+    }
+
+    /**
+     * @return the number of commands sent after the warmup
+     */
+    public long sent() {
+        return sent;
+    }
+
+    public long completed() {
+        long completed = 0;
+        for (Histogram histogram : responseTimes.values()) {
+            completed += histogram.getTotalCount();
+        }
+        return completed;
+    }
+
+    public long completed(ResultType resultType) {
+        return responseTimes.get(resultType).getTotalCount();
+    }
+
+    /**
+     * @return the number of commands, including any sent during the warmup, that hadn't completed by the drain timeout
+     */
+    public long unfinished() {
+        return unfinished;
+    }
+
+    /**
+     * @return the most commands that were waiting to complete at once
+     */
+    public long maxOutstanding() {
+        return maxOutstanding;
+    }
+
+    /**
+     * @return the time from the end of the warmup until the last command was sent
+     */
+    public Duration duration() {
+        return duration;
+    }
+
+    public double commandsPerSecond() {
+        return duration.isZero() ? 0 : completed() / (duration.toNanos() / 1e9);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder(String.format(
+                "Sent %d commands in %.1fs, completed %d (%.0f/s), %d unfinished, at most %d outstanding%n",
+                sent, duration.toNanos() / 1e9, completed(), commandsPerSecond(), unfinished, maxOutstanding));
+        for (ResultType resultType : ResultType.values()) {
+            if (completed(resultType) > 0) {
+                report.append(String.format("%-23s %8d  response %s%n", resultType, completed(resultType), percentiles(responseTimes(resultType))));
+                report.append(String.format("%-23s %8s  service  %s%n", "", "", percentiles(serviceTimes(resultType))));
+            }
+        }
+        return report.toString();
+    }
+
+    static String percentiles(Histogram histogram) {
+        StringBuilder percentiles = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            percentiles.append(String.format("p%s=%s ", format(percentile), millis(histogram.getValueAtPercentile(percentile))));
+        }
+        return percentiles.append("max=").append(millis(histogram.getMaxValue())).toString();
+    }
+
+    private static String format(double percentile) {
+        return percentile == Math.floor(percentile) ? Long.toString((long) percentile) : Double.toString(percentile);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+    }
+}
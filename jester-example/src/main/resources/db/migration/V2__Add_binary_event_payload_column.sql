@@ -0,0 +1,7 @@
+ALTER TABLE domain_event ALTER COLUMN event_payload DROP NOT NULL;
+
+-- Payloads in this column are already compressed by the event store, so don't let TOAST compress them again
+ALTER TABLE domain_event ADD COLUMN event_payload_binary BYTEA NULL;
+ALTER TABLE domain_event ALTER COLUMN event_payload_binary SET STORAGE EXTERNAL;
+
+ALTER TABLE domain_event ADD CONSTRAINT event_payload_present CHECK (event_payload IS NOT NULL OR event_payload_binary IS NOT NULL);
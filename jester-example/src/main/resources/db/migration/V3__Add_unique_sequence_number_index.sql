@@ -0,0 +1,4 @@
+-- Replaces events_for_aggregate_instance_idx, which covered the same leading columns
+CREATE UNIQUE INDEX unique_sequence_number_for_aggregate_instance_idx ON domain_event (aggregate_type, aggregate_id, sequence_number);
+
+DROP INDEX events_for_aggregate_instance_idx;
@@ -0,0 +1,2 @@
+-- NULL for events written before content types were recorded, all of which are JSON
+ALTER TABLE domain_event ADD COLUMN event_payload_content_type VARCHAR(100) NULL;
@@ -0,0 +1,5 @@
+-- Progress of Postgres95PayloadUpgrader through each range of domain_event offsets
+CREATE TABLE payload_upgrade_checkpoint (
+  range_end   BIGINT PRIMARY KEY,
+  last_offset BIGINT NOT NULL
+);
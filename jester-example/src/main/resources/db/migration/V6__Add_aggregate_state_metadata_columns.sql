@@ -0,0 +1,4 @@
+-- The class, format version and sequence number of aggregate_state, so that it can be read back as a snapshot
+ALTER TABLE aggregate_root ADD COLUMN aggregate_state_type VARCHAR(255) NULL;
+ALTER TABLE aggregate_root ADD COLUMN aggregate_state_version INT NULL;
+ALTER TABLE aggregate_root ADD COLUMN aggregate_state_sequence_number BIGINT NULL;
@@ -0,0 +1,74 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres;
+
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper;
+import com.dreweaster.ddd.jester.application.eventstore.SerialisationContentType;
+import com.dreweaster.ddd.jester.domain.Aggregate;
+import com.dreweaster.ddd.jester.domain.DomainEvent;
+import io.vavr.Tuple2;
+import io.vavr.control.Option;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the events deserialised through another PayloadMapper, so tests can tell when, and whether, events are
+ * deserialised.
+ */
+public class CountingPayloadMapper implements PayloadMapper {
+
+    private PayloadMapper payloadMapper;
+
+    private AtomicInteger deserialisedEvents = new AtomicInteger();
+
+    public CountingPayloadMapper(PayloadMapper payloadMapper) {
+        this.payloadMapper = payloadMapper;
+    }
+
+    public int deserialisedEvents() {
+        return deserialisedEvents.get();
+    }
+
+    @Override
+    public <T extends DomainEvent> T deserialiseEvent(String serialisedPayload, String serialisedEventType, Integer serialisedEventVersion) {
+        deserialisedEvents.incrementAndGet();
+        return payloadMapper.deserialiseEvent(serialisedPayload, serialisedEventType, serialisedEventVersion);
+    }
+
+    @Override
+    public <T extends DomainEvent> T deserialiseEvent(byte[] serialisedPayload, String serialisedEventType, Integer serialisedEventVersion) {
+        deserialisedEvents.incrementAndGet();
+        return payloadMapper.deserialiseEvent(serialisedPayload, serialisedEventType, serialisedEventVersion);
+    }
+
+    @Override
+    public <T extends DomainEvent> T deserialiseEvent(
+            byte[] serialisedPayload,
+            SerialisationContentType contentType,
+            String serialisedEventType,
+            Integer serialisedEventVersion) {
+        deserialisedEvents.incrementAndGet();
+        return payloadMapper.deserialiseEvent(serialisedPayload, contentType, serialisedEventType, serialisedEventVersion);
+    }
+
+    @Override
+    public Option<Tuple2<String, Integer>> currentEventType(String serialisedEventType, Integer serialisedEventVersion) {
+        return payloadMapper.currentEventType(serialisedEventType, serialisedEventVersion);
+    }
+
+    @Override
+    public <T extends DomainEvent> PayloadSerialisationResult serialiseEvent(T event) {
+        return payloadMapper.serialiseEvent(event);
+    }
+
+    @Override
+    public <A extends Aggregate<?, ?, State>, State> PayloadSerialisationResult serialiseState(State state) {
+        return payloadMapper.serialiseState(state);
+    }
+
+    @Override
+    public <A extends Aggregate<?, ?, State>, State> State deserialiseState(
+            String serialisedState,
+            String serialisedStateType,
+            Integer serialisedStateVersion) {
+        return payloadMapper.deserialiseState(serialisedState, serialisedStateType, serialisedStateVersion);
+    }
+}
@@ -0,0 +1,65 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres;
+
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.PasswordChanged;
+import com.dreweaster.ddd.jester.example.infrastructure.serialisation.*;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfigurationFactory;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfigurer;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonPayloadMapper;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.vavr.collection.List;
+
+/**
+ * Maps PasswordChanged events as version 2, which renames the example's old_password field to previous_password, so
+ * that events written by the example's own PayloadMapper are out of date.
+ */
+public class RenamedPasswordFieldsMappingConfigurer implements JsonEventMappingConfigurer<PasswordChanged> {
+
+    /**
+     * @return the example's PayloadMapper, but with PasswordChanged events mapped as version 2
+     */
+    public static JsonPayloadMapper createPayloadMapper() {
+        return new JsonPayloadMapper(
+                new ObjectMapper(),
+                List.of(
+                        new UserRegisteredEventMappingConfigurer(),
+                        new UsernameChangedEventMappingConfigurer(),
+                        new RenamedPasswordFieldsMappingConfigurer(),
+                        new FailedLoginAttemptsEventMappingConfigurer(),
+                        new UserLockedEventMappingConfigurer()
+                ),
+                List.of(
+                        new UserStateSerialiser()
+                ),
+                List.of(
+                        new UserStateDeserialiser()
+                ));
+    }
+
+    @Override
+    public void configure(JsonEventMappingConfigurationFactory<PasswordChanged> configurationFactory) {
+        configurationFactory.create(PasswordChanged.class.getName())
+                .migrateFormat(this::renameOldPassword)
+                .mappingFunctions(this::serialise, this::deserialise);
+    }
+
+    public JsonNode renameOldPassword(JsonNode root) {
+        ObjectNode newRoot = (ObjectNode) root;
+        newRoot.set("previous_password", newRoot.remove("old_password"));
+        return newRoot;
+    }
+
+    public JsonNode serialise(PasswordChanged event, ObjectNode newRoot) {
+        newRoot.put("previous_password", event.oldPassword());
+        newRoot.put("password", event.password());
+        return newRoot;
+    }
+
+    public PasswordChanged deserialise(JsonNode root) {
+        return PasswordChanged.builder()
+                .oldPassword(root.get("previous_password").asText())
+                .password(root.get("password").asText())
+                .create();
+    }
+}
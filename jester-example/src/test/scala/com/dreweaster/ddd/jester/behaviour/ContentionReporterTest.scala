@@ -0,0 +1,82 @@
+package com.dreweaster.ddd.jester.behaviour
+
+import com.dreweaster.ddd.jester.application.repository.monitoring.ContentionReporter
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.commands.{IncrementFailedLoginAttempts, RegisterUser}
+import org.scalatest.{FlatSpec, GivenWhenThen, Matchers}
+
+class ContentionReporterTest extends FlatSpec with GivenWhenThen with Matchers with UserRepositoryReporterFixture[ContentionReporter] {
+
+  override def newReporter() = new ContentionReporter(100)
+
+  "A ContentionReporter" should "record the conflict rate by aggregate type and command class" in {
+    Given("a registered user")
+    register("some-aggregate-id", "command_id_1")
+
+    When("one of two further commands hits a concurrent modification")
+    incrementFailedLoginAttempts("some-aggregate-id", "command_id_2")
+    eventStore.toggleOnOptimisticConcurrencyExceptionOnSave()
+    incrementFailedLoginAttempts("some-aggregate-id", "command_id_3")
+
+    Then("half of those commands should have conflicted")
+    val contention = reporter.report().commandContention("user", classOf[IncrementFailedLoginAttempts]).get()
+    contention.commands() should be(2)
+    contention.conflicts() should be(1)
+    contention.conflictRate() should be(0.5)
+
+    And("the registration should be reported separately")
+    reporter.report().commandContention("user", classOf[RegisterUser]).get().conflicts() should be(0)
+  }
+
+  it should "record the work wasted by each conflict" in {
+    Given("a user that has had one failed login attempt")
+    register("some-aggregate-id", "command_id_1")
+    incrementFailedLoginAttempts("some-aggregate-id", "command_id_2")
+
+    When("a further command hits a concurrent modification")
+    eventStore.toggleOnOptimisticConcurrencyExceptionOnSave()
+    incrementFailedLoginAttempts("some-aggregate-id", "command_id_3")
+
+    Then("the events loaded and generated for it should have been wasted")
+    val contention = reporter.report().commandContention("user", classOf[IncrementFailedLoginAttempts]).get()
+    contention.wastedEventsLoaded() should be(2)
+    contention.wastedEventsGenerated() should be(1)
+    contention.wastedTime().isNegative should be(false)
+  }
+
+  it should "record how many times a command was retried before it got through" in {
+    Given("a command that conflicts twice")
+    eventStore.toggleOnOptimisticConcurrencyExceptionOnSave()
+    register("some-aggregate-id", "command_id_1")
+    register("some-aggregate-id", "command_id_1")
+
+    When("it is retried again without conflicting")
+    eventStore.toggleOffOptimisticConcurrencyExceptionOnSave()
+    register("some-aggregate-id", "command_id_1")
+
+    Then("it should be counted as a retry chain of two conflicts")
+    val contention = reporter.report().commandContention("user", classOf[RegisterUser]).get()
+    contention.commands() should be(3)
+    contention.conflicts() should be(2)
+    contention.retryChainHistogram().toJavaList should be(java.util.Arrays.asList(0L, 0L, 1L))
+    contention.retriedCommands() should be(1)
+  }
+
+  it should "rank command classes by conflicts" in {
+    Given("a registered user")
+    register("some-aggregate-id", "command_id_1")
+
+    And("a registration that conflicts once and an increment that conflicts twice")
+    eventStore.toggleOnOptimisticConcurrencyExceptionOnSave()
+    register("other-aggregate-id", "command_id_2")
+    incrementFailedLoginAttempts("some-aggregate-id", "command_id_3")
+    incrementFailedLoginAttempts("some-aggregate-id", "command_id_4")
+
+    When("taking a report")
+    val contention = reporter.report().commandContention("user")
+
+    Then("the increment should be ranked first")
+    contention.size() should be(2)
+    contention.head.commandType() should be(classOf[IncrementFailedLoginAttempts])
+    contention.last.commandType() should be(classOf[RegisterUser])
+  }
+}
@@ -0,0 +1,96 @@
+package com.dreweaster.ddd.jester.behaviour
+
+import com.dreweaster.ddd.jester.application.repository.monitoring.{HotAggregateReporter, SpaceSavingSketch}
+import com.dreweaster.ddd.jester.domain.AggregateId
+import com.dreweaster.ddd.jester.domain.AggregateRepository.ConcurrentModificationResult
+import org.scalatest.{FlatSpec, GivenWhenThen, Matchers}
+
+class HotAggregateReporterTest extends FlatSpec with GivenWhenThen with Matchers with UserRepositoryReporterFixture[HotAggregateReporter] {
+
+  override def newReporter() = new HotAggregateReporter(10)
+
+  "A HotAggregateReporter" should "record the length of each replay by aggregate type" in {
+    Given("an aggregate that has handled three commands")
+    register("some-aggregate-id", "command_id_1")
+    incrementFailedLoginAttempts("some-aggregate-id", "command_id_2")
+    incrementFailedLoginAttempts("some-aggregate-id", "command_id_3")
+
+    When("taking a report")
+    val statistics = reporter.report(10).replayStatistics("user").get()
+
+    Then("each command should have been counted as a replay of the events before it")
+    statistics.replays() should be(3)
+    statistics.totalEvents() should be(3)
+    statistics.maxEvents() should be(2)
+
+    And("the replays should be bucketed by length")
+    statistics.eventsHistogram().toJavaList should be(java.util.Arrays.asList(1L, 1L, 1L))
+  }
+
+  it should "not count a deduplicated command as a replay" in {
+    Given("an aggregate that has been sent the same command twice")
+    register("some-aggregate-id", "command_id_1")
+    register("some-aggregate-id", "command_id_1")
+
+    When("taking a report")
+    val statistics = reporter.report(10).replayStatistics("user").get()
+
+    Then("only the first command should have been replayed")
+    statistics.replays() should be(1)
+  }
+
+  it should "rank aggregates by the number of events written and replayed" in {
+    Given("a busy aggregate and a quiet one")
+    register("busy-aggregate-id", "command_id_1")
+    incrementFailedLoginAttempts("busy-aggregate-id", "command_id_2")
+    incrementFailedLoginAttempts("busy-aggregate-id", "command_id_3")
+    register("quiet-aggregate-id", "command_id_4")
+
+    When("taking a report")
+    val report = reporter.report(10)
+
+    Then("the busy aggregate should have the most events")
+    report.mostEvents().head.aggregateId() should be(AggregateId.of("busy-aggregate-id"))
+    report.mostEvents().head.count() should be(3)
+    report.mostEvents().head.error() should be(0)
+
+    And("the busy aggregate should have the most replayed events")
+    report.mostReplayedEvents().head.aggregateId() should be(AggregateId.of("busy-aggregate-id"))
+    report.mostReplayedEvents().head.count() should be(3)
+  }
+
+  it should "count the conflicts of each aggregate" in {
+    Given("an aggregate whose commands hit a concurrent modification")
+    eventStore.toggleOnOptimisticConcurrencyExceptionOnSave()
+    val result = register("some-aggregate-id", "command_id_1")
+    register("some-aggregate-id", "command_id_2")
+
+    When("taking a report")
+    val report = reporter.report(10)
+
+    Then("the aggregate should have two conflicts")
+    result.isInstanceOf[ConcurrentModificationResult[_, _]] should be(true)
+    report.mostConflicts().head.aggregateId() should be(AggregateId.of("some-aggregate-id"))
+    report.mostConflicts().head.count() should be(2)
+  }
+
+  "A SpaceSavingSketch" should "keep a heavy key when there are more keys than counters" in {
+    Given("a sketch with two counters")
+    val sketch = new SpaceSavingSketch[String](2)
+
+    When("offering one heavy key among many light ones")
+    (1 to 20).foreach { i =>
+      sketch.offer("heavy", 3)
+      sketch.offer(s"light-$i", 1)
+    }
+
+    Then("the heavy key should be ranked first")
+    val top = sketch.top(2)
+    top.size() should be(2)
+    top.head.key() should be("heavy")
+
+    And("its count should bound its true total from above")
+    top.head.count() should be >= 60L
+    top.head.count() - top.head.error() should be <= 60L
+  }
+}
@@ -0,0 +1,77 @@
+package com.dreweaster.ddd.jester.behaviour
+
+import com.dreweaster.ddd.jester.application.eventstore.EventStore.OptimisticConcurrencyException
+import com.dreweaster.ddd.jester.application.eventstore.monitoring.{EventStoreOperation, EventStoreReporter, InstrumentedEventStore}
+import com.dreweaster.ddd.jester.domain.{AggregateId, CausationId}
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.{FailedLoginAttemptsIncremented, UserEvent, UserRegistered}
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.MockEventStore
+import io.vavr.collection.List
+import org.scalatest.{BeforeAndAfter, FlatSpec, GivenWhenThen, Matchers}
+
+import scala.collection.mutable.ListBuffer
+
+class InstrumentedEventStoreTest extends FlatSpec with GivenWhenThen with BeforeAndAfter with Matchers {
+
+  val mockEventStore = new MockEventStore()
+
+  var eventStore: InstrumentedEventStore = _
+
+  var reporter: RecordingReporter = _
+
+  before {
+    mockEventStore.clear()
+    mockEventStore.toggleOffOptimisticConcurrencyExceptionOnSave()
+    reporter = new RecordingReporter
+    eventStore = new InstrumentedEventStore(mockEventStore)
+    eventStore.addReporter(reporter)
+  }
+
+  "An InstrumentedEventStore" should "report the batch size and outcome of saving events" in {
+    When("saving two events")
+    eventStore.saveEvents(User.TYPE, AggregateId.of("some-aggregate-id"), CausationId.of("some-causation-id"), List.of[UserEvent](
+      UserRegistered.builder().username("joebloggs").password("password").create(),
+      FailedLoginAttemptsIncremented.of()), -1L).get()
+
+    Then("the batch size and the events saved should be reported")
+    reporter.measurements should be(ListBuffer("SAVE_EVENTS batch 2", "SAVE_EVENTS completed 2"))
+  }
+
+  it should "report the events loaded" in {
+    Given("an aggregate with one event")
+    mockEventStore.saveEvents(User.TYPE, AggregateId.of("some-aggregate-id"), CausationId.of("some-causation-id"), List.of[UserEvent](
+      UserRegistered.builder().username("joebloggs").password("password").create()), -1L).get()
+
+    When("loading its events")
+    eventStore.loadEvents(User.TYPE, AggregateId.of("some-aggregate-id")).get()
+
+    Then("the load should be reported")
+    reporter.measurements should be(ListBuffer("LOAD_EVENTS completed 1"))
+  }
+
+  it should "report a failed save" in {
+    Given("an event store that will reject the save")
+    mockEventStore.toggleOnOptimisticConcurrencyExceptionOnSave()
+
+    When("saving an event")
+    eventStore.saveEvents(User.TYPE, AggregateId.of("some-aggregate-id"), CausationId.of("some-causation-id"), List.of[UserEvent](
+      UserRegistered.builder().username("joebloggs").password("password").create()), -1L).await()
+
+    Then("the failure should be reported")
+    reporter.measurements should be(ListBuffer("SAVE_EVENTS batch 1", s"SAVE_EVENTS failed ${classOf[OptimisticConcurrencyException].getSimpleName}"))
+  }
+
+  class RecordingReporter extends EventStoreReporter {
+
+    val measurements: ListBuffer[String] = ListBuffer()
+
+    override def operationCompleted(operation: EventStoreOperation, nanos: Long, events: Int): Unit =
+      measurements += s"$operation completed $events"
+
+    override def operationFailed(operation: EventStoreOperation, nanos: Long, failure: Throwable): Unit =
+      measurements += s"$operation failed ${failure.getClass.getSimpleName}"
+
+    override def batchSize(operation: EventStoreOperation, batchSize: Int): Unit =
+      measurements += s"$operation batch $batchSize"
+  }
+}
@@ -0,0 +1,66 @@
+package com.dreweaster.ddd.jester.behaviour
+
+import java.time.Duration
+import java.util.Random
+
+import com.dreweaster.ddd.jester.application.repository.TwentyFourHourWindowCommandDeduplicationStrategyFactory
+import com.dreweaster.ddd.jester.example.application.repository.CommandDeduplicatingEventsourcedUserRepository
+import com.dreweaster.ddd.jester.example.load.CommandMix.CommandKind
+import com.dreweaster.ddd.jester.example.load.LoadReport.ResultType
+import com.dreweaster.ddd.jester.example.load.{CommandMix, KeyDistribution, LoadGenerator, LoadGeneratorSettings}
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.inmemory.InMemoryEventStore
+import org.scalatest.{FlatSpec, GivenWhenThen, Matchers}
+
+class LoadGeneratorTest extends FlatSpec with GivenWhenThen with Matchers {
+
+  "A LoadGenerator" should "send the configured number of commands and record a latency for each" in {
+    Given("a load of 200 commands per second for half a second after a warmup")
+    val settings = LoadGeneratorSettings.defaults()
+      .withCommandsPerSecond(200)
+      .withWarmup(Duration.ofMillis(250))
+      .withDuration(Duration.ofMillis(500))
+      .withKeyDistribution(KeyDistribution.uniform(20))
+      .withCommandMix(CommandMix.empty().`with`(CommandKind.CHANGE_PASSWORD, 1))
+    val userRepository = new CommandDeduplicatingEventsourcedUserRepository(new InMemoryEventStore(), new TwentyFourHourWindowCommandDeduplicationStrategyFactory)
+
+    When("running it")
+    val report = new LoadGenerator(userRepository, settings).run()
+
+    Then("only the commands sent after the warmup should be reported")
+    report.sent() should be(100)
+
+    And("each should have completed with a latency recorded by its result")
+    report.unfinished() should be(0)
+    report.completed() should be(100)
+    report.completed(ResultType.FAILURE) should be(0)
+    report.completed(ResultType.SUCCESS) + report.completed(ResultType.CONCURRENT_MODIFICATION) should be(100)
+    report.responseTimes(ResultType.SUCCESS).getMaxValue should be >= report.serviceTimes(ResultType.SUCCESS).getMinValue
+  }
+
+  "A zipfian KeyDistribution" should "send most commands to the hottest keys" in {
+    Given("a zipfian distribution over 1000 keys")
+    val distribution = KeyDistribution.zipfian(1000, 1.0)
+    val random = new Random(42)
+
+    When("choosing 10000 keys")
+    val keys = (1 to 10000).map(_ => distribution.nextKey(random))
+
+    Then("every key should be in range")
+    keys.forall(key => key >= 0 && key < 1000) should be(true)
+
+    And("the hottest 10 keys should be chosen far more often than under a uniform distribution")
+    keys.count(_ < 10) should be > 2500
+  }
+
+  "A uniform KeyDistribution" should "spread commands over every key" in {
+    Given("a uniform distribution over 10 keys")
+    val distribution = KeyDistribution.uniform(10)
+    val random = new Random(42)
+
+    When("choosing 10000 keys")
+    val keys = (1 to 10000).map(_ => distribution.nextKey(random))
+
+    Then("every key should be chosen")
+    keys.toSet should be((0 until 10).toSet)
+  }
+}
@@ -0,0 +1,50 @@
+package com.dreweaster.ddd.jester.behaviour
+
+import com.dreweaster.ddd.jester.application.repository.TwentyFourHourWindowCommandDeduplicationStrategyFactory
+import com.dreweaster.ddd.jester.application.repository.monitoring.AggregateRepositoryReporter
+import com.dreweaster.ddd.jester.domain.AggregateId
+import com.dreweaster.ddd.jester.domain.AggregateRepository.{CommandEnvelope, CommandHandlingResult}
+import com.dreweaster.ddd.jester.domain.CommandId
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.commands.{IncrementFailedLoginAttempts, RegisterUser, UserCommand}
+import com.dreweaster.ddd.jester.example.application.repository.CommandDeduplicatingEventsourcedUserRepository
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.UserEvent
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.MockEventStore
+import org.scalatest.{BeforeAndAfter, Suite}
+
+/**
+ * A user repository over a MockEventStore, reporting to a new reporter before each test, for suites that test
+ * what reporters record about the commands a repository handles.
+ */
+trait UserRepositoryReporterFixture[R <: AggregateRepositoryReporter] extends BeforeAndAfter { this: Suite =>
+
+  val eventStore = new MockEventStore()
+
+  var reporter: R = _
+
+  var userRepository: CommandDeduplicatingEventsourcedUserRepository = _
+
+  def newReporter(): R
+
+  before {
+    eventStore.clear()
+    eventStore.toggleOffOptimisticConcurrencyExceptionOnSave()
+    reporter = newReporter()
+    userRepository = new CommandDeduplicatingEventsourcedUserRepository(eventStore, new TwentyFourHourWindowCommandDeduplicationStrategyFactory)
+    userRepository.addReporter(reporter)
+  }
+
+  def register(aggregateId: String, commandId: String): CommandHandlingResult[UserCommand, UserEvent] = {
+    userRepository.aggregateRootOf(AggregateId.of(aggregateId)).handle(
+      CommandEnvelope.of(
+        CommandId.of(commandId),
+        RegisterUser.builder()
+          .username("joebloggs")
+          .password("password")
+          .create())).get()
+  }
+
+  def incrementFailedLoginAttempts(aggregateId: String, commandId: String): CommandHandlingResult[UserCommand, UserEvent] = {
+    userRepository.aggregateRootOf(AggregateId.of(aggregateId)).handle(
+      CommandEnvelope.of(CommandId.of(commandId), IncrementFailedLoginAttempts.of())).get()
+  }
+}
@@ -0,0 +1,421 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres
+
+import com.dreweaster.ddd.jester.application.eventstore.EventStore.OptimisticConcurrencyException
+import com.dreweaster.ddd.jester.domain.{AggregateId, CausationId, DomainModel}
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.{PasswordChanged, UserEvent, UserRegistered}
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.{User, UserState}
+import java.lang.reflect.{InvocationHandler, Method, Proxy}
+import java.sql.{Connection, DriverManager, SQLException}
+import java.time.Duration
+import java.util.function.Consumer
+
+import com.dreweaster.ddd.jester.application.eventstore.StreamEvent
+import com.dreweaster.ddd.jester.example.infrastructure.ExampleModule
+import io.vavr.collection.List
+import javax.sql.DataSource
+import org.postgresql.ds.PGSimpleDataSource
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
+
+class Postgres95EventStoreTest extends FeatureSpec with GivenWhenThen with Matchers with PostgresDatabase {
+
+  val aggregateId = AggregateId.of("aggregate-id")
+
+  val causationId = CausationId.of("causation-id")
+
+  def history(length: Int): List[UserEvent] = List.of[UserEvent](
+    UserRegistered.builder().username("joebloggs").password("password0").create() +:
+      (1 until length).map(passwordChanged): _*)
+
+  def passwordChanged(i: Int): UserEvent = PasswordChanged.builder().password("password" + i).oldPassword("password" + (i - 1)).create()
+
+  val state = userState("password")
+
+  feature("Single statement writes") {
+
+    scenario("Save as many events as a single statement can hold") {
+      Given("an event store allowing the most events a single statement can hold")
+      val store = newEventStore(Postgres95EventStoreSettings.defaults()
+        .withSingleStatementWrites(Postgres95EventStoreSettings.MAX_SINGLE_STATEMENT_EVENTS))
+
+      When("saving that many events, with state")
+      val events = history(Postgres95EventStoreSettings.MAX_SINGLE_STATEMENT_EVENTS)
+      store.saveEventsAndState(User.TYPE, aggregateId, causationId, events, state, -1L).get()
+
+      Then("they should all be saved")
+      store.loadEvents(User.TYPE, aggregateId).get().size() should be(Postgres95EventStoreSettings.MAX_SINGLE_STATEMENT_EVENTS)
+    }
+
+    scenario("Save more events than a single statement can hold") {
+      Given("an event store allowing the most events a single statement can hold")
+      val store = newEventStore(Postgres95EventStoreSettings.defaults()
+        .withSingleStatementWrites(Postgres95EventStoreSettings.MAX_SINGLE_STATEMENT_EVENTS))
+
+      When("saving one more event than that, with state")
+      val events = history(Postgres95EventStoreSettings.MAX_SINGLE_STATEMENT_EVENTS + 1)
+      store.saveEventsAndState(User.TYPE, aggregateId, causationId, events, state, -1L).get()
+
+      Then("they should all be saved, the usual way")
+      store.loadEvents(User.TYPE, aggregateId).get().size() should be(Postgres95EventStoreSettings.MAX_SINGLE_STATEMENT_EVENTS + 1)
+      queryLong("SELECT aggregate_version FROM aggregate_root") should be(Postgres95EventStoreSettings.MAX_SINGLE_STATEMENT_EVENTS.toLong)
+    }
+
+    scenario("Save more events than the configured maximum") {
+      Given("an event store saving at most 10 events in a single statement")
+      val store = newEventStore(Postgres95EventStoreSettings.defaults().withSingleStatementWrites(10))
+
+      When("saving 10 events, then 11 more")
+      store.saveEvents(User.TYPE, aggregateId, causationId, history(10), -1L).get()
+      store.saveEvents(User.TYPE, aggregateId, causationId, List.of[UserEvent]((10 until 21).map(passwordChanged): _*), 9L).get()
+
+      Then("all 21 should be saved, in sequence")
+      store.loadEvents(User.TYPE, aggregateId).get().asScala.map(_.sequenceNumber().longValue) should be(0L until 21L)
+
+      And("a save against an out of date sequence number should still be rejected")
+      store.saveEvents(User.TYPE, aggregateId, causationId, List.of[UserEvent]((10 until 21).map(passwordChanged): _*), 9L).await().isFailure should be(true)
+    }
+
+    scenario("Refuse to allow more events than a single statement can hold") {
+      an[IllegalArgumentException] should be thrownBy Postgres95EventStoreSettings.defaults()
+        .withSingleStatementWrites(Postgres95EventStoreSettings.MAX_SINGLE_STATEMENT_EVENTS + 1)
+    }
+  }
+
+  def sequenceNumbers(store: Postgres95EventStore) =
+    store.loadEvents(User.TYPE, aggregateId).get().asScala.map(_.sequenceNumber().longValue)
+
+  def uniqueSequenceNumberChecked(settings: Postgres95EventStoreSettings): Unit = {
+
+    scenario("Reject a save against an out of date sequence number") {
+      Given("an aggregate with 3 events")
+      val store = newEventStore(settings)
+      store.saveEvents(User.TYPE, aggregateId, causationId, history(3), -1L).get()
+
+      When("saving more events against sequence number 1")
+      val result = store.saveEvents(User.TYPE, aggregateId, causationId, List.of[UserEvent](passwordChanged(3)), 1L).await()
+
+      Then("the save should fail with an OptimisticConcurrencyException")
+      result.getCause.get() shouldBe an[OptimisticConcurrencyException]
+      sequenceNumbers(store) should be(0L until 3L)
+    }
+
+    scenario("Reject a save against a sequence number ahead of the aggregate") {
+      Given("an aggregate with 3 events")
+      val store = newEventStore(settings)
+      store.saveEventsAndState(User.TYPE, aggregateId, causationId, history(3), state, -1L).get()
+
+      When("saving more events, and state, against sequence number 5")
+      val result = store.saveEventsAndState(User.TYPE, aggregateId, causationId, List.of[UserEvent](passwordChanged(3), passwordChanged(4)), state, 5L).await()
+
+      Then("the save should fail with an OptimisticConcurrencyException")
+      result.getCause.get() shouldBe an[OptimisticConcurrencyException]
+
+      And("no events or state should have been saved, leaving no gap in the sequence numbers")
+      sequenceNumbers(store) should be(0L until 3L)
+      queryLong("SELECT aggregate_version FROM aggregate_root") should be(2L)
+    }
+
+    scenario("Save against the latest sequence number") {
+      Given("an aggregate with 3 events")
+      val store = newEventStore(settings)
+      store.saveEvents(User.TYPE, aggregateId, causationId, history(3), -1L).get()
+
+      When("saving 2 more events against sequence number 2")
+      store.saveEvents(User.TYPE, aggregateId, causationId, List.of[UserEvent](passwordChanged(3), passwordChanged(4)), 2L).get()
+
+      Then("all 5 events should be saved, in sequence")
+      sequenceNumbers(store) should be(0L until 5L)
+    }
+  }
+
+  feature("Unique sequence number checks") {
+    scenariosFor(uniqueSequenceNumberChecked(Postgres95EventStoreSettings.defaults().withUniqueSequenceNumberCheck()))
+  }
+
+  feature("Unique sequence number checks in single statement writes") {
+    scenariosFor(uniqueSequenceNumberChecked(Postgres95EventStoreSettings.defaults().withUniqueSequenceNumberCheck().withSingleStatementWrites()))
+  }
+
+  def userState(password: String) = UserState.builder().username("joebloggs").password(password).failedLoginAttempts(0).create()
+
+  def snapshotted(settings: Postgres95EventStoreSettings): Unit = {
+
+    scenario("Read back the state saved with events as a snapshot") {
+      Given("an aggregate with 3 events saved along with its state")
+      val store = newEventStore(settings)
+      store.saveEventsAndState(User.TYPE, aggregateId, causationId, history(3), state, -1L).get()
+
+      When("loading its snapshot")
+      val snapshot = store.loadSnapshot(User.TYPE, aggregateId).get()
+
+      Then("it should be the state saved, as of the last event saved with it")
+      snapshot.get().get() should be(state)
+      snapshot.get().sequenceNumber() should be(2L)
+    }
+
+    scenario("Ignore a snapshot older than the one already saved") {
+      Given("an aggregate with a snapshot as of sequence number 2")
+      val store = newEventStore(settings)
+      store.saveEventsAndState(User.TYPE, aggregateId, causationId, history(3), state, -1L).get()
+
+      When("saving a snapshot as of sequence number 1, as a slower writer might")
+      store.saveSnapshot(User.TYPE, aggregateId, 1L, userState("password1")).get()
+
+      Then("the snapshot as of sequence number 2 should be kept")
+      val snapshot = store.loadSnapshot(User.TYPE, aggregateId).get()
+      snapshot.get().get() should be(state)
+      snapshot.get().sequenceNumber() should be(2L)
+
+      And("a snapshot as of a later sequence number should replace it")
+      store.saveSnapshot(User.TYPE, aggregateId, 3L, userState("password3")).get()
+      store.loadSnapshot(User.TYPE, aggregateId).get().get().get() should be(userState("password3"))
+    }
+
+    scenario("Keep the snapshot's sequence number when saving events without state") {
+      Given("an aggregate with 3 events saved along with its state")
+      val store = newEventStore(settings)
+      store.saveEventsAndState(User.TYPE, aggregateId, causationId, history(3), state, -1L).get()
+
+      When("saving 2 more events without state")
+      store.saveEvents(User.TYPE, aggregateId, causationId, List.of[UserEvent](passwordChanged(3), passwordChanged(4)), 2L).get()
+
+      Then("the snapshot should still be as of sequence number 2, so the events after it are replayed")
+      val snapshot = store.loadSnapshot(User.TYPE, aggregateId).get()
+      snapshot.get().get() should be(state)
+      snapshot.get().sequenceNumber() should be(2L)
+      store.loadEvents(User.TYPE, aggregateId, snapshot.get().sequenceNumber()).get().size() should be(2)
+    }
+
+    scenario("Offer no snapshot for state saved before its type was recorded") {
+      Given("an aggregate whose state was saved before aggregate_state_type was added")
+      val store = newEventStore(settings)
+      store.saveEventsAndState(User.TYPE, aggregateId, causationId, history(3), state, -1L).get()
+      execute("UPDATE aggregate_root SET aggregate_state_type = NULL, aggregate_state_version = NULL, aggregate_state_sequence_number = NULL")
+
+      When("loading its snapshot")
+      val snapshot = store.loadSnapshot(User.TYPE, aggregateId).get()
+
+      Then("there should be none")
+      snapshot.isEmpty should be(true)
+
+      And("a new snapshot should replace the old state")
+      store.saveSnapshot(User.TYPE, aggregateId, 2L, state).get()
+      store.loadSnapshot(User.TYPE, aggregateId).get().get().sequenceNumber() should be(2L)
+    }
+  }
+
+  feature("Snapshots") {
+    scenariosFor(snapshotted(Postgres95EventStoreSettings.defaults()))
+  }
+
+  feature("Snapshots with unique sequence number checks") {
+    scenariosFor(snapshotted(Postgres95EventStoreSettings.defaults().withUniqueSequenceNumberCheck()))
+  }
+
+  def catchUpDeserialisationCounts(settings: Postgres95EventStoreSettings, events: Int) = {
+    val mapper = new CountingPayloadMapper(ExampleModule.createPayloadMapper())
+    val store = newEventStore(settings, mapper)
+    store.saveEvents(User.TYPE, aggregateId, causationId, history(events), -1L).get()
+
+    val counts = ListBuffer[Int]()
+    store.catchUpEventStream(UserEvent.TAG, -1L, new Consumer[StreamEvent] {
+      override def accept(event: StreamEvent): Unit = {
+        event.serialisedPayloadBuffer()
+        counts += mapper.deserialisedEvents()
+      }
+    }).get()
+    counts
+  }
+
+  feature("Deserialising events only when they are asked for") {
+
+    scenario("Stream events without deserialising them") {
+      Given("an event store holding 3 events")
+      val mapper = new CountingPayloadMapper(ExampleModule.createPayloadMapper())
+      val store = newEventStore(payloadMapper = mapper)
+      store.saveEvents(User.TYPE, aggregateId, causationId, history(3), -1L).get()
+
+      When("streaming them and reading their details")
+      val streamed = store.loadEventStream(UserEvent.TAG, -1L, 100).get().asScala
+      streamed.map(_.eventType()) should be(Seq(classOf[UserRegistered].getName, classOf[PasswordChanged].getName, classOf[PasswordChanged].getName))
+      streamed.map(_.eventTag()) should be(Seq.fill(3)(UserEvent.TAG.tag()))
+      streamed.map(_.sequenceNumber().longValue) should be(0L until 3L)
+
+      Then("none of them should have been deserialised")
+      mapper.deserialisedEvents() should be(0)
+
+      And("asking for a payload should deserialise only that event")
+      streamed.head.serialisedPayload() should include("joebloggs")
+      mapper.deserialisedEvents() should be(1)
+    }
+
+    scenario("Load events without deserialising them") {
+      Given("an event store holding 3 events")
+      val mapper = new CountingPayloadMapper(ExampleModule.createPayloadMapper())
+      val store = newEventStore(payloadMapper = mapper)
+      store.saveEvents(User.TYPE, aggregateId, causationId, history(3), -1L).get()
+
+      When("loading them and reading their details")
+      val loaded = store.loadEvents(User.TYPE, aggregateId).get().asScala
+      loaded.map(_.eventType()) should be(Seq(classOf[UserRegistered], classOf[PasswordChanged], classOf[PasswordChanged]))
+
+      Then("none of them should have been deserialised")
+      mapper.deserialisedEvents() should be(0)
+
+      And("asking for an event should deserialise only that one")
+      loaded.head.rawEvent() shouldBe a[UserRegistered]
+      mapper.deserialisedEvents() should be(1)
+    }
+  }
+
+  feature("Catching up with an event stream") {
+
+    scenario("Pass each event on as soon as it is read") {
+      Given("an event store fetching 1000 rows at a time")
+      val settings = Postgres95EventStoreSettings.defaults().withCatchUpFetchSize(1000)
+
+      When("catching up with 10 events")
+      val counts = catchUpDeserialisationCounts(settings, 10)
+
+      Then("each event should have been passed on before the next was deserialised")
+      counts should be(1 to 10)
+    }
+
+    scenario("Pass each fetch on once it has been deserialised in parallel") {
+      Given("an event store fetching 4 rows at a time, deserialising them in parallel")
+      val settings = Postgres95EventStoreSettings.defaults().withCatchUpFetchSize(4).withParallelDeserialisation(2)
+
+      When("catching up with 10 events")
+      val counts = catchUpDeserialisationCounts(settings, 10)
+
+      Then("each fetch should have been deserialised before any of its events were passed on")
+      counts should be(Seq(4, 4, 4, 4, 8, 8, 8, 8, 10, 10))
+    }
+
+    scenario("Give the connection back as it was found when the consumer fails") {
+      Given("an event store using a single connection, in auto-commit mode, that is never really closed")
+      newEventStore().saveEvents(User.TYPE, aggregateId, causationId, history(3), -1L).get()
+      val connection = DriverManager.getConnection(url + (if (url.contains("?")) "&" else "?") + "currentSchema=" + schema, username, password)
+      val store = new Postgres95EventStore(
+        unclosableDataSource(connection), executorService, ExampleModule.createPayloadMapper(), DomainModel.of(User.TYPE), Postgres95EventStoreSettings.defaults())
+
+      When("catching up with a consumer that fails on the first event")
+      val result = store.catchUpEventStream(UserEvent.TAG, -1L, new Consumer[StreamEvent] {
+        override def accept(event: StreamEvent): Unit = throw new IllegalStateException("consumer failed")
+      }).await()
+
+      Then("the catch-up should fail with the consumer's exception")
+      result.getCause.get() shouldBe an[IllegalStateException]
+
+      And("the connection should be back in auto-commit mode")
+      try {
+        connection.getAutoCommit should be(true)
+      } finally {
+        connection.close()
+      }
+    }
+  }
+
+  /**
+   * @return a DataSource that always hands out the given connection, and ignores attempts to close it
+   */
+  def unclosableDataSource(connection: Connection): DataSource = new PGSimpleDataSource {
+    override def getConnection: Connection = Proxy.newProxyInstance(getClass.getClassLoader, Array(classOf[Connection]), new InvocationHandler {
+      override def invoke(proxy: Any, method: Method, args: Array[AnyRef]): AnyRef =
+        if (method.getName == "close") null
+        else if (args == null) method.invoke(connection)
+        else method.invoke(connection, args: _*)
+    }).asInstanceOf[Connection]
+  }
+
+  /**
+   * Terminates the connection of any read, such as a catch-up cursor, holding a transaction open, as a server restart
+   * or failover would.
+   */
+  def terminateOpenReads(): Unit = {
+    val connection = DriverManager.getConnection(url, username, password)
+    try {
+      connection.createStatement().execute("" +
+        "SELECT pg_terminate_backend(pid) FROM pg_stat_activity " +
+        "WHERE pid <> pg_backend_pid() AND state = 'idle in transaction' AND query LIKE 'SELECT global_offset%'")
+    } finally {
+      connection.close()
+    }
+  }
+
+  def catchUpThroughTermination(settings: Postgres95EventStoreSettings) = {
+    val store = newEventStore(settings)
+    store.saveEvents(User.TYPE, aggregateId, causationId, history(10), -1L).get()
+
+    val offsets = ListBuffer[Long]()
+    val result = store.catchUpEventStream(UserEvent.TAG, -1L, new Consumer[StreamEvent] {
+      override def accept(event: StreamEvent): Unit = {
+        offsets += event.offset()
+        if (offsets.size == 3) terminateOpenReads()
+      }
+    }).await()
+    (result, offsets)
+  }
+
+  feature("Reconnecting while catching up with an event stream") {
+
+    scenario("Resume after the last event passed on, once the backoff has passed") {
+      Given("an event store fetching 2 rows at a time, backing off for 200ms before reconnecting")
+      val settings = Postgres95EventStoreSettings.defaults()
+        .withCatchUpFetchSize(2)
+        .withCatchUpReconnectBackoff(Duration.ofMillis(200))
+
+      When("catching up with 10 events, losing the connection after the third")
+      val startedAt = System.nanoTime()
+      val (result, offsets) = catchUpThroughTermination(settings)
+
+      Then("every event should be passed on exactly once, in order")
+      result.get() should be(10L)
+      offsets should be(1L to 10L)
+
+      And("the reconnect should have waited for the backoff")
+      (System.nanoTime() - startedAt) should be >= Duration.ofMillis(200).toNanos
+    }
+
+    scenario("Give up once out of reconnect attempts") {
+      Given("an event store that won't reconnect")
+      val settings = Postgres95EventStoreSettings.defaults()
+        .withCatchUpFetchSize(2)
+        .withCatchUpReconnectAttempts(0)
+
+      When("catching up with 10 events, losing the connection after the third")
+      val (result, offsets) = catchUpThroughTermination(settings)
+
+      Then("the catch-up should fail, having passed on only the events read before the connection was lost")
+      result.getCause.get() shouldBe an[SQLException]
+      offsets should be(1L to 4L)
+    }
+
+    scenario("Refuse a negative backoff") {
+      an[IllegalArgumentException] should be thrownBy Postgres95EventStoreSettings.defaults().withCatchUpReconnectBackoff(Duration.ofMillis(-1))
+    }
+
+    scenario("Refuse more reconnect attempts, or a longer backoff, than the maximum") {
+      an[IllegalArgumentException] should be thrownBy Postgres95EventStoreSettings.defaults()
+        .withCatchUpReconnectAttempts(Postgres95EventStoreSettings.MAX_CATCH_UP_RECONNECT_ATTEMPTS + 1)
+      an[IllegalArgumentException] should be thrownBy Postgres95EventStoreSettings.defaults()
+        .withCatchUpReconnectBackoff(Postgres95EventStoreSettings.MAX_CATCH_UP_RECONNECT_BACKOFF.plusMillis(1))
+    }
+
+    scenario("Double the backoff for each attempt in a row, up to the maximum") {
+      Given("settings backing off for 100ms before the first reconnect attempt")
+      val settings = Postgres95EventStoreSettings.defaults()
+        .withCatchUpReconnectAttempts(Postgres95EventStoreSettings.MAX_CATCH_UP_RECONNECT_ATTEMPTS)
+        .withCatchUpReconnectBackoff(Duration.ofMillis(100))
+
+      Then("each further attempt should wait twice as long as the last")
+      (0 to 3).map(settings.catchUpReconnectBackoff(_).toMillis) should be(Seq(100L, 200L, 400L, 800L))
+
+      And("no attempt should wait longer than the maximum, however many have been made")
+      settings.catchUpReconnectBackoff(Postgres95EventStoreSettings.MAX_CATCH_UP_RECONNECT_ATTEMPTS - 1) should be(
+        Postgres95EventStoreSettings.MAX_CATCH_UP_RECONNECT_BACKOFF)
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres
+
+import com.dreweaster.ddd.jester.domain.{AggregateId, CausationId, DomainModel}
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.events.{PasswordChanged, UserEvent, UserRegistered}
+import io.vavr.collection.List
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import scala.collection.JavaConverters._
+
+class Postgres95PayloadUpgraderTest extends FeatureSpec with GivenWhenThen with Matchers with PostgresDatabase {
+
+  val aggregateId = AggregateId.of("aggregate-id")
+
+  val causationId = CausationId.of("causation-id")
+
+  // A UserRegistered event followed by 4 PasswordChanged events, which the example maps as version 1
+  val history = List.of[UserEvent](
+    UserRegistered.builder().username("joebloggs").password("password0").create() +:
+      (1 until 5).map(i => PasswordChanged.builder().password("password" + i).oldPassword("password" + (i - 1)).create()): _*)
+
+  def upgrader(settings: Postgres95EventStoreSettings = Postgres95EventStoreSettings.defaults()) =
+    new Postgres95PayloadUpgrader(dataSource, executorService, RenamedPasswordFieldsMappingConfigurer.createPayloadMapper(), settings)
+
+  def oldPasswords(store: Postgres95EventStore): Seq[String] =
+    store.loadEvents(User.TYPE, aggregateId).get().asScala.toSeq.map(_.rawEvent()).collect {
+      case event: PasswordChanged => event.oldPassword()
+    }
+
+  feature("Upgrading payloads") {
+
+    scenario("Upgrade events written with an old version") {
+      Given("events written by the example, with PasswordChanged events at version 1")
+      newEventStore().saveEvents(User.TYPE, aggregateId, causationId, history, -1L).get()
+
+      When("upgrading them to a PayloadMapper that maps PasswordChanged events as version 2")
+      val upgraded = upgrader().upgrade(2, 2, 0).get()
+
+      Then("only the PasswordChanged events should be upgraded")
+      upgraded should be(4L)
+      queryLong("SELECT COUNT(*) FROM domain_event WHERE event_version = 2 AND event_payload LIKE '%previous_password%'") should be(4L)
+
+      And("they should read back with that PayloadMapper")
+      val store = new Postgres95EventStore(dataSource, executorService, RenamedPasswordFieldsMappingConfigurer.createPayloadMapper(),
+        DomainModel.of(User.TYPE), Postgres95EventStoreSettings.defaults())
+      oldPasswords(store) should be(Seq("password0", "password1", "password2", "password3"))
+
+      And("every range should be complete, so that upgrading again finds nothing to do")
+      queryLong("SELECT COUNT(*) FROM payload_upgrade_checkpoint WHERE last_offset < range_end") should be(0L)
+      upgrader().upgrade(2, 2, 0).get() should be(0L)
+    }
+
+    scenario("Skip an event that can't be deserialised") {
+      Given("an event with no deserialiser, followed by events written by the example")
+      val store = newEventStore()
+      execute("" +
+        "INSERT INTO domain_event (event_id, aggregate_id, aggregate_type, tag, causation_id, event_type, event_version, " +
+        "event_payload, event_timestamp, sequence_number) " +
+        "VALUES ('event-id', 'other-aggregate-id', 'user', 'user-event', 'causation-id', 'com.example.Unknown', 1, '{}', now(), 0)")
+      store.saveEvents(User.TYPE, aggregateId, causationId, history, -1L).get()
+
+      When("upgrading them in a single range")
+      val upgraded = upgrader().upgrade(1, 10, 0).get()
+
+      Then("the other events in the range should still be upgraded")
+      upgraded should be(4L)
+      queryLong("SELECT COUNT(*) FROM domain_event WHERE event_version = 2") should be(4L)
+
+      And("the event that can't be deserialised should be left as it is")
+      queryLong("SELECT COUNT(*) FROM domain_event WHERE event_type = 'com.example.Unknown' AND event_version = 1 AND event_payload = '{}'") should be(1L)
+    }
+
+    scenario("Write upgraded payloads to the binary column") {
+      Given("events written by the example as text")
+      newEventStore().saveEvents(User.TYPE, aggregateId, causationId, history, -1L).get()
+
+      When("upgrading them with binary payloads")
+      val settings = Postgres95EventStoreSettings.defaults().withBinaryPayloads(PayloadCompression.lz4(0))
+      upgrader(settings).upgrade(2, 2, 0).get() should be(4L)
+
+      Then("the upgraded payloads should only be in the binary column")
+      queryLong("SELECT COUNT(*) FROM domain_event WHERE event_version = 2 AND event_payload IS NULL AND event_payload_binary IS NOT NULL") should be(4L)
+
+      And("they should read back with binary payloads")
+      val store = new Postgres95EventStore(dataSource, executorService, RenamedPasswordFieldsMappingConfigurer.createPayloadMapper(),
+        DomainModel.of(User.TYPE), settings)
+      oldPasswords(store) should be(Seq("password0", "password1", "password2", "password3"))
+    }
+  }
+}
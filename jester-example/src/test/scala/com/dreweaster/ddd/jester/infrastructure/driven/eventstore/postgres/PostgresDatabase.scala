@@ -0,0 +1,97 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres
+
+import java.sql.DriverManager
+import java.util.concurrent.{ExecutorService, Executors}
+
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper
+import com.dreweaster.ddd.jester.domain.DomainModel
+import com.dreweaster.ddd.jester.example.domain.aggregates.user.User
+import com.dreweaster.ddd.jester.example.infrastructure.ExampleModule
+import com.zaxxer.hikari.{HikariConfig, HikariDataSource}
+import org.flywaydb.core.Flyway
+import org.scalatest.{BeforeAndAfterAll, Suite}
+
+import scala.util.Try
+
+/**
+ * A local Postgres database for integration tests, configured by the system properties jester.tests.postgres.url,
+ * jester.tests.postgres.username and jester.tests.postgres.password, which default to the database ExampleModule uses.
+ *
+ * Tests only touch their own schema, jester_tests, which is cleaned and migrated once per suite and emptied for each
+ * new event store. Tests are cancelled, rather than failed, when there is no database to connect to.
+ */
+trait PostgresDatabase extends BeforeAndAfterAll { this: Suite =>
+
+  val url = sys.props.getOrElse("jester.tests.postgres.url", "jdbc:postgresql://localhost/postgres")
+
+  val username = sys.props.getOrElse("jester.tests.postgres.username", "postgres")
+
+  val password = sys.props.getOrElse("jester.tests.postgres.password", "password")
+
+  val schema = "jester_tests"
+
+  lazy val available = Try(DriverManager.getConnection(url, username, password).close()).isSuccess
+
+  var dataSource: HikariDataSource = _
+
+  var executorService: ExecutorService = _
+
+  override def beforeAll(): Unit = {
+    if (available) {
+      val flyway = new Flyway()
+      flyway.setDataSource(url, username, password)
+      flyway.setSchemas(schema)
+      flyway.clean()
+      flyway.migrate()
+
+      val config = new HikariConfig()
+      config.setJdbcUrl(url + (if (url.contains("?")) "&" else "?") + "currentSchema=" + schema)
+      config.setUsername(username)
+      config.setPassword(password)
+      config.setAutoCommit(false)
+      config.setMaximumPoolSize(8)
+      dataSource = new HikariDataSource(config)
+      executorService = Executors.newFixedThreadPool(8)
+    }
+  }
+
+  override def afterAll(): Unit = {
+    if (dataSource != null) {
+      executorService.shutdownNow()
+      dataSource.close()
+    }
+  }
+
+  /**
+   * @return an event store over empty tables, or cancels the test if there is no database
+   */
+  def newEventStore(
+      settings: Postgres95EventStoreSettings = Postgres95EventStoreSettings.defaults(),
+      payloadMapper: PayloadMapper = ExampleModule.createPayloadMapper()): Postgres95EventStore = {
+    assume(available, s"no Postgres database at $url")
+    execute("TRUNCATE domain_event, aggregate_root, payload_upgrade_checkpoint RESTART IDENTITY")
+    new Postgres95EventStore(dataSource, executorService, payloadMapper, DomainModel.of(User.TYPE), settings)
+  }
+
+  def execute(sql: String): Unit = {
+    val connection = dataSource.getConnection
+    try {
+      connection.createStatement().execute(sql)
+      connection.commit()
+    } finally {
+      connection.close()
+    }
+  }
+
+  def queryLong(sql: String): Long = {
+    val connection = dataSource.getConnection
+    try {
+      val resultSet = connection.createStatement().executeQuery(sql)
+      resultSet.next()
+      resultSet.getLong(1)
+    } finally {
+      connection.rollback()
+      connection.close()
+    }
+  }
+}
@@ -0,0 +1,232 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.file;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.zip.CRC32;
+
+/**
+ * The layout of an event in a segment. All values are big-endian.
+ *
+ * <pre>
+ *  0  int   body length (everything after the CRC)
+ *  4  int   CRC32 of the body
+ *  8  long  offset
+ * 16  long  sequence number
+ * 24  long  offset of the previous event for the same aggregate instance, or -1
+ * 32  long  timestamp seconds
+ * 40  int   timestamp nanos
+ * 44  int   event version
+ * 48  fields, each an int length (-1 for null) followed by that many bytes:
+ *     event id, aggregate type, aggregate id, causation id, correlation id, event type, tag, payload,
+ *     payload content type
+ * </pre>
+ *
+ * Strings are UTF-8 encoded. The payload is stored exactly as produced by the PayloadMapper.
+ */
+class EventRecord {
+
+    static final int EVENT_ID = 0;
+
+    static final int AGGREGATE_TYPE = 1;
+
+    static final int AGGREGATE_ID = 2;
+
+    static final int CAUSATION_ID = 3;
+
+    static final int CORRELATION_ID = 4;
+
+    static final int EVENT_TYPE = 5;
+
+    static final int TAG = 6;
+
+    static final int PAYLOAD = 7;
+
+    static final int CONTENT_TYPE = 8;
+
+    private static final int NUMBER_OF_FIELDS = 9;
+
+    private static final int HEADER_LENGTH = 8;
+
+    private static final int OFFSET_POSITION = 8;
+
+    private static final int SEQUENCE_NUMBER_POSITION = 16;
+
+    private static final int PREVIOUS_OFFSET_POSITION = 24;
+
+    private static final int TIMESTAMP_SECONDS_POSITION = 32;
+
+    private static final int TIMESTAMP_NANOS_POSITION = 40;
+
+    private static final int EVENT_VERSION_POSITION = 44;
+
+    private static final int FIELDS_POSITION = 48;
+
+    private static final int MINIMUM_BODY_LENGTH = FIELDS_POSITION - HEADER_LENGTH + NUMBER_OF_FIELDS * 4;
+
+    /**
+     * @return the length of the record at position, including its header, or 0 if there is no record there
+     */
+    static int length(ByteBuffer buffer, int position) {
+        if (buffer.capacity() - position < HEADER_LENGTH) {
+            return 0;
+        }
+        int bodyLength = buffer.getInt(position);
+        return bodyLength == 0 ? 0 : HEADER_LENGTH + bodyLength;
+    }
+
+    /**
+     * @return whether there is a complete, uncorrupted record at position with the expected offset
+     */
+    static boolean isValid(ByteBuffer buffer, int position, long expectedOffset) {
+        int bodyLength = buffer.getInt(position);
+        if (bodyLength < MINIMUM_BODY_LENGTH || bodyLength > buffer.capacity() - position - HEADER_LENGTH) {
+            return false;
+        }
+
+        ByteBuffer body = buffer.duplicate();
+        body.limit(position + HEADER_LENGTH + bodyLength);
+        body.position(position + HEADER_LENGTH);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        return buffer.getInt(position + 4) == (int) crc.getValue() && offset(buffer, position) == expectedOffset;
+    }
+
+    static long offset(ByteBuffer buffer, int position) {
+        return buffer.getLong(position + OFFSET_POSITION);
+    }
+
+    static long sequenceNumber(ByteBuffer buffer, int position) {
+        return buffer.getLong(position + SEQUENCE_NUMBER_POSITION);
+    }
+
+    static long previousOffset(ByteBuffer buffer, int position) {
+        return buffer.getLong(position + PREVIOUS_OFFSET_POSITION);
+    }
+
+    static Instant timestamp(ByteBuffer buffer, int position) {
+        return Instant.ofEpochSecond(
+                buffer.getLong(position + TIMESTAMP_SECONDS_POSITION),
+                buffer.getInt(position + TIMESTAMP_NANOS_POSITION));
+    }
+
+    static int eventVersion(ByteBuffer buffer, int position) {
+        return buffer.getInt(position + EVENT_VERSION_POSITION);
+    }
+
+    static String string(ByteBuffer buffer, int position, int field) {
+        ByteBuffer bytes = bytes(buffer, position, field);
+        return bytes == null ? null : StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    /**
+     * @return a read-only slice of the buffer holding the field, without copying it
+     */
+    static ByteBuffer bytes(ByteBuffer buffer, int position, int field) {
+        int fieldPosition = position + FIELDS_POSITION;
+        for (int i = 0; i < field; i++) {
+            fieldPosition += 4 + Math.max(0, buffer.getInt(fieldPosition));
+        }
+
+        int fieldLength = buffer.getInt(fieldPosition);
+        if (fieldLength < 0) {
+            return null;
+        }
+
+        ByteBuffer bytes = buffer.asReadOnlyBuffer();
+        bytes.limit(fieldPosition + 4 + fieldLength);
+        bytes.position(fieldPosition + 4);
+        return bytes.slice();
+    }
+
+    private long offset;
+
+    private long sequenceNumber;
+
+    private long previousOffset;
+
+    private Instant timestamp;
+
+    private int eventVersion;
+
+    private byte[][] fields;
+
+    private int length;
+
+    EventRecord(
+            long offset,
+            long sequenceNumber,
+            long previousOffset,
+            Instant timestamp,
+            int eventVersion,
+            String eventId,
+            String aggregateType,
+            String aggregateId,
+            String causationId,
+            String correlationId,
+            String eventType,
+            String tag,
+            byte[] payload,
+            String contentType) {
+
+        this.offset = offset;
+        this.sequenceNumber = sequenceNumber;
+        this.previousOffset = previousOffset;
+        this.timestamp = timestamp;
+        this.eventVersion = eventVersion;
+        this.fields = new byte[][] {
+                utf8(eventId),
+                utf8(aggregateType),
+                utf8(aggregateId),
+                utf8(causationId),
+                utf8(correlationId),
+                utf8(eventType),
+                utf8(tag),
+                payload,
+                utf8(contentType)
+        };
+
+        int fieldsLength = 0;
+        for (byte[] field : fields) {
+            fieldsLength += 4 + (field == null ? 0 : field.length);
+        }
+        this.length = FIELDS_POSITION + fieldsLength;
+    }
+
+    int length() {
+        return length;
+    }
+
+    void writeTo(ByteBuffer buffer, int position) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(position + OFFSET_POSITION);
+        view.putLong(offset);
+        view.putLong(sequenceNumber);
+        view.putLong(previousOffset);
+        view.putLong(timestamp.getEpochSecond());
+        view.putInt(timestamp.getNano());
+        view.putInt(eventVersion);
+        for (byte[] field : fields) {
+            if (field == null) {
+                view.putInt(-1);
+            } else {
+                view.putInt(field.length);
+                view.put(field);
+            }
+        }
+
+        ByteBuffer body = buffer.duplicate();
+        body.limit(position + length);
+        body.position(position + HEADER_LENGTH);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        buffer.putInt(position + 4, (int) crc.getValue());
+        buffer.putInt(position, length - HEADER_LENGTH);
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,804 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.file;
+
+import com.dreweaster.ddd.jester.application.eventstore.EventStore;
+import com.dreweaster.ddd.jester.application.eventstore.EventTypeResolver;
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper;
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper.PayloadSerialisationResult;
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
+import com.dreweaster.ddd.jester.application.eventstore.SerialisationContentType;
+import com.dreweaster.ddd.jester.application.eventstore.StreamEvent;
+import com.dreweaster.ddd.jester.domain.*;
+import io.vavr.Lazy;
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+import io.vavr.concurrent.Future;
+import io.vavr.concurrent.Promise;
+import io.vavr.control.Option;
+import io.vavr.control.Try;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stores events in append-only log files in a single directory. The log is split into fixed size segments, each of
+ * which is memory-mapped, so writes are plain memory copies and reads never go through a file API.
+ *
+ * Each event records the offset of the previous event for the same aggregate instance. Only the latest offset of each
+ * aggregate instance is kept in memory, and loading follows that chain back through the segments. The position of
+ * every offset, and the offsets for each tag, are also kept in memory. All of these are rebuilt from the segments on
+ * startup.
+ *
+ * Saves complete once their events have been fsynced. A single flusher thread does this for every save waiting on it
+ * at the time (@see FileEventStoreSettings#withFlushInterval). Events are not visible to loads or streams until they
+ * have been fsynced.
+ *
+ * On startup, an incomplete event at the very end of the log, such as one that was being written when the process
+ * died, is discarded. Any other corrupt event, or a gap between segments, fails the constructor with a
+ * CorruptLogException and nothing is discarded, since the events after it can't be recovered.
+ *
+ * Loads and streams read the mapped segments on the calling thread, and return completed Futures.
+ *
+ * Only events are stored. The state given to saveEventsAndState is discarded, so aggregates are always rebuilt by
+ * replaying their events.
+ *
+ * Only one FileEventStore may use a directory at a time. Each holds an exclusive lock on a lock file in the directory
+ * until it is closed, and the constructor fails with a DirectoryInUseException if another store, in this process or
+ * any other, already holds it.
+ */
+public class FileEventStore implements EventStore, AutoCloseable {
+
+    public static class EventTooLargeException extends RuntimeException {
+
+        public EventTooLargeException(int length, int segmentSize) {
+            super("Event of " + length + " bytes will not fit in a segment of " + segmentSize + " bytes");
+        }
+    }
+
+    public static class CorruptLogException extends IOException {
+
+        public CorruptLogException(String message) {
+            super(message);
+        }
+    }
+
+    public static class DirectoryInUseException extends IOException {
+
+        public DirectoryInUseException(Path directory) {
+            super("Directory " + directory + " is already in use by another FileEventStore");
+        }
+    }
+
+    private static final String LOCK_FILE_NAME = "jester.lock";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileEventStore.class);
+
+    private Path directory;
+
+    private FileLock directoryLock;
+
+    private PayloadMapper payloadMapper;
+
+    private EventTypeResolver eventTypeResolver;
+
+    private FileEventStoreSettings settings;
+
+    // Guards appending to the log and everything below it that is only used by writers
+    private final Object writeLock = new Object();
+
+    private long nextOffset = 0;
+
+    private Instant lastTimestamp = Instant.EPOCH;
+
+    private ArrayList<PendingSave> pendingSaves = new ArrayList<>();
+
+    private LinkedHashSet<Segment> dirtySegments = new LinkedHashSet<>();
+
+    private boolean closed = false;
+
+    // Guards the indexes, which are read by loads and streams while writers update them
+    private final ReentrantReadWriteLock indexLock = new ReentrantReadWriteLock();
+
+    private ArrayList<Segment> segments = new ArrayList<>();
+
+    // The segment (high 32 bits) and position (low 32 bits) of each event, indexed by offset
+    private Longs locations = new Longs();
+
+    private HashMap<String, Longs> tagOffsets = new HashMap<>();
+
+    // The offset and sequence number of the latest event for each aggregate instance
+    private HashMap<Tuple2<String, AggregateId>, long[]> aggregateTails = new HashMap<>();
+
+    private volatile long durableOffset = -1;
+
+    private volatile Option<Throwable> failure = Option.none();
+
+    private Thread flusher;
+
+    public FileEventStore(Path directory, PayloadMapper payloadMapper) throws IOException {
+        this(directory, payloadMapper, FileEventStoreSettings.defaults());
+    }
+
+    public FileEventStore(Path directory, PayloadMapper payloadMapper, FileEventStoreSettings settings) throws IOException {
+        this.directory = directory;
+        this.payloadMapper = payloadMapper;
+        this.eventTypeResolver = new EventTypeResolver(payloadMapper);
+        this.settings = settings;
+
+        Files.createDirectories(directory);
+        directoryLock = lock(directory);
+        try {
+            recover();
+        } catch (IOException | RuntimeException ex) {
+            directoryLock.channel().close();
+            throw ex;
+        }
+
+        flusher = new Thread(this::flush, "file-event-store-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId) {
+        return Future.fromTry(Try.of(() -> persistedEventsFor(aggregateType, aggregateId, Option.none())));
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
+            AggregateType<A, ?, E, State> aggregateType, AggregateId aggregateId, Long afterSequenceNumber) {
+        return Future.fromTry(Try.of(() -> persistedEventsFor(aggregateType, aggregateId, Option.of(afterSequenceNumber))));
+    }
+
+    @Override
+    public <E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(DomainEventTag tag, Long afterOffset, Integer batchSize) {
+        return Future.fromTry(Try.of(() -> streamEventsFor(tag, offset -> offset > afterOffset, batchSize)));
+    }
+
+    @Override
+    public <E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(DomainEventTag tag, Instant afterInstant, Integer batchSize) {
+        return Future.fromTry(Try.of(() -> streamEventsFor(tag, offset -> timestampOf(offset).isAfter(afterInstant), batchSize)));
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            List<E> rawEvents,
+            Long expectedSequenceNumber) {
+        return doSaveEvents(aggregateType, aggregateId, causationId, Option.none(), rawEvents, expectedSequenceNumber);
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEventsAndState(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            List<E> rawEvents,
+            State state,
+            Long expectedSequenceNumber) {
+        return saveEvents(aggregateType, aggregateId, causationId, rawEvents, expectedSequenceNumber);
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            CorrelationId correlationId,
+            List<E> rawEvents,
+            Long expectedSequenceNumber) {
+        return doSaveEvents(aggregateType, aggregateId, causationId, Option.of(correlationId), rawEvents, expectedSequenceNumber);
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEventsAndState(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            CorrelationId correlationId,
+            List<E> rawEvents,
+            State state,
+            Long expectedSequenceNumber) {
+        return saveEvents(aggregateType, aggregateId, causationId, correlationId, rawEvents, expectedSequenceNumber);
+    }
+
+    /**
+     * Waits for any outstanding saves to be fsynced, then closes the segment files.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writeLock.notifyAll();
+        }
+
+        try {
+            flusher.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        indexLock.writeLock().lock();
+        try {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+
+        // Closing the channel releases the lock
+        directoryLock.channel().close();
+    }
+
+    /**
+     * The lock must stay reachable for as long as it is held. Otherwise the JVM forgets it, and another store in this
+     * process could take the lock again, as the operating system only stops other processes from doing so.
+     */
+    private static FileLock lock(Path directory) throws IOException {
+        FileChannel channel = FileChannel.open(directory.resolve(LOCK_FILE_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            // Held by another store in this process
+            lock = null;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new DirectoryInUseException(directory);
+        }
+        return lock;
+    }
+
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> doSaveEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            Option<CorrelationId> correlationId,
+            List<E> rawEvents,
+            Long expectedSequenceNumber) {
+
+        if (rawEvents.isEmpty()) {
+            return Future.successful(List.empty());
+        }
+
+        List<PayloadSerialisationResult> serialisationResults;
+        try {
+            serialisationResults = rawEvents.map(payloadMapper::serialiseEvent);
+        } catch (Exception ex) {
+            return Future.failed(ex);
+        }
+
+        Promise<List<PersistedEvent<A, E>>> promise = Promise.make();
+        Tuple2<String, AggregateId> key = new Tuple2<>(aggregateType.name(), aggregateId);
+
+        synchronized (writeLock) {
+            if (closed) {
+                return Future.failed(new IllegalStateException("FileEventStore has been closed"));
+            }
+            if (failure.isDefined()) {
+                return Future.failed(failure.get());
+            }
+
+            // Only writers modify the tails, and only while holding the write lock, so they can be read safely here
+            long[] tail = aggregateTails.get(key);
+
+            // Optimistic concurrency check
+            if (tail != null && tail[1] != expectedSequenceNumber) {
+                return Future.failed(new OptimisticConcurrencyException());
+            }
+
+            long previousOffset = tail == null ? -1 : tail[0];
+            Instant timestamp = lastTimestamp;
+            ArrayList<EventRecord> records = new ArrayList<>();
+            ArrayList<PersistedEvent<A, E>> persistedEvents = new ArrayList<>();
+
+            for (int i = 0; i < rawEvents.size(); i++) {
+                E rawEvent = rawEvents.get(i);
+                PayloadSerialisationResult serialisationResult = serialisationResults.get(i);
+                long offset = nextOffset + i;
+                long sequenceNumber = expectedSequenceNumber + 1 + i;
+                Instant now = Instant.now();
+                timestamp = now.isAfter(timestamp) ? now : timestamp;
+
+                FilePersistedEvent<A, E> persistedEvent = new FilePersistedEvent<>(
+                        EventId.createUnique(),
+                        aggregateType,
+                        aggregateId,
+                        causationId,
+                        correlationId,
+                        rawEvent.getClass().getName(),
+                        Lazy.of(() -> rawEvent),
+                        serialisationResult.version().getOrElse(1),
+                        serialisationResult.payloadBytes().length,
+                        timestamp,
+                        sequenceNumber);
+
+                EventRecord record = new EventRecord(
+                        offset,
+                        sequenceNumber,
+                        previousOffset,
+                        timestamp,
+                        persistedEvent.eventVersion(),
+                        persistedEvent.id().get(),
+                        aggregateType.name(),
+                        aggregateId.get(),
+                        causationId.get(),
+                        correlationId.map(CorrelationId::get).getOrNull(),
+                        rawEvent.getClass().getName(),
+                        rawEvent.tag().tag(),
+                        serialisationResult.payloadBytes(),
+                        serialisationResult.contentType().value());
+
+                // Checked before anything is written, so a save is never partially appended
+                if (record.length() > settings.segmentSize()) {
+                    return Future.failed(new EventTooLargeException(record.length(), settings.segmentSize()));
+                }
+
+                records.add(record);
+                persistedEvents.add(persistedEvent);
+                previousOffset = offset;
+            }
+
+            try {
+                for (int i = 0; i < records.size(); i++) {
+                    append(records.get(i), key, persistedEvents.get(i));
+                }
+            } catch (IOException ex) {
+                // Some of the events may already be in the log, so it is no longer safe to write to it
+                failure = Option.of(ex);
+                return Future.failed(ex);
+            }
+
+            lastTimestamp = timestamp;
+            pendingSaves.add(new PendingSave(
+                    nextOffset - 1,
+                    () -> promise.success(List.ofAll(persistedEvents)),
+                    promise::failure));
+            writeLock.notifyAll();
+        }
+
+        return promise.future();
+    }
+
+    private void append(EventRecord record, Tuple2<String, AggregateId> key, PersistedEvent<?, ?> event) throws IOException {
+        Segment segment = segments.get(segments.size() - 1);
+
+        if (!segment.hasRoomFor(record.length())) {
+            // The rest of the current segment stays zeroed, which marks the end of its events
+            segment = Segment.create(directory, nextOffset, settings.segmentSize());
+            indexLock.writeLock().lock();
+            try {
+                segments.add(segment);
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+        }
+
+        int position = segment.append(record);
+        dirtySegments.add(segment);
+
+        indexLock.writeLock().lock();
+        try {
+            index(segments.size() - 1, position, key, event.rawEvent().tag().tag(), event.sequenceNumber());
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private void index(int segmentIndex, int position, Tuple2<String, AggregateId> key, String tag, long sequenceNumber) {
+        long offset = nextOffset++;
+        locations.add(((long) segmentIndex << 32) | position);
+        tagOffsets.computeIfAbsent(tag, t -> new Longs()).add(offset);
+        aggregateTails.put(key, new long[] {offset, sequenceNumber});
+    }
+
+    private void flush() {
+        while (true) {
+            synchronized (writeLock) {
+                while (pendingSaves.isEmpty() && !closed) {
+                    try {
+                        writeLock.wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                if (pendingSaves.isEmpty()) {
+                    return;
+                }
+            }
+
+            if (!settings.flushInterval().isZero()) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(settings.flushInterval().toNanos());
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+
+            ArrayList<PendingSave> saves;
+            ArrayList<Segment> segmentsToForce;
+            synchronized (writeLock) {
+                saves = pendingSaves;
+                pendingSaves = new ArrayList<>();
+                segmentsToForce = new ArrayList<>(dirtySegments);
+                dirtySegments.clear();
+            }
+
+            try {
+                segmentsToForce.forEach(Segment::force);
+                durableOffset = saves.get(saves.size() - 1).lastOffset;
+                saves.forEach(save -> save.onFlushed.run());
+            } catch (RuntimeException ex) {
+                failure = Option.of(ex);
+                saves.forEach(save -> save.onFailure.accept(ex));
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        java.util.List<Path> files;
+        try (Stream<Path> paths = Files.list(directory)) {
+            files = paths.filter(Segment::isSegmentFile).sorted().collect(Collectors.toList());
+        }
+
+        for (int i = 0; i < files.size(); i++) {
+            Segment segment = Segment.open(files.get(i));
+            boolean lastSegment = i == files.size() - 1;
+
+            segments.add(segment);
+
+            if (segment.firstOffset() != nextOffset) {
+                closeSegments();
+                throw new CorruptLogException("Segment " + segment.path() + " does not follow on from offset " + (nextOffset - 1));
+            }
+
+            ByteBuffer view = segment.view();
+            int position = 0;
+            int length;
+
+            // A negative length can only be corruption, so is checked like any other record
+            while ((length = EventRecord.length(view, position)) != 0) {
+                if (!EventRecord.isValid(view, position, nextOffset)) {
+                    // Only the last event written can have been torn by a crash, anything else is real corruption
+                    if (!lastSegment || !isTornWrite(view, position, length)) {
+                        closeSegments();
+                        throw new CorruptLogException("Corrupt event at offset " + nextOffset + " in " + segment.path());
+                    }
+                    LOGGER.warn("Discarding incomplete event at offset " + nextOffset + " at the end of " + segment.path());
+                    segment.truncate(position);
+                    break;
+                }
+
+                index(
+                        segments.size() - 1,
+                        position,
+                        new Tuple2<>(EventRecord.string(view, position, EventRecord.AGGREGATE_TYPE), AggregateId.of(EventRecord.string(view, position, EventRecord.AGGREGATE_ID))),
+                        EventRecord.string(view, position, EventRecord.TAG),
+                        EventRecord.sequenceNumber(view, position));
+                lastTimestamp = EventRecord.timestamp(view, position);
+                position += length;
+            }
+
+            // The length of a record is written last, so a crash can leave the rest of a torn record behind a zero
+            // length. It is cleared now, before new events are appended over the start of it.
+            if (lastSegment && !isZeroedFrom(view, position)) {
+                LOGGER.warn("Discarding the remains of an incomplete event at offset " + nextOffset + " at the end of " + segment.path());
+                segment.truncate(position);
+            }
+
+            segment.recovered(position);
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(Segment.create(directory, 0, settings.segmentSize()));
+        }
+
+        durableOffset = nextOffset - 1;
+    }
+
+    /**
+     * @return whether the invalid record at position is the last thing in the segment, as a partially written record
+     *         would be. Its length must be plausible and everything after it still zeroed.
+     */
+    private static boolean isTornWrite(ByteBuffer view, int position, int length) {
+        return length >= 0 && length <= view.capacity() - position && isZeroedFrom(view, position + length);
+    }
+
+    private static boolean isZeroedFrom(ByteBuffer view, int position) {
+        for (int i = position; i < view.capacity(); i++) {
+            if (view.get(i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void closeSegments() throws IOException {
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> List<PersistedEvent<A, E>> persistedEventsFor(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            Option<Long> afterSequenceNumber) {
+
+        long durable = durableOffset;
+        List<Tuple2<ByteBuffer, Integer>> records = List.empty();
+
+        indexLock.readLock().lock();
+        try {
+            long[] tail = aggregateTails.get(new Tuple2<>(aggregateType.name(), aggregateId));
+            long offset = tail == null ? -1 : tail[0];
+
+            while (offset >= 0) {
+                ByteBuffer view = viewOf(offset);
+                int position = positionOf(offset);
+
+                // Skip events that haven't been fsynced yet
+                if (offset <= durable) {
+                    if (afterSequenceNumber.isDefined() && EventRecord.sequenceNumber(view, position) <= afterSequenceNumber.get()) {
+                        break;
+                    }
+                    records = records.prepend(new Tuple2<>(view, position));
+                }
+
+                offset = EventRecord.previousOffset(view, position);
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+
+        return records.map(record -> {
+            ByteBuffer view = record._1;
+            int position = record._2;
+            int eventVersion = EventRecord.eventVersion(view, position);
+            ByteBuffer payloadBuffer = EventRecord.bytes(view, position, EventRecord.PAYLOAD);
+            byte[] payload = new byte[payloadBuffer.remaining()];
+            payloadBuffer.get(payload);
+            SerialisationContentType contentType = SerialisationContentType.fromValue(EventRecord.string(view, position, EventRecord.CONTENT_TYPE));
+            String eventType = EventRecord.string(view, position, EventRecord.EVENT_TYPE);
+            // The payload is copied out of the segment now, but only deserialised if the event itself is asked for
+            Lazy<E> rawEvent = Lazy.of(() -> payloadMapper.deserialiseEvent(payload, contentType, eventType, eventVersion));
+
+            return new FilePersistedEvent<>(
+                    EventId.of(EventRecord.string(view, position, EventRecord.EVENT_ID)),
+                    aggregateType,
+                    aggregateId,
+                    CausationId.of(EventRecord.string(view, position, EventRecord.CAUSATION_ID)),
+                    CorrelationId.ofNullable(EventRecord.string(view, position, EventRecord.CORRELATION_ID)),
+                    eventType,
+                    rawEvent,
+                    eventVersion,
+                    payload.length,
+                    EventRecord.timestamp(view, position),
+                    EventRecord.sequenceNumber(view, position));
+        });
+    }
+
+    /**
+     * @param isAfter must be false for a prefix of the tag's offsets and true for the rest
+     */
+    private List<StreamEvent> streamEventsFor(DomainEventTag tag, Predicate<Long> isAfter, Integer batchSize) {
+        long durable = durableOffset;
+
+        indexLock.readLock().lock();
+        try {
+            Longs offsets = tagOffsets.get(tag.tag());
+            if (offsets == null) {
+                return List.empty();
+            }
+
+            int from = offsets.search(isAfter);
+            int to = Math.min(from + batchSize, offsets.search(offset -> offset > durable));
+
+            ArrayList<StreamEvent> events = new ArrayList<>();
+            for (int i = from; i < to; i++) {
+                long offset = offsets.get(i);
+                events.add(new FileStreamEvent(viewOf(offset), positionOf(offset), payloadMapper));
+            }
+            return List.ofAll(events);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    private Instant timestampOf(long offset) {
+        return EventRecord.timestamp(viewOf(offset), positionOf(offset));
+    }
+
+    private ByteBuffer viewOf(long offset) {
+        return segments.get((int) (locations.get((int) offset) >>> 32)).view();
+    }
+
+    private int positionOf(long offset) {
+        return (int) locations.get((int) offset);
+    }
+
+    private static class PendingSave {
+
+        private long lastOffset;
+
+        private Runnable onFlushed;
+
+        private Consumer<Throwable> onFailure;
+
+        private PendingSave(long lastOffset, Runnable onFlushed, Consumer<Throwable> onFailure) {
+            this.lastOffset = lastOffset;
+            this.onFlushed = onFlushed;
+            this.onFailure = onFailure;
+        }
+    }
+
+    private static class Longs {
+
+        private long[] values = new long[16];
+
+        private int size = 0;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long get(int index) {
+            return values[index];
+        }
+
+        /**
+         * @return the index of the first value matching the predicate, or size if there is none
+         */
+        int search(Predicate<Long> predicate) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (predicate.test(values[middle])) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return low;
+        }
+    }
+
+    private class FilePersistedEvent<A extends Aggregate<?, E, ?>, E extends DomainEvent> implements PersistedEvent<A, E> {
+
+        private EventId eventId;
+
+        private AggregateType<A, ?, E, ?> aggregateType;
+
+        private AggregateId aggregateId;
+
+        private CausationId causationId;
+
+        private Option<CorrelationId> correlationId;
+
+        private String eventTypeName;
+
+        private Lazy<E> rawEvent;
+
+        private Integer eventVersion;
+
+        private int payloadSize;
+
+        private Instant timestamp;
+
+        private Long sequenceNumber;
+
+        public FilePersistedEvent(
+                EventId eventId,
+                AggregateType<A, ?, E, ?> aggregateType,
+                AggregateId aggregateId,
+                CausationId causationId,
+                Option<CorrelationId> correlationId,
+                String eventTypeName,
+                Lazy<E> rawEvent,
+                Integer eventVersion,
+                int payloadSize,
+                Instant timestamp,
+                Long sequenceNumber) {
+            this.eventId = eventId;
+            this.aggregateType = aggregateType;
+            this.aggregateId = aggregateId;
+            this.causationId = causationId;
+            this.correlationId = correlationId;
+            this.eventTypeName = eventTypeName;
+            this.rawEvent = rawEvent;
+            this.eventVersion = eventVersion;
+            this.payloadSize = payloadSize;
+            this.timestamp = timestamp;
+            this.sequenceNumber = sequenceNumber;
+        }
+
+        @Override
+        public EventId id() {
+            return eventId;
+        }
+
+        @Override
+        public AggregateType<A, ?, E, ?> aggregateType() {
+            return aggregateType;
+        }
+
+        @Override
+        public AggregateId aggregateId() {
+            return aggregateId;
+        }
+
+        @Override
+        public CausationId causationId() {
+            return causationId;
+        }
+
+        @Override
+        public Option<CorrelationId> correlationId() {
+            return correlationId;
+        }
+
+        /**
+         * Resolved from the stored type name and version where possible, so that it doesn't take deserialising the event.
+         */
+        @Override
+        public Class<E> eventType() {
+            return eventTypeResolver.eventType(eventTypeName, eventVersion, this::rawEvent);
+        }
+
+        @Override
+        public Integer eventVersion() {
+            return eventVersion;
+        }
+
+        @Override
+        public E rawEvent() {
+            return rawEvent.get();
+        }
+
+        @Override
+        public Instant timestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public Long sequenceNumber() {
+            return sequenceNumber;
+        }
+
+        @Override
+        public Option<Integer> payloadSize() {
+            return Option.of(payloadSize);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.file;
+
+import java.time.Duration;
+
+/**
+ * Optional behaviour for a @see FileEventStore. Instances are immutable, each with* method returns a copy.
+ */
+public class FileEventStoreSettings {
+
+    public static FileEventStoreSettings defaults() {
+        return new FileEventStoreSettings();
+    }
+
+    private int segmentSize = 64 * 1024 * 1024;
+
+    private Duration flushInterval = Duration.ZERO;
+
+    private FileEventStoreSettings() {
+
+    }
+
+    private FileEventStoreSettings(FileEventStoreSettings settings) {
+        this.segmentSize = settings.segmentSize;
+        this.flushInterval = settings.flushInterval;
+    }
+
+    /**
+     * Segment files are allocated at this size up front. No single event can be larger than a segment. Changing the
+     * segment size only affects new segments.
+     *
+     * @param bytes the size of each segment file
+     * @return a copy of these settings with the given segment size
+     */
+    public FileEventStoreSettings withSegmentSize(int bytes) {
+        if (bytes < 1024) {
+            throw new IllegalArgumentException("bytes must be at least 1024");
+        }
+        FileEventStoreSettings settings = new FileEventStoreSettings(this);
+        settings.segmentSize = bytes;
+        return settings;
+    }
+
+    /**
+     * Saves complete once their events have been fsynced. One fsync covers every save that is waiting for it, so
+     * delaying each fsync lets more saves share it, at the cost of latency. With no interval, an fsync starts as soon as
+     * the previous one finishes.
+     *
+     * @param interval how long to wait for more saves before each fsync
+     * @return a copy of these settings with the given flush interval
+     */
+    public FileEventStoreSettings withFlushInterval(Duration interval) {
+        if (interval.isNegative()) {
+            throw new IllegalArgumentException("interval cannot be negative");
+        }
+        FileEventStoreSettings settings = new FileEventStoreSettings(this);
+        settings.flushInterval = interval;
+        return settings;
+    }
+
+    public int segmentSize() {
+        return segmentSize;
+    }
+
+    public Duration flushInterval() {
+        return flushInterval;
+    }
+}
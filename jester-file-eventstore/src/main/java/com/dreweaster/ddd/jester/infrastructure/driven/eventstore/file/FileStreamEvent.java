@@ -0,0 +1,135 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.file;
+
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper;
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper.PayloadSerialisationResult;
+import com.dreweaster.ddd.jester.application.eventstore.SerialisationContentType;
+import com.dreweaster.ddd.jester.application.eventstore.StreamEvent;
+import com.dreweaster.ddd.jester.domain.DomainEvent;
+import io.vavr.Lazy;
+import io.vavr.Tuple2;
+import io.vavr.control.Option;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+
+/**
+ * A StreamEvent read directly from a mapped segment. Nothing is copied or decoded until it is asked for, and
+ * {@link #serialisedPayloadBuffer()} gives access to the payload without copying it at all.
+ *
+ * The payload is that of the event's current version, as with the other stores. An event stored at a version the
+ * PayloadMapper migrates from is deserialised and serialised again the first time its payload is asked for, and only
+ * events already stored at their current version are read straight from the segment.
+ */
+public class FileStreamEvent implements StreamEvent {
+
+    private ByteBuffer segment;
+
+    private int position;
+
+    private PayloadMapper payloadMapper;
+
+    private Lazy<Option<PayloadSerialisationResult>> upgradedPayload = Lazy.of(this::upgradePayload);
+
+    FileStreamEvent(ByteBuffer segment, int position, PayloadMapper payloadMapper) {
+        this.segment = segment;
+        this.position = position;
+        this.payloadMapper = payloadMapper;
+    }
+
+    @Override
+    public Long offset() {
+        return EventRecord.offset(segment, position);
+    }
+
+    @Override
+    public String id() {
+        return EventRecord.string(segment, position, EventRecord.EVENT_ID);
+    }
+
+    @Override
+    public String aggregateType() {
+        return EventRecord.string(segment, position, EventRecord.AGGREGATE_TYPE);
+    }
+
+    @Override
+    public String aggregateId() {
+        return EventRecord.string(segment, position, EventRecord.AGGREGATE_ID);
+    }
+
+    @Override
+    public String causationId() {
+        return EventRecord.string(segment, position, EventRecord.CAUSATION_ID);
+    }
+
+    @Override
+    public Option<String> correlationId() {
+        return Option.of(EventRecord.string(segment, position, EventRecord.CORRELATION_ID));
+    }
+
+    @Override
+    public String eventType() {
+        return EventRecord.string(segment, position, EventRecord.EVENT_TYPE);
+    }
+
+    @Override
+    public String eventTag() {
+        return EventRecord.string(segment, position, EventRecord.TAG);
+    }
+
+    @Override
+    public Instant timestamp() {
+        return EventRecord.timestamp(segment, position);
+    }
+
+    @Override
+    public Long sequenceNumber() {
+        return EventRecord.sequenceNumber(segment, position);
+    }
+
+    @Override
+    public String serialisedPayload() {
+        if (upgradedPayload.get().isDefined()) {
+            return upgradedPayload.get().get().payload();
+        }
+        storedContentType().requireTextual();
+        return EventRecord.string(segment, position, EventRecord.PAYLOAD);
+    }
+
+    /**
+     * @return the payload, UTF-8 encoded where the content type is textual, as a read-only slice of the mapped segment
+     *         unless the event had to be upgraded
+     */
+    @Override
+    public ByteBuffer serialisedPayloadBuffer() {
+        if (upgradedPayload.get().isDefined()) {
+            return ByteBuffer.wrap(upgradedPayload.get().get().payloadBytes()).asReadOnlyBuffer();
+        }
+        return EventRecord.bytes(segment, position, EventRecord.PAYLOAD);
+    }
+
+    @Override
+    public SerialisationContentType payloadContentType() {
+        return upgradedPayload.get().map(PayloadSerialisationResult::contentType).getOrElse(this::storedContentType);
+    }
+
+    private SerialisationContentType storedContentType() {
+        return SerialisationContentType.fromValue(EventRecord.string(segment, position, EventRecord.CONTENT_TYPE));
+    }
+
+    /**
+     * @return the payload of the event's current version, or none if it was stored at that version already
+     */
+    private Option<PayloadSerialisationResult> upgradePayload() {
+        String eventType = eventType();
+        int eventVersion = EventRecord.eventVersion(segment, position);
+        if (payloadMapper.currentEventType(eventType, eventVersion).contains(new Tuple2<>(eventType, eventVersion))) {
+            return Option.none();
+        }
+
+        ByteBuffer payloadBuffer = EventRecord.bytes(segment, position, EventRecord.PAYLOAD);
+        byte[] payload = new byte[payloadBuffer.remaining()];
+        payloadBuffer.get(payload);
+        DomainEvent event = payloadMapper.deserialiseEvent(payload, storedContentType(), eventType, eventVersion);
+        return Option.of(payloadMapper.serialiseEvent(event));
+    }
+}
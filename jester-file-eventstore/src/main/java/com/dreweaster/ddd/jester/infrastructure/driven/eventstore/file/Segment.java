@@ -0,0 +1,116 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single memory-mapped log file. Records are appended one after another from the start of the file. The unused
+ * remainder of the file is always zeroed, so a record length of zero marks the end of the log.
+ */
+class Segment {
+
+    private static final String FILE_EXTENSION = ".log";
+
+    static boolean isSegmentFile(Path path) {
+        return path.getFileName().toString().endsWith(FILE_EXTENSION);
+    }
+
+    static Segment create(Path directory, long firstOffset, int size) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", firstOffset, FILE_EXTENSION));
+        return new Segment(path, firstOffset, size);
+    }
+
+    static Segment open(Path path) throws IOException {
+        String fileName = path.getFileName().toString();
+        long firstOffset = Long.parseLong(fileName.substring(0, fileName.length() - FILE_EXTENSION.length()));
+        long size = Files.size(path);
+        // Mapped buffers are indexed by int, which is also what FileEventStoreSettings limits the segment size to
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Segment " + path + " is " + size + " bytes, larger than the maximum of " + Integer.MAX_VALUE);
+        }
+        return new Segment(path, firstOffset, (int) size);
+    }
+
+    private Path path;
+
+    private long firstOffset;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    private int writePosition = 0;
+
+    private Segment(Path path, long firstOffset, int size) throws IOException {
+        this.path = path;
+        this.firstOffset = firstOffset;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    Path path() {
+        return path;
+    }
+
+    long firstOffset() {
+        return firstOffset;
+    }
+
+    int writePosition() {
+        return writePosition;
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    boolean hasRoomFor(int recordLength) {
+        return buffer.capacity() - writePosition >= recordLength;
+    }
+
+    /**
+     * @return the position the record was written at
+     */
+    int append(EventRecord record) {
+        int position = writePosition;
+        record.writeTo(buffer, position);
+        writePosition += record.length();
+        return position;
+    }
+
+    /**
+     * @return a view of the mapped file with its own position and limit, for reading without affecting other readers
+     */
+    ByteBuffer view() {
+        return buffer.duplicate();
+    }
+
+    /**
+     * Discards everything from position onwards, for instance a partially written record found during recovery.
+     */
+    void truncate(int position) {
+        ByteBuffer view = view();
+        for (int i = position; i < view.capacity(); i++) {
+            view.put(i, (byte) 0);
+        }
+        buffer.force();
+        writePosition = position;
+    }
+
+    void recovered(int position) {
+        writePosition = position;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
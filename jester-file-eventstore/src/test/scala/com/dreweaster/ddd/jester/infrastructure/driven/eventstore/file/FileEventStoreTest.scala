@@ -0,0 +1,325 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.file
+
+import java.nio.channels.FileChannel
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardOpenOption}
+
+import com.dreweaster.ddd.jester.application.eventstore.EventStore.OptimisticConcurrencyException
+import com.dreweaster.ddd.jester.application.eventstore.Notebook.{NotePayloadMapper, NotebookEvent}
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper.PayloadSerialisationResult
+import com.dreweaster.ddd.jester.application.eventstore._
+import com.dreweaster.ddd.jester.domain.{AggregateId, CausationId, DomainEvent}
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.file.FileEventStore.{CorruptLogException, DirectoryInUseException}
+import io.vavr.Tuple2
+import io.vavr.control.Option
+import org.scalatest.{BeforeAndAfter, FeatureSpec}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
+
+class FileEventStoreTest extends FeatureSpec with EventStoreBehaviours with BeforeAndAfter {
+
+  val payloadMapper = new NotePayloadMapper
+
+  val smallSegments = FileEventStoreSettings.defaults().withSegmentSize(1024)
+
+  val directories = ListBuffer[Path]()
+
+  val stores = ListBuffer[FileEventStore]()
+
+  after {
+    stores.foreach(_.close())
+    stores.clear()
+    directories.foreach(directory => files(directory).foreach(Files.delete))
+    directories.foreach(Files.delete)
+    directories.clear()
+  }
+
+  def tempDirectory() = {
+    val directory = Files.createTempDirectory("file-event-store")
+    directories += directory
+    directory
+  }
+
+  def files(directory: Path): List[Path] = {
+    val paths = Files.list(directory)
+    try {
+      paths.iterator().asScala.toList.sortBy(_.getFileName.toString)
+    } finally {
+      paths.close()
+    }
+  }
+
+  def segmentFiles(directory: Path): List[Path] = files(directory).filter(Segment.isSegmentFile)
+
+  /**
+   * @return a store in a directory of its own, closed once the scenario is over
+   */
+  def newStore(payloadMapper: PayloadMapper): FileEventStore = {
+    val store = new FileEventStore(tempDirectory(), payloadMapper)
+    stores += store
+    store
+  }
+
+  def saveNotes(store: EventStore, aggregateId: String, expectedSequenceNumber: Long, texts: String*) =
+    save(store, aggregateId, expectedSequenceNumber, events(texts: _*)).get()
+
+  def texts(store: EventStore, aggregateId: String) =
+    load(store, aggregateId).map(_.rawEvent().text()).mkString(",")
+
+  feature("A FileEventStore can be used from several threads at once") {
+    scenariosFor(concurrentlyUsableEventStore(() => newStore(payloadMapper)))
+  }
+
+  feature("A FileEventStore streams events by tag") {
+    scenariosFor(streamableEventStore(newStore))
+  }
+
+  feature("A FileEventStore resolves event types through its PayloadMapper") {
+    scenariosFor(eventTypeResolvingEventStore(newStore))
+  }
+
+  feature("A FileEventStore keeps events across restarts") {
+
+    scenario("Load the events of an aggregate instance after reopening the store") {
+      Given("a store with events saved for two aggregate instances")
+      val directory = tempDirectory()
+      val store = new FileEventStore(directory, payloadMapper)
+      saveNotes(store, "a", -1, "a1", "a2")
+      saveNotes(store, "b", -1, "b1")
+      saveNotes(store, "a", 1, "a3")
+      store.close()
+
+      When("reopening the store")
+      val reopened = new FileEventStore(directory, payloadMapper)
+
+      Then("each aggregate instance's events should be loaded in order")
+      texts(reopened, "a") should be("a1,a2,a3")
+      texts(reopened, "b") should be("b1")
+      load(reopened, "a").map(_.sequenceNumber()).mkString(",") should be("0,1,2")
+      reopened.loadEvents(Notebook.TYPE, AggregateId.of("a"), 0L).get().size() should be(2)
+      reopened.close()
+    }
+
+    scenario("Reject a save made against an out of date sequence number") {
+      Given("an aggregate instance with two events")
+      val store = new FileEventStore(tempDirectory(), payloadMapper)
+      saveNotes(store, "a", -1, "a1", "a2")
+
+      When("saving with the sequence number of the first event")
+      val result = store.saveEvents(Notebook.TYPE, AggregateId.of("a"), CausationId.of("causation"), events("a3"), 0L).await()
+
+      Then("the save should fail with an OptimisticConcurrencyException")
+      result.getCause.get() shouldBe an[OptimisticConcurrencyException]
+      texts(store, "a") should be("a1,a2")
+      store.close()
+    }
+
+    scenario("Stream events that span several segments") {
+      Given("a store with small segments holding 50 events")
+      val directory = tempDirectory()
+      val store = new FileEventStore(directory, payloadMapper, smallSegments)
+      (0 until 50).foreach(i => saveNotes(store, "a", i - 1, "note " + i))
+      store.close()
+
+      When("reopening the store and streaming every event in batches")
+      val reopened = new FileEventStore(directory, payloadMapper, smallSegments)
+      var events = io.vavr.collection.List.empty[com.dreweaster.ddd.jester.application.eventstore.StreamEvent]()
+      var batch = reopened.loadEventStream(Notebook.TAG, -1L, 7).get()
+      while (!batch.isEmpty) {
+        events = events.appendAll(batch)
+        batch = reopened.loadEventStream(Notebook.TAG, batch.last().offset(), 7).get()
+      }
+
+      Then("every event should be streamed once, in offset order")
+      segmentFiles(directory).size should be > 1
+      events.toJavaList.asScala.map(_.offset()).mkString(",") should be((0 until 50).mkString(","))
+      events.get(49).serialisedPayload() should be("note 49")
+
+      And("events should be streamed from after a given instant")
+      val after = reopened.loadEventStream(Notebook.TAG, events.get(9).timestamp(), 100).get()
+      after.head().timestamp().isAfter(events.get(9).timestamp()) should be(true)
+      after.last().offset() should be(49L)
+      reopened.close()
+    }
+  }
+
+  feature("A FileEventStore streams the payload of each event's current version") {
+
+    scenario("Read the payload of an event stored at its current version straight from the segment") {
+      Given("a store with an event saved at its current version")
+      val store = new FileEventStore(tempDirectory(), payloadMapper)
+      saveNotes(store, "a", -1, "note")
+
+      When("streaming the event")
+      val event = store.loadEventStream(Notebook.TAG, -1L, 10).get().head()
+
+      Then("its payload should be a read-only view of the segment")
+      val buffer = event.serialisedPayloadBuffer()
+      buffer.isDirect should be(true)
+      buffer.isReadOnly should be(true)
+      event.serialisedPayload() should be("note")
+      store.close()
+    }
+
+    scenario("Upgrade the payload of an event stored at a version the PayloadMapper migrates from") {
+      Given("a store with an event saved at version 1")
+      val directory = tempDirectory()
+      val store = new FileEventStore(directory, payloadMapper)
+      saveNotes(store, "a", -1, "note")
+      store.close()
+
+      And("a PayloadMapper whose current version writes notes in upper case")
+      val upgradingMapper = new NotePayloadMapper {
+        override def currentEventType(serialisedEventType: String, serialisedEventVersion: Integer) =
+          Option.of(new Tuple2[String, Integer](serialisedEventType, 2))
+
+        override def serialiseEvent[T <: DomainEvent](event: T) =
+          PayloadSerialisationResult.of(event.asInstanceOf[NotebookEvent].text().toUpperCase, SerialisationContentType.JSON, 2)
+      }
+
+      When("reopening the store with that PayloadMapper and streaming the event")
+      val reopened = new FileEventStore(directory, upgradingMapper)
+      val event = reopened.loadEventStream(Notebook.TAG, -1L, 10).get().head()
+
+      Then("its payload should be that of the current version")
+      event.serialisedPayload() should be("NOTE")
+      StandardCharsets.UTF_8.decode(event.serialisedPayloadBuffer()).toString should be("NOTE")
+      event.payloadContentType() should be(SerialisationContentType.JSON)
+      reopened.close()
+    }
+  }
+
+  feature("A FileEventStore has its directory to itself") {
+
+    scenario("Refuse to open a directory another store is using") {
+      Given("a store using a directory")
+      val directory = tempDirectory()
+      val store = new FileEventStore(directory, payloadMapper)
+      saveNotes(store, "a", -1, "a1")
+      System.gc()
+
+      When("opening another store on the same directory, after a garbage collection")
+      Then("it should fail straight away")
+      a[DirectoryInUseException] should be thrownBy new FileEventStore(directory, payloadMapper)
+
+      And("the directory should be free again once the first store is closed")
+      store.close()
+      val reopened = new FileEventStore(directory, payloadMapper)
+      texts(reopened, "a") should be("a1")
+      reopened.close()
+    }
+  }
+
+  feature("A FileEventStore recovers from a partially written event, but not from other corruption") {
+
+    scenario("Discard a corrupt event at the end of the log") {
+      Given("a store whose last event was not completely written")
+      val directory = tempDirectory()
+      val store = new FileEventStore(directory, payloadMapper)
+      saveNotes(store, "a", -1, "a1", "a2")
+      saveNotes(store, "a", 1, "a3")
+      store.close()
+      corruptRecord(segmentFiles(directory).last, 2)
+
+      When("reopening the store")
+      val reopened = new FileEventStore(directory, payloadMapper)
+
+      Then("the corrupt event should be discarded")
+      texts(reopened, "a") should be("a1,a2")
+
+      And("new events should follow on from the last complete event")
+      saveNotes(reopened, "a", 1, "a3 again")
+      texts(reopened, "a") should be("a1,a2,a3 again")
+      reopened.loadEventStream(Notebook.TAG, -1L, 10).get().toJavaList.asScala.map(_.offset()).mkString(",") should be("0,1,2")
+      reopened.close()
+    }
+
+    scenario("Clear the remains of an event whose length was never written") {
+      Given("a store whose last event was written apart from its length")
+      val directory = tempDirectory()
+      val store = new FileEventStore(directory, payloadMapper)
+      saveNotes(store, "a", -1, "a1", "a2")
+      store.close()
+      writeJunkAfterLastRecord(segmentFiles(directory).last, 1000)
+
+      When("reopening the store and saving another event")
+      val reopened = new FileEventStore(directory, payloadMapper)
+      saveNotes(reopened, "a", 1, "a3")
+      reopened.close()
+
+      Then("the store should open again, with the remains of the event discarded")
+      val reopenedAgain = new FileEventStore(directory, payloadMapper)
+      texts(reopenedAgain, "a") should be("a1,a2,a3")
+      reopenedAgain.close()
+    }
+
+    scenario("Refuse to open a log with a corrupt event before its end") {
+      Given("a store with small segments, one of its earlier events corrupted")
+      val directory = tempDirectory()
+      val store = new FileEventStore(directory, payloadMapper, smallSegments)
+      (0 until 50).foreach(i => saveNotes(store, "a", i - 1, "note " + i))
+      store.close()
+      val segments = segmentFiles(directory)
+      corruptRecord(segments.head, 1)
+
+      When("reopening the store")
+      Then("it should fail rather than discard the events after the corrupt one")
+      a[CorruptLogException] should be thrownBy new FileEventStore(directory, payloadMapper, smallSegments)
+
+      And("every segment should be left in place")
+      segmentFiles(directory) should be(segments)
+      segments.map(Files.size).toSet should be(Set(1024L))
+    }
+
+    scenario("Refuse to open a log with a missing segment") {
+      Given("a store with small segments, one of its middle segments deleted")
+      val directory = tempDirectory()
+      val store = new FileEventStore(directory, payloadMapper, smallSegments)
+      (0 until 50).foreach(i => saveNotes(store, "a", i - 1, "note " + i))
+      store.close()
+      val segments = segmentFiles(directory)
+      Files.delete(segments(1))
+
+      When("reopening the store")
+      Then("it should fail rather than discard the segments after the gap")
+      a[CorruptLogException] should be thrownBy new FileEventStore(directory, payloadMapper, smallSegments)
+      segmentFiles(directory) should be(segments.patch(1, Nil, 1))
+    }
+  }
+
+  /**
+   * Fills the given number of bytes after the length word following the last record in a segment, leaving that length 0
+   */
+  def writeJunkAfterLastRecord(segment: Path, bytes: Int): Unit = {
+    val channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)
+    try {
+      val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size())
+      var position = 0
+      while (EventRecord.length(buffer, position) != 0) {
+        position += EventRecord.length(buffer, position)
+      }
+      (position + 4 until position + 4 + bytes).foreach(i => buffer.put(i, 0x5a.toByte))
+      buffer.force()
+    } finally {
+      channel.close()
+    }
+  }
+
+  /**
+   * Flips the last byte of the given record (counting from 0) in a segment, leaving its length intact
+   */
+  def corruptRecord(segment: Path, record: Int): Unit = {
+    val channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)
+    try {
+      val buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size())
+      var position = 0
+      (0 until record).foreach(_ => position += EventRecord.length(buffer, position))
+      val last = position + EventRecord.length(buffer, position) - 1
+      buffer.put(last, (buffer.get(last) ^ 0xff).toByte)
+      buffer.force()
+    } finally {
+      channel.close()
+    }
+  }
+}
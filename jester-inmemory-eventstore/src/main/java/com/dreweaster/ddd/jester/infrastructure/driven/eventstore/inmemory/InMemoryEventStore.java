@@ -1,6 +1,8 @@
 package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.inmemory;
 
 import com.dreweaster.ddd.jester.application.eventstore.EventStore;
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper;
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper.PayloadSerialisationResult;
 import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
 import com.dreweaster.ddd.jester.application.eventstore.SerialisationContentType;
 import com.dreweaster.ddd.jester.application.eventstore.StreamEvent;
@@ -10,46 +12,101 @@ import io.vavr.collection.List;
 import io.vavr.concurrent.Future;
 import io.vavr.control.Option;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
-
-// TODO: Delegate serialisation to an PayloadMapper
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Events are held per aggregate instance, for loading, and in a single offset ordered log with an index per tag, for
+ * streaming. Saves and loads for an aggregate instance only touch that instance's events and only contend with other
+ * instances that share the same lock stripe. Appending to the log is the only step that is serialised across all saves.
+ *
+ * Events are given their offset and timestamp as they are appended to the log, so both increase along the log and
+ * stream queries can binary search a tag's index by either. Stream events carry the payload produced by the
+ * PayloadMapper, if one was given, or an empty JSON object otherwise.
+ */
 // TODO: Is not serialising state
 public class InMemoryEventStore implements EventStore {
 
-    private Long nextOffset = 0L;
+    private static final int LOCK_STRIPES = 64;
+
+    private final ReentrantReadWriteLock[] aggregateLocks = new ReentrantReadWriteLock[LOCK_STRIPES];
+
+    private final ConcurrentHashMap<Tuple2<String, AggregateId>, ArrayList<PersistedEvent<?, ?>>> aggregateEvents = new ConcurrentHashMap<>();
+
+    private final ReentrantReadWriteLock logLock = new ReentrantReadWriteLock();
+
+    // Index in the log is the event's offset
+    private final ArrayList<SimplePersistedEvent<?, ?>> log = new ArrayList<>();
+
+    private final HashMap<String, ArrayList<Long>> tagOffsets = new HashMap<>();
 
-    private List<Tuple2> events = List.empty();
+    private Instant lastTimestamp = Instant.EPOCH;
+
+    private Option<PayloadMapper> payloadMapper;
+
+    public InMemoryEventStore() {
+        this(Option.none());
+    }
+
+    public InMemoryEventStore(PayloadMapper payloadMapper) {
+        this(Option.of(payloadMapper));
+    }
+
+    private InMemoryEventStore(Option<PayloadMapper> payloadMapper) {
+        this.payloadMapper = payloadMapper;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            aggregateLocks[i] = new ReentrantReadWriteLock();
+        }
+    }
 
     public void clear() {
-        events = List.empty();
+        for (ReentrantReadWriteLock lock : aggregateLocks) {
+            lock.writeLock().lock();
+        }
+        logLock.writeLock().lock();
+        try {
+            aggregateEvents.clear();
+            log.clear();
+            tagOffsets.clear();
+            lastTimestamp = Instant.EPOCH;
+        } finally {
+            logLock.writeLock().unlock();
+            for (ReentrantReadWriteLock lock : aggregateLocks) {
+                lock.writeLock().unlock();
+            }
+        }
     }
 
     @Override
-    public synchronized <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
             AggregateType<A, ?, E, State> aggregateType,
             AggregateId aggregateId) {
-        return Future.successful(persistedEventsFor(aggregateType, aggregateId));
+        return Future.successful(persistedEventsFor(aggregateType, aggregateId, Option.none()));
     }
 
     @Override
     public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
             AggregateType<A, ?, E, State> aggregateType, AggregateId aggregateId, Long afterSequenceNumber) {
-        return Future.successful(persistedEventsFor(aggregateType, aggregateId)
-                .filter(event -> event.sequenceNumber() > afterSequenceNumber));
+        return Future.successful(persistedEventsFor(aggregateType, aggregateId, Option.of(afterSequenceNumber)));
     }
 
     @Override
     public <E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(DomainEventTag tag, Long afterOffset, Integer batchSize) {
-        throw new UnsupportedOperationException();
+        return Future.successful(streamEventsFor(tag, offset -> offset > afterOffset, batchSize));
     }
 
     @Override
     public <E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(DomainEventTag tag, Instant afterInstant, Integer batchSize) {
-        throw new UnsupportedOperationException();
+        return Future.successful(streamEventsFor(tag, offset -> log.get(offset.intValue()).timestamp().isAfter(afterInstant), batchSize));
     }
 
     @Override
-    public synchronized <A extends Aggregate<?, E, State>, E extends DomainEvent, State>Future<List<PersistedEvent<A, E>>> saveEvents(
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State>Future<List<PersistedEvent<A, E>>> saveEvents(
             AggregateType<A, ?, E, State> aggregateType,
             AggregateId aggregateId,
             CausationId causationId,
@@ -70,7 +127,7 @@ public class InMemoryEventStore implements EventStore {
     }
 
     @Override
-    public synchronized <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEvents(
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEvents(
             AggregateType<A, ?, E, State> aggregateType,
             AggregateId aggregateId,
             CausationId causationId,
@@ -92,7 +149,6 @@ public class InMemoryEventStore implements EventStore {
         return saveEvents(aggregateType, aggregateId, causationId, correlationId, rawEvents, expectedSequenceNumber);
     }
 
-    @SuppressWarnings("unchecked")
     private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> doSaveEvents(
             AggregateType<A, ?, E, State> aggregateType,
             AggregateId aggregateId,
@@ -101,81 +157,144 @@ public class InMemoryEventStore implements EventStore {
             List<E> rawEvents,
             Long expectedSequenceNumber) {
 
-        // Optimistic concurrency check
-        if (aggregateHasBeenModified(aggregateType, aggregateId, expectedSequenceNumber)) {
-            return Future.failed(new OptimisticConcurrencyException());
-        }
+        Tuple2<String, AggregateId> key = new Tuple2<>(aggregateType.name(), aggregateId);
+        ReentrantReadWriteLock lock = lockFor(key);
+
+        lock.writeLock().lock();
+        try {
+            ArrayList<PersistedEvent<?, ?>> events = aggregateEvents.get(key);
+
+            // Optimistic concurrency check
+            if (events != null && !events.get(events.size() - 1).sequenceNumber().equals(expectedSequenceNumber)) {
+                return Future.failed(new OptimisticConcurrencyException());
+            }
 
-        List<PersistedEvent<A, E>> persistedEvents =
-                rawEvents.foldLeft(new Tuple2<Long, List<PersistedEvent<A, E>>>(expectedSequenceNumber + 1, List.empty()), (acc, e) ->
-                        new Tuple2<>(acc._1 + 1, acc._2.append(
+            List<SimplePersistedEvent<A, E>> persistedEvents =
+                    rawEvents.foldLeft(new Tuple2<Long, List<SimplePersistedEvent<A, E>>>(expectedSequenceNumber + 1, List.empty()), (acc, e) -> {
+                        PayloadSerialisationResult serialisationResult = payloadMapper
+                                .map(mapper -> mapper.serialiseEvent(e))
+                                .getOrElse(() -> PayloadSerialisationResult.of("{}", SerialisationContentType.JSON, 1));
+
+                        return new Tuple2<>(acc._1 + 1, acc._2.append(
                                 new SimplePersistedEvent<>(
                                         aggregateType,
                                         aggregateId,
                                         causationId,
                                         correlationId,
                                         e,
+                                        serialisationResult,
+                                        serialisationResult.version().getOrElse(1),
                                         acc._1
-                                ))))._2;
+                                )));
+                    })._2;
 
-        persistedEvents.forEach( event -> {
-            events = events.append(new Tuple2(event,nextOffset));
-            nextOffset = nextOffset + 1;
-        });
+            if (persistedEvents.isEmpty()) {
+                return Future.successful(List.empty());
+            }
 
-        return Future.successful(persistedEvents);
-    }
+            if (events == null) {
+                events = new ArrayList<>();
+                aggregateEvents.put(key, events);
+            }
+            events.addAll(persistedEvents.toJavaList());
 
-    @SuppressWarnings("unchecked")
-    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> List<PersistedEvent<A, E>> persistedEventsFor(
-            AggregateType<A, ?, E, State> aggregateType) {
-        return events.filter( e -> {
-            Tuple2<PersistedEvent<A, E>, Long> event = ((Tuple2<PersistedEvent<A, E>, Long>) e);
-            return event._1.aggregateType().equals(aggregateType);
-        }).map( event ->(PersistedEvent<A, E>) event._1);
+            appendToLog(persistedEvents);
+
+            return Future.successful(List.narrow(persistedEvents));
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
-    @SuppressWarnings("unchecked")
-    private <E extends DomainEvent> List<PersistedEvent<?,E>> persistedEventsFor(DomainEventTag tag) {
-        return events.filter( e -> {
-            Tuple2<PersistedEvent<?, E>, Long> event = ((Tuple2<PersistedEvent<?, E>, Long>) e);
-            return event._1.rawEvent().tag().equals(tag);
-        }).map( event ->(PersistedEvent<?, E>) event._1);
+    private <A extends Aggregate<?, E, ?>, E extends DomainEvent> void appendToLog(List<SimplePersistedEvent<A, E>> persistedEvents) {
+        logLock.writeLock().lock();
+        try {
+            for (SimplePersistedEvent<A, E> event : persistedEvents) {
+                long offset = log.size();
+                Instant now = Instant.now();
+                lastTimestamp = now.isAfter(lastTimestamp) ? now : lastTimestamp;
+                event.timestamp = lastTimestamp;
+                log.add(event);
+                tagOffsets.computeIfAbsent(event.rawEvent().tag().tag(), tag -> new ArrayList<>()).add(offset);
+            }
+        } finally {
+            logLock.writeLock().unlock();
+        }
     }
 
     @SuppressWarnings("unchecked")
     private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> List<PersistedEvent<A, E>> persistedEventsFor(
             AggregateType<A, ?, E, State> aggregateType,
-            AggregateId aggregateId) {
-        return events.filter( e -> {
-            Tuple2<PersistedEvent<A, E>, Long> event = ((Tuple2<PersistedEvent<A, E>, Long>) e);
-            return event._1.aggregateType().equals(aggregateType) && event._1.aggregateId().equals(aggregateId);
-        }).map( event ->(PersistedEvent<A, E>) event._1);
+            AggregateId aggregateId,
+            Option<Long> afterSequenceNumber) {
+
+        Tuple2<String, AggregateId> key = new Tuple2<>(aggregateType.name(), aggregateId);
+        ReentrantReadWriteLock lock = lockFor(key);
+
+        lock.readLock().lock();
+        try {
+            ArrayList<PersistedEvent<?, ?>> events = aggregateEvents.get(key);
+            if (events == null) {
+                return List.empty();
+            }
+
+            // Sequence numbers are contiguous, so the position of the first event to return can be calculated
+            int from = 0;
+            if (afterSequenceNumber.isDefined()) {
+                long firstSequenceNumber = events.get(0).sequenceNumber();
+                from = (int) Math.min(events.size(), Math.max(0L, afterSequenceNumber.get() - firstSequenceNumber + 1));
+            }
+
+            return List.ofAll(events.subList(from, events.size())).map(event -> (PersistedEvent<A, E>) event);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> boolean aggregateHasBeenModified(
-            AggregateType<A, ?, E, State> aggregateType,
-            AggregateId aggregateId,
-            Long expectedSequenceNumber) {
+    /**
+     * @param isAfter must be false for a prefix of the tag's offsets and true for the rest
+     */
+    private List<StreamEvent> streamEventsFor(DomainEventTag tag, Predicate<Long> isAfter, Integer batchSize) {
+        logLock.readLock().lock();
+        try {
+            ArrayList<Long> offsets = tagOffsets.get(tag.tag());
+            if (offsets == null) {
+                return List.empty();
+            }
+
+            int low = 0;
+            int high = offsets.size();
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (isAfter.test(offsets.get(middle))) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+
+            return List.ofAll(offsets.subList(low, Math.min(offsets.size(), low + batchSize)))
+                    .map(offset -> streamEventOf(log.get(offset.intValue()), offset));
+        } finally {
+            logLock.readLock().unlock();
+        }
+    }
 
-        return persistedEventsFor(aggregateType, aggregateId)
-                .lastOption()
-                .map(event -> !event.sequenceNumber().equals(expectedSequenceNumber))
-                .getOrElse(false);
+    private ReentrantReadWriteLock lockFor(Tuple2<String, AggregateId> key) {
+        return aggregateLocks[(key.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES];
     }
 
-    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> StreamEvent streamEventOf(
-            PersistedEvent<A, E> persistedEvent, long offset) {
-        return new SimpleStreamEvent<>(persistedEvent, offset);
+    private StreamEvent streamEventOf(SimplePersistedEvent<?, ?> persistedEvent, long offset) {
+        return new SimpleStreamEvent(persistedEvent, offset);
     }
 
-    private class SimpleStreamEvent<A extends Aggregate<?, E, State>, E extends DomainEvent, State> implements StreamEvent {
+    private class SimpleStreamEvent implements StreamEvent {
 
-        private PersistedEvent<A, E> persistedEvent;
+        private SimplePersistedEvent<?, ?> persistedEvent;
 
         private long offset;
 
-        public SimpleStreamEvent(PersistedEvent<A, E> persistedEvent, long offset) {
+        public SimpleStreamEvent(SimplePersistedEvent<?, ?> persistedEvent, long offset) {
             this.persistedEvent = persistedEvent;
             this.offset = offset;
         }
@@ -232,12 +351,17 @@ public class InMemoryEventStore implements EventStore {
 
         @Override
         public String serialisedPayload() {
-            return "{}";
+            return persistedEvent.serialisedEvent.payload();
+        }
+
+        @Override
+        public ByteBuffer serialisedPayloadBuffer() {
+            return ByteBuffer.wrap(persistedEvent.serialisedEvent.payloadBytes()).asReadOnlyBuffer();
         }
 
         @Override
         public SerialisationContentType payloadContentType() {
-            return SerialisationContentType.JSON;
+            return persistedEvent.serialisedEvent.contentType();
         }
     }
 
@@ -255,7 +379,12 @@ public class InMemoryEventStore implements EventStore {
 
         private E rawEvent;
 
-        private Instant timestamp = Instant.now();
+        private PayloadSerialisationResult serialisedEvent;
+
+        private Integer eventVersion;
+
+        // Assigned when the event is appended to the log
+        private Instant timestamp;
 
         private Long sequenceNumber;
 
@@ -265,12 +394,16 @@ public class InMemoryEventStore implements EventStore {
                 CausationId causationId,
                 Option<CorrelationId> correlationId,
                 E rawEvent,
+                PayloadSerialisationResult serialisedEvent,
+                Integer eventVersion,
                 Long sequenceNumber) {
             this.aggregateId = aggregateId;
             this.aggregateType = aggregateType;
             this.causationId = causationId;
             this.correlationId = correlationId;
             this.rawEvent = rawEvent;
+            this.serialisedEvent = serialisedEvent;
+            this.eventVersion = eventVersion;
             this.sequenceNumber = sequenceNumber;
         }
 
@@ -312,7 +445,7 @@ public class InMemoryEventStore implements EventStore {
 
         @Override
         public Integer eventVersion() {
-            return 1; // TODO: Implement PayloadMapper integration
+            return eventVersion;
         }
 
         @Override
@@ -325,6 +458,12 @@ public class InMemoryEventStore implements EventStore {
             return sequenceNumber;
         }
 
+        @Override
+        public Option<Integer> payloadSize() {
+            // Without a mapper the serialised event is only a placeholder
+            return payloadMapper.isDefined() ? Option.of(serialisedEvent.payloadBytes().length) : Option.none();
+        }
+
         @Override
         public String toString() {
             return "SimplePersistedEvent{" +
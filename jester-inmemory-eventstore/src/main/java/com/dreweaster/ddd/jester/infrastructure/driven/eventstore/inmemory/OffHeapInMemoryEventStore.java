@@ -0,0 +1,597 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.inmemory;
+
+import com.dreweaster.ddd.jester.application.eventstore.EventStore;
+import com.dreweaster.ddd.jester.application.eventstore.EventTypeResolver;
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper;
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper.PayloadSerialisationResult;
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
+import com.dreweaster.ddd.jester.application.eventstore.SerialisationContentType;
+import com.dreweaster.ddd.jester.application.eventstore.StreamEvent;
+import com.dreweaster.ddd.jester.domain.*;
+import io.vavr.Lazy;
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+import io.vavr.concurrent.Future;
+import io.vavr.control.Option;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+
+/**
+ * An in-memory store for very large numbers of events. Events are held as serialised payloads, behind a fixed width
+ * header, in direct (off-heap) buffers. They are only deserialised, through the PayloadMapper, when a loaded event's
+ * raw event is first asked for.
+ *
+ * Each event records the offset of the previous event for the same aggregate instance, so the heap only holds the
+ * latest offset of each aggregate instance. The location of each offset, and the offsets for each tag, are held in
+ * direct buffers too. Aggregate types, event types and tags are interned. Heap use therefore grows with the number of
+ * aggregate instances, but not with the number of events.
+ *
+ * Saves are serialised. Loads and streams run in parallel with each other.
+ *
+ * saveEventsAndState saves the events alone and drops the state, which is never held anywhere.
+ *
+ * Direct memory is allocated in arenas of arenaSize bytes (16 MiB by default), for the events, and in index chunks of
+ * indexChunkLength offsets (131072, or 1 MiB, by default), for the location index and each tag's index. A store with
+ * one tag therefore has 2 MiB of index, and 1 MiB more for each further tag. The JVM's limit on direct memory,
+ * -XX:MaxDirectMemorySize, defaults to the maximum heap size and must leave room for all of these; allocating past it
+ * fails the save with an OutOfMemoryError.
+ */
+public class OffHeapInMemoryEventStore implements EventStore {
+
+    private static final int DEFAULT_ARENA_SIZE = 16 * 1024 * 1024;
+
+    private static final int DEFAULT_INDEX_CHUNK_LENGTH = 128 * 1024;
+
+    private static final int OFFSET = 0;
+
+    private static final int SEQUENCE_NUMBER = 8;
+
+    private static final int PREVIOUS_OFFSET = 16;
+
+    private static final int TIMESTAMP_SECONDS = 24;
+
+    private static final int TIMESTAMP_NANOS = 32;
+
+    private static final int EVENT_VERSION = 36;
+
+    private static final int AGGREGATE_TYPE_ID = 40;
+
+    private static final int EVENT_TYPE_ID = 44;
+
+    private static final int TAG_ID = 48;
+
+    // The interned value() of the content type, which unlike its ordinal is stable if content types are added
+    private static final int CONTENT_TYPE_ID = 52;
+
+    // Variable length fields follow the header, each an int length (-1 for null) followed by its bytes
+    private static final int HEADER_LENGTH = 56;
+
+    private static final int EVENT_ID = 0;
+
+    private static final int AGGREGATE_ID = 1;
+
+    private static final int CAUSATION_ID = 2;
+
+    private static final int CORRELATION_ID = 3;
+
+    private static final int PAYLOAD = 4;
+
+    private PayloadMapper payloadMapper;
+
+    private EventTypeResolver eventTypeResolver;
+
+    private int arenaSize;
+
+    private int indexChunkLength;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private ArrayList<ByteBuffer> arenas;
+
+    // The arena (high 32 bits) and position (low 32 bits) of each event, indexed by offset
+    private OffHeapLongs locations;
+
+    private HashMap<Integer, OffHeapLongs> tagOffsets;
+
+    // The offset and sequence number of the latest event for each aggregate instance
+    private HashMap<Tuple2<Integer, AggregateId>, long[]> aggregateTails;
+
+    private HashMap<String, Integer> internedIds;
+
+    private ArrayList<String> internedStrings;
+
+    private Instant lastTimestamp;
+
+    public OffHeapInMemoryEventStore(PayloadMapper payloadMapper) {
+        this(payloadMapper, DEFAULT_ARENA_SIZE);
+    }
+
+    /**
+     * @param arenaSize the size of each direct buffer events are written to. Events larger than this get a buffer of
+     *                  their own.
+     */
+    public OffHeapInMemoryEventStore(PayloadMapper payloadMapper, int arenaSize) {
+        this(payloadMapper, arenaSize, DEFAULT_INDEX_CHUNK_LENGTH);
+    }
+
+    /**
+     * @param arenaSize the size of each direct buffer events are written to. Events larger than this get a buffer of
+     *                  their own.
+     * @param indexChunkLength how many offsets each direct buffer of an index holds, a power of two. Smaller chunks
+     *                         waste less memory on tags with few events.
+     */
+    public OffHeapInMemoryEventStore(PayloadMapper payloadMapper, int arenaSize, int indexChunkLength) {
+        if (arenaSize < 1) {
+            throw new IllegalArgumentException("arenaSize must be at least 1");
+        }
+        if (indexChunkLength < 1 || Integer.bitCount(indexChunkLength) != 1) {
+            throw new IllegalArgumentException("indexChunkLength must be a power of two");
+        }
+        this.payloadMapper = payloadMapper;
+        this.eventTypeResolver = new EventTypeResolver(payloadMapper);
+        this.arenaSize = arenaSize;
+        this.indexChunkLength = indexChunkLength;
+        clear();
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            arenas = new ArrayList<>();
+            arenas.add(ByteBuffer.allocateDirect(arenaSize));
+            locations = new OffHeapLongs(indexChunkLength);
+            tagOffsets = new HashMap<>();
+            aggregateTails = new HashMap<>();
+            internedIds = new HashMap<>();
+            internedStrings = new ArrayList<>();
+            lastTimestamp = Instant.EPOCH;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId) {
+        return Future.successful(persistedEventsFor(aggregateType, aggregateId, Option.none()));
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
+            AggregateType<A, ?, E, State> aggregateType, AggregateId aggregateId, Long afterSequenceNumber) {
+        return Future.successful(persistedEventsFor(aggregateType, aggregateId, Option.of(afterSequenceNumber)));
+    }
+
+    @Override
+    public <E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(DomainEventTag tag, Long afterOffset, Integer batchSize) {
+        return Future.successful(streamEventsFor(tag, offset -> offset > afterOffset, batchSize));
+    }
+
+    @Override
+    public <E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(DomainEventTag tag, Instant afterInstant, Integer batchSize) {
+        return Future.successful(streamEventsFor(tag, offset -> timestampOf(locations.get(offset)).isAfter(afterInstant), batchSize));
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            List<E> rawEvents,
+            Long expectedSequenceNumber) {
+        return doSaveEvents(aggregateType, aggregateId, causationId, Option.none(), rawEvents, expectedSequenceNumber);
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEventsAndState(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            List<E> rawEvents,
+            State state,
+            Long expectedSequenceNumber) {
+        return saveEvents(aggregateType, aggregateId, causationId, rawEvents, expectedSequenceNumber);
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            CorrelationId correlationId,
+            List<E> rawEvents,
+            Long expectedSequenceNumber) {
+        return doSaveEvents(aggregateType, aggregateId, causationId, Option.of(correlationId), rawEvents, expectedSequenceNumber);
+    }
+
+    @Override
+    public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEventsAndState(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            CorrelationId correlationId,
+            List<E> rawEvents,
+            State state,
+            Long expectedSequenceNumber) {
+        return saveEvents(aggregateType, aggregateId, causationId, correlationId, rawEvents, expectedSequenceNumber);
+    }
+
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> doSaveEvents(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            Option<CorrelationId> correlationId,
+            List<E> rawEvents,
+            Long expectedSequenceNumber) {
+
+        List<PayloadSerialisationResult> serialisationResults = rawEvents.map(payloadMapper::serialiseEvent);
+
+        lock.writeLock().lock();
+        try {
+            Tuple2<Integer, AggregateId> key = new Tuple2<>(intern(aggregateType.name()), aggregateId);
+            long[] tail = aggregateTails.get(key);
+
+            // Optimistic concurrency check
+            if (tail != null && tail[1] != expectedSequenceNumber) {
+                return Future.failed(new OptimisticConcurrencyException());
+            }
+
+            long previousOffset = tail == null ? -1 : tail[0];
+            ArrayList<PersistedEvent<A, E>> persistedEvents = new ArrayList<>();
+
+            for (int i = 0; i < rawEvents.size(); i++) {
+                E rawEvent = rawEvents.get(i);
+                PayloadSerialisationResult serialisationResult = serialisationResults.get(i);
+                long offset = locations.size();
+                long sequenceNumber = expectedSequenceNumber + 1 + i;
+                Instant now = Instant.now();
+                lastTimestamp = now.isAfter(lastTimestamp) ? now : lastTimestamp;
+                int tagId = intern(rawEvent.tag().tag());
+
+                byte[][] fields = new byte[][] {
+                        utf8(EventId.createUnique().get()),
+                        utf8(aggregateId.get()),
+                        utf8(causationId.get()),
+                        utf8(correlationId.map(CorrelationId::get).getOrNull()),
+                        serialisationResult.payloadBytes()
+                };
+
+                long location = allocate(fields);
+                ByteBuffer arena = arenas.get((int) (location >>> 32));
+                int position = (int) location;
+
+                arena.putLong(position + OFFSET, offset);
+                arena.putLong(position + SEQUENCE_NUMBER, sequenceNumber);
+                arena.putLong(position + PREVIOUS_OFFSET, previousOffset);
+                arena.putLong(position + TIMESTAMP_SECONDS, lastTimestamp.getEpochSecond());
+                arena.putInt(position + TIMESTAMP_NANOS, lastTimestamp.getNano());
+                arena.putInt(position + EVENT_VERSION, serialisationResult.version().getOrElse(1));
+                arena.putInt(position + AGGREGATE_TYPE_ID, key._1);
+                arena.putInt(position + EVENT_TYPE_ID, intern(rawEvent.getClass().getName()));
+                arena.putInt(position + TAG_ID, tagId);
+                arena.putInt(position + CONTENT_TYPE_ID, intern(serialisationResult.contentType().value()));
+
+                ByteBuffer view = arena.duplicate();
+                view.position(position + HEADER_LENGTH);
+                for (byte[] field : fields) {
+                    if (field == null) {
+                        view.putInt(-1);
+                    } else {
+                        view.putInt(field.length);
+                        view.put(field);
+                    }
+                }
+
+                locations.add(location);
+                tagOffsets.computeIfAbsent(tagId, id -> new OffHeapLongs(indexChunkLength)).add(offset);
+                aggregateTails.put(key, new long[] {offset, sequenceNumber});
+                previousOffset = offset;
+
+                // The raw event is already to hand, so there is no need to deserialise it
+                persistedEvents.add(new OffHeapPersistedEvent<>(aggregateType, arena, position, Lazy.of(() -> rawEvent)));
+            }
+
+            return Future.successful(List.ofAll(persistedEvents));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the location of enough space to write an event with the given fields
+     */
+    private long allocate(byte[][] fields) {
+        int length = HEADER_LENGTH;
+        for (byte[] field : fields) {
+            length += 4 + (field == null ? 0 : field.length);
+        }
+
+        ByteBuffer arena = arenas.get(arenas.size() - 1);
+        if (arena.remaining() < length) {
+            arena = ByteBuffer.allocateDirect(Math.max(arenaSize, length));
+            arenas.add(arena);
+        }
+
+        int position = arena.position();
+        arena.position(position + length);
+        return ((long) (arenas.size() - 1) << 32) | position;
+    }
+
+    private int intern(String value) {
+        return internedIds.computeIfAbsent(value, v -> {
+            internedStrings.add(v);
+            return internedStrings.size() - 1;
+        });
+    }
+
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> List<PersistedEvent<A, E>> persistedEventsFor(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            Option<Long> afterSequenceNumber) {
+
+        lock.readLock().lock();
+        try {
+            Integer aggregateTypeId = internedIds.get(aggregateType.name());
+            long[] tail = aggregateTypeId == null ? null : aggregateTails.get(new Tuple2<>(aggregateTypeId, aggregateId));
+            long offset = tail == null ? -1 : tail[0];
+
+            List<PersistedEvent<A, E>> events = List.empty();
+            while (offset >= 0) {
+                long location = locations.get(offset);
+                ByteBuffer arena = arenas.get((int) (location >>> 32));
+                int position = (int) location;
+
+                if (afterSequenceNumber.isDefined() && arena.getLong(position + SEQUENCE_NUMBER) <= afterSequenceNumber.get()) {
+                    break;
+                }
+
+                events = events.prepend(new OffHeapPersistedEvent<>(aggregateType, arena, position, Lazy.of(() -> deserialise(arena, position))));
+                offset = arena.getLong(position + PREVIOUS_OFFSET);
+            }
+            return events;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<StreamEvent> streamEventsFor(DomainEventTag tag, LongPredicate isAfter, Integer batchSize) {
+        lock.readLock().lock();
+        try {
+            Integer tagId = internedIds.get(tag.tag());
+            OffHeapLongs offsets = tagId == null ? null : tagOffsets.get(tagId);
+            if (offsets == null) {
+                return List.empty();
+            }
+
+            ArrayList<StreamEvent> events = new ArrayList<>();
+            for (long i = offsets.search(isAfter); i < offsets.size() && events.size() < batchSize; i++) {
+                long location = locations.get(offsets.get(i));
+                events.add(new OffHeapStreamEvent(arenas.get((int) (location >>> 32)), (int) location));
+            }
+            return List.ofAll(events);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Instant timestampOf(long location) {
+        ByteBuffer arena = arenas.get((int) (location >>> 32));
+        int position = (int) location;
+        return Instant.ofEpochSecond(arena.getLong(position + TIMESTAMP_SECONDS), arena.getInt(position + TIMESTAMP_NANOS));
+    }
+
+    private <E extends DomainEvent> E deserialise(ByteBuffer arena, int position) {
+        ByteBuffer payloadBuffer = bytes(arena, position, PAYLOAD);
+        byte[] payload = new byte[payloadBuffer.remaining()];
+        payloadBuffer.get(payload);
+        return payloadMapper.deserialiseEvent(
+                payload,
+                contentTypeOf(arena, position),
+                internedString(arena.getInt(position + EVENT_TYPE_ID)),
+                arena.getInt(position + EVENT_VERSION));
+    }
+
+    private SerialisationContentType contentTypeOf(ByteBuffer arena, int position) {
+        return SerialisationContentType.fromValue(internedString(arena.getInt(position + CONTENT_TYPE_ID)));
+    }
+
+    private String internedString(int id) {
+        lock.readLock().lock();
+        try {
+            return internedStrings.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static String string(ByteBuffer arena, int position, int field) {
+        ByteBuffer bytes = bytes(arena, position, field);
+        return bytes == null ? null : StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    /**
+     * @return a read-only view of the field, or null if the field is null
+     */
+    private static ByteBuffer bytes(ByteBuffer arena, int position, int field) {
+        int fieldPosition = position + HEADER_LENGTH;
+        for (int i = 0; i < field; i++) {
+            fieldPosition += 4 + Math.max(0, arena.getInt(fieldPosition));
+        }
+
+        int fieldLength = arena.getInt(fieldPosition);
+        if (fieldLength < 0) {
+            return null;
+        }
+
+        ByteBuffer bytes = arena.asReadOnlyBuffer();
+        bytes.limit(fieldPosition + 4 + fieldLength);
+        bytes.position(fieldPosition + 4);
+        return bytes.slice();
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private class OffHeapStreamEvent implements StreamEvent {
+
+        private ByteBuffer arena;
+
+        private int position;
+
+        private OffHeapStreamEvent(ByteBuffer arena, int position) {
+            this.arena = arena;
+            this.position = position;
+        }
+
+        @Override
+        public Long offset() {
+            return arena.getLong(position + OFFSET);
+        }
+
+        @Override
+        public String id() {
+            return string(arena, position, EVENT_ID);
+        }
+
+        @Override
+        public String aggregateType() {
+            return internedString(arena.getInt(position + AGGREGATE_TYPE_ID));
+        }
+
+        @Override
+        public String aggregateId() {
+            return string(arena, position, AGGREGATE_ID);
+        }
+
+        @Override
+        public String causationId() {
+            return string(arena, position, CAUSATION_ID);
+        }
+
+        @Override
+        public Option<String> correlationId() {
+            return Option.of(string(arena, position, CORRELATION_ID));
+        }
+
+        @Override
+        public String eventType() {
+            return internedString(arena.getInt(position + EVENT_TYPE_ID));
+        }
+
+        @Override
+        public String eventTag() {
+            return internedString(arena.getInt(position + TAG_ID));
+        }
+
+        @Override
+        public Instant timestamp() {
+            return Instant.ofEpochSecond(arena.getLong(position + TIMESTAMP_SECONDS), arena.getInt(position + TIMESTAMP_NANOS));
+        }
+
+        @Override
+        public Long sequenceNumber() {
+            return arena.getLong(position + SEQUENCE_NUMBER);
+        }
+
+        @Override
+        public String serialisedPayload() {
+            contentTypeOf(arena, position).requireTextual();
+            return string(arena, position, PAYLOAD);
+        }
+
+        @Override
+        public ByteBuffer serialisedPayloadBuffer() {
+            return bytes(arena, position, PAYLOAD);
+        }
+
+        @Override
+        public SerialisationContentType payloadContentType() {
+            return contentTypeOf(arena, position);
+        }
+    }
+
+    private class OffHeapPersistedEvent<A extends Aggregate<?, E, ?>, E extends DomainEvent> implements PersistedEvent<A, E> {
+
+        private AggregateType<A, ?, E, ?> aggregateType;
+
+        private ByteBuffer arena;
+
+        private int position;
+
+        private Lazy<E> rawEvent;
+
+        private OffHeapPersistedEvent(AggregateType<A, ?, E, ?> aggregateType, ByteBuffer arena, int position, Lazy<E> rawEvent) {
+            this.aggregateType = aggregateType;
+            this.arena = arena;
+            this.position = position;
+            this.rawEvent = rawEvent;
+        }
+
+        @Override
+        public EventId id() {
+            return EventId.of(string(arena, position, EVENT_ID));
+        }
+
+        @Override
+        public AggregateType<A, ?, E, ?> aggregateType() {
+            return aggregateType;
+        }
+
+        @Override
+        public AggregateId aggregateId() {
+            return AggregateId.of(string(arena, position, AGGREGATE_ID));
+        }
+
+        @Override
+        public CausationId causationId() {
+            return CausationId.of(string(arena, position, CAUSATION_ID));
+        }
+
+        @Override
+        public Option<CorrelationId> correlationId() {
+            return CorrelationId.ofNullable(string(arena, position, CORRELATION_ID));
+        }
+
+        /**
+         * Resolved from the interned type name and version where possible, so that it doesn't take deserialising the
+         * event.
+         */
+        @Override
+        public Class<E> eventType() {
+            return eventTypeResolver.eventType(internedString(arena.getInt(position + EVENT_TYPE_ID)), eventVersion(), this::rawEvent);
+        }
+
+        @Override
+        public Integer eventVersion() {
+            return arena.getInt(position + EVENT_VERSION);
+        }
+
+        @Override
+        public E rawEvent() {
+            return rawEvent.get();
+        }
+
+        @Override
+        public Instant timestamp() {
+            return Instant.ofEpochSecond(arena.getLong(position + TIMESTAMP_SECONDS), arena.getInt(position + TIMESTAMP_NANOS));
+        }
+
+        @Override
+        public Long sequenceNumber() {
+            return arena.getLong(position + SEQUENCE_NUMBER);
+        }
+
+        @Override
+        public Option<Integer> payloadSize() {
+            return Option.of(bytes(arena, position, PAYLOAD).remaining());
+        }
+    }
+}
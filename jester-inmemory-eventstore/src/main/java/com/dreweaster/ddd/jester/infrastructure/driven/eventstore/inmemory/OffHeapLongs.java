@@ -0,0 +1,62 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.inmemory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.function.LongPredicate;
+
+/**
+ * An append-only list of longs held in direct buffers of chunkLength longs each, the first allocated on the first add.
+ * The heap only holds one reference per chunk.
+ */
+class OffHeapLongs {
+
+    private int chunkShift;
+
+    private int chunkMask;
+
+    private ArrayList<ByteBuffer> chunks = new ArrayList<>();
+
+    private long size = 0;
+
+    /**
+     * @param chunkLength a power of two
+     */
+    OffHeapLongs(int chunkLength) {
+        this.chunkShift = Integer.numberOfTrailingZeros(chunkLength);
+        this.chunkMask = chunkLength - 1;
+    }
+
+    void add(long value) {
+        int chunk = (int) (size >>> chunkShift);
+        if (chunk == chunks.size()) {
+            chunks.add(ByteBuffer.allocateDirect((chunkMask + 1) * 8));
+        }
+        chunks.get(chunk).putLong((int) (size & chunkMask) * 8, value);
+        size++;
+    }
+
+    long get(long index) {
+        return chunks.get((int) (index >>> chunkShift)).getLong((int) (index & chunkMask) * 8);
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return the index of the first value matching the predicate, or size if there is none
+     */
+    long search(LongPredicate predicate) {
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (predicate.test(get(middle))) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+}
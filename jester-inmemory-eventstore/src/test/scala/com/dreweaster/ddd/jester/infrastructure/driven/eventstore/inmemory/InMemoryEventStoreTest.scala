@@ -0,0 +1,31 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.inmemory
+
+import com.dreweaster.ddd.jester.application.eventstore.{EventStoreBehaviours, Notebook, SerialisationContentType}
+import com.dreweaster.ddd.jester.application.eventstore.Notebook.NotePayloadMapper
+import org.scalatest.FeatureSpec
+
+class InMemoryEventStoreTest extends FeatureSpec with EventStoreBehaviours {
+
+  def newStore() = new InMemoryEventStore(new NotePayloadMapper)
+
+  feature("An InMemoryEventStore can be used from several threads at once") {
+    scenariosFor(concurrentlyUsableEventStore(newStore))
+  }
+
+  feature("An InMemoryEventStore streams events by tag") {
+    scenariosFor(streamableEventStore(new InMemoryEventStore(_)))
+
+    scenario("Stream an empty JSON payload for events saved without a payload mapper") {
+      Given("a store without a payload mapper")
+      val store = new InMemoryEventStore()
+      save(store, "a", -1, events("first")).get()
+
+      When("streaming the event")
+      val event = stream(store, Notebook.TAG, -1L, 100).head
+
+      Then("it should have an empty JSON object as its payload")
+      event.payloadContentType() should be(SerialisationContentType.JSON)
+      event.serialisedPayload() should be("{}")
+    }
+  }
+}
@@ -0,0 +1,140 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.inmemory
+
+import com.dreweaster.ddd.jester.application.eventstore.{EventStoreBehaviours, Notebook}
+import com.dreweaster.ddd.jester.application.eventstore.Notebook.NotePayloadMapper
+import com.dreweaster.ddd.jester.domain.{AggregateId, CausationId, CorrelationId}
+import org.scalatest.FeatureSpec
+
+import scala.collection.JavaConverters._
+
+class OffHeapInMemoryEventStoreTest extends FeatureSpec with EventStoreBehaviours {
+
+  // Small enough that the shared scenarios span many arenas and index chunks
+  val arenaSize = 1024
+
+  val indexChunkLength = 16
+
+  feature("An OffHeapInMemoryEventStore can be used from several threads at once") {
+    scenariosFor(concurrentlyUsableEventStore(() => new OffHeapInMemoryEventStore(new NotePayloadMapper, arenaSize, indexChunkLength)))
+  }
+
+  feature("An OffHeapInMemoryEventStore streams events by tag") {
+    scenariosFor(streamableEventStore(new OffHeapInMemoryEventStore(_, arenaSize, indexChunkLength)))
+  }
+
+  feature("An OffHeapInMemoryEventStore resolves event types through its PayloadMapper") {
+    scenariosFor(eventTypeResolvingEventStore(new OffHeapInMemoryEventStore(_, arenaSize, indexChunkLength)))
+  }
+
+  feature("An OffHeapInMemoryEventStore lays events out in its direct buffers") {
+
+    scenario("Keep events intact when they fill several arenas") {
+      Given("a store with 256 byte arenas")
+      val store = new OffHeapInMemoryEventStore(new NotePayloadMapper, 256, indexChunkLength)
+
+      When("saving events of varying sizes, so that they end at different places in each arena")
+      val texts = (0 until 100).map(i => "x" * (i % 37) + i)
+      texts.zipWithIndex.foreach { case (text, i) => save(store, "a", i - 1, events(text)).get() }
+
+      Then("every event should load and stream with its own payload and details")
+      val loaded = load(store, "a")
+      loaded.map(_.rawEvent().text()) should be(texts)
+      loaded.map(_.sequenceNumber().longValue()) should be(0L until 100L)
+      loaded.map(_.payloadSize().get().intValue()) should be(texts.map(_.length))
+      stream(store, Notebook.TAG, -1L, 1000).map(_.serialisedPayload()) should be(texts)
+      stream(store, Notebook.TAG, 49L, 1000).map(_.offset().longValue()) should be(50L until 100L)
+    }
+
+    scenario("Give an event larger than an arena a buffer of its own") {
+      Given("a store with 256 byte arenas")
+      val store = new OffHeapInMemoryEventStore(new NotePayloadMapper, 256, indexChunkLength)
+
+      When("saving a small event, an event of several kilobytes, then more small events")
+      val large = "large " * 1000
+      save(store, "a", -1, events("before")).get()
+      save(store, "a", 0, events(large)).get()
+      save(store, "a", 1, events("after", "and after that")).get()
+
+      Then("every event should load intact")
+      load(store, "a").map(_.rawEvent().text()) should be(List("before", large, "after", "and after that"))
+      load(store, "a").map(_.payloadSize().get().intValue()) should be(List(6, large.length, 5, 14))
+
+      And("stream intact")
+      stream(store, Notebook.TAG, -1L, 100).map(_.serialisedPayload()) should be(List("before", large, "after", "and after that"))
+    }
+
+    scenario("Find offsets in indexes that span several chunks") {
+      Given("a store whose index chunks hold 4 offsets")
+      val store = new OffHeapInMemoryEventStore(new NotePayloadMapper, arenaSize, 4)
+
+      When("saving 50 events")
+      (0 until 50).foreach(i => save(store, (i % 3).toString, i / 3 - 1, events(s"note $i")).get())
+
+      Then("streams should find their place in the tag index on either side of each chunk boundary")
+      for (afterOffset <- -1 until 50) {
+        offsets(store, Notebook.TAG, afterOffset, 5) should be((afterOffset + 1L until math.min(afterOffset + 6L, 50L)).toList)
+      }
+
+      And("loads should follow each aggregate instance's events back through the location index")
+      for (aggregate <- 0 until 3) {
+        load(store, aggregate.toString).map(_.rawEvent().text()) should be((aggregate until 50 by 3).map(i => s"note $i"))
+      }
+    }
+
+    scenario("Read back every field of an event") {
+      Given("a store")
+      val store = new OffHeapInMemoryEventStore(new NotePayloadMapper, arenaSize, indexChunkLength)
+
+      When("saving an event with a correlation id and one without")
+      val withCorrelation = store.saveEvents(Notebook.TYPE, AggregateId.of("a"), CausationId.of("causation 1"), CorrelationId.of("correlation"), events("first"), -1L).get().head()
+      val withoutCorrelation = store.saveEvents(Notebook.TYPE, AggregateId.of("a"), CausationId.of("causation 2"), events("second"), 0L).get().head()
+
+      Then("loading should return the fields they were saved with")
+      val loaded = load(store, "a")
+      for ((saved, read) <- List(withCorrelation, withoutCorrelation).zip(loaded)) {
+        read.id() should be(saved.id())
+        read.aggregateType().name() should be(Notebook.TYPE.name())
+        read.aggregateId() should be(AggregateId.of("a"))
+        read.causationId() should be(saved.causationId())
+        read.correlationId() should be(saved.correlationId())
+        read.eventType() should be(classOf[Notebook.NoteAdded])
+        read.eventVersion() should be(1)
+        read.timestamp() should be(saved.timestamp())
+        read.sequenceNumber() should be(saved.sequenceNumber())
+      }
+      loaded.map(_.correlationId().getOrNull) should be(List(CorrelationId.of("correlation"), null))
+
+      And("streaming should return them too")
+      val streamed = stream(store, Notebook.TAG, -1L, 100)
+      streamed.map(_.id()) should be(loaded.map(_.id().get()))
+      streamed.map(_.causationId()) should be(List("causation 1", "causation 2"))
+      streamed.map(_.correlationId().getOrNull) should be(List("correlation", null))
+      streamed.map(_.timestamp()) should be(loaded.map(_.timestamp()))
+      streamed.map(_.aggregateType()) should be(List("notebook", "notebook"))
+    }
+
+    scenario("Only deserialise a loaded event when the event itself is asked for") {
+      Given("a store with two events")
+      val mapper = new NotePayloadMapper
+      val store = new OffHeapInMemoryEventStore(mapper, arenaSize, indexChunkLength)
+      save(store, "a", -1, events("first", "second")).get()
+
+      When("loading them and reading their details")
+      val loaded = load(store, "a")
+      loaded.map(_.eventType()) should be(List(classOf[Notebook.NoteAdded], classOf[Notebook.NoteAdded]))
+      loaded.map(_.sequenceNumber().longValue()) should be(List(0L, 1L))
+
+      Then("neither should have been deserialised")
+      mapper.deserialisedEvents() should be(0)
+
+      And("asking for the first event should deserialise only that one, once")
+      loaded.head.rawEvent().text() should be("first")
+      loaded.head.rawEvent().text() should be("first")
+      mapper.deserialisedEvents() should be(1)
+    }
+
+    scenario("Reject an index chunk length that isn't a power of two") {
+      an[IllegalArgumentException] should be thrownBy new OffHeapInMemoryEventStore(new NotePayloadMapper, arenaSize, 12)
+    }
+  }
+}
@@ -0,0 +1,351 @@
+package com.dreweaster.ddd.jester.application.repository.monitoring;
+
+import com.dreweaster.ddd.jester.application.eventstore.EventStore;
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
+import com.dreweaster.ddd.jester.domain.*;
+import io.vavr.collection.List;
+import jdk.jfr.*;
+
+/**
+ * Emits a JDK Flight Recorder event for each phase of handling a command (loading events, applying the command and
+ * persisting events), which can be lined up against GC, lock and I/O events in JMC to see where a slow command spent
+ * its time.
+ *
+ * When none of the events are enabled, probes do nothing at all. When they are, an event's fields are only filled in
+ * if it is going to be committed, so events below the recording's threshold cost little more than a timestamp.
+ *
+ * Requires a JDK with the jdk.jfr API, which is JDK 11 or later, or JDK 8u262 or later.
+ */
+public class JfrAggregateRepositoryReporter implements AggregateRepositoryReporter {
+
+    private static final EventType LOAD_EVENTS = EventType.getEventType(LoadEventsEvent.class);
+
+    private static final EventType APPLY_COMMAND = EventType.getEventType(ApplyCommandEvent.class);
+
+    private static final EventType PERSIST_EVENTS = EventType.getEventType(PersistEventsEvent.class);
+
+    @SuppressWarnings("rawtypes")
+    private static final CommandHandlingProbe DISABLED_PROBE = new DisabledCommandHandlingProbe();
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> CommandHandlingProbe<A, C, E, State> createProbe(
+            AggregateType<A, C, E, State> aggregateType, AggregateId aggregateId) {
+
+        if (!LOAD_EVENTS.isEnabled() && !APPLY_COMMAND.isEnabled() && !PERSIST_EVENTS.isEnabled()) {
+            return DISABLED_PROBE;
+        }
+        return new JfrCommandHandlingProbe<>(aggregateType, aggregateId);
+    }
+
+    @Category({"Jester", "Command Handling"})
+    @StackTrace(false)
+    abstract static class CommandHandlingPhaseEvent extends Event {
+
+        @Label("Aggregate Type")
+        String aggregateType;
+
+        @Label("Aggregate Id")
+        String aggregateId;
+
+        @Label("Command Type")
+        String commandType;
+
+        @Label("Result")
+        String result;
+    }
+
+    @Name("com.dreweaster.ddd.jester.LoadEvents")
+    @Label("Load Events")
+    @Description("Loading an aggregate's events before applying a command to it")
+    static class LoadEventsEvent extends CommandHandlingPhaseEvent {
+
+        @Label("Event Count")
+        int eventCount;
+
+        @Label("Payload Bytes")
+        @Description("The size of the loaded events' payloads, or -1 if the event store doesn't report it")
+        @DataAmount
+        long payloadBytes;
+
+        @Label("Expected Sequence Number")
+        @Description("The sequence number of the last event loaded, which events generated by the command will be persisted against")
+        long expectedSequenceNumber;
+    }
+
+    @Name("com.dreweaster.ddd.jester.ApplyCommand")
+    @Label("Apply Command")
+    @Description("Replaying an aggregate's events and applying a command to it")
+    static class ApplyCommandEvent extends CommandHandlingPhaseEvent {
+
+        @Label("Event Count")
+        @Description("The number of events generated by the command")
+        int eventCount;
+
+        @Label("Deduplicated")
+        boolean deduplicated;
+    }
+
+    @Name("com.dreweaster.ddd.jester.PersistEvents")
+    @Label("Persist Events")
+    @Description("Serialising and saving the events generated by a command")
+    static class PersistEventsEvent extends CommandHandlingPhaseEvent {
+
+        @Label("Event Count")
+        int eventCount;
+
+        @Label("Payload Bytes")
+        @Description("The size of the persisted events' payloads, or -1 if the event store doesn't report it")
+        @DataAmount
+        long payloadBytes;
+
+        @Label("Expected Sequence Number")
+        long expectedSequenceNumber;
+    }
+
+    private static <A extends Aggregate<?, E, ?>, E extends DomainEvent> long payloadBytes(List<PersistedEvent<A, E>> events) {
+        long payloadBytes = 0;
+        for (PersistedEvent<A, E> event : events) {
+            Integer payloadSize = event.payloadSize().getOrNull();
+            if (payloadSize == null) {
+                return -1;
+            }
+            payloadBytes += payloadSize;
+        }
+        return payloadBytes;
+    }
+
+    private class JfrCommandHandlingProbe<A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> implements CommandHandlingProbe<A,C,E,State> {
+
+        private AggregateType<A, C, E, State> aggregateType;
+
+        private AggregateId aggregateId;
+
+        private Class<?> commandType;
+
+        private LoadEventsEvent loadEvents;
+
+        private ApplyCommandEvent applyCommand;
+
+        private PersistEventsEvent persistEvents;
+
+        private long expectedSequenceNumber = -1;
+
+        JfrCommandHandlingProbe(AggregateType<A, C, E, State> aggregateType, AggregateId aggregateId) {
+            this.aggregateType = aggregateType;
+            this.aggregateId = aggregateId;
+        }
+
+        @Override
+        public void startedHandling(AggregateRepository.CommandEnvelope<C> command) {
+            if(commandType == null) {
+                commandType = command.command().getClass();
+            }
+        }
+
+        @Override
+        public void startedLoadingEvents() {
+            if(loadEvents == null && LOAD_EVENTS.isEnabled()) {
+                loadEvents = new LoadEventsEvent();
+                loadEvents.begin();
+            }
+        }
+
+        @Override
+        public void finishedLoadingEvents(List<PersistedEvent<A, E>> previousEvents) {
+            if(!previousEvents.isEmpty()) {
+                expectedSequenceNumber = previousEvents.last().sequenceNumber();
+            }
+            if(loadEvents != null) {
+                loadEvents.end();
+                if(loadEvents.shouldCommit()) {
+                    loadEvents.eventCount = previousEvents.size();
+                    loadEvents.payloadBytes = payloadBytes(previousEvents);
+                    loadEvents.expectedSequenceNumber = expectedSequenceNumber;
+                    commit(loadEvents, "success");
+                }
+            }
+        }
+
+        @Override
+        public void finishedLoadingEvents(Throwable unexpectedException) {
+            if(loadEvents != null) {
+                loadEvents.end();
+                if(loadEvents.shouldCommit()) {
+                    commit(loadEvents, "failure");
+                }
+            }
+        }
+
+        @Override
+        public void startedApplyingCommand() {
+            if(applyCommand == null && APPLY_COMMAND.isEnabled()) {
+                applyCommand = new ApplyCommandEvent();
+                applyCommand.begin();
+            }
+        }
+
+        @Override
+        public void commandApplicationAccepted(List<? super E> events, boolean deduplicated) {
+            if(applyCommand != null) {
+                applyCommand.end();
+                if(applyCommand.shouldCommit()) {
+                    applyCommand.eventCount = events.size();
+                    applyCommand.deduplicated = deduplicated;
+                    commit(applyCommand, "accepted");
+                }
+            }
+        }
+
+        @Override
+        public void commandApplicationRejected(Throwable rejection, boolean deduplicated) {
+            if(applyCommand != null) {
+                applyCommand.end();
+                if(applyCommand.shouldCommit()) {
+                    applyCommand.deduplicated = deduplicated;
+                    commit(applyCommand, "rejected");
+                }
+            }
+        }
+
+        @Override
+        public void commandApplicationFailed(Throwable unexpectedException) {
+            if(applyCommand != null) {
+                applyCommand.end();
+                if(applyCommand.shouldCommit()) {
+                    commit(applyCommand, "failed");
+                }
+            }
+        }
+
+        @Override
+        public void startedPersistingEvents(List<? super E> events, long expectedSequenceNumber) {
+            if(persistEvents == null && PERSIST_EVENTS.isEnabled()) {
+                persistEvents = new PersistEventsEvent();
+                persistEvents.begin();
+                persistEvents.eventCount = events.size();
+                persistEvents.expectedSequenceNumber = expectedSequenceNumber;
+            }
+        }
+
+        @Override
+        public void startedPersistingEvents(List<? super E> events, State state, long expectedSequenceNumber) {
+            startedPersistingEvents(events, expectedSequenceNumber);
+        }
+
+        @Override
+        public void finishedPersistingEvents(List<PersistedEvent<A, E>> persistedEvents) {
+            if(persistEvents != null) {
+                persistEvents.end();
+                if(persistEvents.shouldCommit()) {
+                    persistEvents.payloadBytes = payloadBytes(persistedEvents);
+                    commit(persistEvents, "success");
+                }
+            }
+        }
+
+        @Override
+        public void finishedPersistingEvents(Throwable unexpectedException) {
+            if(persistEvents != null) {
+                persistEvents.end();
+                if(persistEvents.shouldCommit()) {
+                    persistEvents.payloadBytes = -1;
+                    commit(persistEvents, unexpectedException instanceof EventStore.OptimisticConcurrencyException
+                            ? "concurrent-modification"
+                            : "failure");
+                }
+            }
+        }
+
+        @Override
+        public void finishedHandling(AggregateRepository.CommandHandlingResult<C, E> result) {
+
+        }
+
+        @Override
+        public void finishedHandling(Throwable unexpectedException) {
+
+        }
+
+        private void commit(CommandHandlingPhaseEvent event, String result) {
+            event.aggregateType = aggregateType.name();
+            event.aggregateId = aggregateId.get();
+            event.commandType = commandType == null ? null : commandType.getName();
+            event.result = result;
+            event.commit();
+        }
+    }
+
+    private static class DisabledCommandHandlingProbe<A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> implements CommandHandlingProbe<A,C,E,State> {
+
+        @Override
+        public void startedHandling(AggregateRepository.CommandEnvelope<C> command) {
+
+        }
+
+        @Override
+        public void startedLoadingEvents() {
+
+        }
+
+        @Override
+        public void finishedLoadingEvents(List<PersistedEvent<A, E>> previousEvents) {
+
+        }
+
+        @Override
+        public void finishedLoadingEvents(Throwable unexpectedException) {
+
+        }
+
+        @Override
+        public void startedApplyingCommand() {
+
+        }
+
+        @Override
+        public void commandApplicationAccepted(List<? super E> events, boolean deduplicated) {
+
+        }
+
+        @Override
+        public void commandApplicationRejected(Throwable rejection, boolean deduplicated) {
+
+        }
+
+        @Override
+        public void commandApplicationFailed(Throwable unexpectedException) {
+
+        }
+
+        @Override
+        public void startedPersistingEvents(List<? super E> events, long expectedSequenceNumber) {
+
+        }
+
+        @Override
+        public void startedPersistingEvents(List<? super E> events, State state, long expectedSequenceNumber) {
+
+        }
+
+        @Override
+        public void finishedPersistingEvents(List<PersistedEvent<A, E>> persistedEvents) {
+
+        }
+
+        @Override
+        public void finishedPersistingEvents(Throwable unexpectedException) {
+
+        }
+
+        @Override
+        public void finishedHandling(AggregateRepository.CommandHandlingResult<C, E> result) {
+
+        }
+
+        @Override
+        public void finishedHandling(Throwable unexpectedException) {
+
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.dreweaster.ddd.jester.application.repository.monitoring
+
+import java.nio.file.Files
+
+import com.dreweaster.ddd.jester.application.eventstore.EventStore.OptimisticConcurrencyException
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent
+import com.dreweaster.ddd.jester.application.repository.monitoring.Lightbulb.{LightbulbCommand, LightbulbEvent, SwitchOn, SwitchedOn}
+import com.dreweaster.ddd.jester.domain.AggregateRepository.{CommandEnvelope, SuccessResult}
+import com.dreweaster.ddd.jester.domain.{AggregateId, CommandId}
+import io.vavr.collection.List
+import io.vavr.control.Option
+import jdk.jfr.Recording
+import jdk.jfr.consumer.{RecordedEvent, RecordingFile}
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import scala.collection.JavaConverters._
+
+class JfrAggregateRepositoryReporterTest extends FeatureSpec with GivenWhenThen with Matchers {
+
+  val eventNames = Seq("com.dreweaster.ddd.jester.LoadEvents", "com.dreweaster.ddd.jester.ApplyCommand", "com.dreweaster.ddd.jester.PersistEvents")
+
+  val envelope = CommandEnvelope.of(CommandId.of("command-id"), new SwitchOn: LightbulbCommand)
+
+  /**
+   * Only the sequence number and payload size are used by the reporter
+   */
+  def persistedEvent(sequence: Long, size: Int): PersistedEvent[Lightbulb, LightbulbEvent] =
+    new PersistedEvent[Lightbulb, LightbulbEvent] {
+      override def id() = ???
+      override def aggregateType() = ???
+      override def aggregateId() = ???
+      override def causationId() = ???
+      override def correlationId() = ???
+      override def eventType() = ???
+      override def eventVersion() = ???
+      override def rawEvent() = ???
+      override def timestamp() = ???
+      override def sequenceNumber() = sequence
+      override def payloadSize() = Option.of[Integer](size)
+    }
+
+  /**
+   * Drives a probe through a command the way the repository does, loading two events and persisting one against them
+   */
+  def handle(reporter: JfrAggregateRepositoryReporter, persisted: Either[Throwable, Int]): Unit = {
+    val probe = reporter.createProbe(Lightbulb.TYPE, AggregateId.of("aggregate-id"))
+    probe.startedHandling(envelope)
+    probe.startedLoadingEvents()
+    probe.finishedLoadingEvents(List.of(persistedEvent(0L, 10), persistedEvent(1L, 20)))
+    probe.startedApplyingCommand()
+    probe.commandApplicationAccepted(List.of[LightbulbEvent](new SwitchedOn), false)
+    probe.startedPersistingEvents(List.of[LightbulbEvent](new SwitchedOn), 1L)
+    persisted match {
+      case Right(payloadSize) =>
+        probe.finishedPersistingEvents(List.of[PersistedEvent[Lightbulb, LightbulbEvent]](persistedEvent(2L, payloadSize)))
+        probe.finishedHandling(SuccessResult.of(envelope, List.of[LightbulbEvent](new SwitchedOn)))
+      case Left(failure) =>
+        probe.finishedPersistingEvents(failure)
+        probe.finishedHandling(failure)
+    }
+  }
+
+  /**
+   * @return the Jester events committed while running the task, read back from a dump of a recording of them alone
+   */
+  def recorded(task: => Unit): Seq[RecordedEvent] = {
+    val recording = new Recording()
+    eventNames.foreach(recording.enable(_).withoutThreshold())
+    val file = Files.createTempFile("jester", ".jfr")
+    try {
+      recording.start()
+      task
+      recording.stop()
+      recording.dump(file)
+      RecordingFile.readAllEvents(file).asScala.filter(event => eventNames.contains(event.getEventType.getName))
+    } finally {
+      recording.close()
+      Files.delete(file)
+    }
+  }
+
+  def byName(events: Seq[RecordedEvent]): Map[String, RecordedEvent] =
+    events.map(event => event.getEventType.getName.stripPrefix("com.dreweaster.ddd.jester.") -> event).toMap
+
+  feature("Recording each phase of handling a command") {
+
+    scenario("Record loading, applying and persisting a command that succeeds") {
+      Given("a reporter, with its events enabled in a recording")
+      val reporter = new JfrAggregateRepositoryReporter
+
+      When("handling a command that loads 2 events and persists 1")
+      val events = recorded(handle(reporter, Right(15)))
+
+      Then("one event should be recorded for each phase")
+      events.map(_.getEventType.getName).sorted should be(eventNames.sorted)
+      val phases = byName(events)
+
+      And("each should name the aggregate and the command, and give the phase's result")
+      for (event <- events) {
+        event.getString("aggregateType") should be("lightbulb")
+        event.getString("aggregateId") should be("aggregate-id")
+        event.getString("commandType") should be(classOf[SwitchOn].getName)
+      }
+      phases.mapValues(_.getString("result")) should be(Map("LoadEvents" -> "success", "ApplyCommand" -> "accepted", "PersistEvents" -> "success"))
+
+      And("loading should give the number of events, their payload size and the sequence number of the last")
+      phases("LoadEvents").getInt("eventCount") should be(2)
+      phases("LoadEvents").getLong("payloadBytes") should be(30L)
+      phases("LoadEvents").getLong("expectedSequenceNumber") should be(1L)
+
+      And("applying should give the number of events generated")
+      phases("ApplyCommand").getInt("eventCount") should be(1)
+      phases("ApplyCommand").getBoolean("deduplicated") should be(false)
+
+      And("persisting should give the number of events, their payload size and the sequence number saved against")
+      phases("PersistEvents").getInt("eventCount") should be(1)
+      phases("PersistEvents").getLong("payloadBytes") should be(15L)
+      phases("PersistEvents").getLong("expectedSequenceNumber") should be(1L)
+    }
+
+    scenario("Record a concurrent modification while persisting") {
+      Given("a reporter, with its events enabled in a recording")
+      val reporter = new JfrAggregateRepositoryReporter
+
+      When("handling a command whose events are rejected as a concurrent modification")
+      val phases = byName(recorded(handle(reporter, Left(new OptimisticConcurrencyException))))
+
+      Then("persisting should be recorded as a concurrent modification, with no payload size")
+      phases("PersistEvents").getString("result") should be("concurrent-modification")
+      phases("PersistEvents").getLong("payloadBytes") should be(-1L)
+    }
+  }
+
+  feature("Doing nothing when nothing is recording") {
+
+    scenario("Share one probe that does nothing while none of the events are enabled") {
+      Given("a reporter, and no recording")
+      val reporter = new JfrAggregateRepositoryReporter
+
+      When("creating probes for two aggregate instances")
+      val first = reporter.createProbe(Lightbulb.TYPE, AggregateId.of("first"))
+      val second = reporter.createProbe(Lightbulb.TYPE, AggregateId.of("second"))
+
+      Then("both should be the same probe, the one that does nothing")
+      first should be theSameInstanceAs second
+      first.getClass.getSimpleName should be("DisabledCommandHandlingProbe")
+
+      And("a probe created while recording should be a recording one")
+      recorded {
+        reporter.createProbe(Lightbulb.TYPE, AggregateId.of("third")) should not be theSameInstanceAs(first)
+      }
+    }
+  }
+}
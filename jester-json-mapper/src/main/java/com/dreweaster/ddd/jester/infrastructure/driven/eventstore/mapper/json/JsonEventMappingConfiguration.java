@@ -1,13 +1,30 @@
 package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json;
 
 import com.dreweaster.ddd.jester.domain.DomainEvent;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.vavr.Function1;
 import io.vavr.Function2;
 
+import java.io.IOException;
+
 public interface JsonEventMappingConfiguration<T extends DomainEvent> {
 
+    interface StreamingSerialiser<T> {
+
+        void serialise(T event, JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * The parser is given positioned on the first token of the payload (usually START_OBJECT).
+     */
+    interface StreamingDeserialiser<T> {
+
+        T deserialise(JsonParser parser) throws IOException;
+    }
+
     JsonEventMappingConfiguration<T> migrateFormat(Function1<JsonNode, JsonNode> migration);
 
     JsonEventMappingConfiguration<T> migrateClassName(String className);
@@ -15,4 +32,13 @@ public interface JsonEventMappingConfiguration<T extends DomainEvent> {
     void mappingFunctions(
             Function2<T, ObjectNode, JsonNode> serialiseFunction,
             Function1<JsonNode, T> deserialiseFunction);
-}
\ No newline at end of file
+
+    /**
+     * An alternative to tree based mapping functions that writes and reads payloads without building a JsonNode tree.
+     * Payloads of older versions are still parsed to a tree for migrateFormat migrations, and then read back through
+     * the deserialiser.
+     */
+    void streamingMappingFunctions(
+            StreamingSerialiser<T> serialiser,
+            StreamingDeserialiser<T> deserialiser);
+}
@@ -4,6 +4,13 @@ import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper;
 import com.dreweaster.ddd.jester.application.eventstore.SerialisationContentType;
 import com.dreweaster.ddd.jester.domain.Aggregate;
 import com.dreweaster.ddd.jester.domain.DomainEvent;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfiguration.StreamingDeserialiser;
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json.JsonEventMappingConfiguration.StreamingSerialiser;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -13,9 +20,10 @@ import io.vavr.Tuple2;
 import io.vavr.collection.HashMap;
 import io.vavr.collection.List;
 import io.vavr.collection.Map;
+import io.vavr.control.Option;
 
 import java.io.IOException;
-import java.util.function.Function;
+import java.nio.charset.StandardCharsets;
 
 public class JsonPayloadMapper implements PayloadMapper {
 
@@ -48,6 +56,20 @@ public class JsonPayloadMapper implements PayloadMapper {
         }
     }
 
+    public static class UnserialisableEventException extends MappingException {
+
+        public UnserialisableEventException(Throwable cause, String eventType) {
+            super("Could not serialise event of type: " + eventType, cause);
+        }
+    }
+
+    public static class UnsupportedContentTypeException extends MappingException {
+
+        public UnsupportedContentTypeException(SerialisationContentType contentType) {
+            super("Cannot read payloads with content type: " + contentType.value());
+        }
+    }
+
     public static class MissingDeserialiserException extends MappingException {
 
         public MissingDeserialiserException(String serialisedEventType, Integer serialisedEventVersion) {
@@ -58,6 +80,16 @@ public class JsonPayloadMapper implements PayloadMapper {
         }
     }
 
+    public static class MissingStateDeserialiserException extends MappingException {
+
+        public MissingStateDeserialiserException(String serialisedStateType, Integer serialisedStateVersion) {
+            super(String.format(
+                    "No deserialiser found for state_type = '%s' with state_version = '%d'",
+                    serialisedStateType,
+                    serialisedStateVersion));
+        }
+    }
+
     public static class MissingSerialiserException extends MappingException {
         public MissingSerialiserException(String eventType) {
             super(String.format("No serialiser found for event_type = '%s'", eventType));
@@ -66,17 +98,66 @@ public class JsonPayloadMapper implements PayloadMapper {
 
     private ObjectMapper objectMapper;
 
-    private Map<Tuple2<String, Integer>, Function1<String, DomainEvent>> eventDeserialisers = HashMap.empty();
+    private SerialisationContentType contentType;
+
+    // Reads JSON payloads, whichever content type this mapper writes
+    private JsonFactory jsonFactory;
+
+    private Map<Tuple2<String, Integer>, Function1<SerialisedJsonPayload, DomainEvent>> eventDeserialisers = HashMap.empty();
 
-    private Map<String, Function1<DomainEvent, Tuple2<String, Integer>>> eventSerialisers = HashMap.empty();
+    private Map<String, Function1<DomainEvent, Tuple2<byte[], Integer>>> eventSerialisers = HashMap.empty();
+
+    // The current class name and version that each stored class name and version migrates to
+    private Map<Tuple2<String, Integer>, Tuple2<String, Integer>> currentEventTypes = HashMap.empty();
 
     private Map<Class<?>, StatePayloadJsonSerialiser<?,?>> stateSerialisers = HashMap.empty();
 
+    private Map<String, StatePayloadJsonDeserialiser<?,?>> stateDeserialisers = HashMap.empty();
+
     public JsonPayloadMapper(
             ObjectMapper objectMapper,
             List<JsonEventMappingConfigurer<?>> eventMappers,
             List<StatePayloadJsonSerialiser<?,?>> stateSerialisers) {
+        this(objectMapper, SerialisationContentType.JSON, eventMappers, stateSerialisers, List.empty());
+    }
+
+    /**
+     * @param stateDeserialisers deserialisers for state that should be read back, e.g. for snapshots
+     */
+    public JsonPayloadMapper(
+            ObjectMapper objectMapper,
+            List<JsonEventMappingConfigurer<?>> eventMappers,
+            List<StatePayloadJsonSerialiser<?,?>> stateSerialisers,
+            List<StatePayloadJsonDeserialiser<?,?>> stateDeserialisers) {
+        this(objectMapper, SerialisationContentType.JSON, eventMappers, stateSerialisers, stateDeserialisers);
+    }
+
+    /**
+     * @see #JsonPayloadMapper(ObjectMapper, SerialisationContentType, List, List, List)
+     */
+    public JsonPayloadMapper(
+            ObjectMapper objectMapper,
+            SerialisationContentType contentType,
+            List<JsonEventMappingConfigurer<?>> eventMappers,
+            List<StatePayloadJsonSerialiser<?,?>> stateSerialisers) {
+        this(objectMapper, contentType, eventMappers, stateSerialisers, List.empty());
+    }
+
+    /**
+     * Maps events to a binary Jackson format, using the same configurers as for JSON. JSON payloads, such as those
+     * written before switching format, can still be read. State is always serialised as JSON.
+     *
+     * @param objectMapper an ObjectMapper created with the JsonFactory for contentType, e.g. a SmileFactory
+     */
+    public JsonPayloadMapper(
+            ObjectMapper objectMapper,
+            SerialisationContentType contentType,
+            List<JsonEventMappingConfigurer<?>> eventMappers,
+            List<StatePayloadJsonSerialiser<?,?>> stateSerialisers,
+            List<StatePayloadJsonDeserialiser<?,?>> stateDeserialisers) {
         this.objectMapper = objectMapper;
+        this.contentType = contentType;
+        this.jsonFactory = contentType == SerialisationContentType.JSON ? objectMapper.getFactory() : new JsonFactory();
 
         // Prepare event mappers
         init(eventMappers);
@@ -85,6 +166,11 @@ public class JsonPayloadMapper implements PayloadMapper {
         this.stateSerialisers = stateSerialisers.foldLeft(
                 HashMap.<Class<?>, StatePayloadJsonSerialiser<?,?>>empty(),
                 (acc,item) -> acc.put(item.stateClass(), item));
+
+        // Prepare state deserialisers, which also decide the version state is serialised at
+        this.stateDeserialisers = stateDeserialisers.foldLeft(
+                HashMap.<String, StatePayloadJsonDeserialiser<?,?>>empty(),
+                (acc,item) -> acc.put(item.stateClass().getName(), item));
     }
 
     @SuppressWarnings("unchecked")
@@ -106,6 +192,9 @@ public class JsonPayloadMapper implements PayloadMapper {
 
         eventSerialisers = mappingConfigurations.foldLeft(eventSerialisers, (acc, mappingConfiguration) ->
                 acc.put(mappingConfiguration.createSerialiser()));
+
+        currentEventTypes = mappingConfigurations.foldLeft(currentEventTypes, (acc, mappingConfiguration) ->
+                acc.merge(mappingConfiguration.createCurrentEventTypes()));
     }
 
     private class MappingConfiguration<T extends DomainEvent> implements JsonEventMappingConfigurationFactory<T>, JsonEventMappingConfiguration<T> {
@@ -120,6 +209,10 @@ public class JsonPayloadMapper implements PayloadMapper {
 
         private Function1<JsonNode, T> deserialiseFunction;
 
+        private StreamingSerialiser<T> streamingSerialiser;
+
+        private StreamingDeserialiser<T> streamingDeserialiser;
+
         @Override
         public JsonEventMappingConfiguration<T> create(String initialEventClassName) {
             if (initialEventClassName == null) {
@@ -168,33 +261,67 @@ public class JsonPayloadMapper implements PayloadMapper {
             this.deserialiseFunction = deserialiseFunction;
         }
 
-        private Map<Tuple2<String, Integer>, Function1<String, DomainEvent>> createDeserialisers() {
-            Map<Tuple2<String, Integer>, Function1<String, DomainEvent>> deserialisers = HashMap.empty();
+        @Override
+        public void streamingMappingFunctions(StreamingSerialiser<T> serialiser, StreamingDeserialiser<T> deserialiser) {
+            if (serialiser == null) {
+                throw new InvalidMappingConfigurationException(InvalidMappingConfigurationException.ConfigurationError.SERIALISE_FUNCTION);
+            }
+
+            if (deserialiser == null) {
+                throw new InvalidMappingConfigurationException(InvalidMappingConfigurationException.ConfigurationError.DESERIALISE_FUNCTION);
+            }
+
+            this.streamingSerialiser = serialiser;
+            this.streamingDeserialiser = deserialiser;
+        }
+
+        private Map<Tuple2<String, Integer>, Function1<SerialisedJsonPayload, DomainEvent>> createDeserialisers() {
+            Map<Tuple2<String, Integer>, Function1<SerialisedJsonPayload, DomainEvent>> deserialisers = HashMap.empty();
 
             if (!migrations.isEmpty()) {
                 deserialisers = putDeserialisers(migrations, deserialisers);
             }
 
             // Include the 'current' version deserialiser
-            deserialisers = deserialisers.put(new Tuple2<>(currentClassName, currentVersion), serialisedEvent -> {
-                JsonNode root = stringToJsonNode(serialisedEvent);
+            return deserialisers.put(new Tuple2<>(currentClassName, currentVersion), currentVersionDeserialiser());
+        }
+
+        private Map<Tuple2<String, Integer>, Tuple2<String, Integer>> createCurrentEventTypes() {
+            Tuple2<String, Integer> current = new Tuple2<>(currentClassName, currentVersion);
+            return migrations.foldLeft(
+                    HashMap.<Tuple2<String, Integer>, Tuple2<String, Integer>>empty().put(current, current),
+                    (acc, migration) -> acc.put(new Tuple2<>(migration.fromClassName(), migration.fromVersion()), current));
+        }
+
+        private Function1<SerialisedJsonPayload, DomainEvent> currentVersionDeserialiser() {
+            // Current version payloads need no migration, so a streaming deserialiser can read them without a tree
+            if (streamingDeserialiser != null) {
+                return this::streamingDeserialise;
+            }
+
+            return serialisedEvent -> {
+                JsonNode root = toJsonNode(serialisedEvent);
                 return deserialiseFunction.apply(root);
-            });
-            return deserialisers;
+            };
         }
 
         @SuppressWarnings("unchecked")
-        private Tuple2<String, Function1<DomainEvent, Tuple2<String, Integer>>> createSerialiser() {
+        private Tuple2<String, Function1<DomainEvent, Tuple2<byte[], Integer>>> createSerialiser() {
+            if (streamingSerialiser != null) {
+                return new Tuple2<>(currentClassName, domainEvent ->
+                        new Tuple2<>(streamingSerialise((T) domainEvent), currentVersion));
+            }
+
             return new Tuple2<>(currentClassName, domainEvent -> {
                 ObjectNode root = objectMapper.createObjectNode();
                 JsonNode serialisedJsonEvent = serialiseFunction.apply((T) domainEvent, root);
-                return new Tuple2<>(serialisedJsonEvent.toString(), currentVersion);
+                return new Tuple2<>(treeSerialise(serialisedJsonEvent), currentVersion);
             });
         }
 
-        private Map<Tuple2<String, Integer>, Function1<String, DomainEvent>> putDeserialisers(
+        private Map<Tuple2<String, Integer>, Function1<SerialisedJsonPayload, DomainEvent>> putDeserialisers(
                 List<Migration> migrations,
-                Map<Tuple2<String, Integer>, Function1<String, DomainEvent>> deserialisers) {
+                Map<Tuple2<String, Integer>, Function1<SerialisedJsonPayload, DomainEvent>> deserialisers) {
 
             if (migrations.isEmpty()) {
                 return deserialisers;
@@ -203,44 +330,123 @@ public class JsonPayloadMapper implements PayloadMapper {
             }
         }
 
-        private Map<Tuple2<String, Integer>, Function1<String, DomainEvent>> putDeserialiser(
+        private Map<Tuple2<String, Integer>, Function1<SerialisedJsonPayload, DomainEvent>> putDeserialiser(
                 List<Migration> migrations,
-                Map<Tuple2<String, Integer>, Function1<String, DomainEvent>> deserialisers) {
+                Map<Tuple2<String, Integer>, Function1<SerialisedJsonPayload, DomainEvent>> deserialisers) {
 
             Migration migration = migrations.head();
             String className = migration.fromClassName();
             Integer version = migration.fromVersion();
-            List<Function<JsonNode, JsonNode>> migrationFunctions = migrations.map(Migration::migrationFunction);
-            Function<JsonNode, JsonNode> combinedMigrationFunction = migrationFunctions
-                    .tail()
-                    .foldLeft(migrationFunctions.head(), (combined, f) -> f.compose(combined));
-
-            Function1<String, DomainEvent> deserialiser = serialisedEvent -> {
-                JsonNode root = stringToJsonNode(serialisedEvent);
-                JsonNode migratedRoot = combinedMigrationFunction.apply(root);
-                return deserialiseFunction.apply(migratedRoot);
+
+            // The chain for each (className, version) is compiled once, here. Class name migrations leave the payload
+            // alone, so only format migrations are kept, and they are applied in a plain loop rather than through
+            // nested compositions. A version that only differs by class name is read like the current version.
+            java.util.List<Function1<JsonNode, JsonNode>> formatMigrations = migrations
+                    .filter(m -> m instanceof FormatMigration)
+                    .map(Migration::migrationFunction)
+                    .toJavaList();
+
+            if (formatMigrations.isEmpty()) {
+                return deserialisers.put(new Tuple2<>(className, version), currentVersionDeserialiser());
+            }
+
+            Function1<SerialisedJsonPayload, DomainEvent> deserialiser = serialisedEvent -> {
+                JsonNode root = toJsonNode(serialisedEvent);
+                for (int i = 0; i < formatMigrations.size(); i++) {
+                    root = formatMigrations.get(i).apply(root);
+                }
+                return streamingDeserialiser != null ? treeDeserialise(root) : deserialiseFunction.apply(root);
             };
 
             return deserialisers.put(new Tuple2<>(className, version), deserialiser);
         }
 
-        private JsonNode stringToJsonNode(String serialisedEvent) {
+        private byte[] streamingSerialise(T event) {
+            ByteArrayBuilder builder = new ByteArrayBuilder();
+            try (JsonGenerator generator = objectMapper.getFactory().createGenerator(builder, JsonEncoding.UTF8)) {
+                streamingSerialiser.serialise(event, generator);
+            } catch (IOException ex) {
+                throw new UnserialisableEventException(ex, currentClassName);
+            }
+            return builder.toByteArray();
+        }
+
+        private byte[] treeSerialise(JsonNode root) {
             try {
-                return objectMapper.readTree(serialisedEvent);
+                return objectMapper.writeValueAsBytes(root);
+            } catch (IOException ex) {
+                throw new UnserialisableEventException(ex, currentClassName);
+            }
+        }
+
+        private T streamingDeserialise(SerialisedJsonPayload serialisedEvent) {
+            try (JsonParser parser = serialisedEvent.createParser()) {
+                parser.nextToken();
+                return streamingDeserialiser.deserialise(parser);
+            } catch (IOException ex) {
+                throw new UnparseableJsonPayloadException(ex, serialisedEvent.toString());
+            }
+        }
+
+        private T treeDeserialise(JsonNode root) {
+            try (JsonParser parser = objectMapper.treeAsTokens(root)) {
+                parser.nextToken();
+                return streamingDeserialiser.deserialise(parser);
+            } catch (IOException ex) {
+                throw new UnparseableJsonPayloadException(ex, root.toString());
+            }
+        }
+
+        private JsonNode toJsonNode(SerialisedJsonPayload serialisedEvent) {
+            try (JsonParser parser = serialisedEvent.createParser()) {
+                return objectMapper.readTree(parser);
             } catch (IOException ex) {
-                throw new UnparseableJsonPayloadException(ex, serialisedEvent);
+                throw new UnparseableJsonPayloadException(ex, serialisedEvent.toString());
             }
         }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public <T extends DomainEvent> T deserialiseEvent(
             String serialisedPayload,
             String serialisedEventType,
             Integer serialisedEventVersion) {
+        return deserialiseEvent(new SerialisedJsonPayload(serialisedPayload, null, jsonFactory), serialisedEventType, serialisedEventVersion);
+    }
 
-        Function1<String, DomainEvent> deserialiser = eventDeserialisers
+    @Override
+    public <T extends DomainEvent> T deserialiseEvent(
+            byte[] serialisedPayload,
+            String serialisedEventType,
+            Integer serialisedEventVersion) {
+        return deserialiseEvent(new SerialisedJsonPayload(null, serialisedPayload, objectMapper.getFactory()), serialisedEventType, serialisedEventVersion);
+    }
+
+    @Override
+    public <T extends DomainEvent> T deserialiseEvent(
+            byte[] serialisedPayload,
+            SerialisationContentType contentType,
+            String serialisedEventType,
+            Integer serialisedEventVersion) {
+
+        JsonFactory factory;
+        if (contentType == this.contentType) {
+            factory = objectMapper.getFactory();
+        } else if (contentType == SerialisationContentType.JSON) {
+            factory = jsonFactory;
+        } else {
+            throw new UnsupportedContentTypeException(contentType);
+        }
+        return deserialiseEvent(new SerialisedJsonPayload(null, serialisedPayload, factory), serialisedEventType, serialisedEventVersion);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends DomainEvent> T deserialiseEvent(
+            SerialisedJsonPayload serialisedPayload,
+            String serialisedEventType,
+            Integer serialisedEventVersion) {
+
+        Function1<SerialisedJsonPayload, DomainEvent> deserialiser = eventDeserialisers
                 .get(new Tuple2<>(serialisedEventType, serialisedEventVersion))
                 .getOrElseThrow(() -> new MissingDeserialiserException(
                         serialisedEventType,
@@ -249,19 +455,24 @@ public class JsonPayloadMapper implements PayloadMapper {
         return (T) deserialiser.apply(serialisedPayload);
     }
 
+    @Override
+    public Option<Tuple2<String, Integer>> currentEventType(String serialisedEventType, Integer serialisedEventVersion) {
+        return currentEventTypes.get(new Tuple2<>(serialisedEventType, serialisedEventVersion));
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T extends DomainEvent> PayloadSerialisationResult serialiseEvent(T event) {
 
-        Function1<DomainEvent, Tuple2<String, Integer>> serialiser = eventSerialisers
+        Function1<DomainEvent, Tuple2<byte[], Integer>> serialiser = eventSerialisers
                 .get(event.getClass().getName())
                 .getOrElseThrow(() -> new MissingSerialiserException(event.getClass().getName()));
 
-        Tuple2<String,Integer> versionedPayload = serialiser.apply(event);
+        Tuple2<byte[],Integer> versionedPayload = serialiser.apply(event);
 
         return PayloadSerialisationResult.of(
                 versionedPayload._1,
-                SerialisationContentType.JSON,
+                contentType,
                 versionedPayload._2
         );
     }
@@ -269,9 +480,67 @@ public class JsonPayloadMapper implements PayloadMapper {
     @SuppressWarnings("unchecked")
     @Override
     public <A extends Aggregate<?, ?, State>, State> PayloadSerialisationResult serialiseState(State state) {
-        return ((StatePayloadJsonSerialiser<A,State>)stateSerialisers
+        PayloadSerialisationResult serialisedState = ((StatePayloadJsonSerialiser<A,State>)stateSerialisers
                 .get(state.getClass()).getOrElseThrow(() -> new MissingSerialiserException(state.getClass().getName())))
                 .serialise(state, objectMapper.createObjectNode());
+
+        Integer version = stateDeserialisers.get(state.getClass().getName())
+                .map(StatePayloadJsonDeserialiser::currentVersion)
+                .getOrElse(1);
+
+        return serialisedState.contentType().isTextual()
+                ? PayloadSerialisationResult.of(serialisedState.payload(), serialisedState.contentType(), version)
+                : PayloadSerialisationResult.of(serialisedState.payloadBytes(), serialisedState.contentType(), version);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <A extends Aggregate<?, ?, State>, State> State deserialiseState(
+            String serialisedState,
+            String serialisedStateType,
+            Integer serialisedStateVersion) {
+
+        StatePayloadJsonDeserialiser<A, State> deserialiser = (StatePayloadJsonDeserialiser<A, State>) stateDeserialisers
+                .get(serialisedStateType)
+                .filter(candidate -> serialisedStateVersion >= 1 && serialisedStateVersion <= candidate.currentVersion())
+                .getOrElseThrow(() -> new MissingStateDeserialiserException(serialisedStateType, serialisedStateVersion));
+
+        // State is always JSON, whichever content type this mapper writes events as
+        try (JsonParser parser = jsonFactory.createParser(serialisedState)) {
+            return deserialiser.deserialise(objectMapper.readTree(parser), serialisedStateVersion);
+        } catch (IOException ex) {
+            throw new UnparseableJsonPayloadException(ex, serialisedState);
+        }
+    }
+
+    /**
+     * A payload in whichever form it was given to the mapper, so that it can be parsed without first converting it.
+     */
+    private static class SerialisedJsonPayload {
+
+        private String text;
+
+        private byte[] bytes;
+
+        private JsonFactory factory;
+
+        SerialisedJsonPayload(String text, byte[] bytes, JsonFactory factory) {
+            this.text = text;
+            this.bytes = bytes;
+            this.factory = factory;
+        }
+
+        JsonParser createParser() throws IOException {
+            return text != null ? factory.createParser(text) : factory.createParser(bytes);
+        }
+
+        @Override
+        public String toString() {
+            if (text != null) {
+                return text;
+            }
+            return factory.canHandleBinaryNatively() ? bytes.length + " bytes" : new String(bytes, StandardCharsets.UTF_8);
+        }
     }
 
     private interface Migration {
@@ -0,0 +1,42 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json;
+
+import com.dreweaster.ddd.jester.domain.Aggregate;
+import com.fasterxml.jackson.databind.JsonNode;
+import io.vavr.Function1;
+import io.vavr.Lazy;
+import io.vavr.collection.List;
+
+/**
+ * The counterpart of a StatePayloadJsonSerialiser, which reads state back in. State written by an older version of the
+ * serialiser is upcast through the migrations, as with migrateFormat for events, so it doesn't have to be discarded.
+ *
+ * The current version of the state is one more than the number of migrations, and is recorded against state as it is
+ * serialised. Migrations must therefore be added whenever the serialiser's format changes.
+ */
+public abstract class StatePayloadJsonDeserialiser<A extends Aggregate<?, ?, State>, State> {
+
+    private Lazy<List<Function1<JsonNode, JsonNode>>> migrations = Lazy.of(this::migrations);
+
+    protected abstract Class<State> stateClass();
+
+    /**
+     * @return the migrations from each version of the state to the next, starting with the migration from version 1
+     */
+    protected List<Function1<JsonNode, JsonNode>> migrations() {
+        return List.empty();
+    }
+
+    protected abstract State doDeserialise(JsonNode rootNode);
+
+    public final Integer currentVersion() {
+        return migrations.get().size() + 1;
+    }
+
+    public final State deserialise(JsonNode rootNode, Integer version) {
+        JsonNode migrated = rootNode;
+        for (Function1<JsonNode, JsonNode> migration : migrations.get().drop(version - 1)) {
+            migrated = migration.apply(migrated);
+        }
+        return doDeserialise(migrated);
+    }
+}
@@ -2,7 +2,8 @@ package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.mapper.json
 
 import com.dreweaster.ddd.jester.domain.{DomainEvent, DomainEventTag}
 import JsonPayloadMapper.InvalidMappingConfigurationException.ConfigurationError._
-import JsonPayloadMapper.{InvalidMappingConfigurationException, MissingDeserialiserException}
+import JsonPayloadMapper.{InvalidMappingConfigurationException, MissingDeserialiserException, MissingStateDeserialiserException}
+import com.fasterxml.jackson.core.{JsonGenerator, JsonParser, JsonToken}
 import com.fasterxml.jackson.databind.node.ObjectNode
 import com.fasterxml.jackson.databind.{JsonNode, ObjectMapper}
 import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
@@ -187,6 +188,20 @@ class JsonPayloadMapperTest extends FeatureSpec with GivenWhenThen with Matchers
         7).asInstanceOf[EventWithComplexMigrationHistoryClassName3]
       }
     }
+
+    scenario("Name the type and version each stored type and version is read back as, without a payload") {
+      val current = io.vavr.Tuple.of(classOf[EventWithComplexMigrationHistoryClassName3].getName, Integer.valueOf(8))
+
+      When("asking for the current type of stored types and versions from anywhere in the migration history")
+      Then("each should be the latest class name and version")
+      payloadMapper.currentEventType("com.dreweaster.jester.infrastructure.driven.eventstore.mapper.json.EventWithComplexMigrationHistoryClassName1", 1).get() should be(current)
+      payloadMapper.currentEventType("com.dreweaster.jester.infrastructure.driven.eventstore.mapper.json.EventWithComplexMigrationHistoryClassName2", 5).get() should be(current)
+      payloadMapper.currentEventType(classOf[EventWithComplexMigrationHistoryClassName3].getName, 7).get() should be(current)
+      payloadMapper.currentEventType(classOf[EventWithComplexMigrationHistoryClassName3].getName, 8).get() should be(current)
+
+      And("there should be none for an unknown combination of event type and version")
+      payloadMapper.currentEventType("com.dreweaster.jester.infrastructure.driven.eventstore.mapper.json.EventWithComplexMigrationHistoryClassName2", 7).isEmpty should be(true)
+    }
   }
 
   feature("A JsonPayloadMapper can deserialiseEvent multiple conceptual events") {
@@ -237,6 +252,26 @@ class JsonPayloadMapperTest extends FeatureSpec with GivenWhenThen with Matchers
       event.surname should be("bloggs")
       event.active should be(false)
     }
+
+    scenario("Deserialises correctly an old version of an event given as UTF-8 bytes") {
+      Given("a version 1 payload as bytes")
+      val eventPayload = objectMapper.createObjectNode()
+        .put("firstName", "jöe")
+        .put("secondName", "bloggs")
+        .toString
+        .getBytes("UTF-8")
+
+      When("deserialising the payload")
+      val event = payloadMapper.deserialiseEvent(
+        eventPayload,
+        "com.dreweaster.jester.infrastructure.driven.eventstore.mapper.json.EventWithComplexMigrationHistoryClassName1",
+        1).asInstanceOf[EventWithComplexMigrationHistoryClassName3]
+
+      Then("the event should be deserialised correctly")
+      event.forename should be("jöe")
+      event.surname should be("bloggs")
+      event.active should be(true)
+    }
   }
 
   feature("A JsonPayloadMapper can serialiseEvent multiple conceptual events") {
@@ -280,6 +315,102 @@ class JsonPayloadMapperTest extends FeatureSpec with GivenWhenThen with Matchers
     }
   }
 
+  feature("A JsonPayloadMapper can map events with streaming mapping functions") {
+
+    val configurers: io.vavr.collection.List[JsonEventMappingConfigurer[_]] = io.vavr.collection.List.empty().append(
+      new StreamedEventMappingConfigurer
+    )
+
+    val stateSerialisers: io.vavr.collection.List[StatePayloadJsonSerialiser[_,_]] = io.vavr.collection.List.empty()
+
+    val payloadMapper = new JsonPayloadMapper(objectMapper, configurers, stateSerialisers)
+
+    scenario("Serialises and deserialises the current version of an event without a tree") {
+      When("serialising an event")
+      val result = payloadMapper.serialiseEvent(new StreamedEvent("joe", "bloggs", true))
+
+      Then("the event payload should be serialised correctly in JSON")
+      val payloadAsJson = objectMapper.readTree(result.payload())
+      payloadAsJson.get("forename").asText() should be("joe")
+      payloadAsJson.get("surname").asText() should be("bloggs")
+      payloadAsJson.get("active").asBoolean should be(true)
+      result.version().get() should be(2)
+
+      And("the payload should deserialise back into the event")
+      val event = payloadMapper.deserialiseEvent(result.payload(), classOf[StreamedEvent].getName, 2).asInstanceOf[StreamedEvent]
+      event.forename should be("joe")
+      event.surname should be("bloggs")
+      event.active should be(true)
+    }
+
+    scenario("Deserialises an old version of an event after migrating it") {
+      Given("a version 1 payload")
+      val eventVersion1Payload = objectMapper.createObjectNode()
+        .put("firstName", "joe")
+        .put("secondName", "bloggs")
+        .toString
+
+      When("deserialising the payload")
+      val event = payloadMapper.deserialiseEvent(eventVersion1Payload, classOf[StreamedEvent].getName, 1).asInstanceOf[StreamedEvent]
+
+      Then("the event should be deserialised into version 2")
+      event.forename should be("joe")
+      event.surname should be("bloggs")
+      event.active should be(true)
+    }
+  }
+
+  feature("A JsonPayloadMapper can deserialise state with a migration history") {
+
+    val configurers: io.vavr.collection.List[JsonEventMappingConfigurer[_]] = io.vavr.collection.List.empty()
+
+    val stateSerialisers: io.vavr.collection.List[StatePayloadJsonSerialiser[_,_]] = io.vavr.collection.List.empty().append(
+      new VersionedStateSerialiser
+    )
+
+    val stateDeserialisers: io.vavr.collection.List[StatePayloadJsonDeserialiser[_,_]] = io.vavr.collection.List.empty().append(
+      new VersionedStateDeserialiser
+    )
+
+    val payloadMapper = new JsonPayloadMapper(objectMapper, configurers, stateSerialisers, stateDeserialisers)
+
+    scenario("Serialises state at the current version and deserialises it back") {
+      When("serialising state")
+      val result = payloadMapper.serialiseState(new VersionedState("joe", 2))
+
+      Then("the state should be serialised at the version after the last migration")
+      result.version().get() should be(3)
+
+      And("the payload should deserialise back into the state")
+      val state: VersionedState = payloadMapper.deserialiseState(result.payload(), classOf[VersionedState].getName, 3)
+      state.name should be("joe")
+      state.count should be(2)
+    }
+
+    scenario("Deserialises an old version of state after migrating it") {
+      Given("a version 1 payload")
+      val stateVersion1Payload = objectMapper.createObjectNode()
+        .put("fullName", "joe")
+        .toString
+
+      When("deserialising the payload")
+      val state: VersionedState = payloadMapper.deserialiseState(stateVersion1Payload, classOf[VersionedState].getName, 1)
+
+      Then("the state should be upcast to the current version")
+      state.name should be("joe")
+      state.count should be(0)
+    }
+
+    scenario("Throw a MissingStateDeserialiserException when no deserialiser is found for a state type and version") {
+      When("deserialising state of a version later than the current version")
+      val thrown = the[MissingStateDeserialiserException] thrownBy
+        payloadMapper.deserialiseState[Nothing, VersionedState]("{}", classOf[VersionedState].getName, 4)
+
+      Then("the missing version should be reported")
+      thrown.getMessage should include("state_version = '4'")
+    }
+  }
+
   feature("A JsonPayloadMapper rejects competing mapping configurers") {
     // TODO: Complete scenarios for this feature
   }
@@ -521,3 +652,93 @@ class EventWithNoMigrationHistoryMappingConfigurer extends JsonEventMappingConfi
         active = root.get("active").asBoolean())
   }
 }
+
+class StreamedEvent(val forename: String, val surname: String, val active: Boolean) extends DomainEvent {
+  override def tag(): DomainEventTag = DomainEventTag.of("dummy-event")
+}
+
+class StreamedEventMappingConfigurer extends JsonEventMappingConfigurer[StreamedEvent] {
+
+  def configure(configurationFactory: JsonEventMappingConfigurationFactory[StreamedEvent]) {
+    configurationFactory.create(classOf[StreamedEvent].getName)
+      .migrateFormat(migrateVersion1ToVersion2)
+      .streamingMappingFunctions(serialise, deserialise)
+  }
+
+  val serialise: JsonEventMappingConfiguration.StreamingSerialiser[StreamedEvent] =
+    new JsonEventMappingConfiguration.StreamingSerialiser[StreamedEvent] {
+      override def serialise(event: StreamedEvent, generator: JsonGenerator): Unit = {
+        generator.writeStartObject()
+        generator.writeStringField("forename", event.forename)
+        generator.writeStringField("surname", event.surname)
+        generator.writeBooleanField("active", event.active)
+        generator.writeEndObject()
+      }
+    }
+
+  val deserialise: JsonEventMappingConfiguration.StreamingDeserialiser[StreamedEvent] =
+    new JsonEventMappingConfiguration.StreamingDeserialiser[StreamedEvent] {
+      override def deserialise(parser: JsonParser): StreamedEvent = {
+        var forename: String = null
+        var surname: String = null
+        var active = false
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+          val field = parser.getCurrentName
+          parser.nextToken()
+          field match {
+            case "forename" => forename = parser.getText
+            case "surname" => surname = parser.getText
+            case "active" => active = parser.getBooleanValue
+            case _ => parser.skipChildren()
+          }
+        }
+        new StreamedEvent(forename, surname, active)
+      }
+    }
+
+  val migrateVersion1ToVersion2: io.vavr.Function1[JsonNode, JsonNode] = new io.vavr.Function1[JsonNode, JsonNode] {
+    override def apply(node: JsonNode): JsonNode = {
+      val firstName = node.get("firstName").asText()
+      val secondName = node.get("secondName").asText()
+
+      node.asInstanceOf[ObjectNode].removeAll()
+        .put("forename", firstName)
+        .put("surname", secondName)
+        .put("active", true)
+    }
+  }
+}
+
+class VersionedState(val name: String, val count: Int)
+
+class VersionedStateSerialiser extends StatePayloadJsonSerialiser[Nothing, VersionedState] {
+
+  override def stateClass(): Class[VersionedState] = classOf[VersionedState]
+
+  override def doSerialise(state: VersionedState, root: ObjectNode): Unit = {
+    root.put("name", state.name)
+    root.put("count", state.count)
+  }
+}
+
+class VersionedStateDeserialiser extends StatePayloadJsonDeserialiser[Nothing, VersionedState] {
+
+  override def stateClass(): Class[VersionedState] = classOf[VersionedState]
+
+  override def migrations(): io.vavr.collection.List[io.vavr.Function1[JsonNode, JsonNode]] =
+    io.vavr.collection.List.of(migrateVersion1ToVersion2, migrateVersion2ToVersion3)
+
+  override def doDeserialise(root: JsonNode): VersionedState =
+    new VersionedState(root.get("name").asText(), root.get("count").asInt())
+
+  val migrateVersion1ToVersion2: io.vavr.Function1[JsonNode, JsonNode] = new io.vavr.Function1[JsonNode, JsonNode] {
+    override def apply(node: JsonNode): JsonNode = {
+      val name = node.get("fullName").asText()
+      node.asInstanceOf[ObjectNode].removeAll().put("name", name)
+    }
+  }
+
+  val migrateVersion2ToVersion3: io.vavr.Function1[JsonNode, JsonNode] = new io.vavr.Function1[JsonNode, JsonNode] {
+    override def apply(node: JsonNode): JsonNode = node.asInstanceOf[ObjectNode].put("count", 0)
+  }
+}
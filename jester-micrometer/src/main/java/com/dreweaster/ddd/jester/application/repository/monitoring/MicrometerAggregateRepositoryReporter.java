@@ -0,0 +1,334 @@
+package com.dreweaster.ddd.jester.application.repository.monitoring;
+
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent;
+import com.dreweaster.ddd.jester.domain.*;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.vavr.Lazy;
+import io.vavr.collection.List;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times each phase of handling a command (load, apply, persist and the total) with timers tagged by aggregate type,
+ * command type and outcome, and counts commands that were deduplicated or hit a concurrent modification. For each
+ * concurrent modification it also records the work that was wasted: the time from starting to handle the command to
+ * finding it had conflicted, and the number of events that had been loaded to handle it.
+ *
+ * Timers publish a bucket for each service level objective, if any are given, and a percentile histogram only if asked
+ * to, as each percentile histogram adds a great many series to every timer. Each meter is registered the first time it
+ * is updated for an aggregate type and command class and then cached, so outcomes that never happen cost nothing, and
+ * handling a command only costs a probe and the meter updates themselves.
+ */
+public class MicrometerAggregateRepositoryReporter implements AggregateRepositoryReporter {
+
+    private static final long NOT_STARTED = Long.MIN_VALUE;
+
+    private MeterRegistry meterRegistry;
+
+    private String metricNamePrefix;
+
+    private boolean publishPercentileHistograms;
+
+    private Duration[] serviceLevelObjectives;
+
+    private ConcurrentHashMap<String, AggregateTypeMeters> aggregateTypeMeters = new ConcurrentHashMap<>();
+
+    /**
+     * @param serviceLevelObjectives the durations to publish a histogram bucket for on every timer, if any
+     */
+    public MicrometerAggregateRepositoryReporter(MeterRegistry meterRegistry, String metricNamePrefix, Duration... serviceLevelObjectives) {
+        this(meterRegistry, metricNamePrefix, false, serviceLevelObjectives);
+    }
+
+    /**
+     * @param publishPercentileHistograms whether timers and distribution summaries publish a percentile histogram
+     * @param serviceLevelObjectives the durations to publish a histogram bucket for on every timer, if any
+     */
+    public MicrometerAggregateRepositoryReporter(
+            MeterRegistry meterRegistry,
+            String metricNamePrefix,
+            boolean publishPercentileHistograms,
+            Duration... serviceLevelObjectives) {
+        for (Duration serviceLevelObjective : serviceLevelObjectives) {
+            if (serviceLevelObjective.isNegative() || serviceLevelObjective.isZero()) {
+                throw new IllegalArgumentException("serviceLevelObjectives must be positive");
+            }
+        }
+        this.meterRegistry = meterRegistry;
+        this.metricNamePrefix = metricNamePrefix;
+        this.publishPercentileHistograms = publishPercentileHistograms;
+        this.serviceLevelObjectives = serviceLevelObjectives.clone();
+    }
+
+    @Override
+    public <A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> CommandHandlingProbe<A, C, E, State> createProbe(
+            AggregateType<A, C, E, State> aggregateType, AggregateId aggregateId) {
+
+        AggregateTypeMeters meters = aggregateTypeMeters.get(aggregateType.name());
+        if (meters == null) {
+            meters = aggregateTypeMeters.computeIfAbsent(aggregateType.name(), AggregateTypeMeters::new);
+        }
+        return new MicrometerCommandHandlingProbe<>(meters);
+    }
+
+    private Timer timer(String name, Tags tags, String outcome) {
+        return Timer.builder(metricNamePrefix + "." + name)
+                .tags(tags.and("outcome", outcome))
+                .publishPercentileHistogram(publishPercentileHistograms)
+                .sla(serviceLevelObjectives)
+                .register(meterRegistry);
+    }
+
+    private Timer timer(String name, Tags tags) {
+        return Timer.builder(metricNamePrefix + "." + name)
+                .tags(tags)
+                .publishPercentileHistogram(publishPercentileHistograms)
+                .register(meterRegistry);
+    }
+
+    private DistributionSummary summary(String name, Tags tags) {
+        return DistributionSummary.builder(metricNamePrefix + "." + name)
+                .tags(tags)
+                .publishPercentileHistogram(publishPercentileHistograms)
+                .register(meterRegistry);
+    }
+
+    private Counter counter(String name, Tags tags) {
+        return Counter.builder(metricNamePrefix + "." + name)
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private class AggregateTypeMeters {
+
+        private String aggregateTypeName;
+
+        private ConcurrentHashMap<Class<?>, CommandMeters> commandMeters = new ConcurrentHashMap<>();
+
+        AggregateTypeMeters(String aggregateTypeName) {
+            this.aggregateTypeName = aggregateTypeName;
+        }
+
+        CommandMeters commandMeters(Class<?> commandClass) {
+            CommandMeters meters = commandMeters.get(commandClass);
+            if (meters == null) {
+                meters = commandMeters.computeIfAbsent(commandClass, CommandMeters::new);
+            }
+            return meters;
+        }
+
+        private class CommandMeters {
+
+            private Lazy<Timer> loadSuccess;
+
+            private Lazy<Timer> loadFailure;
+
+            private Lazy<Timer> applyAccepted;
+
+            private Lazy<Timer> applyRejected;
+
+            private Lazy<Timer> applyFailed;
+
+            private Lazy<Timer> persistSuccess;
+
+            private Lazy<Timer> persistFailure;
+
+            private Lazy<Timer> totalSuccess;
+
+            private Lazy<Timer> totalRejection;
+
+            private Lazy<Timer> totalConcurrentModification;
+
+            private Lazy<Timer> totalFailure;
+
+            private Lazy<Counter> deduplicatedSuccess;
+
+            private Lazy<Counter> deduplicatedRejection;
+
+            private Lazy<Counter> conflicted;
+
+            private Lazy<Timer> conflictWastedTime;
+
+            private Lazy<DistributionSummary> conflictWastedEvents;
+
+            CommandMeters(Class<?> commandClass) {
+                Tags tags = Tags.of("aggregate.type", aggregateTypeName, "command.type", commandClass.getSimpleName());
+                loadSuccess = Lazy.of(() -> timer("command.load", tags, "success"));
+                loadFailure = Lazy.of(() -> timer("command.load", tags, "failure"));
+                applyAccepted = Lazy.of(() -> timer("command.apply", tags, "accepted"));
+                applyRejected = Lazy.of(() -> timer("command.apply", tags, "rejected"));
+                applyFailed = Lazy.of(() -> timer("command.apply", tags, "failed"));
+                persistSuccess = Lazy.of(() -> timer("command.persist", tags, "success"));
+                persistFailure = Lazy.of(() -> timer("command.persist", tags, "failure"));
+                totalSuccess = Lazy.of(() -> timer("command.total", tags, "success"));
+                totalRejection = Lazy.of(() -> timer("command.total", tags, "rejection"));
+                totalConcurrentModification = Lazy.of(() -> timer("command.total", tags, "concurrent-modification"));
+                totalFailure = Lazy.of(() -> timer("command.total", tags, "failure"));
+                deduplicatedSuccess = Lazy.of(() -> counter("command.deduplicated", tags.and("outcome", "success")));
+                deduplicatedRejection = Lazy.of(() -> counter("command.deduplicated", tags.and("outcome", "rejection")));
+                conflicted = Lazy.of(() -> counter("command.conflicted", tags));
+                conflictWastedTime = Lazy.of(() -> timer("command.conflict.wasted.time", tags));
+                conflictWastedEvents = Lazy.of(() -> summary("command.conflict.wasted.events", tags));
+            }
+        }
+    }
+
+    private class MicrometerCommandHandlingProbe<A extends Aggregate<C, E, State>, C extends DomainCommand, E extends DomainEvent, State> implements CommandHandlingProbe<A,C,E,State> {
+
+        private AggregateTypeMeters meters;
+
+        private AggregateTypeMeters.CommandMeters commandMeters;
+
+        private int loadedEvents;
+
+        private long commandHandlingStartedAt = NOT_STARTED;
+
+        private long loadEventsStartedAt = NOT_STARTED;
+
+        private long applyCommandStartedAt = NOT_STARTED;
+
+        private long persistEventsStartedAt = NOT_STARTED;
+
+        MicrometerCommandHandlingProbe(AggregateTypeMeters meters) {
+            this.meters = meters;
+        }
+
+        @Override
+        public void startedHandling(AggregateRepository.CommandEnvelope<C> command) {
+
+            if(commandMeters == null) {
+                commandMeters = meters.commandMeters(command.command().getClass());
+            }
+
+            if(commandHandlingStartedAt == NOT_STARTED) {
+                commandHandlingStartedAt = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void startedLoadingEvents() {
+            if(loadEventsStartedAt == NOT_STARTED) {
+                loadEventsStartedAt = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void finishedLoadingEvents(List<PersistedEvent<A, E>> previousEvents) {
+            loadedEvents = previousEvents.size();
+            if(commandMeters != null) {
+                stop(commandMeters.loadSuccess, loadEventsStartedAt);
+            }
+        }
+
+        @Override
+        public void finishedLoadingEvents(Throwable unexpectedException) {
+            if(commandMeters != null) {
+                stop(commandMeters.loadFailure, loadEventsStartedAt);
+            }
+        }
+
+        @Override
+        public void startedApplyingCommand() {
+            if(applyCommandStartedAt == NOT_STARTED) {
+                applyCommandStartedAt = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void commandApplicationAccepted(List<? super E> events, boolean deduplicated) {
+            if(commandMeters != null) {
+                stop(commandMeters.applyAccepted, applyCommandStartedAt);
+                if(deduplicated) {
+                    commandMeters.deduplicatedSuccess.get().increment();
+                }
+            }
+        }
+
+        @Override
+        public void commandApplicationRejected(Throwable rejection, boolean deduplicated) {
+            if(commandMeters != null) {
+                stop(commandMeters.applyRejected, applyCommandStartedAt);
+                if(deduplicated) {
+                    commandMeters.deduplicatedRejection.get().increment();
+                }
+            }
+        }
+
+        @Override
+        public void commandApplicationFailed(Throwable unexpectedException) {
+            if(commandMeters != null) {
+                stop(commandMeters.applyFailed, applyCommandStartedAt);
+            }
+        }
+
+        @Override
+        public void startedPersistingEvents(List<? super E> events, long expectedSequenceNumber) {
+            if(persistEventsStartedAt == NOT_STARTED) {
+                persistEventsStartedAt = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void startedPersistingEvents(List<? super E> events, State state, long expectedSequenceNumber) {
+            startedPersistingEvents(events, expectedSequenceNumber);
+        }
+
+        @Override
+        public void finishedPersistingEvents(List<PersistedEvent<A, E>> persistedEvents) {
+            if(commandMeters != null) {
+                stop(commandMeters.persistSuccess, persistEventsStartedAt);
+            }
+        }
+
+        @Override
+        public void finishedPersistingEvents(Throwable unexpectedException) {
+            if(commandMeters != null) {
+                stop(commandMeters.persistFailure, persistEventsStartedAt);
+            }
+        }
+
+        @Override
+        public void concurrentModificationDetected(List<? super E> discardedEvents, long expectedSequenceNumber) {
+            if(commandMeters != null) {
+                stop(commandMeters.conflictWastedTime, commandHandlingStartedAt);
+                commandMeters.conflictWastedEvents.get().record(loadedEvents);
+            }
+        }
+
+        @Override
+        public void finishedHandling(AggregateRepository.CommandHandlingResult<C, E> result) {
+
+            if(commandMeters == null) {
+                return;
+            }
+
+            if(result instanceof AggregateRepository.SuccessResult) {
+                stop(commandMeters.totalSuccess, commandHandlingStartedAt);
+            } else if(result instanceof AggregateRepository.RejectionResult) {
+                stop(commandMeters.totalRejection, commandHandlingStartedAt);
+            } else if(result instanceof AggregateRepository.ConcurrentModificationResult) {
+                stop(commandMeters.totalConcurrentModification, commandHandlingStartedAt);
+                commandMeters.conflicted.get().increment();
+            }
+        }
+
+        @Override
+        public void finishedHandling(Throwable unexpectedException) {
+            if(commandMeters != null) {
+                stop(commandMeters.totalFailure, commandHandlingStartedAt);
+            }
+        }
+
+        private void stop(Lazy<Timer> timer, long startedAt) {
+            if(startedAt != NOT_STARTED) {
+                timer.get().record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
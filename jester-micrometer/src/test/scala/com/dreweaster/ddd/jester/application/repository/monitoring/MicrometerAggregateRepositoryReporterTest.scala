@@ -0,0 +1,156 @@
+package com.dreweaster.ddd.jester.application.repository.monitoring
+
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+
+import com.dreweaster.ddd.jester.application.eventstore.PersistedEvent
+import com.dreweaster.ddd.jester.application.repository.monitoring.Lightbulb.{LightbulbCommand, LightbulbEvent, SwitchOff, SwitchOn, SwitchedOn}
+import com.dreweaster.ddd.jester.domain.AggregateRepository.{CommandEnvelope, ConcurrentModificationResult, SuccessResult}
+import com.dreweaster.ddd.jester.domain.{AggregateId, CommandId}
+import io.micrometer.core.instrument.Meter
+import io.micrometer.core.instrument.config.MeterFilter
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry
+import io.vavr.collection.List
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable.ListBuffer
+
+class MicrometerAggregateRepositoryReporterTest extends FeatureSpec with GivenWhenThen with Matchers {
+
+  def handleSuccessfully(reporter: MicrometerAggregateRepositoryReporter, command: LightbulbCommand): Unit = {
+    val envelope = CommandEnvelope.of(CommandId.of("command-id"), command)
+    val probe = reporter.createProbe(Lightbulb.TYPE, AggregateId.of("aggregate-id"))
+    probe.startedHandling(envelope)
+    probe.startedLoadingEvents()
+    probe.finishedLoadingEvents(List.empty[PersistedEvent[Lightbulb, LightbulbEvent]]())
+    probe.startedApplyingCommand()
+    probe.commandApplicationAccepted(List.of[LightbulbEvent](new SwitchedOn), false)
+    probe.startedPersistingEvents(List.of[LightbulbEvent](new SwitchedOn), -1L)
+    probe.finishedPersistingEvents(List.empty[PersistedEvent[Lightbulb, LightbulbEvent]]())
+    probe.finishedHandling(SuccessResult.of(envelope, List.of[LightbulbEvent](new SwitchedOn)))
+  }
+
+  // SimpleMeterRegistry doesn't publish percentile histograms, so this records whether each meter asked for one
+  def percentileHistograms(registry: SimpleMeterRegistry): ListBuffer[Boolean] = {
+    val percentileHistograms = ListBuffer[Boolean]()
+    registry.config().meterFilter(new MeterFilter {
+      override def configure(id: Meter.Id, config: DistributionStatisticConfig): DistributionStatisticConfig = {
+        percentileHistograms += config.isPercentileHistogram
+        config
+      }
+    })
+    percentileHistograms
+  }
+
+  def meterNames(registry: SimpleMeterRegistry): Set[(String, String)] =
+    registry.getMeters.asScala.map(meter => (meter.getId.getName, meter.getId.getTag("outcome"))).toSet
+
+  feature("Registering meters only once they are updated") {
+
+    scenario("Register nothing until a command is handled") {
+      Given("a reporter")
+      val registry = new SimpleMeterRegistry()
+      val reporter = new MicrometerAggregateRepositoryReporter(registry, "jester")
+
+      When("creating a probe and starting to handle a command")
+      reporter.createProbe(Lightbulb.TYPE, AggregateId.of("aggregate-id"))
+        .startedHandling(CommandEnvelope.of(CommandId.of("command-id"), new SwitchOn))
+
+      Then("no meters should be registered")
+      registry.getMeters.asScala should be(empty)
+    }
+
+    scenario("Register only the meters for the outcomes that happened") {
+      Given("a reporter")
+      val registry = new SimpleMeterRegistry()
+      val reporter = new MicrometerAggregateRepositoryReporter(registry, "jester")
+
+      When("handling a command successfully")
+      handleSuccessfully(reporter, new SwitchOn)
+
+      Then("only the timers for a successful command should be registered")
+      meterNames(registry) should be(Set(
+        ("jester.command.load", "success"),
+        ("jester.command.apply", "accepted"),
+        ("jester.command.persist", "success"),
+        ("jester.command.total", "success")))
+
+      And("each should have recorded the command")
+      registry.getMeters.asScala.map(meter => registry.get(meter.getId.getName).tag("outcome", meter.getId.getTag("outcome")).timer().count()).toSet should be(Set(1L))
+    }
+
+    scenario("Register meters separately for each command class") {
+      Given("a reporter")
+      val registry = new SimpleMeterRegistry()
+      val reporter = new MicrometerAggregateRepositoryReporter(registry, "jester")
+
+      When("handling two commands of one class and one of another")
+      handleSuccessfully(reporter, new SwitchOn)
+      handleSuccessfully(reporter, new SwitchOn)
+      handleSuccessfully(reporter, new SwitchOff)
+
+      Then("each command class should have its own timers")
+      registry.get("jester.command.total").tag("command.type", "SwitchOn").timer().count() should be(2L)
+      registry.get("jester.command.total").tag("command.type", "SwitchOff").timer().count() should be(1L)
+      registry.getMeters.size() should be(8)
+    }
+
+    scenario("Register the conflict meters on a concurrent modification") {
+      Given("a reporter")
+      val registry = new SimpleMeterRegistry()
+      val reporter = new MicrometerAggregateRepositoryReporter(registry, "jester")
+
+      When("a command hits a concurrent modification")
+      val envelope = CommandEnvelope.of(CommandId.of("command-id"), new SwitchOn: LightbulbCommand)
+      val probe = reporter.createProbe(Lightbulb.TYPE, AggregateId.of("aggregate-id"))
+      probe.startedHandling(envelope)
+      probe.concurrentModificationDetected(List.of[LightbulbEvent](new SwitchedOn), 0L)
+      probe.finishedHandling(ConcurrentModificationResult.of[LightbulbCommand, LightbulbEvent](envelope))
+
+      Then("the conflict should be counted and its wasted work recorded")
+      registry.get("jester.command.conflicted").counter().count() should be(1.0)
+      registry.get("jester.command.conflict.wasted.time").timer().count() should be(1L)
+      registry.get("jester.command.conflict.wasted.events").summary().count() should be(1L)
+      registry.get("jester.command.total").tag("outcome", "concurrent-modification").timer().count() should be(1L)
+    }
+  }
+
+  feature("Publishing histograms") {
+
+    scenario("Publish no percentile histogram by default") {
+      Given("a reporter with default settings")
+      val registry = new SimpleMeterRegistry()
+      val percentileHistogram = percentileHistograms(registry)
+      handleSuccessfully(new MicrometerAggregateRepositoryReporter(registry, "jester"), new SwitchOn)
+
+      Then("none of its timers should publish a percentile histogram")
+      percentileHistogram.toSet should be(Set(false))
+      registry.get("jester.command.total").timer().takeSnapshot().histogramCounts() should be(empty)
+    }
+
+    scenario("Publish percentile histograms when asked to") {
+      Given("a reporter publishing percentile histograms")
+      val registry = new SimpleMeterRegistry()
+      val percentileHistogram = percentileHistograms(registry)
+      handleSuccessfully(new MicrometerAggregateRepositoryReporter(registry, "jester", true), new SwitchOn)
+
+      Then("all of its timers should publish a percentile histogram")
+      percentileHistogram.toSet should be(Set(true))
+    }
+
+    scenario("Publish a bucket for each service level objective") {
+      Given("a reporter with two service level objectives")
+      val registry = new SimpleMeterRegistry()
+      handleSuccessfully(new MicrometerAggregateRepositoryReporter(registry, "jester", Duration.ofMillis(10), Duration.ofSeconds(1)), new SwitchOn)
+
+      Then("its timers should have only those buckets")
+      registry.get("jester.command.total").timer().takeSnapshot().histogramCounts().map(_.bucket(TimeUnit.MILLISECONDS)).toSeq should be(Seq(10.0, 1000.0))
+    }
+
+    scenario("Refuse a service level objective that isn't positive") {
+      an[IllegalArgumentException] should be thrownBy new MicrometerAggregateRepositoryReporter(new SimpleMeterRegistry(), "jester", Duration.ZERO)
+    }
+  }
+}
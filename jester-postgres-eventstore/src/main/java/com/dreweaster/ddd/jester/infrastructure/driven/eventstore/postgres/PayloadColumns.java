@@ -0,0 +1,40 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres;
+
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper.PayloadSerialisationResult;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Chooses between the event_payload and event_payload_binary columns, and how to compress, in the same way for the
+ * event store's new events as for the payload upgrader's rewritten ones.
+ */
+final class PayloadColumns {
+
+    private PayloadColumns() {
+
+    }
+
+    /**
+     * Binary content types can only go in the BYTEA column, so are written there even without binary payloads.
+     *
+     * @param payloadIndex the index of the event_payload parameter
+     * @param binaryPayloadIndex the index of the event_payload_binary parameter
+     */
+    static void setPayloadParameters(
+            PreparedStatement statement,
+            int payloadIndex,
+            int binaryPayloadIndex,
+            PayloadSerialisationResult serialisedEvent,
+            Postgres95EventStoreSettings settings) throws SQLException {
+
+        if (settings.binaryPayloads().isDefined() || !serialisedEvent.contentType().isTextual()) {
+            statement.setNull(payloadIndex, Types.VARCHAR);
+            statement.setBytes(binaryPayloadIndex, settings.binaryPayloads().getOrElse(PayloadCompression::none).compress(serialisedEvent.payloadBytes()));
+        } else {
+            statement.setString(payloadIndex, serialisedEvent.payload());
+            statement.setNull(binaryPayloadIndex, Types.BINARY);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+
+import java.util.Arrays;
+
+/**
+ * Encodes event payloads for the BYTEA event_payload_binary column.
+ *
+ * Every stored payload starts with a single byte identifying the codec it was written with. Payloads below the
+ * compression threshold, or that don't get any smaller when compressed, are stored as-is behind that byte. This
+ * means rows written with different settings can be mixed freely and are always readable.
+ */
+public class PayloadCompression {
+
+    public static class UnknownPayloadCodecException extends RuntimeException {
+
+        public UnknownPayloadCodecException(byte codec) {
+            super("Unknown payload codec: " + codec);
+        }
+    }
+
+    private static final byte UNCOMPRESSED = 0;
+
+    private static final byte LZ4 = 1;
+
+    // codec byte followed by the uncompressed length
+    private static final int LZ4_HEADER_LENGTH = 5;
+
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+
+    public static PayloadCompression none() {
+        return new PayloadCompression(UNCOMPRESSED, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param thresholdBytes payloads smaller than this are stored uncompressed
+     * @return LZ4 block compression for payloads of at least thresholdBytes
+     */
+    public static PayloadCompression lz4(int thresholdBytes) {
+        if (thresholdBytes < 0) {
+            throw new IllegalArgumentException("thresholdBytes cannot be negative");
+        }
+        return new PayloadCompression(LZ4, thresholdBytes);
+    }
+
+    private byte codec;
+
+    private int thresholdBytes;
+
+    private PayloadCompression(byte codec, int thresholdBytes) {
+        this.codec = codec;
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    public byte[] compress(byte[] payload) {
+        if (codec == LZ4 && payload.length >= thresholdBytes) {
+            LZ4Compressor compressor = LZ4_FACTORY.fastCompressor();
+            int maxCompressedLength = compressor.maxCompressedLength(payload.length);
+            byte[] compressed = new byte[LZ4_HEADER_LENGTH + maxCompressedLength];
+            int compressedLength = compressor.compress(payload, 0, payload.length, compressed, LZ4_HEADER_LENGTH, maxCompressedLength);
+
+            if (compressedLength < payload.length) {
+                compressed[0] = LZ4;
+                writeInt(compressed, 1, payload.length);
+                return Arrays.copyOf(compressed, LZ4_HEADER_LENGTH + compressedLength);
+            }
+        }
+
+        byte[] stored = new byte[payload.length + 1];
+        stored[0] = UNCOMPRESSED;
+        System.arraycopy(payload, 0, stored, 1, payload.length);
+        return stored;
+    }
+
+    public static byte[] decompress(byte[] stored) {
+        switch (stored[0]) {
+            case UNCOMPRESSED:
+                return Arrays.copyOfRange(stored, 1, stored.length);
+            case LZ4:
+                return LZ4_FACTORY.fastDecompressor().decompress(stored, LZ4_HEADER_LENGTH, readInt(stored, 1));
+            default:
+                throw new UnknownPayloadCodecException(stored[0]);
+        }
+    }
+
+    private static void writeInt(byte[] bytes, int index, int value) {
+        bytes[index] = (byte) (value >>> 24);
+        bytes[index + 1] = (byte) (value >>> 16);
+        bytes[index + 2] = (byte) (value >>> 8);
+        bytes[index + 3] = (byte) value;
+    }
+
+    private static int readInt(byte[] bytes, int index) {
+        return ((bytes[index] & 0xFF) << 24)
+                | ((bytes[index + 1] & 0xFF) << 16)
+                | ((bytes[index + 2] & 0xFF) << 8)
+                | (bytes[index + 3] & 0xFF);
+    }
+}
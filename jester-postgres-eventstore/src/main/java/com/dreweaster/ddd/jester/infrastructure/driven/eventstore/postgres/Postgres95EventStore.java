@@ -2,8 +2,13 @@ package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres;
 
 import com.dreweaster.ddd.jester.application.eventstore.*;
 import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper.PayloadSerialisationResult;
+import com.dreweaster.ddd.jester.application.eventstore.monitoring.EventStoreOperation;
+import com.dreweaster.ddd.jester.application.eventstore.monitoring.EventStoreReporter;
 import com.dreweaster.ddd.jester.application.util.DateTimeUtils;
 import com.dreweaster.ddd.jester.domain.*;
+import io.vavr.CheckedFunction0;
+import io.vavr.CheckedFunction2;
+import io.vavr.Lazy;
 import io.vavr.Tuple2;
 import io.vavr.collection.List;
 import io.vavr.concurrent.Future;
@@ -11,17 +16,49 @@ import io.vavr.control.Option;
 import org.postgresql.util.PGobject;
 
 import javax.sql.DataSource;
+import java.nio.ByteBuffer;
 import java.sql.*;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
- * TODO: Implement integration tests using Postgres started by Docker (via Maven).
+ * Requires the domain_event and aggregate_root tables created by the migrations in jester-example
+ * (src/main/resources/db/migration). Every read selects the event_payload_binary and event_payload_content_type
+ * columns, even without binary payloads, so a database upgraded from an earlier version of the event store needs at
+ * least V2 and V4 of those migrations applied before it is used.
+ *
+ * The state saved by saveEventsAndState is also served as a snapshot, which is only readable if the PayloadMapper can
+ * deserialise state.
+ *
+ * Reporters added with addReporter are told how long loads, saves and stream reads spend queued on the executor,
+ * waiting for a connection and running their queries, and how many rows and payload bytes the queries read or wrote.
+ *
+ * Its integration tests are in jester-example, next to the migrations, and run against the local Postgres named by the
+ * jester.tests.postgres.url, username and password system properties. They are cancelled if there isn't one.
  */
-public class Postgres95EventStore implements EventStore {
+public class Postgres95EventStore implements EventStore, SnapshotStore {
+
+    // event_payload_binary and event_payload_content_type need the V2 and V4 migrations
+    private static final String EVENT_COLUMNS =
+            "global_offset, event_id, aggregate_id, aggregate_type, causation_id, correlation_id, event_type, event_version, event_payload, event_timestamp, sequence_number, event_payload_binary, event_payload_content_type, tag ";
+
+    // Takes the aggregate type and id, and is -1 for an aggregate with no events
+    private static final String LATEST_SEQUENCE_NUMBER =
+            "(SELECT COALESCE(MAX(sequence_number), -1) FROM domain_event WHERE aggregate_type = ? AND aggregate_id = ?)";
+
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    private static final String CONNECTION_EXCEPTION_CLASS = "08";
+
+    // admin_shutdown, crash_shutdown and cannot_connect_now, as seen when the server is restarted or fails over
+    private static final List<String> SERVER_SHUTDOWN_STATES = List.of("57P01", "57P02", "57P03");
 
     private DataSource dataSource;
 
@@ -29,29 +66,54 @@ public class Postgres95EventStore implements EventStore {
 
     private PayloadMapper payloadMapper;
 
+    private EventTypeResolver eventTypeResolver;
+
     private DomainModel domainModel;
 
+    private Postgres95EventStoreSettings settings;
+
+    private volatile List<EventStoreReporter> reporters = List.empty();
+
     public Postgres95EventStore(
             DataSource dataSource,
             ExecutorService executorService,
             PayloadMapper payloadMapper,
             DomainModel domainModel) {
+        this(dataSource, executorService, payloadMapper, domainModel, Postgres95EventStoreSettings.defaults());
+    }
+
+    public Postgres95EventStore(
+            DataSource dataSource,
+            ExecutorService executorService,
+            PayloadMapper payloadMapper,
+            DomainModel domainModel,
+            Postgres95EventStoreSettings settings) {
         this.dataSource = dataSource;
         this.executorService = executorService;
         this.payloadMapper = payloadMapper;
+        this.eventTypeResolver = new EventTypeResolver(payloadMapper);
         this.domainModel = domainModel;
+        this.settings = settings;
+    }
+
+    public synchronized void addReporter(EventStoreReporter reporter) {
+        reporters = reporters.append(reporter);
+    }
+
+    public synchronized void removeReporter(EventStoreReporter reporter) {
+        reporters = reporters.remove(reporter);
     }
 
     @Override
     public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
             AggregateType<A, ?, E, State> aggregateType, AggregateId aggregateId) {
-        return Future.of(executorService, () -> loadEventsForAggregateInstance(aggregateType, aggregateId, Option.none()));
+        return submit(EventStoreOperation.LOAD_EVENTS, () -> loadEventsForAggregateInstance(aggregateType, aggregateId, Option.none()));
     }
 
     @Override
     public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> loadEvents(
             AggregateType<A, ?, E, State> aggregateType, AggregateId aggregateId, Long afterSequenceNumber) {
-        return Future.of(executorService, () -> loadEventsForAggregateInstance(
+        return submit(EventStoreOperation.LOAD_EVENTS, () -> loadEventsForAggregateInstance(
                 aggregateType,
                 aggregateId,
                 Option.of(afterSequenceNumber)));
@@ -59,7 +121,7 @@ public class Postgres95EventStore implements EventStore {
 
     @Override
     public <E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(DomainEventTag tag, Long afterOffset, Integer batchSize) {
-        return Future.of(executorService, () -> loadEventsForTag(
+        return submit(EventStoreOperation.LOAD_EVENT_STREAM, () -> loadEventsForTag(
                 tag,
                 Option.of(afterOffset),
                 batchSize));
@@ -67,12 +129,51 @@ public class Postgres95EventStore implements EventStore {
 
     @Override
     public <E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(DomainEventTag tag, Instant afterInstant, Integer batchSize) {
-        return Future.of(executorService, () -> loadEventsForTag(
+        return submit(EventStoreOperation.LOAD_EVENT_STREAM, () -> loadEventsForTag(
                 tag,
                 afterInstant,
                 batchSize));
     }
 
+    public <A extends Aggregate<?, E, ?>, E extends DomainEvent> Future<List<StreamEvent>> loadEventStream(
+            AggregateType<A, ?, E, ?> aggregateType, Long afterOffset, Integer batchSize) {
+        return submit(EventStoreOperation.LOAD_EVENT_STREAM, () -> loadEventsForAggregateType(
+                aggregateType,
+                Option.of(afterOffset),
+                batchSize));
+    }
+
+    /**
+     * Streams every event with the given tag after afterOffset, in offset order, through a single server-side cursor.
+     * Rows are fetched from the database in chunks of the configured catch-up fetch size, so memory use doesn't grow
+     * with the number of events. If the connection is lost, the read resumes after the last event passed to the
+     * consumer, once the configured catch-up reconnect backoff has passed.
+     *
+     * Note that the cursor holds a connection, and a transaction, open until the read completes. Events are deserialised
+     * and passed to the consumer while it is held, so a slow consumer keeps it for longer. Each event is passed on as
+     * soon as its row is read, unless parallel deserialisation is enabled, in which case each fetch is read and
+     * deserialised in full before any of its events are passed on.
+     *
+     * @return the offset of the last event passed to the consumer, or afterOffset if there were no events
+     */
+    public Future<Long> catchUpEventStream(DomainEventTag tag, Long afterOffset, Consumer<StreamEvent> consumer) {
+        return Future.of(executorService, () -> catchUp(
+                (con, offset) -> createEventsForTagPreparedStatement(con, tag, Option.of(offset)),
+                afterOffset,
+                consumer));
+    }
+
+    /**
+     * As @see catchUpEventStream(DomainEventTag, Long, Consumer), but for all events of the given aggregate type.
+     */
+    public <A extends Aggregate<?, E, ?>, E extends DomainEvent> Future<Long> catchUpEventStream(
+            AggregateType<A, ?, E, ?> aggregateType, Long afterOffset, Consumer<StreamEvent> consumer) {
+        return Future.of(executorService, () -> catchUp(
+                (con, offset) -> createEventsForAggregateTypePreparedStatement(con, aggregateType, Option.of(offset)),
+                afterOffset,
+                consumer));
+    }
+
     @Override
     public <A extends Aggregate<?, E, State>, E extends DomainEvent, State> Future<List<PersistedEvent<A, E>>> saveEvents(
             AggregateType<A, ?, E, State> aggregateType,
@@ -80,7 +181,7 @@ public class Postgres95EventStore implements EventStore {
             CausationId causationId,
             List<E> rawEvents,
             Long expectedSequenceNumber) {
-        return Future.of(executorService, () -> saveEventsForAggregateInstance(
+        return submit(EventStoreOperation.SAVE_EVENTS, () -> saveEventsForAggregateInstance(
                 aggregateType,
                 aggregateId,
                 causationId,
@@ -98,7 +199,7 @@ public class Postgres95EventStore implements EventStore {
             List<E> rawEvents,
             State state,
             Long expectedSequenceNumber) {
-        return Future.of(executorService, () -> saveEventsForAggregateInstance(
+        return submit(EventStoreOperation.SAVE_EVENTS_AND_STATE, () -> saveEventsForAggregateInstance(
                 aggregateType,
                 aggregateId,
                 causationId,
@@ -117,7 +218,7 @@ public class Postgres95EventStore implements EventStore {
             CorrelationId correlationId,
             List<E> rawEvents,
             Long expectedSequenceNumber) {
-        return Future.of(executorService, () -> saveEventsForAggregateInstance(
+        return submit(EventStoreOperation.SAVE_EVENTS, () -> saveEventsForAggregateInstance(
                 aggregateType,
                 aggregateId,
                 causationId,
@@ -136,7 +237,7 @@ public class Postgres95EventStore implements EventStore {
             List<E> rawEvents,
             State state,
             Long expectedSequenceNumber) {
-        return Future.of(executorService, () -> saveEventsForAggregateInstance(
+        return submit(EventStoreOperation.SAVE_EVENTS_AND_STATE, () -> saveEventsForAggregateInstance(
                 aggregateType,
                 aggregateId,
                 causationId,
@@ -147,6 +248,29 @@ public class Postgres95EventStore implements EventStore {
         );
     }
 
+    /**
+     * @return the state last saved with saveEventsAndState or saveSnapshot, or none if there isn't any or it was saved
+     *         before aggregate_state_type was recorded
+     */
+    @Override
+    public <A extends Aggregate<?, ?, State>, State> Future<Option<Snapshot<State>>> loadSnapshot(
+            AggregateType<A, ?, ?, State> aggregateType,
+            AggregateId aggregateId) {
+        return Future.of(executorService, () -> loadSnapshotForAggregateInstance(aggregateType, aggregateId));
+    }
+
+    /**
+     * Replaces the state in aggregate_root, unless it is already of the same or a later sequence number.
+     */
+    @Override
+    public <A extends Aggregate<?, ?, State>, State> Future<Snapshot<State>> saveSnapshot(
+            AggregateType<A, ?, ?, State> aggregateType,
+            AggregateId aggregateId,
+            Long sequenceNumber,
+            State state) {
+        return Future.of(executorService, () -> saveSnapshotForAggregateInstance(aggregateType, aggregateId, sequenceNumber, state));
+    }
+
     private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> List<PersistedEvent<A, E>> saveEventsForAggregateInstance(
             AggregateType<A, ?, E, State> aggregateType,
             AggregateId aggregateId,
@@ -169,8 +293,10 @@ public class Postgres95EventStore implements EventStore {
                                     aggregateType,
                                     causationId,
                                     correlationId,
-                                    event,
-                                    serialisationResult.payload(),
+                                    event.getClass().getName(),
+                                    event.tag().tag(),
+                                    Lazy.of(() -> event),
+                                    serialisationResult,
                                     serialisationResult.version().get(),
                                     Instant.now(),
                                     acc._1)));
@@ -178,15 +304,51 @@ public class Postgres95EventStore implements EventStore {
 
         Long latestSequenceNumber = persistedEvents.last().sequenceNumber();
 
-        try (Connection con = dataSource.getConnection();
+        // Larger saves would need too many bind parameters for one statement
+        boolean singleStatement = settings.singleStatementWrites() && persistedEvents.size() <= settings.singleStatementMaxEvents();
+
+        try {
+            if (settings.uniqueSequenceNumberCheck() && singleStatement) {
+                saveEventsAndStateInSingleStatement(aggregateType, aggregateId, causationId, correlationId, persistedEvents, state, latestSequenceNumber, expectedSequenceNumber);
+            } else if (settings.uniqueSequenceNumberCheck()) {
+                saveEventsAndStateInTransaction(aggregateType, aggregateId, causationId, correlationId, persistedEvents, state, latestSequenceNumber, expectedSequenceNumber);
+            } else if (singleStatement) {
+                saveEventsAndAggregateInSingleStatement(aggregateType, aggregateId, causationId, correlationId, persistedEvents, state, latestSequenceNumber, expectedSequenceNumber);
+            } else {
+                saveEventsAndAggregateInTransaction(aggregateType, aggregateId, causationId, correlationId, persistedEvents, state, latestSequenceNumber, expectedSequenceNumber);
+            }
+        } catch (SQLException ex) {
+            // Whichever check is in use, the unique index on domain_event can also reject a conflicting save
+            if (isUniqueViolation(ex)) {
+                throw new OptimisticConcurrencyException();
+            }
+            throw ex;
+        }
+
+        return persistedEvents;
+    }
+
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> void saveEventsAndAggregateInTransaction(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            Option<CorrelationId> correlationId,
+            List<PersistedEvent<A, E>> persistedEvents,
+            Option<State> state,
+            Long newVersion,
+            Long expectedPreviousVersion) throws SQLException {
+
+        try (Connection con = connection(saveOperation(state));
              PreparedStatement seps = createSaveEventsBatchedPreparedStatement(con, aggregateType, aggregateId, causationId, correlationId, persistedEvents);
-             PreparedStatement saps = createSaveAggregatePreparedStatement(con, aggregateType, aggregateId, state, latestSequenceNumber, expectedSequenceNumber)) {
+             PreparedStatement saps = createSaveAggregatePreparedStatement(con, aggregateType, aggregateId, state, newVersion, expectedPreviousVersion)) {
 
+            long queryStartedAt = System.nanoTime();
             try {
                 seps.executeBatch();
                 int rowsAffected = saps.executeUpdate();
                 if (rowsAffected == 1) {
                     con.commit();
+                    reportQuery(saveOperation(state), queryStartedAt, persistedEvents);
                 } else {
                     con.rollback();
                     throw new OptimisticConcurrencyException();
@@ -196,48 +358,369 @@ public class Postgres95EventStore implements EventStore {
                 throw ex;
             }
         }
+    }
 
-        return persistedEvents;
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> void saveEventsAndAggregateInSingleStatement(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            Option<CorrelationId> correlationId,
+            List<PersistedEvent<A, E>> persistedEvents,
+            Option<State> state,
+            Long newVersion,
+            Long expectedPreviousVersion) throws SQLException {
+
+        try (Connection con = connection(saveOperation(state))) {
+            boolean autoCommit = con.getAutoCommit();
+
+            // A single statement is atomic on its own, so run it as an implicit transaction to avoid a COMMIT round trip.
+            // Switching auto-commit on is a local operation as long as no transaction has been started on the connection.
+            con.setAutoCommit(true);
+
+            try (PreparedStatement ps = createSaveEventsAndAggregatePreparedStatement(
+                    con, aggregateType, aggregateId, causationId, correlationId, persistedEvents, state, newVersion, expectedPreviousVersion)) {
+
+                long queryStartedAt = System.nanoTime();
+                int rowsAffected = ps.executeUpdate();
+
+                // No events are inserted when the aggregate_root version check fails
+                if (rowsAffected != persistedEvents.size()) {
+                    throw new OptimisticConcurrencyException();
+                }
+                reportQuery(saveOperation(state), queryStartedAt, persistedEvents);
+            } finally {
+                con.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> void saveEventsAndStateInTransaction(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            Option<CorrelationId> correlationId,
+            List<PersistedEvent<A, E>> persistedEvents,
+            Option<State> state,
+            Long newVersion,
+            Long expectedPreviousVersion) throws SQLException {
+
+        try (Connection con = connection(saveOperation(state));
+             PreparedStatement seps = createSaveEventsInSequenceBatchedPreparedStatement(con, aggregateType, aggregateId, causationId, correlationId, persistedEvents, expectedPreviousVersion)) {
+
+            long queryStartedAt = System.nanoTime();
+            try {
+                // An event is only inserted if it follows on from the aggregate's latest event
+                for (int rowsAffected : seps.executeBatch()) {
+                    if (rowsAffected != 1) {
+                        con.rollback();
+                        throw new OptimisticConcurrencyException();
+                    }
+                }
+                if (state.isDefined()) {
+                    try (PreparedStatement ssps = createSaveStatePreparedStatement(con, aggregateType, aggregateId, state.get(), newVersion)) {
+                        ssps.executeUpdate();
+                    }
+                }
+                con.commit();
+                reportQuery(saveOperation(state), queryStartedAt, persistedEvents);
+            } catch (SQLException ex) {
+                con.rollback();
+                throw ex;
+            }
+        }
+    }
+
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> void saveEventsAndStateInSingleStatement(
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            Option<CorrelationId> correlationId,
+            List<PersistedEvent<A, E>> persistedEvents,
+            Option<State> state,
+            Long newVersion,
+            Long expectedPreviousVersion) throws SQLException {
+
+        try (Connection con = connection(saveOperation(state))) {
+            boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit(true);
+
+            try (PreparedStatement ps = createSaveEventsAndStatePreparedStatement(
+                    con, aggregateType, aggregateId, causationId, correlationId, persistedEvents, state, newVersion, expectedPreviousVersion)) {
+                long queryStartedAt = System.nanoTime();
+                int rowsAffected = ps.executeUpdate();
+
+                // Nothing is written unless the expected sequence number is the aggregate's latest
+                if (rowsAffected != persistedEvents.size()) {
+                    throw new OptimisticConcurrencyException();
+                }
+                reportQuery(saveOperation(state), queryStartedAt, persistedEvents);
+            } finally {
+                con.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private <T> Future<T> submit(EventStoreOperation operation, CheckedFunction0<T> task) {
+        if (reporters.isEmpty()) {
+            return Future.of(executorService, task);
+        }
+
+        long submittedAt = System.nanoTime();
+        return Future.of(executorService, () -> {
+            long queueNanos = System.nanoTime() - submittedAt;
+            for (EventStoreReporter reporter : reporters) {
+                reporter.executorQueueTime(operation, queueNanos);
+            }
+            return task.apply();
+        });
+    }
+
+    private Connection connection(EventStoreOperation operation) throws SQLException {
+        if (reporters.isEmpty()) {
+            return dataSource.getConnection();
+        }
+
+        long requestedAt = System.nanoTime();
+        Connection con = dataSource.getConnection();
+        long waitNanos = System.nanoTime() - requestedAt;
+        for (EventStoreReporter reporter : reporters) {
+            reporter.connectionWaitTime(operation, waitNanos);
+        }
+        return con;
+    }
+
+    private void reportQuery(EventStoreOperation operation, long queryStartedAt, Iterable<? extends PersistedEvent<?, ?>> events) {
+        if (reporters.isEmpty()) {
+            return;
+        }
+
+        long queryNanos = System.nanoTime() - queryStartedAt;
+        int rows = 0;
+        long payloadBytes = 0;
+        for (PersistedEvent<?, ?> event : events) {
+            rows++;
+            payloadBytes += event.payloadSize().getOrElse(0);
+        }
+        for (EventStoreReporter reporter : reporters) {
+            reporter.queryExecuted(operation, queryNanos, rows, payloadBytes);
+        }
+    }
+
+    private EventStoreOperation saveOperation(Option<?> state) {
+        return state.isDefined() ? EventStoreOperation.SAVE_EVENTS_AND_STATE : EventStoreOperation.SAVE_EVENTS;
+    }
+
+    private boolean isUniqueViolation(SQLException ex) {
+        // Batch failures are reported as a BatchUpdateException, with the underlying error chained behind it
+        for (SQLException next = ex; next != null; next = next.getNextException()) {
+            if (UNIQUE_VIOLATION.equals(next.getSQLState())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @SuppressWarnings("unchecked")
     private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> List<PersistedEvent<A, E>> loadEventsForAggregateInstance(
             AggregateType<A, ?, E, ?> aggregateType,
             AggregateId aggregateId,
-            Option<Long> afterSequenceNumber) throws SQLException, ClassNotFoundException {
+            Option<Long> afterSequenceNumber) throws SQLException, ClassNotFoundException, InterruptedException {
 
-        try (Connection con = dataSource.getConnection();
-             PreparedStatement ps = createEventsForAggregateInstancePreparedStatement(con, aggregateType, aggregateId, afterSequenceNumber);
-             ResultSet rs = ps.executeQuery()) {
+        try (Connection con = connection(EventStoreOperation.LOAD_EVENTS);
+             PreparedStatement ps = createEventsForAggregateInstancePreparedStatement(con, aggregateType, aggregateId, afterSequenceNumber)) {
 
-            ArrayList<PersistedEvent<A, E>> persistedEvents = new ArrayList<>();
+            long queryStartedAt = System.nanoTime();
+            ArrayList<PostgresEvent<A, E>> persistedEvents = new ArrayList<>();
 
-            while (rs.next()) {
-                persistedEvents.add(resultSetToPersistedEvent(rs));
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    persistedEvents.add(resultSetToPersistedEvent(rs));
+                }
             }
 
             con.commit();
+            reportQuery(EventStoreOperation.LOAD_EVENTS, queryStartedAt, persistedEvents);
+
+            // Otherwise left to be deserialised on first access
+            if (isParallelDeserialisationBatch(persistedEvents)) {
+                inParallel(persistedEvents, PostgresEvent::rawEvent);
+            }
             return List.ofAll(persistedEvents);
         }
     }
 
+    private <A extends Aggregate<?, ?, State>, State> Option<Snapshot<State>> loadSnapshotForAggregateInstance(
+            AggregateType<A, ?, ?, State> aggregateType,
+            AggregateId aggregateId) throws SQLException {
+
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement ps = createSnapshotPreparedStatement(con, aggregateType, aggregateId);
+             ResultSet rs = ps.executeQuery()) {
+
+            Option<Snapshot<State>> snapshot = Option.none();
+            if (rs.next()) {
+                State state = payloadMapper.deserialiseState(rs.getString(1), rs.getString(2), rs.getInt(3));
+                snapshot = Option.of(new PostgresSnapshot<>(rs.getLong(4), state));
+            }
+
+            con.commit();
+            return snapshot;
+        }
+    }
+
+    private <A extends Aggregate<?, ?, State>, State> Snapshot<State> saveSnapshotForAggregateInstance(
+            AggregateType<A, ?, ?, State> aggregateType,
+            AggregateId aggregateId,
+            Long sequenceNumber,
+            State state) throws SQLException {
+
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement ps = createSaveSnapshotPreparedStatement(con, aggregateType, aggregateId, sequenceNumber, state)) {
+
+            ps.executeUpdate();
+            con.commit();
+            return new PostgresSnapshot<>(sequenceNumber, state);
+        }
+    }
+
+    private Long catchUp(
+            CheckedFunction2<Connection, Long, PreparedStatement> statementFactory,
+            Long afterOffset,
+            Consumer<StreamEvent> consumer) throws Throwable {
+
+        Long lastOffset = afterOffset;
+        int reconnectAttempts = 0;
+
+        while (true) {
+            try (Connection con = dataSource.getConnection()) {
+                boolean autoCommit = con.getAutoCommit();
+
+                // The driver only uses a cursor, rather than reading the entire result, outside of auto-commit mode
+                con.setAutoCommit(false);
+
+                try {
+                    try (PreparedStatement ps = statementFactory.apply(con, lastOffset)) {
+                        ps.setFetchSize(settings.catchUpFetchSize());
+
+                        try (ResultSet rs = ps.executeQuery()) {
+                            if (settings.parallelDeserialisationThreshold().isDefined()) {
+                                // Events are handed over a fetch at a time, so that each fetch can be deserialised in parallel
+                                ArrayList<PostgresEvent<?, ?>> fetched = new ArrayList<>();
+                                boolean more = true;
+
+                                while (more) {
+                                    more = rs.next();
+                                    if (more) {
+                                        fetched.add(resultSetToPersistedEvent(rs));
+                                    }
+
+                                    if (fetched.size() == settings.catchUpFetchSize() || (!more && !fetched.isEmpty())) {
+                                        for (StreamEvent event : toStreamEvents(fetched)) {
+                                            consumer.accept(event);
+                                            lastOffset = event.offset();
+                                            reconnectAttempts = 0;
+                                        }
+                                        fetched.clear();
+                                    }
+                                }
+                            } else {
+                                while (rs.next()) {
+                                    StreamEvent event = resultSetToPersistedEvent(rs).toStreamEvent();
+                                    consumer.accept(event);
+                                    lastOffset = event.offset();
+                                    reconnectAttempts = 0;
+                                }
+                            }
+                        }
+
+                        con.commit();
+                    }
+
+                    con.setAutoCommit(autoCommit);
+                    return lastOffset;
+                } catch (Throwable ex) {
+                    // Including when the consumer throws, so the connection doesn't go back to the pool mid-transaction
+                    restoreAfterFailure(con, autoCommit, ex);
+                    throw ex;
+                }
+            } catch (SQLException ex) {
+                if (isConnectionException(ex) && reconnectAttempts < settings.catchUpReconnectAttempts()) {
+                    Thread.sleep(settings.catchUpReconnectBackoff(reconnectAttempts).toMillis());
+                    reconnectAttempts++;
+                } else {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    /**
+     * Rolls back and restores auto-commit, unless the connection has been lost, in which case the failure that lost it
+     * is still the one reported.
+     */
+    private void restoreAfterFailure(Connection con, boolean autoCommit, Throwable failure) {
+        try {
+            con.rollback();
+            con.setAutoCommit(autoCommit);
+        } catch (SQLException ex) {
+            failure.addSuppressed(ex);
+        }
+    }
+
+    private java.util.List<StreamEvent> toStreamEvents(ArrayList<? extends PostgresEvent<?, ?>> events) throws InterruptedException {
+        if (isParallelDeserialisationBatch(events)) {
+            return inParallel(events, event -> event.upgraded().toStreamEvent());
+        }
+        return events.stream().map(PostgresEvent::toStreamEvent).collect(Collectors.toList());
+    }
+
+    private boolean isParallelDeserialisationBatch(ArrayList<?> events) {
+        return settings.parallelDeserialisationThreshold().exists(threshold -> events.size() >= threshold);
+    }
+
+    /**
+     * Maps events on the parallel deserialisation pool, keeping their order.
+     */
+    private <T, R> java.util.List<R> inParallel(ArrayList<T> events, Function<T, R> mapper) throws InterruptedException {
+        try {
+            return settings.parallelDeserialisationPool()
+                    .submit(() -> events.parallelStream().map(mapper).collect(Collectors.toList()))
+                    .get();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            } else if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw new RuntimeException(ex.getCause());
+        }
+    }
+
+    private boolean isConnectionException(SQLException ex) {
+        return ex.getSQLState() != null &&
+                (ex.getSQLState().startsWith(CONNECTION_EXCEPTION_CLASS) || SERVER_SHUTDOWN_STATES.contains(ex.getSQLState()));
+    }
+
     @SuppressWarnings("unchecked")
-    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> List<StreamEvent> loadEventsForAggregateType(
+    private <A extends Aggregate<?, E, ?>, E extends DomainEvent> List<StreamEvent> loadEventsForAggregateType(
             AggregateType<A, ?, E, ?> aggregateType,
             Option<Long> afterOffset,
-            Integer batchSize) throws SQLException, ClassNotFoundException {
+            Integer batchSize) throws SQLException, ClassNotFoundException, InterruptedException {
 
-        try (Connection con = dataSource.getConnection();
-             PreparedStatement ps = createEventsForAggregateTypePreparedStatement(con, aggregateType, afterOffset, batchSize);
-             ResultSet rs = ps.executeQuery()) {
+        try (Connection con = connection(EventStoreOperation.LOAD_EVENT_STREAM);
+             PreparedStatement ps = createEventsForAggregateTypePreparedStatement(con, aggregateType, afterOffset, batchSize)) {
 
-            ArrayList<StreamEvent> persistedEvents = new ArrayList<>();
+            long queryStartedAt = System.nanoTime();
+            ArrayList<PostgresEvent<?, ?>> persistedEvents = new ArrayList<>();
 
-            while (rs.next()) {
-                persistedEvents.add(resultSetToPersistedEvent(rs).toStreamEvent());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    persistedEvents.add(resultSetToPersistedEvent(rs));
+                }
             }
 
-            return List.ofAll(persistedEvents);
+            reportQuery(EventStoreOperation.LOAD_EVENT_STREAM, queryStartedAt, persistedEvents);
+            return List.ofAll(toStreamEvents(persistedEvents));
         }
     }
 
@@ -245,19 +728,22 @@ public class Postgres95EventStore implements EventStore {
     private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> List<StreamEvent> loadEventsForTag(
             DomainEventTag tag,
             Option<Long> afterOffset,
-            Integer batchSize) throws SQLException, ClassNotFoundException {
+            Integer batchSize) throws SQLException, ClassNotFoundException, InterruptedException {
 
-        try (Connection con = dataSource.getConnection();
-             PreparedStatement ps = createEventsForTagPreparedStatement(con, tag, afterOffset, batchSize);
-             ResultSet rs = ps.executeQuery()) {
+        try (Connection con = connection(EventStoreOperation.LOAD_EVENT_STREAM);
+             PreparedStatement ps = createEventsForTagPreparedStatement(con, tag, afterOffset, batchSize)) {
 
-            ArrayList<StreamEvent> persistedEvents = new ArrayList<>();
+            long queryStartedAt = System.nanoTime();
+            ArrayList<PostgresEvent<?, ?>> persistedEvents = new ArrayList<>();
 
-            while (rs.next()) {
-                persistedEvents.add(resultSetToPersistedEvent(rs).toStreamEvent());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    persistedEvents.add(resultSetToPersistedEvent(rs));
+                }
             }
 
-            return List.ofAll(persistedEvents);
+            reportQuery(EventStoreOperation.LOAD_EVENT_STREAM, queryStartedAt, persistedEvents);
+            return List.ofAll(toStreamEvents(persistedEvents));
         }
     }
 
@@ -265,19 +751,22 @@ public class Postgres95EventStore implements EventStore {
     private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> List<StreamEvent> loadEventsForTag(
             DomainEventTag tag,
             Instant afterInstant,
-            Integer batchSize) throws SQLException, ClassNotFoundException {
+            Integer batchSize) throws SQLException, ClassNotFoundException, InterruptedException {
 
-        try (Connection con = dataSource.getConnection();
-             PreparedStatement ps = createEventsForTagPreparedStatement(con, tag, afterInstant, batchSize);
-             ResultSet rs = ps.executeQuery()) {
+        try (Connection con = connection(EventStoreOperation.LOAD_EVENT_STREAM);
+             PreparedStatement ps = createEventsForTagPreparedStatement(con, tag, afterInstant, batchSize)) {
 
-            ArrayList<StreamEvent> persistedEvents = new ArrayList<>();
+            long queryStartedAt = System.nanoTime();
+            ArrayList<PostgresEvent<?, ?>> persistedEvents = new ArrayList<>();
 
-            while (rs.next()) {
-                persistedEvents.add(resultSetToPersistedEvent(rs).toStreamEvent());
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    persistedEvents.add(resultSetToPersistedEvent(rs));
+                }
             }
 
-            return List.ofAll(persistedEvents);
+            reportQuery(EventStoreOperation.LOAD_EVENT_STREAM, queryStartedAt, persistedEvents);
+            return List.ofAll(toStreamEvents(persistedEvents));
         }
     }
 
@@ -291,31 +780,179 @@ public class Postgres95EventStore implements EventStore {
             List<PersistedEvent<A, E>> events) throws SQLException {
 
         PreparedStatement statement = connection.prepareStatement("" +
-                "INSERT INTO domain_event(event_id, aggregate_id, aggregate_type, tag, causation_id, correlation_id, event_type, event_version, event_payload, event_timestamp, sequence_number) " +
-                "VALUES(?,?,?,?,?,?,?,?,?,?,?)");
+                "INSERT INTO domain_event(event_id, aggregate_id, aggregate_type, tag, causation_id, correlation_id, event_type, event_version, event_payload, event_timestamp, sequence_number, event_payload_binary, event_payload_content_type) " +
+                "VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?)");
 
         for (PersistedEvent<A, E> event : events) {
-            statement.setString(1, event.id().get());
-            statement.setString(2, aggregateId.get());
-            statement.setString(3, aggregateType.name());
-            statement.setString(4, event.rawEvent().tag().tag());
-            statement.setString(5, causationId.get());
-            if (correlationId.isDefined()) {
-                statement.setString(6, correlationId.get().get());
-            } else {
-                statement.setString(6, null);
-            }
-            statement.setString(7, event.rawEvent().getClass().getName());
-            statement.setInt(8, event.eventVersion());
-            statement.setString(9, ((PostgresEvent<A, E>) event).serialisedEvent()); // TODO: Suspicious casting :-)
-            statement.setTimestamp(10, Timestamp.from(event.timestamp()));
-            statement.setLong(11, event.sequenceNumber());
+            setEventParameters(statement, 1, aggregateType, aggregateId, causationId, correlationId, event);
+            statement.addBatch();
+        }
+
+        return statement;
+    }
+
+    /**
+     * Inserts each event only if the aggregate's latest sequence number is the one before it, which each insert sees
+     * the previous insert of the batch move on. Rows affected are therefore 0 for every event if the save is out of
+     * date or ahead of the aggregate. The unique index on domain_event still rejects concurrent saves that both pass.
+     */
+    private <A extends Aggregate<?, E, ?>, E extends DomainEvent> PreparedStatement createSaveEventsInSequenceBatchedPreparedStatement(
+            Connection connection,
+            AggregateType<A, ?, E, ?> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            Option<CorrelationId> correlationId,
+            List<PersistedEvent<A, E>> events,
+            Long expectedPreviousVersion) throws SQLException {
+
+        PreparedStatement statement = connection.prepareStatement("" +
+                "INSERT INTO domain_event(event_id, aggregate_id, aggregate_type, tag, causation_id, correlation_id, event_type, event_version, event_payload, event_timestamp, sequence_number, event_payload_binary, event_payload_content_type) " +
+                "SELECT * FROM (VALUES " + eventValuesRows(1) + ") AS event " +
+                "WHERE " + LATEST_SEQUENCE_NUMBER + " = ?");
+
+        long previousSequenceNumber = expectedPreviousVersion;
+        for (PersistedEvent<A, E> event : events) {
+            setEventParameters(statement, 1, aggregateType, aggregateId, causationId, correlationId, event);
+            statement.setString(14, aggregateType.name());
+            statement.setString(15, aggregateId.get());
+            statement.setLong(16, previousSequenceNumber++);
             statement.addBatch();
         }
 
         return statement;
     }
 
+    /**
+     * Upserts aggregate_root with the usual version check and inserts the events only if that upsert touched a row.
+     * A version mismatch therefore results in no events being inserted, rather than in an error.
+     */
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> PreparedStatement createSaveEventsAndAggregatePreparedStatement(
+            Connection connection,
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            Option<CorrelationId> correlationId,
+            List<PersistedEvent<A, E>> events,
+            Option<State> state,
+            Long newVersion,
+            Long expectedPreviousVersion) throws SQLException {
+
+        PreparedStatement statement = connection.prepareStatement("" +
+                "WITH updated_aggregate_root AS (" +
+                (state.isEmpty() ?
+                        "INSERT INTO aggregate_root (aggregate_id,aggregate_type,aggregate_version) " +
+                        "VALUES (?,?,?) " +
+                        "ON CONFLICT ON CONSTRAINT aggregate_root_pkey " +
+                        "DO UPDATE SET aggregate_version = EXCLUDED.aggregate_version WHERE aggregate_root.aggregate_version = ? " :
+                        "INSERT INTO aggregate_root (aggregate_id,aggregate_type,aggregate_version,aggregate_state,aggregate_state_type,aggregate_state_version,aggregate_state_sequence_number) " +
+                        "VALUES (?,?,?,?,?,?,?) " +
+                        "ON CONFLICT ON CONSTRAINT aggregate_root_pkey " +
+                        "DO UPDATE SET aggregate_version = EXCLUDED.aggregate_version, aggregate_state = EXCLUDED.aggregate_state, aggregate_state_type = EXCLUDED.aggregate_state_type, aggregate_state_version = EXCLUDED.aggregate_state_version, aggregate_state_sequence_number = EXCLUDED.aggregate_state_sequence_number WHERE aggregate_root.aggregate_version = ? ") +
+                "RETURNING aggregate_version) " +
+                "INSERT INTO domain_event(event_id, aggregate_id, aggregate_type, tag, causation_id, correlation_id, event_type, event_version, event_payload, event_timestamp, sequence_number, event_payload_binary, event_payload_content_type) " +
+                "SELECT * FROM (VALUES " + eventValuesRows(events.size()) + ") AS events " +
+                "WHERE EXISTS (SELECT 1 FROM updated_aggregate_root)");
+
+        int index = 1;
+        statement.setString(index++, aggregateId.get());
+        statement.setString(index++, aggregateType.name());
+        statement.setLong(index++, newVersion);
+        if (state.isDefined()) {
+            index = setStateParameters(statement, index, state.get(), newVersion);
+        }
+        statement.setLong(index++, expectedPreviousVersion);
+
+        for (PersistedEvent<A, E> event : events) {
+            setEventParameters(statement, index, aggregateType, aggregateId, causationId, correlationId, event);
+            index += 13;
+        }
+
+        return statement;
+    }
+
+    /**
+     * Inserts the events and, if there is state, upserts aggregate_root without any version check, but only if the
+     * expected sequence number is the aggregate's latest. Otherwise no rows are affected. The unique index on
+     * domain_event rejects the whole statement if a concurrent writer has used one of the sequence numbers.
+     */
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> PreparedStatement createSaveEventsAndStatePreparedStatement(
+            Connection connection,
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            Option<CorrelationId> correlationId,
+            List<PersistedEvent<A, E>> events,
+            Option<State> state,
+            Long newVersion,
+            Long expectedPreviousVersion) throws SQLException {
+
+        PreparedStatement statement = connection.prepareStatement("" +
+                "WITH in_sequence AS (SELECT 1 WHERE " + LATEST_SEQUENCE_NUMBER + " = ?) " +
+                (state.isEmpty() ? "" :
+                        ", updated_aggregate_root AS (" +
+                        "INSERT INTO aggregate_root (aggregate_id,aggregate_type,aggregate_version,aggregate_state,aggregate_state_type,aggregate_state_version,aggregate_state_sequence_number) " +
+                        "SELECT * FROM (VALUES (?::varchar,?::varchar,?::bigint,?::jsonb,?::varchar,?::int,?::bigint)) AS state " +
+                        "WHERE EXISTS (SELECT 1 FROM in_sequence) " +
+                        "ON CONFLICT ON CONSTRAINT aggregate_root_pkey " +
+                        "DO UPDATE SET aggregate_version = EXCLUDED.aggregate_version, aggregate_state = EXCLUDED.aggregate_state, aggregate_state_type = EXCLUDED.aggregate_state_type, aggregate_state_version = EXCLUDED.aggregate_state_version, aggregate_state_sequence_number = EXCLUDED.aggregate_state_sequence_number " +
+                        "WHERE aggregate_root.aggregate_version < EXCLUDED.aggregate_version) ") +
+                "INSERT INTO domain_event(event_id, aggregate_id, aggregate_type, tag, causation_id, correlation_id, event_type, event_version, event_payload, event_timestamp, sequence_number, event_payload_binary, event_payload_content_type) " +
+                "SELECT * FROM (VALUES " + eventValuesRows(events.size()) + ") AS events " +
+                "WHERE EXISTS (SELECT 1 FROM in_sequence)");
+
+        int index = 1;
+        statement.setString(index++, aggregateType.name());
+        statement.setString(index++, aggregateId.get());
+        statement.setLong(index++, expectedPreviousVersion);
+        if (state.isDefined()) {
+            statement.setString(index++, aggregateId.get());
+            statement.setString(index++, aggregateType.name());
+            statement.setLong(index++, newVersion);
+            index = setStateParameters(statement, index, state.get(), newVersion);
+        }
+
+        for (PersistedEvent<A, E> event : events) {
+            setEventParameters(statement, index, aggregateType, aggregateId, causationId, correlationId, event);
+            index += 13;
+        }
+
+        return statement;
+    }
+
+    private String eventValuesRows(int numberOfEvents) {
+        return List.fill(numberOfEvents, () -> "(?::varchar,?::varchar,?::varchar,?::varchar,?::varchar,?::varchar,?::varchar,?::int,?::text,?::timestamp,?::bigint,?::bytea,?::varchar)")
+                .mkString(",");
+    }
+
+    @SuppressWarnings("unchecked")
+    private <A extends Aggregate<?, E, ?>, E extends DomainEvent> void setEventParameters(
+            PreparedStatement statement,
+            int firstIndex,
+            AggregateType<A, ?, E, ?> aggregateType,
+            AggregateId aggregateId,
+            CausationId causationId,
+            Option<CorrelationId> correlationId,
+            PersistedEvent<A, E> event) throws SQLException {
+
+        statement.setString(firstIndex, event.id().get());
+        statement.setString(firstIndex + 1, aggregateId.get());
+        statement.setString(firstIndex + 2, aggregateType.name());
+        statement.setString(firstIndex + 3, event.rawEvent().tag().tag());
+        statement.setString(firstIndex + 4, causationId.get());
+        if (correlationId.isDefined()) {
+            statement.setString(firstIndex + 5, correlationId.get().get());
+        } else {
+            statement.setString(firstIndex + 5, null);
+        }
+        statement.setString(firstIndex + 6, event.rawEvent().getClass().getName());
+        statement.setInt(firstIndex + 7, event.eventVersion());
+        PayloadSerialisationResult serialisedEvent = ((PostgresEvent<A, E>) event).serialisedEvent(); // TODO: Suspicious casting :-)
+        PayloadColumns.setPayloadParameters(statement, firstIndex + 8, firstIndex + 11, serialisedEvent, settings);
+        statement.setTimestamp(firstIndex + 9, Timestamp.from(event.timestamp()));
+        statement.setLong(firstIndex + 10, event.sequenceNumber());
+        statement.setString(firstIndex + 12, serialisedEvent.contentType().value());
+    }
+
     @SuppressWarnings("unchecked")
     private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> PreparedStatement createSaveAggregatePreparedStatement(
             Connection connection,
@@ -364,28 +1001,110 @@ public class Postgres95EventStore implements EventStore {
             Long expectedPreviousVersion) throws SQLException {
 
         PreparedStatement statement = connection.prepareStatement("" +
-                "INSERT INTO aggregate_root (aggregate_id,aggregate_type,aggregate_version,aggregate_state) " +
-                "VALUES (?,?,?,?) " +
+                "INSERT INTO aggregate_root (aggregate_id,aggregate_type,aggregate_version,aggregate_state,aggregate_state_type,aggregate_state_version,aggregate_state_sequence_number) " +
+                "VALUES (?,?,?,?,?,?,?) " +
                 "ON CONFLICT ON CONSTRAINT aggregate_root_pkey " +
-                "DO UPDATE SET aggregate_version = ?, aggregate_state = ? WHERE aggregate_root.aggregate_version = ?");
+                "DO UPDATE SET aggregate_version = EXCLUDED.aggregate_version, aggregate_state = EXCLUDED.aggregate_state, aggregate_state_type = EXCLUDED.aggregate_state_type, aggregate_state_version = EXCLUDED.aggregate_state_version, aggregate_state_sequence_number = EXCLUDED.aggregate_state_sequence_number WHERE aggregate_root.aggregate_version = ?");
 
         statement.setString(1, aggregateId.get());
         statement.setString(2, aggregateType.name());
         statement.setLong(3, newVersion);
+        int index = setStateParameters(statement, 4, state, newVersion);
+        statement.setLong(index, expectedPreviousVersion);
 
-        // TODO: Assumes that the state is JSON!!!
-        PGobject jsonObject = new PGobject();
-        jsonObject.setType("jsonb");
-        jsonObject.setValue(payloadMapper.serialiseState(state).payload());
-        statement.setObject(4, jsonObject);
+        return statement;
+    }
 
-        statement.setLong(5, newVersion);
-        statement.setObject(6, jsonObject); // need to set state twice for use in either INSERT INTO or DO UPDATE
-        statement.setLong(7, expectedPreviousVersion);
+    /**
+     * Only ever moves aggregate_root forwards, so a save that commits after a later one can't overwrite newer state.
+     */
+    private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> PreparedStatement createSaveStatePreparedStatement(
+            Connection connection,
+            AggregateType<A, ?, E, State> aggregateType,
+            AggregateId aggregateId,
+            State state,
+            Long newVersion) throws SQLException {
+
+        PreparedStatement statement = connection.prepareStatement("" +
+                "INSERT INTO aggregate_root (aggregate_id,aggregate_type,aggregate_version,aggregate_state,aggregate_state_type,aggregate_state_version,aggregate_state_sequence_number) " +
+                "VALUES (?,?,?,?,?,?,?) " +
+                "ON CONFLICT ON CONSTRAINT aggregate_root_pkey " +
+                "DO UPDATE SET aggregate_version = EXCLUDED.aggregate_version, aggregate_state = EXCLUDED.aggregate_state, aggregate_state_type = EXCLUDED.aggregate_state_type, aggregate_state_version = EXCLUDED.aggregate_state_version, aggregate_state_sequence_number = EXCLUDED.aggregate_state_sequence_number " +
+                "WHERE aggregate_root.aggregate_version < EXCLUDED.aggregate_version");
+
+        statement.setString(1, aggregateId.get());
+        statement.setString(2, aggregateType.name());
+        statement.setLong(3, newVersion);
+        setStateParameters(statement, 4, state, newVersion);
+
+        return statement;
+    }
+
+    private PreparedStatement createSnapshotPreparedStatement(
+            Connection connection,
+            AggregateType<?, ?, ?, ?> aggregateType,
+            AggregateId aggregateId) throws SQLException {
+
+        PreparedStatement statement = connection.prepareStatement("" +
+                "SELECT aggregate_state, aggregate_state_type, aggregate_state_version, aggregate_state_sequence_number " +
+                "FROM aggregate_root " +
+                "WHERE aggregate_id = ? AND aggregate_type = ? AND aggregate_state_type IS NOT NULL");
+
+        statement.setString(1, aggregateId.get());
+        statement.setString(2, aggregateType.name());
+
+        return statement;
+    }
+
+    /**
+     * A missing aggregate_root row (as with withUniqueSequenceNumberCheck when state isn't saved) is created at the
+     * snapshot's sequence number. Otherwise only the state is updated, never aggregate_version.
+     */
+    private <State> PreparedStatement createSaveSnapshotPreparedStatement(
+            Connection connection,
+            AggregateType<?, ?, ?, State> aggregateType,
+            AggregateId aggregateId,
+            Long sequenceNumber,
+            State state) throws SQLException {
+
+        PreparedStatement statement = connection.prepareStatement("" +
+                "INSERT INTO aggregate_root (aggregate_id,aggregate_type,aggregate_version,aggregate_state,aggregate_state_type,aggregate_state_version,aggregate_state_sequence_number) " +
+                "VALUES (?,?,?,?,?,?,?) " +
+                "ON CONFLICT ON CONSTRAINT aggregate_root_pkey " +
+                "DO UPDATE SET aggregate_state = EXCLUDED.aggregate_state, aggregate_state_type = EXCLUDED.aggregate_state_type, aggregate_state_version = EXCLUDED.aggregate_state_version, aggregate_state_sequence_number = EXCLUDED.aggregate_state_sequence_number " +
+                "WHERE aggregate_root.aggregate_state_sequence_number IS NULL OR aggregate_root.aggregate_state_sequence_number < EXCLUDED.aggregate_state_sequence_number");
+
+        statement.setString(1, aggregateId.get());
+        statement.setString(2, aggregateType.name());
+        statement.setLong(3, sequenceNumber);
+        setStateParameters(statement, 4, state, sequenceNumber);
 
         return statement;
     }
 
+    /**
+     * Sets aggregate_state, aggregate_state_type, aggregate_state_version and aggregate_state_sequence_number, in that
+     * order. The state's own sequence number is kept because saves without state move aggregate_version on without it.
+     *
+     * @return the index of the next parameter
+     */
+    private <State> int setStateParameters(PreparedStatement statement, int firstIndex, State state, Long sequenceNumber) throws SQLException {
+        PayloadSerialisationResult serialisedState = payloadMapper.serialiseState(state);
+        if (serialisedState.contentType() != SerialisationContentType.JSON) {
+            throw new PayloadMapper.MappingException(
+                    "aggregate_state is JSONB so can only hold JSON state, not " + serialisedState.contentType().value());
+        }
+        PGobject jsonObject = new PGobject();
+        jsonObject.setType("jsonb");
+        jsonObject.setValue(serialisedState.payload());
+
+        statement.setObject(firstIndex, jsonObject);
+        statement.setString(firstIndex + 1, state.getClass().getName());
+        statement.setInt(firstIndex + 2, serialisedState.version().getOrElse(1));
+        statement.setLong(firstIndex + 3, sequenceNumber);
+        return firstIndex + 4;
+    }
+
     private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> PreparedStatement createEventsForAggregateInstancePreparedStatement(
             Connection connection,
             AggregateType<A, ?, E, ?> aggregateType,
@@ -393,7 +1112,7 @@ public class Postgres95EventStore implements EventStore {
             Option<Long> afterSequenceNumber) throws SQLException {
 
         PreparedStatement statement = connection.prepareStatement("" +
-                "SELECT global_offset, event_id, aggregate_id, aggregate_type, causation_id, correlation_id, event_type, event_version, event_payload, event_timestamp, sequence_number " +
+                "SELECT " + EVENT_COLUMNS +
                 "FROM domain_event " +
                 "WHERE aggregate_id = ? AND aggregate_type = ? AND sequence_number > ? " +
                 "ORDER BY sequence_number");
@@ -412,7 +1131,7 @@ public class Postgres95EventStore implements EventStore {
             Integer batchSize) throws SQLException {
 
         PreparedStatement statement = connection.prepareStatement("" +
-                "SELECT global_offset, event_id, aggregate_id, aggregate_type, causation_id, correlation_id, event_type, event_version, event_payload, event_timestamp, sequence_number " +
+                "SELECT " + EVENT_COLUMNS +
                 "FROM domain_event " +
                 "WHERE aggregate_type = ? AND global_offset > ? " +
                 "ORDER BY global_offset " +
@@ -425,6 +1144,40 @@ public class Postgres95EventStore implements EventStore {
         return statement;
     }
 
+    private <A extends Aggregate<?, E, ?>, E extends DomainEvent> PreparedStatement createEventsForAggregateTypePreparedStatement(
+            Connection connection,
+            AggregateType<A, ?, E, ?> aggregateType,
+            Option<Long> afterOffset) throws SQLException {
+
+        PreparedStatement statement = connection.prepareStatement("" +
+                "SELECT " + EVENT_COLUMNS +
+                "FROM domain_event " +
+                "WHERE aggregate_type = ? AND global_offset > ? " +
+                "ORDER BY global_offset");
+
+        statement.setString(1, aggregateType.name());
+        statement.setLong(2, afterOffset.getOrElse(-1L));
+
+        return statement;
+    }
+
+    private PreparedStatement createEventsForTagPreparedStatement(
+            Connection connection,
+            DomainEventTag tag,
+            Option<Long> afterOffset) throws SQLException {
+
+        PreparedStatement statement = connection.prepareStatement("" +
+                "SELECT " + EVENT_COLUMNS +
+                "FROM domain_event " +
+                "WHERE tag = ? AND global_offset > ? " +
+                "ORDER BY global_offset");
+
+        statement.setString(1, tag.tag());
+        statement.setLong(2, afterOffset.getOrElse(-1L));
+
+        return statement;
+    }
+
     private <A extends Aggregate<?, E, State>, E extends DomainEvent, State> PreparedStatement createEventsForTagPreparedStatement(
             Connection connection,
             DomainEventTag tag,
@@ -432,7 +1185,7 @@ public class Postgres95EventStore implements EventStore {
             Integer batchSize) throws SQLException {
 
         PreparedStatement statement = connection.prepareStatement("" +
-                "SELECT global_offset, event_id, aggregate_id, aggregate_type, causation_id, correlation_id, event_type, event_version, event_payload, event_timestamp, sequence_number " +
+                "SELECT " + EVENT_COLUMNS +
                 "FROM domain_event " +
                 "WHERE tag = ? AND global_offset > ? " +
                 "ORDER BY global_offset " +
@@ -452,7 +1205,7 @@ public class Postgres95EventStore implements EventStore {
             Integer batchSize) throws SQLException {
 
         PreparedStatement statement = connection.prepareStatement("" +
-                "SELECT global_offset, event_id, aggregate_id, aggregate_type, causation_id, correlation_id, event_type, event_version, event_payload, event_timestamp, sequence_number " +
+                "SELECT " + EVENT_COLUMNS +
                 "FROM domain_event " +
                 "WHERE tag = ? AND event_timestamp > ? " +
                 "ORDER BY global_offset " +
@@ -478,10 +1231,24 @@ public class Postgres95EventStore implements EventStore {
         Option<CorrelationId> correlationId = CorrelationId.ofNullable(rs.getString(6));
         String eventType = rs.getString(7);
         Integer eventVersion = rs.getInt(8);
-        String serialisedEvent = rs.getString(9);
-        E rawEvent = payloadMapper.deserialiseEvent(serialisedEvent, eventType, eventVersion);
+        PayloadSerialisationResult serialisedEvent;
+        Lazy<E> rawEvent;
+        SerialisationContentType contentType = SerialisationContentType.fromValue(rs.getString(13));
+        byte[] binaryPayload = rs.getBytes(12);
+        // Payloads are only deserialised if the event itself is asked for, as many callers only need its metadata
+        if (binaryPayload != null) {
+            // Binary payloads go to the mapper as bytes, without being decoded to a String first
+            byte[] payload = PayloadCompression.decompress(binaryPayload);
+            serialisedEvent = PayloadSerialisationResult.of(payload, contentType, eventVersion);
+            rawEvent = Lazy.of(() -> payloadMapper.deserialiseEvent(payload, contentType, eventType, eventVersion));
+        } else {
+            String payload = rs.getString(9);
+            serialisedEvent = PayloadSerialisationResult.of(payload, SerialisationContentType.JSON, eventVersion);
+            rawEvent = Lazy.of(() -> payloadMapper.deserialiseEvent(payload, eventType, eventVersion));
+        }
         Instant timestamp = rs.getTimestamp(10).toInstant();
         Long sequenceNumber = rs.getLong(11);
+        String tag = rs.getString(14);
         return new PostgresEvent<>(
                 offset,
                 eventId,
@@ -489,6 +1256,8 @@ public class Postgres95EventStore implements EventStore {
                 aggregateType,
                 causationId,
                 correlationId,
+                eventType,
+                tag,
                 rawEvent,
                 serialisedEvent,
                 eventVersion,
@@ -496,6 +1265,28 @@ public class Postgres95EventStore implements EventStore {
                 sequenceNumber);
     }
 
+    private static class PostgresSnapshot<State> implements Snapshot<State> {
+
+        private Long sequenceNumber;
+
+        private State state;
+
+        private PostgresSnapshot(Long sequenceNumber, State state) {
+            this.sequenceNumber = sequenceNumber;
+            this.state = state;
+        }
+
+        @Override
+        public Long sequenceNumber() {
+            return sequenceNumber;
+        }
+
+        @Override
+        public State get() {
+            return state;
+        }
+    }
+
     private class PostgresEvent<A extends Aggregate<?, E, ?>, E extends DomainEvent>
             implements PersistedEvent<A, E> {
 
@@ -511,9 +1302,16 @@ public class Postgres95EventStore implements EventStore {
 
         private Option<CorrelationId> correlationId;
 
-        private E rawEvent;
+        private String eventTypeName;
+
+        private String tag;
+
+        private Lazy<E> rawEvent;
 
-        private String serialisedEvent;
+        private PayloadSerialisationResult serialisedEvent;
+
+        // Stream events carry the event serialised again, so that their payload is always of the current version
+        private Lazy<PayloadSerialisationResult> upgradedEvent = Lazy.of(() -> payloadMapper.serialiseEvent(rawEvent()));
 
         private Integer eventVersion;
 
@@ -528,8 +1326,10 @@ public class Postgres95EventStore implements EventStore {
                 AggregateType<A, ?, E, ?> aggregateType,
                 CausationId causationId,
                 Option<CorrelationId> correlationId,
-                E rawEvent,
-                String serialisedEvent,
+                String eventTypeName,
+                String tag,
+                Lazy<E> rawEvent,
+                PayloadSerialisationResult serialisedEvent,
                 Integer eventVersion,
                 Instant timestamp,
                 Long sequenceNumber) {
@@ -540,6 +1340,8 @@ public class Postgres95EventStore implements EventStore {
             this.aggregateType = aggregateType;
             this.causationId = causationId;
             this.correlationId = correlationId;
+            this.eventTypeName = eventTypeName;
+            this.tag = tag;
             this.rawEvent = rawEvent;
             this.serialisedEvent = serialisedEvent;
             this.eventVersion = eventVersion;
@@ -576,18 +1378,20 @@ public class Postgres95EventStore implements EventStore {
             return correlationId;
         }
 
+        /**
+         * Resolved from the stored type name and version where possible, so that it doesn't take deserialising the event.
+         */
         @Override
-        @SuppressWarnings("unchecked")
         public Class<E> eventType() {
-            return (Class<E>) rawEvent.getClass();
+            return eventTypeResolver.eventType(eventTypeName, eventVersion, this::rawEvent);
         }
 
         @Override
         public E rawEvent() {
-            return rawEvent;
+            return rawEvent.get();
         }
 
-        public String serialisedEvent() {
+        public PayloadSerialisationResult serialisedEvent() {
             return serialisedEvent;
         }
 
@@ -606,26 +1410,40 @@ public class Postgres95EventStore implements EventStore {
             return sequenceNumber;
         }
 
+        @Override
+        public Option<Integer> payloadSize() {
+            return Option.of(serialisedEvent.payloadBytes().length);
+        }
+
         @Override
         public String toString() {
             return "PostgresEvent{" +
                     "eventId=" + eventId +
                     ", aggregateId=" + aggregateId +
                     ", aggregateType=" + aggregateType +
-                    ", tag=" + rawEvent().tag().tag() +
+                    ", tag=" + tag +
                     ", causationId=" + causationId +
                     ", correlationId=" + correlationId +
-                    ", rawEvent=" + rawEvent +
-                    ", serialisedEvent='" + serialisedEvent + '\'' +
+                    ", rawEvent=" + rawEvent() +
+                    ", serialisedEvent='" + (serialisedEvent.contentType().isTextual() ? serialisedEvent.payload() : serialisedEvent.payloadBytes().length + " bytes") + '\'' +
                     ", eventVersion=" + eventVersion +
                     ", timestamp=" + timestamp +
                     ", sequenceNumber=" + sequenceNumber +
                     '}';
         }
 
-        public StreamEvent toStreamEvent() {
-            final PayloadSerialisationResult serialisedPayload = payloadMapper.serialiseEvent(rawEvent());
+        /**
+         * Deserialises and serialises the event again now, rather than when its stream event's payload is first asked for.
+         */
+        public PostgresEvent<A, E> upgraded() {
+            upgradedEvent.get();
+            return this;
+        }
 
+        /**
+         * The stream event's metadata comes from the row, so only asking for its payload deserialises the event.
+         */
+        public StreamEvent toStreamEvent() {
             return new StreamEvent() {
 
                 @Override
@@ -660,12 +1478,12 @@ public class Postgres95EventStore implements EventStore {
 
                 @Override
                 public String eventType() {
-                    return rawEvent.getClass().getName();
+                    return eventTypeName;
                 }
 
                 @Override
                 public String eventTag() {
-                    return rawEvent.tag().tag();
+                    return tag;
                 }
 
                 @Override
@@ -680,12 +1498,17 @@ public class Postgres95EventStore implements EventStore {
 
                 @Override
                 public String serialisedPayload() {
-                    return serialisedPayload.payload();
+                    return upgradedEvent.get().payload();
+                }
+
+                @Override
+                public ByteBuffer serialisedPayloadBuffer() {
+                    return ByteBuffer.wrap(upgradedEvent.get().payloadBytes());
                 }
 
                 @Override
                 public SerialisationContentType payloadContentType() {
-                    return serialisedPayload.contentType();
+                    return upgradedEvent.get().contentType();
                 }
             };
         }
@@ -0,0 +1,242 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres;
+
+import io.vavr.control.Option;
+
+import java.time.Duration;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Optional behaviour for a @see Postgres95EventStore. Instances are immutable, each with* method returns a copy.
+ */
+public class Postgres95EventStoreSettings {
+
+    /**
+     * The most events one single statement write can hold. Each event takes 13 bind parameters, checking the version
+     * and saving state take up to 10 more, and Postgres allows at most 32767 in a statement.
+     */
+    public static final int MAX_SINGLE_STATEMENT_EVENTS = (Short.MAX_VALUE - 10) / 13;
+
+    public static final int DEFAULT_SINGLE_STATEMENT_MAX_EVENTS = 100;
+
+    public static final int MAX_CATCH_UP_RECONNECT_ATTEMPTS = 100;
+
+    /**
+     * The longest catchUpEventStream waits before a reconnect attempt, however many attempts in a row it has made.
+     */
+    public static final Duration MAX_CATCH_UP_RECONNECT_BACKOFF = Duration.ofMinutes(5);
+
+    public static Postgres95EventStoreSettings defaults() {
+        return new Postgres95EventStoreSettings();
+    }
+
+    private Option<PayloadCompression> binaryPayloads = Option.none();
+
+    private boolean singleStatementWrites = false;
+
+    private int singleStatementMaxEvents = DEFAULT_SINGLE_STATEMENT_MAX_EVENTS;
+
+    private boolean uniqueSequenceNumberCheck = false;
+
+    private int catchUpFetchSize = 1000;
+
+    private int catchUpReconnectAttempts = 3;
+
+    private Duration catchUpReconnectBackoff = Duration.ofMillis(100);
+
+    private Option<Integer> parallelDeserialisationThreshold = Option.none();
+
+    private ForkJoinPool parallelDeserialisationPool = ForkJoinPool.commonPool();
+
+    private Postgres95EventStoreSettings() {
+
+    }
+
+    private Postgres95EventStoreSettings(Postgres95EventStoreSettings settings) {
+        this.binaryPayloads = settings.binaryPayloads;
+        this.singleStatementWrites = settings.singleStatementWrites;
+        this.singleStatementMaxEvents = settings.singleStatementMaxEvents;
+        this.uniqueSequenceNumberCheck = settings.uniqueSequenceNumberCheck;
+        this.catchUpFetchSize = settings.catchUpFetchSize;
+        this.catchUpReconnectAttempts = settings.catchUpReconnectAttempts;
+        this.catchUpReconnectBackoff = settings.catchUpReconnectBackoff;
+        this.parallelDeserialisationThreshold = settings.parallelDeserialisationThreshold;
+        this.parallelDeserialisationPool = settings.parallelDeserialisationPool;
+    }
+
+    /**
+     * Write event payloads to the BYTEA event_payload_binary column instead of the TEXT event_payload column. Reading
+     * is unaffected by this setting - events are always loaded from whichever column they were written to.
+     *
+     * @param compression how payloads should be compressed before being written
+     * @return a copy of these settings with binary payloads enabled
+     */
+    public Postgres95EventStoreSettings withBinaryPayloads(PayloadCompression compression) {
+        Postgres95EventStoreSettings settings = new Postgres95EventStoreSettings(this);
+        settings.binaryPayloads = Option.of(compression);
+        return settings;
+    }
+
+    /**
+     * @see #withSingleStatementWrites(int)
+     */
+    public Postgres95EventStoreSettings withSingleStatementWrites() {
+        return withSingleStatementWrites(DEFAULT_SINGLE_STATEMENT_MAX_EVENTS);
+    }
+
+    /**
+     * Save events and update aggregate_root using a single auto-committed statement (a writable CTE), rather than a
+     * batched insert, an update and a commit. Each save then costs one round trip to the database. A version mismatch
+     * still fails the save with an OptimisticConcurrencyException.
+     *
+     * Saves of more than maxEvents events are made the usual way instead. The statement's text depends on the number
+     * of events, so maxEvents also bounds how many distinct statements the driver and server prepare.
+     *
+     * @param maxEvents the most events to save in a single statement, at most MAX_SINGLE_STATEMENT_EVENTS
+     * @return a copy of these settings with single statement writes enabled
+     */
+    public Postgres95EventStoreSettings withSingleStatementWrites(int maxEvents) {
+        if (maxEvents < 1 || maxEvents > MAX_SINGLE_STATEMENT_EVENTS) {
+            throw new IllegalArgumentException("maxEvents must be between 1 and " + MAX_SINGLE_STATEMENT_EVENTS);
+        }
+        Postgres95EventStoreSettings settings = new Postgres95EventStoreSettings(this);
+        settings.singleStatementWrites = true;
+        settings.singleStatementMaxEvents = maxEvents;
+        return settings;
+    }
+
+    /**
+     * Detect concurrent modification using the unique index on domain_event (aggregate_type, aggregate_id,
+     * sequence_number), instead of checking and updating the version held in aggregate_root. Saves become insert-only,
+     * except that aggregate_root is still upserted (without a version check) when saving state. Aggregates saved without
+     * state therefore have no aggregate_root row.
+     *
+     * Each insert also requires the aggregate's latest sequence number to be the one before its own, read through the
+     * same index, so a save whose expected sequence number is ahead of the aggregate fails rather than leaving a gap.
+     *
+     * @return a copy of these settings with the unique sequence number check enabled
+     */
+    public Postgres95EventStoreSettings withUniqueSequenceNumberCheck() {
+        Postgres95EventStoreSettings settings = new Postgres95EventStoreSettings(this);
+        settings.uniqueSequenceNumberCheck = true;
+        return settings;
+    }
+
+    /**
+     * @param fetchSize the number of rows fetched from the cursor at a time by catchUpEventStream
+     * @return a copy of these settings with the given catch-up fetch size
+     */
+    public Postgres95EventStoreSettings withCatchUpFetchSize(int fetchSize) {
+        if (fetchSize < 1) {
+            throw new IllegalArgumentException("fetchSize must be at least 1");
+        }
+        Postgres95EventStoreSettings settings = new Postgres95EventStoreSettings(this);
+        settings.catchUpFetchSize = fetchSize;
+        return settings;
+    }
+
+    /**
+     * @param attempts the number of times in a row catchUpEventStream will reconnect, without reading any more events,
+     *                 before giving up
+     * @return a copy of these settings with the given number of catch-up reconnect attempts
+     */
+    public Postgres95EventStoreSettings withCatchUpReconnectAttempts(int attempts) {
+        if (attempts < 0 || attempts > MAX_CATCH_UP_RECONNECT_ATTEMPTS) {
+            throw new IllegalArgumentException("attempts must be between 0 and " + MAX_CATCH_UP_RECONNECT_ATTEMPTS);
+        }
+        Postgres95EventStoreSettings settings = new Postgres95EventStoreSettings(this);
+        settings.catchUpReconnectAttempts = attempts;
+        return settings;
+    }
+
+    /**
+     * @param backoff how long catchUpEventStream waits before its first reconnect attempt, doubling for each further
+     *                attempt in a row up to MAX_CATCH_UP_RECONNECT_BACKOFF, so that a restarting or failing over server
+     *                isn't retried in a tight loop
+     * @return a copy of these settings with the given catch-up reconnect backoff
+     */
+    public Postgres95EventStoreSettings withCatchUpReconnectBackoff(Duration backoff) {
+        if (backoff.isNegative() || backoff.compareTo(MAX_CATCH_UP_RECONNECT_BACKOFF) > 0) {
+            throw new IllegalArgumentException("backoff must be between 0 and " + MAX_CATCH_UP_RECONNECT_BACKOFF);
+        }
+        Postgres95EventStoreSettings settings = new Postgres95EventStoreSettings(this);
+        settings.catchUpReconnectBackoff = backoff;
+        return settings;
+    }
+
+    /**
+     * @see #withParallelDeserialisation(int, ForkJoinPool)
+     */
+    public Postgres95EventStoreSettings withParallelDeserialisation(int threshold) {
+        return withParallelDeserialisation(threshold, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Deserialise the events of a load, stream page or catch-up fetch in parallel once there are at least threshold of
+     * them. Rows are read first, then deserialised on the pool, and are still returned in order. Smaller batches are
+     * deserialised on the calling thread, as before.
+     *
+     * catchUpEventStream then holds each fetch, of up to the catch-up fetch size, in memory until it has been passed to
+     * the consumer, and keeps its cursor open while the fetch is deserialised.
+     *
+     * @param threshold the smallest number of events to deserialise in parallel
+     * @param pool the pool to deserialise events on
+     * @return a copy of these settings with parallel deserialisation enabled
+     */
+    public Postgres95EventStoreSettings withParallelDeserialisation(int threshold, ForkJoinPool pool) {
+        if (threshold < 2) {
+            throw new IllegalArgumentException("threshold must be at least 2");
+        }
+        Postgres95EventStoreSettings settings = new Postgres95EventStoreSettings(this);
+        settings.parallelDeserialisationThreshold = Option.of(threshold);
+        settings.parallelDeserialisationPool = pool;
+        return settings;
+    }
+
+    public Option<PayloadCompression> binaryPayloads() {
+        return binaryPayloads;
+    }
+
+    public boolean singleStatementWrites() {
+        return singleStatementWrites;
+    }
+
+    public int singleStatementMaxEvents() {
+        return singleStatementMaxEvents;
+    }
+
+    public boolean uniqueSequenceNumberCheck() {
+        return uniqueSequenceNumberCheck;
+    }
+
+    public int catchUpFetchSize() {
+        return catchUpFetchSize;
+    }
+
+    public int catchUpReconnectAttempts() {
+        return catchUpReconnectAttempts;
+    }
+
+    public Duration catchUpReconnectBackoff() {
+        return catchUpReconnectBackoff;
+    }
+
+    /**
+     * @param attempt the number of reconnect attempts already made in a row
+     * @return how long to wait before the next reconnect attempt
+     */
+    public Duration catchUpReconnectBackoff(int attempt) {
+        Duration backoff = catchUpReconnectBackoff;
+        for (int i = 0; i < attempt && !backoff.isZero() && backoff.compareTo(MAX_CATCH_UP_RECONNECT_BACKOFF) < 0; i++) {
+            backoff = backoff.multipliedBy(2);
+        }
+        return backoff.compareTo(MAX_CATCH_UP_RECONNECT_BACKOFF) < 0 ? backoff : MAX_CATCH_UP_RECONNECT_BACKOFF;
+    }
+
+    public Option<Integer> parallelDeserialisationThreshold() {
+        return parallelDeserialisationThreshold;
+    }
+
+    public ForkJoinPool parallelDeserialisationPool() {
+        return parallelDeserialisationPool;
+    }
+}
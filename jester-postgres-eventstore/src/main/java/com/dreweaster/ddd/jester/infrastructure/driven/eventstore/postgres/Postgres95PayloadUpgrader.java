@@ -0,0 +1,346 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres;
+
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper;
+import com.dreweaster.ddd.jester.application.eventstore.PayloadMapper.PayloadSerialisationResult;
+import com.dreweaster.ddd.jester.application.eventstore.SerialisationContentType;
+import com.dreweaster.ddd.jester.domain.DomainEvent;
+import io.vavr.Tuple2;
+import io.vavr.collection.List;
+import io.vavr.concurrent.Future;
+import io.vavr.control.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rewrites domain_event rows that were written with an old event version or class name so that they hold the current
+ * version, as produced by the PayloadMapper. Reading those events then no longer has to run any migrations.
+ *
+ * The events written so far are split into contiguous offset ranges, which are upgraded in parallel a batch at a time.
+ * Each batch is committed along with its range's checkpoint in payload_upgrade_checkpoint, so an upgrade that is
+ * interrupted carries on where it left off the next time it is run. Upgrading only replaces a payload with an
+ * equivalent one, so it is safe to run alongside the event store.
+ *
+ * Events that can't be deserialised, or serialised again, are logged and left as they are.
+ *
+ * Requires the payload_upgrade_checkpoint table created by the migrations in jester-example.
+ */
+public class Postgres95PayloadUpgrader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Postgres95PayloadUpgrader.class);
+
+    private DataSource dataSource;
+
+    private ExecutorService executorService;
+
+    private PayloadMapper payloadMapper;
+
+    private Postgres95EventStoreSettings settings;
+
+    // Whether each event type and version seen so far is current, so that current rows aren't deserialised again
+    private ConcurrentHashMap<Tuple2<String, Integer>, Boolean> currentVersions = new ConcurrentHashMap<>();
+
+    /**
+     * @param settings the settings of the event store, which decide which column upgraded payloads are written to
+     */
+    public Postgres95PayloadUpgrader(
+            DataSource dataSource,
+            ExecutorService executorService,
+            PayloadMapper payloadMapper,
+            Postgres95EventStoreSettings settings) {
+        this.dataSource = dataSource;
+        this.executorService = executorService;
+        this.payloadMapper = payloadMapper;
+        this.settings = settings;
+    }
+
+    /**
+     * Resumes the last upgrade if it didn't finish, otherwise starts a new one covering every event written so far.
+     *
+     * @param parallelism the number of offset ranges to upgrade at once, when starting a new upgrade
+     * @param batchSize the number of events to read, and commit, at a time
+     * @param maxEventsPerSecond the most events to read per second across all ranges, or 0 for no limit
+     * @return the number of events upgraded
+     */
+    public Future<Long> upgrade(int parallelism, int batchSize, int maxEventsPerSecond) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        if (maxEventsPerSecond < 0) {
+            throw new IllegalArgumentException("maxEventsPerSecond cannot be negative");
+        }
+
+        Throttle throttle = new Throttle(maxEventsPerSecond);
+
+        return Future.of(executorService, () -> planRanges(parallelism)).flatMap(ranges ->
+                Future.sequence(ranges.map(range -> Future.of(executorService, () -> upgradeRange(range, batchSize, throttle))))
+                        .map(upgraded -> upgraded.fold(0L, Long::sum)));
+    }
+
+    private List<Range> planRanges(int parallelism) throws SQLException {
+        try (Connection con = dataSource.getConnection()) {
+            boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit(false);
+
+            try {
+                List<Range> ranges = loadRanges(con);
+
+                if (ranges.forAll(Range::isComplete)) {
+                    ranges = createRanges(con, parallelism);
+                }
+
+                con.commit();
+                return ranges.filter(range -> !range.isComplete());
+            } catch (SQLException ex) {
+                con.rollback();
+                throw ex;
+            } finally {
+                con.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private List<Range> loadRanges(Connection con) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("SELECT range_end, last_offset FROM payload_upgrade_checkpoint");
+             ResultSet rs = ps.executeQuery()) {
+
+            ArrayList<Range> ranges = new ArrayList<>();
+            while (rs.next()) {
+                ranges.add(new Range(rs.getLong(1), rs.getLong(2)));
+            }
+            return List.ofAll(ranges);
+        }
+    }
+
+    private List<Range> createRanges(Connection con, int parallelism) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("DELETE FROM payload_upgrade_checkpoint")) {
+            ps.executeUpdate();
+        }
+
+        long firstOffset;
+        long lastOffset;
+        try (PreparedStatement ps = con.prepareStatement("SELECT MIN(global_offset), MAX(global_offset) FROM domain_event");
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            firstOffset = rs.getLong(1);
+            lastOffset = rs.getLong(2);
+            if (rs.wasNull()) {
+                return List.empty();
+            }
+        }
+
+        long rangeSize = Math.max(1, (lastOffset - firstOffset + parallelism) / parallelism);
+        ArrayList<Range> ranges = new ArrayList<>();
+        for (long rangeStart = firstOffset - 1; rangeStart < lastOffset; rangeStart += rangeSize) {
+            ranges.add(new Range(Math.min(rangeStart + rangeSize, lastOffset), rangeStart));
+        }
+
+        try (PreparedStatement ps = con.prepareStatement("INSERT INTO payload_upgrade_checkpoint (range_end, last_offset) VALUES (?,?)")) {
+            for (Range range : ranges) {
+                ps.setLong(1, range.end);
+                ps.setLong(2, range.lastOffset);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+
+        return List.ofAll(ranges);
+    }
+
+    private Long upgradeRange(Range range, int batchSize, Throttle throttle) throws SQLException, InterruptedException {
+        long upgraded = 0;
+        long lastOffset = range.lastOffset;
+
+        while (lastOffset < range.end) {
+            throttle.acquire(batchSize);
+
+            try (Connection con = dataSource.getConnection()) {
+                boolean autoCommit = con.getAutoCommit();
+                con.setAutoCommit(false);
+
+                try {
+                    ArrayList<Upgrade> upgrades = new ArrayList<>();
+                    int read = 0;
+
+                    try (PreparedStatement ps = createBatchPreparedStatement(con, lastOffset, range.end, batchSize);
+                         ResultSet rs = ps.executeQuery()) {
+
+                        while (rs.next()) {
+                            read++;
+                            lastOffset = rs.getLong(1);
+                            upgradeRow(rs).forEach(upgrades::add);
+                        }
+                    }
+
+                    // A short batch means there is nothing left in the range
+                    if (read < batchSize) {
+                        lastOffset = range.end;
+                    }
+
+                    saveUpgrades(con, upgrades);
+                    saveCheckpoint(con, range.end, lastOffset);
+                    con.commit();
+                    upgraded += upgrades.size();
+                } catch (Throwable ex) {
+                    con.rollback();
+                    throw ex;
+                } finally {
+                    con.setAutoCommit(autoCommit);
+                }
+            }
+        }
+
+        return upgraded;
+    }
+
+    private PreparedStatement createBatchPreparedStatement(Connection con, long afterOffset, long rangeEnd, int batchSize) throws SQLException {
+        PreparedStatement statement = con.prepareStatement("" +
+                "SELECT global_offset, event_type, event_version, event_payload, event_payload_binary, event_payload_content_type " +
+                "FROM domain_event " +
+                "WHERE global_offset > ? AND global_offset <= ? " +
+                "ORDER BY global_offset " +
+                "LIMIT ?");
+
+        statement.setLong(1, afterOffset);
+        statement.setLong(2, rangeEnd);
+        statement.setInt(3, batchSize);
+        return statement;
+    }
+
+    private Option<Upgrade> upgradeRow(ResultSet rs) throws SQLException {
+        String eventType = rs.getString(2);
+        Integer eventVersion = rs.getInt(3);
+        Tuple2<String, Integer> key = new Tuple2<>(eventType, eventVersion);
+
+        if (Boolean.TRUE.equals(currentVersions.get(key))) {
+            return Option.none();
+        }
+
+        long offset = rs.getLong(1);
+        DomainEvent rawEvent;
+        PayloadSerialisationResult serialisationResult;
+        try {
+            byte[] binaryPayload = rs.getBytes(5);
+            rawEvent = binaryPayload != null
+                    ? payloadMapper.deserialiseEvent(
+                            PayloadCompression.decompress(binaryPayload),
+                            SerialisationContentType.fromValue(rs.getString(6)),
+                            eventType,
+                            eventVersion)
+                    : payloadMapper.deserialiseEvent(rs.getString(4), eventType, eventVersion);
+            serialisationResult = payloadMapper.serialiseEvent(rawEvent);
+        } catch (RuntimeException ex) {
+            // Left as it is, so that one bad row doesn't hold up the rest of its range
+            LOGGER.warn("Skipping event at offset " + offset + ", which can't be upgraded from " + eventType + " version " + eventVersion, ex);
+            return Option.none();
+        }
+
+        String currentEventType = rawEvent.getClass().getName();
+        Integer currentEventVersion = serialisationResult.version().getOrElse(1);
+        boolean current = currentEventType.equals(eventType) && currentEventVersion.equals(eventVersion);
+        currentVersions.putIfAbsent(key, current);
+
+        return current
+                ? Option.none()
+                : Option.of(new Upgrade(offset, currentEventType, currentEventVersion, serialisationResult));
+    }
+
+    private void saveUpgrades(Connection con, ArrayList<Upgrade> upgrades) throws SQLException {
+        if (upgrades.isEmpty()) {
+            return;
+        }
+
+        try (PreparedStatement ps = con.prepareStatement("" +
+                "UPDATE domain_event " +
+                "SET event_type = ?, event_version = ?, event_payload = ?, event_payload_binary = ?, event_payload_content_type = ? " +
+                "WHERE global_offset = ?")) {
+
+            for (Upgrade upgrade : upgrades) {
+                PayloadSerialisationResult serialisedEvent = upgrade.serialisedEvent;
+                ps.setString(1, upgrade.eventType);
+                ps.setInt(2, upgrade.eventVersion);
+                PayloadColumns.setPayloadParameters(ps, 3, 4, serialisedEvent, settings);
+                ps.setString(5, serialisedEvent.contentType().value());
+                ps.setLong(6, upgrade.offset);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private void saveCheckpoint(Connection con, long rangeEnd, long lastOffset) throws SQLException {
+        try (PreparedStatement ps = con.prepareStatement("UPDATE payload_upgrade_checkpoint SET last_offset = ? WHERE range_end = ?")) {
+            ps.setLong(1, lastOffset);
+            ps.setLong(2, rangeEnd);
+            ps.executeUpdate();
+        }
+    }
+
+    private static class Range {
+
+        private long end;
+
+        private long lastOffset;
+
+        private Range(long end, long lastOffset) {
+            this.end = end;
+            this.lastOffset = lastOffset;
+        }
+
+        private boolean isComplete() {
+            return lastOffset >= end;
+        }
+    }
+
+    private static class Upgrade {
+
+        private long offset;
+
+        private String eventType;
+
+        private Integer eventVersion;
+
+        private PayloadSerialisationResult serialisedEvent;
+
+        private Upgrade(long offset, String eventType, Integer eventVersion, PayloadSerialisationResult serialisedEvent) {
+            this.offset = offset;
+            this.eventType = eventType;
+            this.eventVersion = eventVersion;
+            this.serialisedEvent = serialisedEvent;
+        }
+    }
+
+    /**
+     * Spaces out batches so that, across all ranges, no more than a given number of events are read per second.
+     */
+    private static class Throttle {
+
+        private long nanosPerEvent;
+
+        private AtomicLong nextBatchAt = new AtomicLong(System.nanoTime());
+
+        private Throttle(int maxEventsPerSecond) {
+            this.nanosPerEvent = maxEventsPerSecond == 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / maxEventsPerSecond;
+        }
+
+        private void acquire(int events) throws InterruptedException {
+            if (nanosPerEvent == 0) {
+                return;
+            }
+
+            long now = System.nanoTime();
+            long batchAt = Math.max(now, nextBatchAt.getAndAccumulate(events * nanosPerEvent, (next, cost) -> Math.max(next, now) + cost));
+            TimeUnit.NANOSECONDS.sleep(batchAt - now);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres
+
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+
+import com.dreweaster.ddd.jester.infrastructure.driven.eventstore.postgres.PayloadCompression.UnknownPayloadCodecException
+import org.scalatest.{FeatureSpec, GivenWhenThen, Matchers}
+
+class PayloadCompressionTest extends FeatureSpec with GivenWhenThen with Matchers {
+
+  val smallPayload = """{"username":"joebloggs"}""".getBytes(StandardCharsets.UTF_8)
+
+  val largePayload = ("""{"username":"joebloggs","password":"password"}""" * 100).getBytes(StandardCharsets.UTF_8)
+
+  // Random bytes, which LZ4 can't make any smaller
+  val incompressiblePayload = {
+    val bytes = new Array[Byte](1024)
+    new scala.util.Random(1).nextBytes(bytes)
+    bytes
+  }
+
+  feature("Storing payloads uncompressed") {
+
+    scenario("Store a payload as-is behind the codec byte") {
+      When("compressing a payload with no compression")
+      val stored = PayloadCompression.none().compress(largePayload)
+
+      Then("it should be stored as-is, behind the uncompressed codec byte")
+      stored.length should be(largePayload.length + 1)
+      stored(0) should be(0)
+      stored.drop(1) should be(largePayload)
+
+      And("it should decompress back to the payload")
+      PayloadCompression.decompress(stored) should be(largePayload)
+    }
+  }
+
+  feature("Compressing payloads with LZ4") {
+
+    scenario("Compress a payload at least as large as the threshold") {
+      When("compressing a payload at least as large as the threshold")
+      val stored = PayloadCompression.lz4(largePayload.length).compress(largePayload)
+
+      Then("it should be stored behind the LZ4 codec byte and the payload's uncompressed length")
+      stored.length should be < largePayload.length
+      stored(0) should be(1)
+      ByteBuffer.wrap(stored, 1, 4).getInt should be(largePayload.length)
+
+      And("it should decompress back to the payload")
+      PayloadCompression.decompress(stored) should be(largePayload)
+    }
+
+    scenario("Store a payload smaller than the threshold uncompressed") {
+      When("compressing a payload smaller than the threshold")
+      val stored = PayloadCompression.lz4(smallPayload.length + 1).compress(smallPayload)
+
+      Then("it should be stored as-is, behind the uncompressed codec byte")
+      stored(0) should be(0)
+      PayloadCompression.decompress(stored) should be(smallPayload)
+    }
+
+    scenario("Store a payload that doesn't get any smaller uncompressed") {
+      When("compressing a payload that LZ4 can't make smaller")
+      val stored = PayloadCompression.lz4(0).compress(incompressiblePayload)
+
+      Then("it should be stored as-is, behind the uncompressed codec byte")
+      stored.length should be(incompressiblePayload.length + 1)
+      stored(0) should be(0)
+      PayloadCompression.decompress(stored) should be(incompressiblePayload)
+    }
+
+    scenario("Compress an empty payload") {
+      PayloadCompression.decompress(PayloadCompression.lz4(0).compress(new Array[Byte](0))) should be(empty)
+    }
+
+    scenario("Refuse a negative threshold") {
+      an[IllegalArgumentException] should be thrownBy PayloadCompression.lz4(-1)
+    }
+  }
+
+  feature("Reading stored payloads") {
+
+    scenario("Read payloads written with different settings") {
+      Given("payloads stored with no compression and with LZ4")
+      val uncompressed = PayloadCompression.none().compress(largePayload)
+      val compressed = PayloadCompression.lz4(0).compress(largePayload)
+
+      Then("both should decompress to the same payload")
+      PayloadCompression.decompress(uncompressed) should be(largePayload)
+      PayloadCompression.decompress(compressed) should be(largePayload)
+    }
+
+    scenario("Refuse a payload written with an unknown codec") {
+      an[UnknownPayloadCodecException] should be thrownBy PayloadCompression.decompress(Array[Byte](7, 1, 2, 3))
+    }
+  }
+}